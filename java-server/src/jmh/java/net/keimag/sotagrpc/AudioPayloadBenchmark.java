@@ -0,0 +1,64 @@
+package net.keimag.sotagrpc;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import net.keimag.sotagrpc.v1.robotlib.PlayAudioRequest;
+import net.keimag.sotagrpc.v1.robotlib.StopRecordingResponse;
+import net.keimag.sotagrpc.v1.sotatalk.GetTTSDataResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 音声データ(wav)を扱うRPCでのByteStringのコピー
+ *
+ * PlaybackServiceImpl.playAudio: request.getAudioData().toByteArray()
+ * TextToSpeechServiceImpl.getTTSData / RecordingServiceImpl.stopRecording: ByteString.copyFrom(byte[])
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class AudioPayloadBenchmark {
+    /** 音声データのバイト数 (16kHz/16bit/monoで約1秒、約30秒、約3分) */
+    @Param({"32000", "1000000", "6000000"})
+    public int size;
+
+    private byte[] wav;
+    private PlayAudioRequest playAudioRequest;
+
+    @Setup
+    public void setUp() {
+        wav = WavHeader.silence(16000, 1, size / 32);
+        playAudioRequest = PlayAudioRequest.newBuilder().setAudioData(ByteString.copyFrom(wav)).build();
+    }
+
+    @Benchmark
+    public byte[] playAudioToByteArray() {
+        return playAudioRequest.getAudioData().toByteArray();
+    }
+
+    @Benchmark
+    public GetTTSDataResponse ttsResponseCopyFrom() {
+        return GetTTSDataResponse.newBuilder().setAudioData(ByteString.copyFrom(wav)).build();
+    }
+
+    @Benchmark
+    public StopRecordingResponse recordingResponseCopyFrom() {
+        return StopRecordingResponse.newBuilder().setAudioData(ByteString.copyFrom(wav)).build();
+    }
+
+    /**
+     * 比較用: コピーせずにbyte[]を包む場合
+     */
+    @Benchmark
+    public GetTTSDataResponse ttsResponseUnsafeWrap() {
+        return GetTTSDataResponse.newBuilder().setAudioData(UnsafeByteOperations.unsafeWrap(wav)).build();
+    }
+}
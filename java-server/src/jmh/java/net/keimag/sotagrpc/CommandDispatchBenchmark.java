@@ -0,0 +1,58 @@
+package net.keimag.sotagrpc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * gRPCスレッド → commandQueue → Sota Thread → CompletableFuture の往復にかかる時間
+ *
+ * SotaLibの処理時間を除いた、ディスパッチ機構そのもののオーバーヘッドを計測する。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class CommandDispatchBenchmark {
+    private SotaTaskQueue commandQueue;
+    private Thread sotaThread;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SimulatedSotaBackend.Config config = new SimulatedSotaBackend.Config();
+        config.commandLatencyMs = 0;
+        Main.SotaContext sotaContext = new Main.SotaContext(new SimulatedSotaBackend(config));
+        commandQueue = new SotaTaskQueue();
+        sotaThread = new Thread(() -> {
+            try {
+                while (true) {
+                    commandQueue.take().execute(sotaContext);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "Sota Thread");
+        sotaThread.setDaemon(true);
+        sotaThread.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        sotaThread.interrupt();
+    }
+
+    @Benchmark
+    public Boolean roundTrip() throws Exception {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        commandQueue.put(new Main.SotaTask<>((sotaContext) -> sotaContext.backend.isEndInterpAll(), future));
+        return future.get();
+    }
+}
@@ -0,0 +1,82 @@
+package net.keimag.sotagrpc;
+
+import net.keimag.sotagrpc.v1.robotlib.Color;
+import net.keimag.sotagrpc.v1.robotlib.LedState;
+import net.keimag.sotagrpc.v1.robotlib.PlayPoseRequest;
+import net.keimag.sotagrpc.v1.robotlib.Pose;
+import net.keimag.sotagrpc.v1.robotlib.Servo;
+import net.keimag.sotagrpc.v1.robotlib.ServoID;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MotionServiceImplのprotobuf ⇔ SotaLib型の変換
+ *
+ * playPose: PlayPoseRequest → byte[]/short[] (PoseConverter) → Byte[]/Short[] → CRobotPose
+ * getCurrentPose: Short[]/Byte[] → Pose (止まっている場合は前回のPose、動いている場合は新しいPose)
+ *
+ * 確保するメモリの量は -prof gc (gc.alloc.rate.norm) で確認する。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class PoseConversionBenchmark {
+    private PlayPoseRequest request;
+    private Byte[] ids;
+    private Short[] angles;
+    private Short[][] movingAngles;
+    private int movingIndex;
+    private SotaBackend conversionBackend;
+    private Blackhole blackhole;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        Pose.Builder pose = Pose.newBuilder();
+        ServoID[] servoIds = {ServoID.BODY_Y, ServoID.L_SHOULDER, ServoID.L_ELBOW, ServoID.R_SHOULDER,
+                ServoID.R_ELBOW, ServoID.HEAD_Y, ServoID.HEAD_P, ServoID.HEAD_R};
+        for (int i = 0; i < servoIds.length; i++) {
+            pose.addServos(Servo.newBuilder().setId(servoIds[i]).setAngle(i * 100 - 400));
+        }
+        Color red = Color.newBuilder().setRed(255).build();
+        pose.setLed(LedState.newBuilder().setLeftEye(red).setRightEye(red).setMouth(255).setPowerButton(red));
+        request = PlayPoseRequest.newBuilder().setPose(pose).setTimeMs(1000).build();
+
+        ids = new Byte[]{1, 2, 3, 4, 5, 6, 7, 8};
+        angles = new Short[]{0, -900, 0, 900, 0, 0, 0, 0};
+        movingAngles = new Short[][]{angles, {0, -890, 0, 890, 0, 10, 0, 0}};
+
+        // CSotaMotion.playの直前 (CRobotPoseの作成) までを実行するバックエンド
+        conversionBackend = new SimulatedSotaBackend(new SimulatedSotaBackend.Config()) {
+            @Override
+            public boolean play(byte[] ids, short[] angles, int count, Led led, int timeMs) {
+                PoseConversionBenchmark.this.blackhole.consume(RobotSotaBackend.toCRobotPose(ids, angles, count, led));
+                return true;
+            }
+        };
+    }
+
+    @Benchmark
+    public boolean playPoseRequestToCRobotPose() {
+        return MotionServiceImpl.applyPose(conversionBackend, request);
+    }
+
+    @Benchmark
+    public Pose readposToPose() {
+        return MotionServiceImpl.toPose(ids, angles);
+    }
+
+    @Benchmark
+    public Pose readposToPoseMoving() {
+        movingIndex ^= 1;
+        return MotionServiceImpl.toPose(ids, movingAngles[movingIndex]);
+    }
+}
@@ -0,0 +1,95 @@
+package net.keimag.sotagrpc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * モーションのタスクでキューが飽和しているときに、ServoOffが実行されるまでの時間
+ *
+ * 常にbacklog件のBULKタスク (1件あたりbulkTaskMs) がキューに溜まった状態を保ち、
+ * SAFETYのタスクを投入してから完了するまでの時間の分布 (p100 = 最悪値) を計測する。
+ * scheduling=FIFO は優先度を使わない従来の動作 (ServoOffもBULKとして並ぶ) との比較用。
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class SafetyLatencyBenchmark {
+    @Param({"PRIORITY", "FIFO"})
+    public String scheduling;
+
+    @Param({"10"})
+    public int bulkTaskMs;
+
+    @Param({"20"})
+    public int backlog;
+
+    private SotaTaskQueue commandQueue;
+    private Thread sotaThread;
+    private Thread feederThread;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SimulatedSotaBackend.Config config = new SimulatedSotaBackend.Config();
+        config.commandLatencyMs = 0;
+        Main.SotaContext sotaContext = new Main.SotaContext(new SimulatedSotaBackend(config));
+        commandQueue = new SotaTaskQueue();
+        sotaThread = new Thread(() -> {
+            try {
+                while (true) {
+                    commandQueue.take().execute(sotaContext);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "Sota Thread");
+        feederThread = new Thread(() -> {
+            try {
+                while (true) {
+                    while (commandQueue.size(Main.SotaTask.Priority.BULK) < backlog) {
+                        commandQueue.put(new Main.SotaTask<Void>(Main.SotaTask.Priority.BULK,
+                                (context) -> {
+                                    context.backend.playScene("TALK", bulkTaskMs);
+                                    return null;
+                                }, new CompletableFuture<>()));
+                    }
+                    Thread.sleep(1);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "Feeder Thread");
+        sotaThread.setDaemon(true);
+        feederThread.setDaemon(true);
+        sotaThread.start();
+        feederThread.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        feederThread.interrupt();
+        sotaThread.interrupt();
+    }
+
+    @Benchmark
+    public Void servoOff() throws Exception {
+        Main.SotaTask.Priority priority = "FIFO".equals(scheduling) ? Main.SotaTask.Priority.BULK : Main.SotaTask.Priority.SAFETY;
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        commandQueue.put(new Main.SotaTask<>(priority,
+                (context) -> {
+                    context.backend.servoOff();
+                    return null;
+                }, future));
+        return future.get();
+    }
+}
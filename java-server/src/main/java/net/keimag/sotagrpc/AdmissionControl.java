@@ -0,0 +1,107 @@
+package net.keimag.sotagrpc;
+
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 過負荷のときに、Sota Threadを使うRPCを受け付ける前に拒否する (受付制御)
+ *
+ * RPCごとに、そのRPCが作るタスクの優先度と平均実行時間 (Metrics) を覚えておき、
+ * 同じかより高い優先度の実行待ちのタスクの実行時間の合計 (待ち時間の見積もり、Metrics.estimatedDelayNanos) がmaxDelayNanosを超えていれば、
+ * またはキューのタスク数がmaxQueuedTasksに達していれば、RESOURCE_EXHAUSTEDで拒否する。
+ * 受け付けたコマンドの待ち時間は、見積もりの範囲に収まる (キューが際限なく伸びない)。
+ *
+ * 拒否したRPCには、待ち時間の見積もりが上限を下回るまでの時間をトレーラーgrpc-retry-pushback-msで返す
+ * (gRPCのリトライポリシーを設定したクライアントは、その時間の後に自動的にリトライする)。
+ * 拒否したクライアントが一斉にリトライしないように、時間は最大1.5倍までばらつかせる。
+ * 確認はリクエストを受け取り終えた時点 (ハンドラーがタスクをキューに入れる直前) に行う
+ * (呼び出しの開始時に確認すると、同時に届いた呼び出しが全て、どれもキューに入る前の見積もりで受け付けられてしまう)。
+ * SAFETYのタスクを作るRPC (ServoOffなどの緊急停止) と、まだタスクを作ったことのないRPCは拒否しない。
+ * 呼び出しの外で作られるタスク (ミキサー、発話の再生など) はキューに入れる前に確認しないので、上限は目安になる。
+ */
+public class AdmissionControl {
+    /** リトライするまでの時間 (ms)。gRPCのリトライポリシーが解釈する */
+    public static final Metadata.Key<String> RETRY_PUSHBACK_KEY = Metadata.Key.of("grpc-retry-pushback-ms", Metadata.ASCII_STRING_MARSHALLER);
+    /** 返すリトライまでの最短の時間 */
+    private static final long MIN_PUSHBACK_MILLIS = 50;
+
+    private final Metrics metrics;
+    private final SotaTaskQueue commandQueue;
+    private final long maxDelayNanos;
+    private final int maxQueuedTasks;
+
+    /**
+     * @param maxDelayNanos  受け付ける待ち時間の見積もりの上限 (0以下で制限しない)
+     * @param maxQueuedTasks 受け付けるキューのタスク数の上限 (0以下で制限しない)
+     */
+    public AdmissionControl(Metrics metrics, long maxDelayNanos, int maxQueuedTasks) {
+        this.metrics = metrics;
+        this.commandQueue = metrics.getCommandQueue();
+        this.maxDelayNanos = maxDelayNanos;
+        this.maxQueuedTasks = maxQueuedTasks;
+    }
+
+    /**
+     * @return 受け付ける場合はnull、拒否する場合はその理由のステータス (トレーラーはpushbackに入れる)
+     */
+    public Status check(Metrics.MethodMetrics method, Metadata pushback) {
+        Main.SotaTask.Priority priority = method != null ? method.getPriority() : null;
+        if (priority == null || priority == Main.SotaTask.Priority.SAFETY) {
+            return null;
+        }
+        if (maxQueuedTasks > 0 && commandQueue.size() >= maxQueuedTasks) {
+            pushback.put(RETRY_PUSHBACK_KEY, Long.toString(
+                    Math.max(TimeUnit.NANOSECONDS.toMillis(metrics.estimatedDelayNanos(priority)), MIN_PUSHBACK_MILLIS)));
+            return Status.RESOURCE_EXHAUSTED.withDescription("Sota is busy: " + maxQueuedTasks + " tasks are already queued.");
+        }
+        if (maxDelayNanos <= 0) {
+            return null;
+        }
+        long delayNanos = metrics.estimatedDelayNanos(priority) + method.getExecution().getMeanNanos();
+        if (delayNanos <= maxDelayNanos) {
+            return null;
+        }
+        // 待ち時間の見積もりが上限を下回るまで (超えた分が実行されるまで) 待ってもらう
+        long retryAfterMillis = Math.max(TimeUnit.NANOSECONDS.toMillis(delayNanos - maxDelayNanos), MIN_PUSHBACK_MILLIS);
+        retryAfterMillis += ThreadLocalRandom.current().nextLong(retryAfterMillis / 2 + 1);
+        pushback.put(RETRY_PUSHBACK_KEY, Long.toString(retryAfterMillis));
+        return Status.RESOURCE_EXHAUSTED.withDescription(String.format(
+                "Sota is busy: estimated queueing delay %d ms exceeds %d ms. Retry after %d ms.",
+                TimeUnit.NANOSECONDS.toMillis(delayNanos), TimeUnit.NANOSECONDS.toMillis(maxDelayNanos), retryAfterMillis));
+    }
+
+    /**
+     * 過負荷のときにRPCを拒否するServerInterceptor
+     * (RPCの計測値を使うため、Metricsのinterceptor()より内側に登録すること)
+     */
+    public ServerInterceptor interceptor() {
+        return new ServerInterceptor() {
+            @Override
+            public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+                Metrics.MethodMetrics method = Metrics.current();
+                if (method == null || method.getPriority() == null || method.getPriority() == Main.SotaTask.Priority.SAFETY) {
+                    return next.startCall(call, headers);
+                }
+                return new ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT>(next.startCall(call, headers)) {
+                    @Override
+                    public void onHalfClose() {
+                        Metadata trailers = new Metadata();
+                        Status rejection = check(method, trailers);
+                        if (rejection != null) {
+                            call.close(rejection, trailers);
+                            return;
+                        }
+                        super.onHalfClose();
+                    }
+                };
+            }
+        };
+    }
+}
@@ -0,0 +1,510 @@
+package net.keimag.sotagrpc;
+
+import com.google.protobuf.ByteString;
+import jp.vstone.RobotLib.CRobotUtil;
+import net.keimag.sotagrpc.v1.robotlib.AudioCategory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 複数の音声を1つの出力にまとめて再生するミキサー
+ *
+ * 音声ごとにCPlayWaveを使う代わりに、1つのスレッド (Audio Mixer) が全ての音声を足し合わせて、1つの出力に書き込む。
+ * 音声ごとに音量 (gain) を指定でき、SPEECHの音声が鳴っている間はMUSICの音量を自動的に下げる (ダッキング)。
+ * 出力を開く処理だけをSota Threadで行い、鳴らす音声がなくなってしばらくしたら出力を閉じる。
+ *
+ * 対応するのは16bit PCMのWAVのみ (サンプリング周波数・チャンネル数は出力に合わせて変換する)。
+ * 受信しながら再生する音声 (PlayAudioStream) は、openStreamで開いたStreamSourceに書き込む。
+ * ミキシングのループでは、フレームごとのメモリ確保を行わない。
+ */
+public class AudioMixer {
+    private static final String TAG = "AudioMixer";
+    /** 1回に混ぜて書き込む長さ */
+    private static final int FRAME_MILLIS = 10;
+    /** 鳴らす音声がなくなってから出力を閉じるまでの時間 */
+    private static final long IDLE_CLOSE_NANOS = TimeUnit.SECONDS.toNanos(2);
+    /** ダッキングで音量を下げる・戻すのにかける時間 */
+    private static final int DUCK_ATTACK_MILLIS = 50;
+    private static final int DUCK_RELEASE_MILLIS = 400;
+    /** ヘッダーを読み取るためにコピーする先頭の長さ */
+    private static final int HEADER_PEEK_BYTES = 4096;
+    /** StreamSourceのバッファの長さ (書き込みはミキサーが読み進めるまで待つ) */
+    private static final int STREAM_BUFFER_MILLIS = 100;
+
+    private final SotaTaskQueue commandQueue;
+    private final int sampleRate;
+    private final int channels;
+    private final float duckGain;
+    private final int frameSamples;
+    // 再生中の音声 (追加・削除のたびに配列を作り直す。ミキシングのループは配列をそのまま読む)
+    private volatile Source[] sources = new Source[0];
+    private final Object lock = new Object();
+    private Thread mixerThread;
+
+    /**
+     * @param duckGain SPEECHの音声が鳴っている間にMUSICの音量に掛ける倍率
+     */
+    public AudioMixer(SotaTaskQueue commandQueue, int sampleRate, int channels, float duckGain) {
+        this.commandQueue = commandQueue;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.duckGain = duckGain;
+        this.frameSamples = sampleRate * FRAME_MILLIS / 1000;
+    }
+
+    /**
+     * WAVデータのヘッダーを読み取る (先頭だけをコピーする)
+     *
+     * @return ヘッダー情報 (WAVとして解釈できない場合はnull)
+     */
+    public static WavHeader parseHeader(ByteString wavData) {
+        return WavHeader.parse(wavData.substring(0, Math.min(wavData.size(), HEADER_PEEK_BYTES)).toByteArray());
+    }
+
+    /**
+     * @return ミキサーで再生できる形式か (16bit PCM)
+     */
+    public static boolean canMix(WavHeader header) {
+        return header != null && header.bitsPerSample == 16 && header.channels > 0 && header.sampleRate > 0;
+    }
+
+    /**
+     * 音声の再生を始める
+     *
+     * @param wavData  WAVデータ (コピーせずにそのまま読む。canMixで確認しておくこと)
+     * @param category 音声の種類 (SPEECHの間はMUSICの音量が下がる)
+     * @param gain     音量の倍率
+     * @return 再生中の音声 (stop・isPlayingで操作でき、getCompletionで再生の終わりを待てる)
+     */
+    public Source play(ByteString wavData, WavHeader header, AudioCategory category, float gain) {
+        return add(new Source(wavData, header, category, gain));
+    }
+
+    /**
+     * 書き込みながら再生する音声を開く (PlayAudioStream)
+     *
+     * @param header 書き込むPCMデータの形式 (canMixで確認しておくこと)
+     * @return 音声の出力 (write・finishはSota Thread以外の1つのスレッドから呼び出すこと)
+     */
+    public StreamSource openStream(WavHeader header, AudioCategory category, float gain) {
+        return add(new StreamSource(header, category, gain));
+    }
+
+    private <S extends Source> S add(S source) {
+        synchronized (lock) {
+            Source[] current = sources;
+            Source[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = source;
+            sources = next;
+            if (mixerThread == null) {
+                mixerThread = new Thread(this::mixLoop, "Audio Mixer");
+                mixerThread.setDaemon(true);
+                mixerThread.start();
+            }
+            lock.notifyAll();
+        }
+        return source;
+    }
+
+    /**
+     * ミキサーで再生中の1つの音声
+     */
+    public class Source implements SotaBackend.AudioPlayback {
+        private final ByteBuffer pcm;
+        private final int sourceChannels;
+        private final long lengthFrames;
+        // 出力1フレームごとに進める位置 (32bit固定小数点)
+        private final long step;
+        final boolean speech;
+        final boolean music;
+        private volatile float gain;
+        private volatile boolean stopped;
+        // 以下はAudio Mixerスレッドだけが操作する
+        private long position;
+        private boolean finished;
+        private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+        Source(ByteString wavData, WavHeader header, AudioCategory category, float gain) {
+            // 絶対位置で読むので、sliceでdataチャンクの先頭を0にする
+            this(wavData.substring(header.dataOffset, header.dataOffset + (int) availableBytes(wavData, header))
+                            .asReadOnlyByteBuffer().slice().order(ByteOrder.LITTLE_ENDIAN),
+                    header, availableBytes(wavData, header) / header.getBytesPerFrame(), category, gain);
+        }
+
+        Source(ByteBuffer pcm, WavHeader header, long lengthFrames, AudioCategory category, float gain) {
+            this.pcm = pcm;
+            this.sourceChannels = header.channels;
+            this.lengthFrames = lengthFrames;
+            this.step = ((long) header.sampleRate << 32) / sampleRate;
+            this.speech = category == AudioCategory.AUDIO_CATEGORY_SPEECH;
+            this.music = category == AudioCategory.AUDIO_CATEGORY_MUSIC;
+            this.gain = gain;
+        }
+
+        public void setGain(float gain) {
+            this.gain = gain;
+        }
+
+        /**
+         * @return 再生が終わった (または止めた) ときに完了するFuture
+         */
+        public CompletableFuture<Void> getCompletion() {
+            return completion;
+        }
+
+        @Override
+        public void stop() {
+            stopped = true;
+        }
+
+        @Override
+        public boolean isPlaying() {
+            return !stopped && !completion.isDone();
+        }
+
+        /**
+         * @return 最後まで再生せずに終わったか (止めた・出力を開けなかった。getCompletionの完了後に呼び出す)
+         */
+        public boolean wasStopped() {
+            return stopped;
+        }
+
+        /**
+         * 出力frames分をmixに足し込む (Audio Mixerスレッドから呼び出す)
+         *
+         * @param fromScale 音量に追加で掛ける倍率 (ダッキング) のフレームの始まりの値。フレームの中でtoScaleへ変化させる
+         */
+        void mixInto(int[] mix, int frames, float fromScale, float toScale) {
+            float baseGain = gain;
+            // 書き込みながら再生する音声は、読み取った時点で書き込まれている所までを混ぜる
+            boolean endOfData = isEndOfData();
+            long readableFrames = readableFrames();
+            for (int i = 0; i < frames; i++) {
+                long index = position >>> 32;
+                if (index >= readableFrames) {
+                    // 最後まで再生した (書き込みが追いつかない場合は、残りを無音にして次のフレームで続きを読む)
+                    finished = endOfData;
+                    break;
+                }
+                // 前後のサンプルを線形補間する
+                int fraction = (int) ((position & 0xFFFFFFFFL) >>> 17);
+                long nextIndex = Math.min(index + 1, readableFrames - 1);
+                float scale = baseGain * (fromScale + (toScale - fromScale) * i / frames);
+                for (int c = 0; c < channels; c++) {
+                    int sample = interpolate(index, nextIndex, fraction, c);
+                    mix[i * channels + c] += (int) (sample * scale);
+                }
+                position += step;
+            }
+            consumed(position >>> 32);
+        }
+
+        /**
+         * @return 読める (書き込まれた) フレーム数
+         */
+        long readableFrames() {
+            return lengthFrames;
+        }
+
+        /**
+         * @return これ以上データが書き込まれない (readableFramesまで再生したら終わり)
+         */
+        boolean isEndOfData() {
+            return true;
+        }
+
+        /**
+         * @return pcmの中でframeの先頭がある位置 (バイト)
+         */
+        int byteOffset(long frame) {
+            return (int) (frame * sourceChannels) * 2;
+        }
+
+        /**
+         * frameより前のフレームは、もう読まない (Audio Mixerスレッドから呼び出す)
+         */
+        void consumed(long frame) {
+        }
+
+        private int interpolate(long index, long nextIndex, int fraction, int outputChannel) {
+            int a = sampleAt(index, outputChannel);
+            int b = sampleAt(nextIndex, outputChannel);
+            // fractionは15bit (差が16bitの全範囲でもintに収まる)
+            return a + (((b - a) * fraction) >> 15);
+        }
+
+        private int sampleAt(long frame, int outputChannel) {
+            int base = byteOffset(frame);
+            if (sourceChannels == channels) {
+                return pcm.getShort(base + outputChannel * 2);
+            }
+            if (sourceChannels == 1) {
+                // モノラルは全てのチャンネルに出す
+                return pcm.getShort(base);
+            }
+            if (channels == 1) {
+                // ステレオなどをモノラルにする場合は平均する
+                int sum = 0;
+                for (int c = 0; c < sourceChannels; c++) {
+                    sum += pcm.getShort(base + c * 2);
+                }
+                return sum / sourceChannels;
+            }
+            return pcm.getShort(base + Math.min(outputChannel, sourceChannels - 1) * 2);
+        }
+    }
+
+    /**
+     * 書き込みながら再生する音声 (リングバッファに書き込み、ミキサーが読み進める)
+     *
+     * 書き込みはバッファに空きができるまで待つので、出力のデバイスに書き込むのと同じように実時間で進む。
+     */
+    public final class StreamSource extends Source implements SotaBackend.AudioStream {
+        private final byte[] ring;
+        private final int frameBytes;
+        private final long capacityFrames;
+        // 書き込んだフレーム数 (書き込むスレッドだけが更新する) と、ミキサーが読み終えたフレーム数
+        private volatile long writtenFrames;
+        private volatile long consumedFrames;
+        private volatile boolean endOfData;
+
+        StreamSource(WavHeader header, AudioCategory category, float gain) {
+            this(ByteBuffer.allocate(streamBufferFrames(header) * header.getBytesPerFrame()).order(ByteOrder.LITTLE_ENDIAN),
+                    header, category, gain);
+        }
+
+        private StreamSource(ByteBuffer ring, WavHeader header, AudioCategory category, float gain) {
+            super(ring, header, Long.MAX_VALUE, category, gain);
+            this.ring = ring.array();
+            this.frameBytes = header.getBytesPerFrame();
+            this.capacityFrames = this.ring.length / frameBytes;
+        }
+
+        @Override
+        long readableFrames() {
+            return writtenFrames;
+        }
+
+        @Override
+        boolean isEndOfData() {
+            return endOfData;
+        }
+
+        @Override
+        int byteOffset(long frame) {
+            return (int) (frame % capacityFrames) * frameBytes;
+        }
+
+        @Override
+        void consumed(long frame) {
+            consumedFrames = frame;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) {
+            int end = offset + length - length % frameBytes;
+            while (offset < end && isPlaying()) {
+                long written = writtenFrames;
+                int frames = (int) Math.min(capacityFrames - (written - consumedFrames), (end - offset) / frameBytes);
+                if (frames <= 0) {
+                    // ミキサーが読み進めるまで待つ
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(FRAME_MILLIS / 2);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        stop();
+                    }
+                    continue;
+                }
+                int bytes = frames * frameBytes;
+                int tail = byteOffset(written);
+                int first = Math.min(bytes, ring.length - tail);
+                System.arraycopy(data, offset, ring, tail, first);
+                System.arraycopy(data, offset + first, ring, 0, bytes - first);
+                writtenFrames = written + frames;
+                offset += bytes;
+            }
+        }
+
+        @Override
+        public void finish() {
+            endOfData = true;
+            try {
+                getCompletion().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                stop();
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+            }
+        }
+    }
+
+    private static int streamBufferFrames(WavHeader header) {
+        return Math.max(1, header.sampleRate * STREAM_BUFFER_MILLIS / 1000);
+    }
+
+    private static long availableBytes(ByteString wavData, WavHeader header) {
+        return Math.max(0, Math.min(header.dataLength, (long) wavData.size() - header.dataOffset));
+    }
+
+    /**
+     * 全ての音声を混ぜて出力に書き込むループ (Audio Mixerスレッド)
+     */
+    private void mixLoop() {
+        int[] mix = new int[frameSamples * channels];
+        byte[] out = new byte[mix.length * 2];
+        float attackStep = 1f / Math.max(1, DUCK_ATTACK_MILLIS / FRAME_MILLIS);
+        float releaseStep = 1f / Math.max(1, DUCK_RELEASE_MILLIS / FRAME_MILLIS);
+        // MUSICに掛けている倍率 (1でダッキングなし)
+        float duck = 1f;
+        SotaBackend.AudioStream output = null;
+        long idleSinceNanos = 0;
+        try {
+            while (true) {
+                Source[] current = sources;
+                if (current.length == 0) {
+                    // 鳴らす音声がない間は無音を書き込まず、しばらくしたら出力を閉じる
+                    if (output != null && idleSinceNanos == 0) {
+                        idleSinceNanos = System.nanoTime();
+                    }
+                    synchronized (lock) {
+                        if (sources.length == 0) {
+                            if (output != null && System.nanoTime() - idleSinceNanos >= IDLE_CLOSE_NANOS) {
+                                output.finish();
+                                output = null;
+                                CRobotUtil.Log(TAG, "Audio output closed.");
+                            }
+                            if (output == null) {
+                                lock.wait();
+                            } else {
+                                TimeUnit.NANOSECONDS.timedWait(lock, IDLE_CLOSE_NANOS);
+                            }
+                        }
+                    }
+                    continue;
+                }
+                idleSinceNanos = 0;
+                if (output == null) {
+                    output = openOutput();
+                    if (output == null) {
+                        // 出力を開けなかった場合は、再生中の音声をすべて終わらせる
+                        for (Source source : current) {
+                            source.stopped = true;
+                        }
+                        removeFinished();
+                        continue;
+                    }
+                    CRobotUtil.Log(TAG, "Audio output opened (" + sampleRate + " Hz, " + channels + " ch).");
+                }
+
+                // 1. SPEECHの音声が鳴っていれば、MUSICの音量を下げる
+                boolean speaking = false;
+                for (Source source : current) {
+                    if (source.speech && !source.stopped) {
+                        speaking = true;
+                        break;
+                    }
+                }
+                float fromDuck = duck;
+                if (speaking) {
+                    duck = Math.max(duckGain, duck - attackStep * (1f - duckGain));
+                } else {
+                    duck = Math.min(1f, duck + releaseStep * (1f - duckGain));
+                }
+
+                // 2. 全ての音声を足し合わせる
+                Arrays.fill(mix, 0);
+                boolean anyFinished = false;
+                for (Source source : current) {
+                    if (source.stopped) {
+                        anyFinished = true;
+                        continue;
+                    }
+                    if (source.music) {
+                        source.mixInto(mix, frameSamples, fromDuck, duck);
+                    } else {
+                        source.mixInto(mix, frameSamples, 1f, 1f);
+                    }
+                    anyFinished |= source.finished;
+                }
+
+                // 3. 16bitに収めて書き込む (書き込みは出力のバッファに空きができるまで待つので、これで実時間に合う)
+                for (int i = 0; i < mix.length; i++) {
+                    int sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mix[i]));
+                    out[i * 2] = (byte) sample;
+                    out[i * 2 + 1] = (byte) (sample >> 8);
+                }
+                output.write(out, 0, out.length);
+
+                if (anyFinished) {
+                    removeFinished();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (output != null) {
+                output.stop();
+            }
+            // 残っている音声は再生できないので、止めたものとして終わりを通知する (待っているRPCを返す)
+            Source[] remaining;
+            synchronized (lock) {
+                remaining = sources;
+                sources = new Source[0];
+                mixerThread = null;
+            }
+            for (Source source : remaining) {
+                source.stopped = true;
+                source.completion.complete(null);
+            }
+        }
+    }
+
+    /**
+     * 終わった音声を取り除き、再生の終わりを通知する (音声の追加・削除のときだけ配列を作り直す)
+     *
+     * 取り除く音声はロックを保持したまま最新の配列から選ぶ
+     * (ループが読んだ配列の後に追加され、すぐに止められた音声も、取り除くと同時に通知する)。
+     */
+    private void removeFinished() {
+        Source[] removed;
+        int removedCount = 0;
+        synchronized (lock) {
+            Source[] latest = sources;
+            Source[] next = new Source[latest.length];
+            removed = new Source[latest.length];
+            int count = 0;
+            for (Source source : latest) {
+                if (source.stopped || source.finished) {
+                    removed[removedCount++] = source;
+                } else {
+                    next[count++] = source;
+                }
+            }
+            sources = Arrays.copyOf(next, count);
+        }
+        // 通知のコールバック (レスポンスの送信など) はロックの外で実行する
+        for (int i = 0; i < removedCount; i++) {
+            removed[i].completion.complete(null);
+        }
+    }
+
+    private SotaBackend.AudioStream openOutput() throws InterruptedException {
+        CompletableFuture<SotaBackend.AudioStream> future = new CompletableFuture<>();
+        this.commandQueue.put(new Main.SotaTask<>(Main.SotaTask.Priority.BULK,
+                (sotaContext) -> sotaContext.backend.openAudioStream(sampleRate, channels, 16), future
+        ));
+        try {
+            return future.get();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package net.keimag.sotagrpc;
+
+import com.google.protobuf.ByteString;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import jp.vstone.RobotLib.CRobotUtil;
+import net.keimag.sotagrpc.v1.robotlib.UploadAudioChunk;
+import net.keimag.sotagrpc.v1.robotlib.UploadAudioResponse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * アップロードされた音声データ (wav) を、内容のSHA-256で名前を付けて保存するクラス
+ *
+ * 同じ音声データは1回アップロードすれば、以降はダイジェストを指定するだけで再生できる。
+ * 保存する合計サイズがmaxBytesを超えたら、最も長く再生されていないものから削除する。
+ */
+public class AudioStore {
+    private static final String TAG = "AudioStore";
+    private static final String FILE_SUFFIX = ".wav";
+    private static final Pattern DIGEST_PATTERN = Pattern.compile("[0-9a-f]{64}");
+
+    private final Path directory;
+    private final long maxBytes;
+    // 保存しているファイル (ファイル名はダイジェスト + FILE_SUFFIX)
+    private final LruDirectory files;
+
+    public AudioStore(Path directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.files = new LruDirectory(TAG, directory, FILE_SUFFIX, maxBytes);
+        files.load(name -> normalizeDigest(name.substring(0, name.length() - FILE_SUFFIX.length())) != null);
+        CRobotUtil.Log(TAG, "Loaded " + files.size() + " stored audio files (" + files.getTotalBytes() + " bytes) from " + directory);
+    }
+
+    /**
+     * ダイジェストを正規化する (小文字の16進数64桁でない場合はnull)
+     */
+    public static String normalizeDigest(String digest) {
+        String normalized = digest.trim().toLowerCase(Locale.ROOT);
+        return DIGEST_PATTERN.matcher(normalized).matches() ? normalized : null;
+    }
+
+    /**
+     * @return 保存していればファイルのパス (なければnull)。再生に使う場合はtouchをtrueにする
+     */
+    public Path find(String digest, boolean touch) {
+        String name = digest + FILE_SUFFIX;
+        // touchしない場合は、使った順序を変えない
+        if (touch ? !files.touch(name) : !files.contains(name)) {
+            return null;
+        }
+        return directory.resolve(name);
+    }
+
+    /**
+     * UploadAudioの1回の呼び出しを受け付ける
+     */
+    public StreamObserver<UploadAudioChunk> upload(StreamObserver<UploadAudioResponse> responseObserver) {
+        return new Upload(responseObserver);
+    }
+
+    public long getTotalBytes() {
+        return files.getTotalBytes();
+    }
+
+    /**
+     * 受信したデータを一時ファイルに書き込みながらダイジェストを計算し、最後にダイジェストの名前に置き換える
+     */
+    private final class Upload implements StreamObserver<UploadAudioChunk> {
+        private final StreamObserver<UploadAudioResponse> responseObserver;
+        private final MessageDigest sha256;
+        private Path temp;
+        private FileChannel channel;
+        private String expectedDigest;
+        private long size;
+        private boolean failed;
+
+        Upload(StreamObserver<UploadAudioResponse> responseObserver) {
+            this.responseObserver = responseObserver;
+            try {
+                this.sha256 = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void onNext(UploadAudioChunk chunk) {
+            if (failed) {
+                return;
+            }
+            try {
+                if (channel == null) {
+                    if (chunk.hasDigest()) {
+                        expectedDigest = normalizeDigest(chunk.getDigest());
+                        if (expectedDigest == null) {
+                            fail(Status.INVALID_ARGUMENT.withDescription("digest must be a hex-encoded SHA-256."));
+                            return;
+                        }
+                    }
+                    temp = Files.createTempFile(directory, "upload", LruDirectory.TEMP_SUFFIX);
+                    channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+                }
+                ByteString data = chunk.getAudioData();
+                size += data.size();
+                if (size > maxBytes) {
+                    fail(Status.RESOURCE_EXHAUSTED.withDescription("Audio data is larger than the store (" + maxBytes + " bytes)."));
+                    return;
+                }
+                // ByteStringの内容をコピーせずに、ダイジェストの計算とファイルへの書き込みを行う
+                for (ByteBuffer buffer : data.asReadOnlyByteBufferList()) {
+                    sha256.update(buffer.duplicate());
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                fail(Status.INTERNAL.withDescription("Failed to write audio data: " + e.getMessage()));
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            // クライアントがアップロードを取り消した
+            discard();
+        }
+
+        @Override
+        public void onCompleted() {
+            if (failed) {
+                return;
+            }
+            if (channel == null) {
+                fail(Status.INVALID_ARGUMENT.withDescription("No audio data."));
+                return;
+            }
+            try {
+                channel.close();
+                String digest = toHex(sha256.digest());
+                if (expectedDigest != null && !expectedDigest.equals(digest)) {
+                    fail(Status.DATA_LOSS.withDescription("Digest mismatch: expected " + expectedDigest + ", received " + digest));
+                    return;
+                }
+                if (WavHeader.read(temp) == null) {
+                    fail(Status.INVALID_ARGUMENT.withDescription("Audio data is not a WAV file."));
+                    return;
+                }
+                Files.move(temp, directory.resolve(digest + FILE_SUFFIX), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                files.add(digest + FILE_SUFFIX, size);
+                responseObserver.onNext(UploadAudioResponse.newBuilder()
+                        .setDigest(digest)
+                        .setSizeBytes(size)
+                        .build());
+                responseObserver.onCompleted();
+            } catch (IOException e) {
+                e.printStackTrace();
+                fail(Status.INTERNAL.withDescription("Failed to store audio data: " + e.getMessage()));
+            }
+        }
+
+        private void fail(Status status) {
+            failed = true;
+            discard();
+            responseObserver.onError(status.asRuntimeException());
+        }
+
+        private void discard() {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+                if (temp != null) {
+                    Files.deleteIfExists(temp);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,348 @@
+package net.keimag.sotagrpc;
+
+import com.google.protobuf.ByteString;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import jp.vstone.RobotLib.CRobotUtil;
+import net.keimag.sotagrpc.v1.robotlib.AudioCategory;
+import net.keimag.sotagrpc.v1.robotlib.PlayAudioChunk;
+import net.keimag.sotagrpc.v1.robotlib.PlayAudioResponse;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * PlayAudioStreamで分割して送られてくるWAVを受信しながら再生するクラス (1回の再生につき1つ)
+ *
+ * 受信したPCMデータはジッターバッファ (リングバッファ) に入れ、prebufferMs分が溜まった時点で再生を始める。
+ * バッファに空きがない間はクライアントに次のメッセージを要求しない (gRPCのフロー制御) ので、
+ * 1回の再生で使うメモリはバッファとメッセージ1件分に収まる。
+ * 出力への書き込みは専用のスレッドで行い、出力を開く処理だけをSota Threadで行う。
+ * ミキサーがある場合、16bit PCMのWAVはミキサーに書き込む (Sota Threadは使わない)。
+ */
+public class AudioStreamUpload implements StreamObserver<PlayAudioChunk>, SotaBackend.AudioPlayback {
+    private static final String TAG = "AudioStreamUpload";
+    /** ヘッダーとして受け付ける最大サイズ (dataチャンクまでがこれに収まらないWAVは受け付けない) */
+    private static final int MAX_HEADER_BYTES = 64 * 1024;
+    /** 出力に1回で書き込む長さ */
+    private static final int WRITE_MILLIS = 20;
+
+    private static final ExecutorService writerExecutor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "Audio Stream Writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final SotaTaskQueue commandQueue;
+    private final PlaybackRegistry playbackRegistry;
+    private final AudioMixer audioMixer;
+    private final ServerCallStreamObserver<PlayAudioResponse> responseObserver;
+    private final int bufferMillis;
+    private final int prebufferMillis;
+    private final String playbackId = UUID.randomUUID().toString();
+
+    // 以下はthisのロックを保持して操作する
+    // ヘッダーを読み取れるまでに受信したデータ
+    private ByteString headerBytes = ByteString.EMPTY;
+    private WavHeader header;
+    private long remainingDataBytes;
+    private byte[] buffer;
+    private int head;
+    private int size;
+    // バッファに入りきらなかった受信データ (次のメッセージはこれがバッファに入るまで要求しない)
+    private ByteString overflow;
+    private int prebufferBytes;
+    private boolean waitForCompletion;
+    private boolean uploadCompleted;
+    private boolean stopped;
+    private boolean started;
+    private boolean responded;
+    private SotaBackend.AudioStream output;
+    private long underruns;
+
+    /**
+     * @param audioMixer 音声を混ぜて再生するミキサー (nullの場合は出力を直接開く)
+     */
+    public AudioStreamUpload(SotaTaskQueue commandQueue, PlaybackRegistry playbackRegistry, AudioMixer audioMixer,
+                             ServerCallStreamObserver<PlayAudioResponse> responseObserver, int bufferMillis, int prebufferMillis) {
+        this.commandQueue = commandQueue;
+        this.playbackRegistry = playbackRegistry;
+        this.audioMixer = audioMixer;
+        this.responseObserver = responseObserver;
+        this.bufferMillis = bufferMillis;
+        this.prebufferMillis = Math.min(prebufferMillis, bufferMillis);
+        // 受信はバッファの空きに合わせて1件ずつ要求する
+        responseObserver.disableAutoRequest();
+        responseObserver.request(1);
+    }
+
+    @Override
+    public void onNext(PlayAudioChunk chunk) {
+        boolean requestNext;
+        synchronized (this) {
+            if (header == null && headerBytes.isEmpty() && chunk.hasWaitForCompletion()) {
+                waitForCompletion = chunk.getWaitForCompletion();
+            }
+            if (stopped) {
+                // 停止した後のデータは読み捨てる
+                requestNext = true;
+            } else if (header == null) {
+                requestNext = receiveHeader(chunk.getAudioData());
+            } else {
+                requestNext = enqueue(chunk.getAudioData());
+            }
+            notifyAll();
+        }
+        if (requestNext) {
+            responseObserver.request(1);
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        // クライアントが送信を取り消した場合は再生も止める
+        stop();
+    }
+
+    @Override
+    public void onCompleted() {
+        synchronized (this) {
+            uploadCompleted = true;
+            if (header == null) {
+                fail(Status.INVALID_ARGUMENT.withDescription("Audio data is not a WAV file or is too short."));
+                return;
+            }
+            notifyAll();
+        }
+        respondIfReady();
+    }
+
+    /**
+     * 再生を止める (StopAudioからも呼び出される)
+     */
+    @Override
+    public void stop() {
+        SotaBackend.AudioStream output;
+        synchronized (this) {
+            stopped = true;
+            buffer = null;
+            overflow = null;
+            output = this.output;
+            notifyAll();
+        }
+        if (output != null) {
+            output.stop();
+        }
+    }
+
+    @Override
+    public synchronized boolean isPlaying() {
+        return !stopped && output != null && output.isPlaying();
+    }
+
+    // ロックを保持した状態で呼び出すこと
+    private boolean receiveHeader(ByteString data) {
+        headerBytes = headerBytes.concat(data);
+        byte[] bytes = headerBytes.toByteArray();
+        WavHeader parsed = WavHeader.parse(bytes);
+        if (parsed == null) {
+            if (bytes.length > MAX_HEADER_BYTES) {
+                fail(Status.INVALID_ARGUMENT.withDescription("WAV header not found in the first " + MAX_HEADER_BYTES + " bytes."));
+                return false;
+            }
+            return true;
+        }
+        header = parsed;
+        headerBytes = null;
+        // ストリーミング用のWAVはdataチャンクの長さが0や最大値のことがあるので、その場合は最後まで再生する
+        remainingDataBytes = parsed.dataLength > 0 && parsed.dataLength < 0xFFFFFFFFL ? parsed.dataLength : Long.MAX_VALUE;
+        int frameBytes = Math.max(parsed.getBytesPerFrame(), 1);
+        buffer = new byte[Math.max(frameBytes, alignToFrame((int) ((long) parsed.getByteRate() * bufferMillis / 1000)))];
+        prebufferBytes = (int) Math.min(buffer.length, (long) parsed.getByteRate() * prebufferMillis / 1000);
+        writerExecutor.execute(this::writeLoop);
+        return enqueue(data.substring(Math.min(parsed.dataOffset - (bytes.length - data.size()), data.size())));
+    }
+
+    // ロックを保持した状態で呼び出すこと
+    private boolean enqueue(ByteString data) {
+        if (data.size() > remainingDataBytes) {
+            // dataチャンクの後ろのチャンクは再生しない
+            data = data.substring(0, (int) remainingDataBytes);
+        }
+        remainingDataBytes -= data.size();
+        int copied = copyIn(data);
+        if (copied < data.size()) {
+            overflow = data.substring(copied);
+            return false;
+        }
+        return true;
+    }
+
+    // ロックを保持した状態で呼び出すこと
+    private int copyIn(ByteString data) {
+        int length = Math.min(data.size(), buffer.length - size);
+        int tail = (head + size) % buffer.length;
+        int first = Math.min(length, buffer.length - tail);
+        data.copyTo(buffer, 0, tail, first);
+        data.copyTo(buffer, first, 0, length - first);
+        size += length;
+        return length;
+    }
+
+    /**
+     * バッファから出力へ書き込むループ (Audio Stream Writerスレッド)
+     */
+    private void writeLoop() {
+        byte[] chunk;
+        int frameBytes;
+        synchronized (this) {
+            frameBytes = Math.max(header.getBytesPerFrame(), 1);
+            chunk = new byte[Math.max(frameBytes, alignToFrame(header.getByteRate() * WRITE_MILLIS / 1000))];
+            // 1. ジッターバッファが溜まるまで待つ
+            while (!stopped && !uploadCompleted && size < prebufferBytes) {
+                waitQuietly();
+            }
+        }
+        // 2. 出力を開く (Sota Threadで行う)
+        SotaBackend.AudioStream output = openOutput();
+        synchronized (this) {
+            if (output == null || stopped) {
+                if (output != null) {
+                    output.stop();
+                }
+                fail(output == null ? Status.INTERNAL.withDescription("Failed to open audio output.")
+                        : Status.ABORTED.withDescription("Playback was stopped before it started."));
+                return;
+            }
+            this.output = output;
+            started = true;
+        }
+        // StopAudio・IsAudioPlaying・WatchPlaybackから操作できるようにする
+        playbackRegistry.started(playbackId, this, null);
+        respondIfReady();
+
+        // 3. 受信したデータを順に書き込む
+        while (true) {
+            int length;
+            boolean requestNext = false;
+            synchronized (this) {
+                if (!stopped && size < frameBytes && !uploadCompleted) {
+                    // 受信が再生に追いつかない (音が途切れる)
+                    underruns++;
+                    while (!stopped && size < frameBytes && !uploadCompleted) {
+                        waitQuietly();
+                    }
+                }
+                if (stopped || size < frameBytes) {
+                    break;
+                }
+                length = Math.min(size, chunk.length);
+                length -= length % frameBytes;
+                int first = Math.min(length, buffer.length - head);
+                System.arraycopy(buffer, head, chunk, 0, first);
+                System.arraycopy(buffer, 0, chunk, first, length - first);
+                head = (head + length) % buffer.length;
+                size -= length;
+                if (overflow != null) {
+                    int copied = copyIn(overflow);
+                    overflow = copied < overflow.size() ? overflow.substring(copied) : null;
+                    requestNext = overflow == null && !uploadCompleted;
+                }
+            }
+            if (requestNext) {
+                responseObserver.request(1);
+            }
+            output.write(chunk, 0, length);
+        }
+
+        boolean completed;
+        synchronized (this) {
+            completed = !stopped;
+        }
+        if (completed) {
+            output.finish();
+        }
+        if (underruns > 0) {
+            CRobotUtil.Log(TAG, "Playback " + playbackId + " finished with " + underruns + " buffer underruns.");
+        }
+        playbackRegistry.finished(playbackId, this);
+        synchronized (this) {
+            uploadCompleted = true;
+        }
+        respondIfReady();
+    }
+
+    private SotaBackend.AudioStream openOutput() {
+        try {
+            CompletableFuture<SotaBackend.AudioStream> future = new CompletableFuture<>();
+            WavHeader header;
+            synchronized (this) {
+                header = this.header;
+            }
+            if (audioMixer != null && AudioMixer.canMix(header)) {
+                return audioMixer.openStream(header, AudioCategory.AUDIO_CATEGORY_UNSPECIFIED, 1f);
+            }
+            this.commandQueue.put(new Main.SotaTask<>(Main.SotaTask.Priority.BULK,
+                    (sotaContext) -> sotaContext.backend.openAudioStream(header.sampleRate, header.channels, header.bitsPerSample), future
+            ));
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * wait_for_completionの指定に応じて、受信完了後 (再生開始後) または再生完了後にレスポンスを返す
+     */
+    private void respondIfReady() {
+        synchronized (this) {
+            if (responded || !started || !uploadCompleted) {
+                return;
+            }
+            if (waitForCompletion && output.isPlaying()) {
+                return;
+            }
+            responded = true;
+        }
+        responseObserver.onNext(PlayAudioResponse.newBuilder()
+                .setSuccess(true)
+                .setPlaybackId(playbackId)
+                .build());
+        responseObserver.onCompleted();
+    }
+
+    // ロックを保持した状態で呼び出すこと
+    private void fail(Status status) {
+        stopped = true;
+        buffer = null;
+        overflow = null;
+        notifyAll();
+        if (!responded) {
+            responded = true;
+            if (!responseObserver.isCancelled()) {
+                responseObserver.onError(status.asRuntimeException());
+            }
+        }
+    }
+
+    private int alignToFrame(int bytes) {
+        int frameBytes = Math.max(header.getBytesPerFrame(), 1);
+        return bytes - bytes % frameBytes;
+    }
+
+    private void waitQuietly() {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stopped = true;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package net.keimag.sotagrpc;
+
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.Grpc;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+/**
+ * 呼び出し元のクライアントの識別
+ *
+ * メタデータsota-client-idがあればその値を、なければ接続元のアドレス (host:port、チャンネルごとに異なる) をクライアントIDとする。
+ * 呼び出しの中で作られたSotaTaskはクライアントIDを記録し、SotaTaskQueueはクライアントごとに公平に取り出す。
+ */
+public final class ClientIdentity {
+    /** クライアントID (ダッシュボード・対話エンジンなど、用途ごとに決めておく) */
+    public static final Metadata.Key<String> CLIENT_ID_KEY = Metadata.Key.of("sota-client-id", Metadata.ASCII_STRING_MARSHALLER);
+    /** 呼び出しの外で作られたタスク (サーバー内部の定期処理など) のクライアントID */
+    public static final String INTERNAL = "internal";
+
+    private static final Context.Key<String> CLIENT_ID = Context.key("sota-client-id");
+
+    private ClientIdentity() {
+    }
+
+    /**
+     * @return 現在の呼び出しのクライアントID (呼び出しの外ではINTERNAL)
+     */
+    public static String current() {
+        String clientId = CLIENT_ID.get();
+        return clientId != null ? clientId : INTERNAL;
+    }
+
+    /**
+     * @return contextにクライアントIDを入れたContext (この中で作られたSotaTaskはclientIdのものになる)
+     */
+    static Context withClientId(Context context, String clientId) {
+        return context.withValue(CLIENT_ID, clientId);
+    }
+
+    /**
+     * クライアントIDを呼び出しのContextに入れるServerInterceptor
+     */
+    public static ServerInterceptor interceptor() {
+        return new ServerInterceptor() {
+            @Override
+            public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+                String clientId = headers.get(CLIENT_ID_KEY);
+                if (clientId == null || clientId.trim().isEmpty()) {
+                    clientId = peerAddress(call);
+                }
+                return Contexts.interceptCall(withClientId(Context.current(), clientId.trim()), call, headers, next);
+            }
+        };
+    }
+
+    private static String peerAddress(ServerCall<?, ?> call) {
+        SocketAddress address = call.getAttributes().get(Grpc.TRANSPORT_ATTR_REMOTE_ADDR);
+        if (address instanceof InetSocketAddress) {
+            InetSocketAddress inet = (InetSocketAddress) address;
+            return inet.getHostString() + ":" + inet.getPort();
+        }
+        return address != null ? address.toString() : "unknown";
+    }
+}
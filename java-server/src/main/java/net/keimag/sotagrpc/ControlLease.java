@@ -0,0 +1,118 @@
+package net.keimag.sotagrpc;
+
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import jp.vstone.RobotLib.CRobotUtil;
+import net.keimag.sotagrpc.v1.robotlib.ControlLeaseResponse;
+import net.keimag.sotagrpc.v1.robotlib.MotionServiceGrpc;
+import net.keimag.sotagrpc.v1.sotatalk.MotionAsSotaWishServiceGrpc;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * モーションの操作権 (リース)
+ *
+ * あるクライアント (ClientIdentity) が操作権を取得している間は、他のクライアントのモーションのコマンドを
+ * FAILED_PRECONDITIONで拒否する。期限までに延長しなければ、操作権は自動的に失われる (クライアントが落ちても残らない)。
+ * 誰も取得していなければ、今までどおり全てのクライアントがモーションを操作できる。
+ * 緊急停止のためのServoOff・SetCollisionDetectionは、操作権がなくても拒否しない。
+ */
+public class ControlLease {
+    private static final String TAG = "ControlLease";
+    public static final long DEFAULT_DURATION_MILLIS = 5000;
+    /** 一度に取得できる最長の期間 */
+    private static final long MAX_DURATION_MILLIS = 60000;
+    /** 操作権が必要なRPC */
+    private static final Set<String> GUARDED_METHODS = new HashSet<>(Arrays.asList(
+            MotionServiceGrpc.getServoOnMethod().getFullMethodName(),
+            MotionServiceGrpc.getPlayPoseMethod().getFullMethodName(),
+            MotionServiceGrpc.getStreamPosesMethod().getFullMethodName(),
+            MotionAsSotaWishServiceGrpc.getSayWithMotionMethod().getFullMethodName(),
+            MotionAsSotaWishServiceGrpc.getPlaySceneMethod().getFullMethodName(),
+            MotionAsSotaWishServiceGrpc.getStartIdlingMethod().getFullMethodName(),
+            MotionAsSotaWishServiceGrpc.getStopIdlingMethod().getFullMethodName()
+    ));
+
+    // 以下はthisのロックを保持して操作する
+    private String holder;
+    private long expiresAtMillis;
+
+    /**
+     * 操作権を取得・延長する (他のクライアントが保持している場合は取得できない)
+     */
+    public synchronized ControlLeaseResponse acquire(String clientId, long durationMillis) {
+        long now = System.currentTimeMillis();
+        expire(now);
+        if (holder == null || holder.equals(clientId)) {
+            if (holder == null) {
+                CRobotUtil.Log(TAG, "Control lease acquired by " + clientId);
+            }
+            holder = clientId;
+            expiresAtMillis = now + Math.min(Math.max(durationMillis, 1), MAX_DURATION_MILLIS);
+        }
+        return toResponse(clientId);
+    }
+
+    /**
+     * 操作権を返す (保持していない場合は何もしない)
+     */
+    public synchronized ControlLeaseResponse release(String clientId) {
+        expire(System.currentTimeMillis());
+        if (clientId.equals(holder)) {
+            CRobotUtil.Log(TAG, "Control lease released by " + clientId);
+            holder = null;
+        }
+        return toResponse(clientId);
+    }
+
+    /**
+     * @return clientIdのモーションのコマンドを拒否する場合は、操作権を保持しているクライアントのID (拒否しない場合はnull)
+     */
+    public synchronized String blockingHolder(String clientId) {
+        expire(System.currentTimeMillis());
+        return holder != null && !holder.equals(clientId) ? holder : null;
+    }
+
+    /**
+     * 操作権を保持していないクライアントのモーションのコマンドを拒否するServerInterceptor
+     * (ClientIdentityのServerInterceptorより内側に登録すること)
+     */
+    public ServerInterceptor interceptor() {
+        return new ServerInterceptor() {
+            @Override
+            public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+                if (GUARDED_METHODS.contains(call.getMethodDescriptor().getFullMethodName())) {
+                    String blocking = blockingHolder(ClientIdentity.current());
+                    if (blocking != null) {
+                        call.close(Status.FAILED_PRECONDITION.withDescription("Motion control is leased to " + blocking + "."), new Metadata());
+                        return new ServerCall.Listener<ReqT>() {
+                        };
+                    }
+                }
+                return next.startCall(call, headers);
+            }
+        };
+    }
+
+    // ロックを保持した状態で呼び出すこと
+    private void expire(long now) {
+        if (holder != null && now >= expiresAtMillis) {
+            CRobotUtil.Log(TAG, "Control lease of " + holder + " expired.");
+            holder = null;
+        }
+    }
+
+    // ロックを保持した状態で呼び出すこと
+    private ControlLeaseResponse toResponse(String clientId) {
+        return ControlLeaseResponse.newBuilder()
+                .setGranted(clientId.equals(holder))
+                .setHolder(holder != null ? holder : "")
+                .setExpiresAtMs(holder != null ? expiresAtMillis : 0)
+                .build();
+    }
+}
@@ -0,0 +1,122 @@
+package net.keimag.sotagrpc;
+
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.ServerBuilder;
+import io.grpc.StatusRuntimeException;
+import net.keimag.sotagrpc.v1.robotlib.IsAudioPlayingRequest;
+import net.keimag.sotagrpc.v1.robotlib.IsAudioPlayingResponse;
+import net.keimag.sotagrpc.v1.robotlib.PlaybackServiceGrpc;
+import net.keimag.sotagrpc.v1.sotatalk.MotionAsSotaWishServiceGrpc;
+import net.keimag.sotagrpc.v1.sotatalk.StartIdlingRequest;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 実機なしで、上限付きのgRPC executorで同時に何件のRPCを受け付けられるかを計測するための負荷テスト
+ *
+ * Sota Threadの代わりに、各タスクの前に --task-ms だけ待機するスレッドを使う。
+ * (IsAudioPlaying(playback_id)はSotaContextに触れないため、contextなしで実行できる)
+ *
+ * 使い方: DispatchLoadTest [executorスレッド数=4] [クライアント数=64] [タスク時間ms=100]
+ */
+public class DispatchLoadTest {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int executorThreads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int taskMs = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+
+        // --- 1. 疑似Sota Thread: 1件ずつ、taskMsかけてタスクを実行する ---
+        SotaTaskQueue commandQueue = new SotaTaskQueue();
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        Thread sotaThread = new Thread(() -> {
+            try {
+                while (true) {
+                    Main.SotaTask<?> task = commandQueue.take();
+                    // キューに溜まっているタスク + 実行中の1件が、同時に受け付けられているRPC数
+                    maxInFlight.accumulateAndGet(commandQueue.size() + 1, Math::max);
+                    Thread.sleep(taskMs);
+                    task.execute(null);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        sotaThread.setDaemon(true);
+        sotaThread.start();
+
+        // --- 2. 上限付きexecutorでgRPCサーバーを起動 ---
+        ExecutorService executor = Executors.newFixedThreadPool(executorThreads);
+        io.grpc.Server server = ServerBuilder.forPort(0)
+                .executor(executor)
+                .addService(new PlaybackServiceImpl(commandQueue))
+                .addService(new MotionAsSotaWishServiceImpl(commandQueue))
+                .build();
+        server.start();
+        ManagedChannel channel = ManagedChannelBuilder.forAddress("localhost", server.getPort()).usePlaintext().build();
+        PlaybackServiceGrpc.PlaybackServiceFutureStub playbackStub = PlaybackServiceGrpc.newFutureStub(channel);
+        MotionAsSotaWishServiceGrpc.MotionAsSotaWishServiceBlockingStub probeStub = MotionAsSotaWishServiceGrpc.newBlockingStub(channel);
+
+        // ウォームアップ
+        playbackStub.isAudioPlaying(IsAudioPlayingRequest.newBuilder().setPlaybackId("warmup").build());
+        probe(probeStub);
+        Thread.sleep(2L * taskMs);
+        maxInFlight.set(0);
+
+        // --- 3. clients件のRPCを同時に発行する ---
+        long start = System.nanoTime();
+        List<ListenableFuture<IsAudioPlayingResponse>> calls = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            calls.add(playbackStub.isAudioPlaying(IsAudioPlayingRequest.newBuilder().setPlaybackId("bench-" + i).build()));
+        }
+
+        // --- 4. 飽和中に、Sota Threadを使わないRPC(未実装のStartIdling)の応答時間を計測する ---
+        Thread.sleep(taskMs);
+        long probeMs = probe(probeStub);
+
+        for (ListenableFuture<IsAudioPlayingResponse> call : calls) {
+            try {
+                call.get();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        long totalMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        System.out.println("------------------------------------------");
+        System.out.println("executor threads      : " + executorThreads);
+        System.out.println("concurrent clients    : " + clients);
+        System.out.println("sota task time (ms)   : " + taskMs);
+        System.out.println("max RPCs in flight    : " + maxInFlight.get());
+        System.out.println("probe RPC latency (ms): " + probeMs);
+        System.out.println("total time (ms)       : " + totalMs);
+        System.out.println("------------------------------------------");
+
+        channel.shutdownNow();
+        server.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Sota Threadを使わないRPCを1回呼び出し、応答までの時間(ms)を返す
+     */
+    private static long probe(MotionAsSotaWishServiceGrpc.MotionAsSotaWishServiceBlockingStub probeStub) {
+        long probeStart = System.nanoTime();
+        try {
+            probeStub.startIdling(StartIdlingRequest.newBuilder().build());
+        } catch (StatusRuntimeException e) {
+            // UNIMPLEMENTEDが返るのは想定通り
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - probeStart);
+    }
+}
@@ -0,0 +1,73 @@
+package net.keimag.sotagrpc;
+
+import io.grpc.stub.ServerCallStreamObserver;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+
+/**
+ * WatchMotion・WatchPlaybackの1つの購読 (MotionRegistry・PlaybackRegistryで共有する)
+ *
+ * 受信が遅いクライアントの分は、送れるようになる (isReady) までMAX_PENDING_EVENTS件まで溜めておき、超えた分は古いものから捨てる
+ * (最後に届いた完了・中断のイベントは残る)。
+ */
+final class EventWatcher<E> {
+    /** 送れるようになるまで溜めておくイベントの数 */
+    private static final int MAX_PENDING_EVENTS = 64;
+
+    // 購読するID (nullの場合はすべて)
+    final String id;
+    private final ServerCallStreamObserver<E> responseObserver;
+    // 以下はEventWatcherのロックを保持して操作する
+    private final ArrayDeque<E> pending = new ArrayDeque<>();
+    // 最後のイベントを受け取った (送り終えたら閉じる)
+    private boolean closing;
+    private boolean closed;
+
+    /**
+     * 購読を作る (RPCのメソッドから戻る前に作ること。送れるようになったときと取り消されたときの処理を登録する)
+     *
+     * @param watchers 購読を登録するリスト (クライアントが購読をやめたら、ここから取り除く)
+     */
+    EventWatcher(String id, ServerCallStreamObserver<E> responseObserver, Collection<EventWatcher<E>> watchers) {
+        this.id = id;
+        this.responseObserver = responseObserver;
+        responseObserver.setOnReadyHandler(this::drain);
+        responseObserver.setOnCancelHandler(() -> watchers.remove(this));
+    }
+
+    /**
+     * @return eventIdのイベントを購読しているか
+     */
+    boolean matches(String eventId) {
+        return id == null || id.equals(eventId);
+    }
+
+    /**
+     * @param terminal 完了・中断などの最後のイベントか (IDを指定した購読は、これを送った時点でストリームを閉じる)
+     * @return 今後もイベントを送るか
+     */
+    synchronized boolean deliver(E event, boolean terminal) {
+        if (closing || responseObserver.isCancelled()) {
+            return false;
+        }
+        if (pending.size() >= MAX_PENDING_EVENTS) {
+            // 溜めておける数を超えたので、古いイベントから捨てる
+            pending.pollFirst();
+        }
+        pending.addLast(event);
+        closing = id != null && terminal;
+        drain();
+        return !closing;
+    }
+
+    private synchronized void drain() {
+        while (!closed && !pending.isEmpty() && responseObserver.isReady()) {
+            responseObserver.onNext(pending.pollFirst());
+        }
+        if (closing && !closed && pending.isEmpty()) {
+            closed = true;
+            responseObserver.onCompleted();
+        }
+    }
+}
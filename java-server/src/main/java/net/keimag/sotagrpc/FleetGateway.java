@@ -0,0 +1,468 @@
+package net.keimag.sotagrpc;
+
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.Context;
+import io.grpc.Deadline;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerMethodDefinition;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.ServiceDescriptor;
+import io.grpc.Status;
+import jp.vstone.RobotLib.CRobotUtil;
+import net.keimag.sotagrpc.v1.robotlib.GetPowerStatusRequest;
+import net.keimag.sotagrpc.v1.robotlib.MotionServiceGrpc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 複数台のSota-gRPCサーバーに同じコマンドを送るゲートウェイ (--gateway)
+ *
+ * 各サービスの単項RPCを、メッセージを解釈せずにバイト列のまま全てのバックエンドへ転送する。
+ * 転送するときは開始時刻 (sota-start-at-ms) を付け、各バックエンドの時計のずれを補正して渡すので、全てのSotaが同時に動き出す。
+ * クライアントが開始時刻を指定しなかった場合は、leadMillis後を開始時刻とする。
+ *
+ * 各バックエンドには一定の間隔でGetPowerStatusを送り、応答の有無・往復時間・時計のずれを記録する (ScheduledStartのヘッダーを使う)。
+ * 応答しないバックエンドには転送せず、レスポンスのヘッダーsota-fleet-failedで転送できなかったバックエンドを返す。
+ * バックエンドごとの状態はtoPrometheusTextで読み取る。
+ * ストリーミングのRPCは転送しない (UNIMPLEMENTEDになる)。
+ *
+ * レスポンスは最初に成功したバックエンドのものだけを返す。playback_idなどサーバーが割り当てるIDはバックエンドごとに異なるので、
+ * そのIDを指定したStopAudio・IsAudioPlayingなどは、他のバックエンドでは見つからない
+ * (IDを省略すれば全ての再生が対象になる。PlayPoseのmotion_idはクライアントが指定すれば全てのバックエンドで同じになる)。
+ */
+public class FleetGateway {
+    private static final String TAG = "FleetGateway";
+    /** 転送できなかったバックエンド (カンマ区切り) */
+    public static final Metadata.Key<String> FAILED_KEY = Metadata.Key.of("sota-fleet-failed", Metadata.ASCII_STRING_MARSHALLER);
+    /** 続けてこの回数だけ応答がなければ、転送をやめる */
+    private static final int MAX_PROBE_FAILURES = 3;
+    /** 往復時間の平滑化の係数 */
+    private static final double SMOOTHING = 0.2;
+    /** 時計のずれは、直近のこの回数の確認のうち往復時間が最も短かったものから求める (NTPと同じ考え方) */
+    private static final int OFFSET_SAMPLES = 8;
+
+    private static final MethodDescriptor.Marshaller<byte[]> BYTES = new MethodDescriptor.Marshaller<byte[]>() {
+        @Override
+        public InputStream stream(byte[] value) {
+            return new ByteArrayInputStream(value);
+        }
+
+        @Override
+        public byte[] parse(InputStream stream) {
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(stream.available(), 32));
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = stream.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+                return out.toByteArray();
+            } catch (IOException e) {
+                throw Status.INTERNAL.withDescription("Failed to read message").withCause(e).asRuntimeException();
+            }
+        }
+    };
+
+    /**
+     * 転送先の1台のSota
+     */
+    public static final class Backend {
+        final String target;
+        final ManagedChannel channel;
+        // 以下はBackendのロックを保持して操作する
+        private boolean healthy;
+        private int probeFailures;
+        private boolean probed;
+        private double rttMillis;
+        // バックエンドの時計 - ゲートウェイの時計
+        private double clockOffsetMillis;
+        // 直近の確認での往復時間と時計のずれ (リングバッファ)
+        private final double[] sampleRtts = new double[OFFSET_SAMPLES];
+        private final double[] sampleOffsets = new double[OFFSET_SAMPLES];
+        private int samples;
+        private long forwarded;
+        private long failed;
+
+        Backend(String target) {
+            this.target = target;
+            this.channel = ManagedChannelBuilder.forTarget(target).usePlaintext().build();
+        }
+
+        public synchronized boolean isHealthy() {
+            return healthy;
+        }
+
+        public synchronized double getRttMillis() {
+            return rttMillis;
+        }
+
+        public synchronized double getClockOffsetMillis() {
+            return clockOffsetMillis;
+        }
+
+        public synchronized long getForwarded() {
+            return forwarded;
+        }
+
+        public synchronized long getFailed() {
+            return failed;
+        }
+
+        synchronized long toBackendClock(long gatewayMillis) {
+            return gatewayMillis + Math.round(clockOffsetMillis);
+        }
+
+        synchronized void recordForward(boolean success) {
+            forwarded++;
+            if (!success) {
+                failed++;
+            }
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%s (%s, rtt %.1f ms, clock offset %+.1f ms, forwarded %d, failed %d)",
+                    target, healthy ? "healthy" : "unhealthy", rttMillis, clockOffsetMillis, forwarded, failed);
+        }
+    }
+
+    private final List<Backend> backends = new ArrayList<>();
+    private final long leadMillis;
+    private final long probeTimeoutMillis;
+
+    /**
+     * @param targets    バックエンドのアドレス (host:port)
+     * @param leadMillis クライアントが開始時刻を指定しなかった場合に、受け取ってから開始するまでの時間
+     */
+    public FleetGateway(List<String> targets, long leadMillis, long probeIntervalMillis) {
+        for (String target : targets) {
+            backends.add(new Backend(target.trim()));
+        }
+        this.leadMillis = leadMillis;
+        this.probeTimeoutMillis = Math.max(probeIntervalMillis, 100);
+        ScheduledExecutorService prober = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Fleet Health");
+            thread.setDaemon(true);
+            return thread;
+        });
+        prober.scheduleWithFixedDelay(this::probeAll, 0, probeIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public List<Backend> getBackends() {
+        return backends;
+    }
+
+    /**
+     * Prometheusの形式 (text/plain; version=0.0.4) でバックエンドごとの状態を出力する
+     */
+    public String toPrometheusText() {
+        StringBuilder out = new StringBuilder(1024);
+        out.append("# HELP sota_fleet_backend_healthy Whether the gateway forwards commands to the backend (1) or skips it (0).\n");
+        out.append("# TYPE sota_fleet_backend_healthy gauge\n");
+        for (Backend backend : backends) {
+            appendBackendSample(out, "sota_fleet_backend_healthy", backend, backend.isHealthy() ? 1 : 0);
+        }
+        out.append("# HELP sota_fleet_backend_rtt_seconds Smoothed round-trip time of the health probes, excluding time spent on the backend.\n");
+        out.append("# TYPE sota_fleet_backend_rtt_seconds gauge\n");
+        for (Backend backend : backends) {
+            appendBackendSample(out, "sota_fleet_backend_rtt_seconds", backend, backend.getRttMillis() / 1000);
+        }
+        out.append("# HELP sota_fleet_backend_clock_offset_seconds Backend clock minus gateway clock, used to correct sota-start-at-ms.\n");
+        out.append("# TYPE sota_fleet_backend_clock_offset_seconds gauge\n");
+        for (Backend backend : backends) {
+            appendBackendSample(out, "sota_fleet_backend_clock_offset_seconds", backend, backend.getClockOffsetMillis() / 1000);
+        }
+        out.append("# HELP sota_fleet_forwarded_total RPCs forwarded to the backend.\n");
+        out.append("# TYPE sota_fleet_forwarded_total counter\n");
+        for (Backend backend : backends) {
+            appendBackendSample(out, "sota_fleet_forwarded_total", backend, backend.getForwarded());
+        }
+        out.append("# HELP sota_fleet_forward_failed_total Forwarded RPCs that did not complete with OK on the backend.\n");
+        out.append("# TYPE sota_fleet_forward_failed_total counter\n");
+        for (Backend backend : backends) {
+            appendBackendSample(out, "sota_fleet_forward_failed_total", backend, backend.getFailed());
+        }
+        return out.toString();
+    }
+
+    private static void appendBackendSample(StringBuilder out, String name, Backend backend, Number value) {
+        out.append(name).append("{backend=\"").append(Metrics.escape(backend.target)).append("\"} ").append(value).append('\n');
+    }
+
+    /**
+     * サービスの単項RPCを全てのバックエンドへ転送するServerServiceDefinitionを作る
+     */
+    public ServerServiceDefinition proxy(ServiceDescriptor service) {
+        ServerServiceDefinition.Builder builder = ServerServiceDefinition.builder(service.getName());
+        for (MethodDescriptor<?, ?> method : service.getMethods()) {
+            if (method.getType() != MethodDescriptor.MethodType.UNARY) {
+                continue;
+            }
+            MethodDescriptor<byte[], byte[]> bytesMethod = method.toBuilder(BYTES, BYTES).build();
+            builder.addMethod(ServerMethodDefinition.create(bytesMethod, new FanOutHandler(bytesMethod)));
+        }
+        return builder.build();
+    }
+
+    /**
+     * 1つのRPCを全てのバックエンドへ転送する
+     */
+    private final class FanOutHandler implements ServerCallHandler<byte[], byte[]> {
+        private final MethodDescriptor<byte[], byte[]> method;
+
+        FanOutHandler(MethodDescriptor<byte[], byte[]> method) {
+            this.method = method;
+        }
+
+        @Override
+        public ServerCall.Listener<byte[]> startCall(ServerCall<byte[], byte[]> call, Metadata headers) {
+            // 単項RPCなので、リクエストは1つだけ受け取る
+            call.request(2);
+            return new ServerCall.Listener<byte[]>() {
+                private byte[] request;
+                private final List<ClientCall<byte[], byte[]>> calls = new ArrayList<>();
+
+                @Override
+                public void onMessage(byte[] message) {
+                    request = message;
+                }
+
+                @Override
+                public void onHalfClose() {
+                    if (request == null) {
+                        call.close(Status.INTERNAL.withDescription("No request message."), new Metadata());
+                        return;
+                    }
+                    fanOut(call, headers, request, calls);
+                }
+
+                @Override
+                public void onCancel() {
+                    synchronized (calls) {
+                        for (ClientCall<byte[], byte[]> clientCall : calls) {
+                            clientCall.cancel("Client cancelled", null);
+                        }
+                    }
+                }
+            };
+        }
+
+        private void fanOut(ServerCall<byte[], byte[]> call, Metadata headers, byte[] request, List<ClientCall<byte[], byte[]>> calls) {
+            // 1. 開始時刻を決める (クライアントが指定していればそれを使う)
+            long startAt = System.currentTimeMillis() + leadMillis;
+            String requested = headers.get(ScheduledStart.START_AT_KEY);
+            if (requested != null) {
+                try {
+                    startAt = Long.parseLong(requested.trim());
+                } catch (NumberFormatException e) {
+                    call.close(Status.INVALID_ARGUMENT.withDescription(ScheduledStart.START_AT_KEY.name() + " must be a UNIX time in milliseconds: " + requested), new Metadata());
+                    return;
+                }
+            }
+            List<Backend> targets = new ArrayList<>();
+            List<String> skipped = new ArrayList<>();
+            for (Backend backend : backends) {
+                if (backend.isHealthy()) {
+                    targets.add(backend);
+                } else {
+                    skipped.add(backend.target);
+                }
+            }
+            if (targets.isEmpty()) {
+                call.close(Status.UNAVAILABLE.withDescription("No healthy backend."), new Metadata());
+                return;
+            }
+
+            // 2. 全てのバックエンドへ、それぞれの時計に合わせた開始時刻を付けて転送する
+            Deadline deadline = Context.current().getDeadline();
+            List<CompletableFuture<Response>> responses = new ArrayList<>(targets.size());
+            for (Backend backend : targets) {
+                Metadata forwarded = forwardHeaders(headers);
+                forwarded.put(ScheduledStart.START_AT_KEY, Long.toString(backend.toBackendClock(startAt)));
+                CallOptions options = deadline != null ? CallOptions.DEFAULT.withDeadline(deadline) : CallOptions.DEFAULT;
+                ClientCall<byte[], byte[]> clientCall = backend.channel.newCall(method, options);
+                synchronized (calls) {
+                    calls.add(clientCall);
+                }
+                CompletableFuture<Response> response = send(clientCall, forwarded, request);
+                response.whenComplete((result, throwable) -> backend.recordForward(result != null && result.status.isOk()));
+                responses.add(response);
+            }
+
+            // 3. 全ての応答が揃ったら、最初に成功したバックエンドの応答を返す
+            CompletableFuture.allOf(responses.toArray(new CompletableFuture[0])).whenComplete((ignored, throwable) -> {
+                Response first = null;
+                List<String> failed = new ArrayList<>(skipped);
+                for (int i = 0; i < targets.size(); i++) {
+                    Response response = responses.get(i).join();
+                    if (response.status.isOk() && response.message != null) {
+                        if (first == null) {
+                            first = response;
+                        }
+                    } else {
+                        failed.add(targets.get(i).target);
+                        CRobotUtil.Err(TAG, method.getFullMethodName() + " failed on " + targets.get(i).target + ": " + response.status);
+                    }
+                }
+                synchronized (call) {
+                    if (first == null) {
+                        call.close(responses.get(0).join().status, new Metadata());
+                        return;
+                    }
+                    Metadata responseHeaders = new Metadata();
+                    if (!failed.isEmpty()) {
+                        responseHeaders.put(FAILED_KEY, String.join(",", failed));
+                    }
+                    call.sendHeaders(responseHeaders);
+                    call.sendMessage(first.message);
+                    call.close(Status.OK, new Metadata());
+                }
+            });
+        }
+    }
+
+    /**
+     * 1つのバックエンドからの応答
+     */
+    private static final class Response {
+        final Status status;
+        final Metadata headers;
+        final byte[] message;
+
+        Response(Status status, Metadata headers, byte[] message) {
+            this.status = status;
+            this.headers = headers;
+            this.message = message;
+        }
+    }
+
+    /**
+     * 単項RPCを送り、応答 (ステータス・ヘッダー・メッセージ) をFutureで返す (失敗も例外ではなくResponseで返す)
+     */
+    private static CompletableFuture<Response> send(ClientCall<byte[], byte[]> clientCall, Metadata headers, byte[] request) {
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        clientCall.start(new ClientCall.Listener<byte[]>() {
+            private Metadata responseHeaders = new Metadata();
+            private byte[] message;
+
+            @Override
+            public void onHeaders(Metadata headers) {
+                responseHeaders = headers;
+            }
+
+            @Override
+            public void onMessage(byte[] message) {
+                this.message = message;
+            }
+
+            @Override
+            public void onClose(Status status, Metadata trailers) {
+                future.complete(new Response(status, responseHeaders, message));
+            }
+        }, headers);
+        clientCall.sendMessage(request);
+        clientCall.halfClose();
+        clientCall.request(2);
+        return future;
+    }
+
+    /**
+     * クライアントから受け取ったメタデータのうち、sota-で始まるもの (開始時刻を除く) をバックエンドへ渡す
+     */
+    private static Metadata forwardHeaders(Metadata headers) {
+        Metadata forwarded = new Metadata();
+        for (String name : headers.keys()) {
+            if (name.startsWith("sota-") && !name.endsWith(Metadata.BINARY_HEADER_SUFFIX) && !name.equals(ScheduledStart.START_AT_KEY.name())) {
+                Metadata.Key<String> key = Metadata.Key.of(name, Metadata.ASCII_STRING_MARSHALLER);
+                for (String value : headers.getAll(key)) {
+                    forwarded.put(key, value);
+                }
+            }
+        }
+        return forwarded;
+    }
+
+    /**
+     * 全てのバックエンドにGetPowerStatusを送り、応答の有無・往復時間・時計のずれを更新する
+     */
+    private void probeAll() {
+        MethodDescriptor<byte[], byte[]> probeMethod = MotionServiceGrpc.getGetPowerStatusMethod().toBuilder(BYTES, BYTES).build();
+        byte[] request = GetPowerStatusRequest.getDefaultInstance().toByteArray();
+        List<CompletableFuture<Void>> probes = new ArrayList<>(backends.size());
+        for (Backend backend : backends) {
+            long sentAt = System.currentTimeMillis();
+            long sentNanos = System.nanoTime();
+            ClientCall<byte[], byte[]> clientCall = backend.channel.newCall(probeMethod,
+                    CallOptions.DEFAULT.withDeadlineAfter(probeTimeoutMillis, TimeUnit.MILLISECONDS));
+            probes.add(send(clientCall, new Metadata(), request).thenAccept(response -> {
+                double elapsedMillis = (System.nanoTime() - sentNanos) / 1e6;
+                updateHealth(backend, response, sentAt, sentAt + elapsedMillis);
+            }));
+        }
+        try {
+            // 応答を待ってから次の確認を始める (遅いバックエンドに確認が積み重ならないように)
+            CompletableFuture.allOf(probes.toArray(new CompletableFuture[0])).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void updateHealth(Backend backend, Response response, long sentAt, double receivedAt) {
+        String receivedHeader = response.headers.get(ScheduledStart.RECEIVED_AT_KEY);
+        String respondedHeader = response.headers.get(ScheduledStart.RESPONDED_AT_KEY);
+        boolean ok = response.status.isOk() && receivedHeader != null && respondedHeader != null;
+        boolean changed;
+        synchronized (backend) {
+            if (ok) {
+                // NTPと同じ方法で、サーバーでの処理時間を除いた往復時間と時計のずれを求める
+                long serverReceived = Long.parseLong(receivedHeader);
+                long serverResponded = Long.parseLong(respondedHeader);
+                double rtt = Math.max(0, (receivedAt - sentAt) - (serverResponded - serverReceived));
+                double offset = ((serverReceived - sentAt) + (serverResponded - receivedAt)) / 2;
+                if (!backend.probed) {
+                    backend.rttMillis = rtt;
+                    backend.probed = true;
+                } else {
+                    backend.rttMillis += SMOOTHING * (rtt - backend.rttMillis);
+                }
+                // 往復時間が長い確認ほど、行きと帰りの時間の差で時計のずれの誤差が大きくなる
+                int slot = backend.samples++ % OFFSET_SAMPLES;
+                backend.sampleRtts[slot] = rtt;
+                backend.sampleOffsets[slot] = offset;
+                int best = 0;
+                for (int i = 1; i < Math.min(backend.samples, OFFSET_SAMPLES); i++) {
+                    if (backend.sampleRtts[i] < backend.sampleRtts[best]) {
+                        best = i;
+                    }
+                }
+                backend.clockOffsetMillis = backend.sampleOffsets[best];
+                backend.probeFailures = 0;
+            } else {
+                backend.probeFailures++;
+            }
+            boolean healthy = ok || (backend.healthy && backend.probeFailures < MAX_PROBE_FAILURES);
+            changed = healthy != backend.healthy;
+            backend.healthy = healthy;
+        }
+        if (changed) {
+            CRobotUtil.Log(TAG, "Backend " + backend + (ok ? "" : ": " + response.status));
+        }
+    }
+}
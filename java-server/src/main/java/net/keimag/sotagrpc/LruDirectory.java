@@ -0,0 +1,161 @@
+package net.keimag.sotagrpc;
+
+import jp.vstone.RobotLib.CRobotUtil;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * ディレクトリに保存したファイルを、合計サイズがmaxBytesを超えたら最も長く使われていないものから削除するクラス
+ * (AudioStore・TtsCacheで共有する)
+ *
+ * 使った順序はファイルの更新日時にも残すので、サーバーを再起動しても、よく使うファイルは残る。
+ * 書き込み途中のファイルはTEMP_SUFFIXの一時ファイルに書き、書き終えてから置き換えること
+ * (途中で終了した場合の一時ファイルは、次回のloadで削除する)。
+ */
+final class LruDirectory {
+    /** 書き込み途中の一時ファイルの拡張子 */
+    static final String TEMP_SUFFIX = ".tmp";
+
+    private final String tag;
+    private final Path directory;
+    private final String suffix;
+    private final long maxBytes;
+    // 保存しているファイル (ファイル名とサイズ、アクセス順)。thisのロックを保持して操作する
+    private final LinkedHashMap<String, Long> files = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    /**
+     * @param tag    ログのタグ
+     * @param suffix 管理するファイルの拡張子
+     */
+    LruDirectory(String tag, Path directory, String suffix, long maxBytes) {
+        this.tag = tag;
+        this.directory = directory;
+        this.suffix = suffix;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 一時ファイルを削除し、ディレクトリに保存されているファイルのうちacceptが受け入れるものを、更新日時が古い順に登録する
+     *
+     * @param accept ファイル名を受け取り、管理するファイルかを返す
+     */
+    void load(Predicate<String> accept) throws IOException {
+        Files.createDirectories(directory);
+        // 前回書き込みの途中で終了した場合の一時ファイルを削除する
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + TEMP_SUFFIX)) {
+            for (Path path : stream) {
+                Files.deleteIfExists(path);
+            }
+        }
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + suffix)) {
+            for (Path path : stream) {
+                if (accept.test(path.getFileName().toString())) {
+                    paths.add(path);
+                }
+            }
+        }
+        paths.sort((a, b) -> lastModified(a).compareTo(lastModified(b)));
+        synchronized (this) {
+            for (Path path : paths) {
+                long size = Files.size(path);
+                files.put(path.getFileName().toString(), size);
+                totalBytes += size;
+            }
+            evict();
+        }
+    }
+
+    /**
+     * @return 保存しているか (使った順序は変えない)
+     */
+    synchronized boolean contains(String name) {
+        return files.containsKey(name);
+    }
+
+    /**
+     * ファイルを使ったことを記録する (最も新しく使ったものとし、更新日時も新しくする)
+     *
+     * @return 保存しているか
+     */
+    boolean touch(String name) {
+        synchronized (this) {
+            if (files.get(name) == null) {
+                return false;
+            }
+        }
+        try {
+            // 次回起動時にもよく使うものとして残るように、更新日時を新しくする
+            Files.setLastModifiedTime(directory.resolve(name), FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return true;
+    }
+
+    /**
+     * 書き終えたファイルを登録し、合計サイズを超えた分を古いものから削除する
+     */
+    synchronized void add(String name, long size) {
+        Long previous = files.put(name, size);
+        if (previous != null) {
+            totalBytes -= previous;
+        }
+        totalBytes += size;
+        evict();
+    }
+
+    /**
+     * 読み込めなかったファイルの登録を外す
+     */
+    synchronized void remove(String name) {
+        Long size = files.remove(name);
+        if (size != null) {
+            totalBytes -= size;
+        }
+    }
+
+    synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    synchronized int size() {
+        return files.size();
+    }
+
+    // ロックを保持した状態で呼び出すこと
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> iterator = files.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            totalBytes -= eldest.getValue();
+            iterator.remove();
+            try {
+                // 使用中のファイルを削除しても、開いているファイルは最後まで読める
+                Files.deleteIfExists(directory.resolve(eldest.getKey()));
+                CRobotUtil.Log(tag, "Evicted " + eldest.getKey());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
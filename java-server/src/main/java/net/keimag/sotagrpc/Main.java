@@ -1,48 +1,50 @@
 package net.keimag.sotagrpc;
 
+import io.grpc.Context;
 import io.grpc.ServerBuilder;
+import io.grpc.ServiceDescriptor;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
 
 // Sotaのライブラリをインポート
-import jp.vstone.RobotLib.CRecordMic;
-import jp.vstone.RobotLib.CRobotMem;
 import jp.vstone.RobotLib.CRobotUtil;
-import jp.vstone.RobotLib.CSotaMotion;
-import jp.vstone.sotatalk.MotionAsSotaWish;
-import jp.vstone.sotatalk.SpeechRecog;
+import net.keimag.sotagrpc.v1.robotlib.MotionServiceGrpc;
+import net.keimag.sotagrpc.v1.robotlib.PlaybackServiceGrpc;
+import net.keimag.sotagrpc.v1.robotlib.RecordingServiceGrpc;
+import net.keimag.sotagrpc.v1.sotatalk.MotionAsSotaWishServiceGrpc;
+import net.keimag.sotagrpc.v1.sotatalk.TextToSpeechServiceGrpc;
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
 
 import java.io.IOException;
-import java.util.concurrent.BlockingQueue;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
-public class Main {
+@Command(name = "sota-grpc-server", mixinStandardHelpOptions = true, version = "Sota-gRPC server version 1.0.0",
+        description = "Sota-gRPCのリクエストを処理し、該当するsotalib関数を実行するサーバー")
+public class Main implements Callable<Integer> {
     /**
      * スレッドセーフでないSotaLibクラスのインスタンスをまとめて管理するクラス
      */
     public static class SotaContext {
-        public final CRobotMem mem;
-        public final CSotaMotion motion;
-        public final SpeechRecog speechRecog;
-//        public final CPlayWave player; // 例：音声再生機能
-        public final MotionAsSotaWish motionAsSotaWish;
-        // 他のライブラリもここに追加していく (CRecordMic, SpeechRecog など)
-
-        public SotaContext() {
-            String TAG = "SotaContext";
-            CRobotUtil.Log(TAG, "Initializing Sota connection...");
-            this.mem = new CRobotMem();
-            if (!mem.Connect()) {
-                throw new RuntimeException("Failed to connect to Sota.");
-            } else {
-                CRobotUtil.Log(TAG, "VSMD connection established.");
-            }
+        public final SotaBackend backend;
 
+        public SotaContext(SotaBackend backend) {
+            this.backend = backend;
             // Sotaの各種スレッドアンセーフライブラリを初期化
-            this.motion = new CSotaMotion(mem);
-            this.speechRecog = new SpeechRecog(motion);
-            this.motionAsSotaWish = new MotionAsSotaWish(motion);
-            this.motion.InitRobot_Sota();
+            this.backend.connect();
         }
     }
 
@@ -50,12 +52,88 @@ public class Main {
      * SotaLib呼び出しをSota Threadで行う際のインターフェース
      */
     public static class SotaTask<T> {
+        /**
+         * Sota Threadで実行する優先度 (上にあるものほど先に実行される)
+         */
+        public enum Priority {
+            /** 緊急停止など、待たせてはいけないコマンド (ServoOff, SetCollisionDetection, StopAudio) */
+            SAFETY,
+            /** 短時間で終わる設定変更 (ServoOn, SetMouthLedVoiceSync) */
+            CONTROL,
+            /** 状態の読み取り (GetCurrentPose, GetPowerStatus など) */
+            QUERY,
+            /** 時間のかかるモーション・発話・音声再生 (PlayPose, PlayScene, SayWithMotion, PlayAudio) */
+            BULK
+        }
+
+        private final Priority priority;
+        private final String coalesceKey;
         private final Function<SotaContext, T> function;
         private final CompletableFuture<T> future;
+        /** SotaTaskQueueに入れられた時刻 (System.nanoTime) */
+        long enqueuedNanos;
+        /** 実行を始めてよい時刻 (System.nanoTime)。scheduledがfalseの場合は使わない */
+        final long startAtNanos;
+        final boolean scheduled;
+        /** タスクを作った呼び出しのクライアントID (SotaTaskQueueがクライアントごとに公平に取り出す) */
+        final String clientId;
+        /** タスクを作った呼び出しの計測値 (呼び出しの外で作られた場合はnull) */
+        final Metrics.MethodMetrics methodMetrics;
+        /** タスクを作った呼び出しのContext (期限・取り消しをTaskExpiryが確認する。呼び出しの外ではContext.ROOT) */
+        final Context callContext;
+        /** 実行結果を他のタスクと共有している (呼び出しが取り消されても実行する) */
+        volatile boolean shared;
+        /** キューに入れたときに見積もった実行時間 (SotaTaskQueueが待ち時間の見積もりに使う) */
+        long costNanos;
 
         public SotaTask(Function<SotaContext, T> procedure, CompletableFuture<T> future) {
+            this(Priority.CONTROL, procedure, future);
+        }
+
+        public SotaTask(Priority priority, Function<SotaContext, T> procedure, CompletableFuture<T> future) {
+            this(priority, null, procedure, future);
+        }
+
+        /**
+         * @param coalesceKey 同じキーのタスクがまだキューで待っている場合、そのタスクの実行結果を共有する (副作用のない読み取りのみ指定すること)
+         */
+        public SotaTask(Priority priority, String coalesceKey, Function<SotaContext, T> procedure, CompletableFuture<T> future) {
+            this.priority = priority;
+            this.coalesceKey = coalesceKey;
             this.function = procedure;
             this.future = future;
+            this.clientId = ClientIdentity.current();
+            this.methodMetrics = Metrics.current();
+            this.callContext = Context.current();
+            // 呼び出しで開始時刻が指定されていれば、その時刻まで実行を待つ (SAFETYは待たない)
+            long startAtMillis = priority == Priority.SAFETY ? 0 : ScheduledStart.currentStartAtMillis();
+            long delayNanos = startAtMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(startAtMillis - System.currentTimeMillis()) : 0;
+            this.scheduled = delayNanos > 0;
+            this.startAtNanos = System.nanoTime() + delayNanos;
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        public String getCoalesceKey() {
+            return coalesceKey;
+        }
+
+        /**
+         * このタスクの実行結果をfollowerのFutureにも渡す (followerは実行しない)
+         */
+        @SuppressWarnings("unchecked")
+        void shareResultWith(SotaTask<?> follower) {
+            shared = true;
+            CompletableFuture<Object> followerFuture = (CompletableFuture<Object>) follower.future;
+            future.whenComplete((result, throwable) -> {
+                if (throwable != null) {
+                    followerFuture.completeExceptionally(throwable);
+                } else {
+                    followerFuture.complete(result);
+                }
+            });
         }
 
         public void execute(SotaContext context) {
@@ -67,62 +145,354 @@ public class Main {
             }
         }
 
+        /**
+         * 実行せずに、Futureを例外で完了する
+         */
+        void fail(Throwable cause) {
+            future.completeExceptionally(cause);
+        }
+
         @Override
         public String toString() {
             return this.function.toString();
         }
     }
 
-    public static void main(String[] args) throws IOException, InterruptedException {
+    /**
+     * SotaTaskの完了時にレスポンスを返すコールバックを登録する
+     * gRPCスレッドはfuture.get()で待機せず、キューに入れた時点で解放される
+     *
+     * @param future           SotaTaskに渡したFuture
+     * @param responseObserver レスポンスを返すStreamObserver
+     * @param toResponse       タスクの結果をレスポンスに変換する関数
+     */
+    public static <T, R> void respondAsync(CompletableFuture<T> future, StreamObserver<R> responseObserver, Function<T, R> toResponse) {
+        future.whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                if (!(throwable instanceof StatusRuntimeException)) {
+                    // ステータス付きの例外 (取り消された・期限に間に合わないタスクなど) は想定内なので、スタックトレースを出さない
+                    throwable.printStackTrace();
+                }
+                responseObserver.onError(throwable);
+                return;
+            }
+            try {
+                responseObserver.onNext(toResponse.apply(result));
+                responseObserver.onCompleted();
+            } catch (Exception e) {
+                e.printStackTrace();
+                responseObserver.onError(e);
+            }
+        });
+    }
+
+    @Option(names = {"-p", "--port"}, description = "gRPCサーバーのポート番号 (default: ${DEFAULT-VALUE})")
+    int port = 8080;
+
+    @Option(names = "--bulk-max-wait-ms", description = "BULK優先度のタスクがこの時間以上待たされたら、CONTROL・QUERYより先に実行する (default: ${DEFAULT-VALUE})")
+    long bulkMaxWaitMs = 2000;
+
+    @Option(names = "--client-weight", split = ",", paramLabel = "CLIENT_ID=WEIGHT",
+            description = "クライアント (sota-client-id) ごとの重み。同じ優先度のコマンドは、重みの比でクライアントごとに順番に実行する (指定のないクライアントは1)")
+    Map<String, Integer> clientWeights = new HashMap<>();
+
+    @Option(names = "--client-stats-interval-s", description = "クライアントごとの待ち行列の長さ・待ち時間をログに出す間隔 (0で出さない) (default: ${DEFAULT-VALUE})")
+    int clientStatsIntervalS = 60;
+
+    @Option(names = "--max-queue-delay-ms", description = "Sota Threadの待ち時間の見積もりがこれを超える場合、RPCをRESOURCE_EXHAUSTEDで拒否する (SAFETYは拒否しない。0で制限しない) (default: ${DEFAULT-VALUE})")
+    long maxQueueDelayMs = 5000;
+
+    @Option(names = "--max-queued-tasks", description = "キューのタスク数がこれに達したら、RPCをRESOURCE_EXHAUSTEDで拒否する (SAFETYは拒否しない。0で制限しない) (default: ${DEFAULT-VALUE})")
+    int maxQueuedTasks = 1000;
+
+    @Option(names = "--method-budget-ms", split = ",", paramLabel = "METHOD=MS",
+            description = "RPC (PlayPose、またはsotagrpc.v1.MotionService/PlayPoseの形式) ごとの、キューに入れられてから実行を終えるまでの予算。間に合わないタスクは実行せずDEADLINE_EXCEEDEDを返す")
+    Map<String, Long> methodBudgetsMs = new HashMap<>();
+
+    @Option(names = "--metrics-port", description = "Prometheusの形式の計測値をhttp://<host>:<port>/metricsで公開するポート (0で公開しない) (default: ${DEFAULT-VALUE})")
+    int metricsPort = 9464;
+
+    @Option(names = "--state-sample-hz", description = "Sota Threadの空き時間にポーズ・電源・ボタンの状態を読み取る頻度 (0で無効) (default: ${DEFAULT-VALUE})")
+    double stateSampleHz = 5;
+
+    @Option(names = "--state-max-staleness-ms", description = "クライアントがmax_staleness_msを指定しなかった場合に、読み取り済みの状態を返してよい古さ (default: ${DEFAULT-VALUE})")
+    long stateMaxStalenessMs = 500;
+
+    @Option(names = "--pose-stream-hz", description = "StreamPosesで受け取った目標ポーズを反映する頻度 (default: ${DEFAULT-VALUE})")
+    int poseStreamHz = 50;
+
+    @Option(names = "--max-inbound-message-mb", description = "受信するメッセージの最大サイズ (MB)。PlayAudioStreamを使う場合は小さくしてよい (default: ${DEFAULT-VALUE})")
+    int maxInboundMessageMb = 512;
+
+    @Option(names = "--audio-stream-buffer-ms", description = "PlayAudioStreamで1回の再生ごとに確保するバッファの長さ (default: ${DEFAULT-VALUE})")
+    int audioStreamBufferMs = 2000;
+
+    @Option(names = "--audio-stream-prebuffer-ms", description = "PlayAudioStreamで再生を始めるまでに受信しておく長さ (default: ${DEFAULT-VALUE})")
+    int audioStreamPrebufferMs = 200;
+
+    @Option(names = "--audio-store-dir", description = "UploadAudioで受け取った音声データを保存するディレクトリ (default: ${DEFAULT-VALUE})")
+    Path audioStoreDir = Paths.get("audio-store");
+
+    @Option(names = "--audio-store-mb", description = "--audio-store-dirに保存する合計サイズ (MB)。超えた場合は長く再生されていないものから削除する (default: ${DEFAULT-VALUE})")
+    int audioStoreMb = 256;
+
+    @Option(names = "--mixer", description = "PlayAudio・PlayAudioStream・PlayLocalAudio・PlayStoredAudio・sayの音声を1つの出力にまとめて再生する (音量の指定、発話中のBGMの音量の自動調整が有効になる。16bit PCM以外のWAVは従来どおりCPlayWaveで再生する)")
+    boolean mixer;
+
+    @Option(names = "--mixer-sample-rate", description = "--mixerの出力のサンプリング周波数 (default: ${DEFAULT-VALUE})")
+    int mixerSampleRate = 44100;
+
+    @Option(names = "--mixer-channels", description = "--mixerの出力のチャンネル数 (default: ${DEFAULT-VALUE})")
+    int mixerChannels = 1;
+
+    @Option(names = "--mixer-duck-gain", description = "--mixerで発話 (SPEECH) の間にBGM (MUSIC) の音量に掛ける倍率 (default: ${DEFAULT-VALUE})")
+    float mixerDuckGain = 0.3f;
+
+    @Option(names = "--mic-sample-rate", description = "StreamRecordingで読み取るマイクのサンプリング周波数 (default: ${DEFAULT-VALUE})")
+    int micSampleRate = 16000;
+
+    @Option(names = "--mic-frame-ms", description = "StreamRecordingで1回に送るフレームの長さ (default: ${DEFAULT-VALUE})")
+    int micFrameMs = 20;
+
+    @Option(names = "--mic-max-buffered-ms", description = "StreamRecordingで受信が追いつかない場合に溜めておく長さの既定値 (default: ${DEFAULT-VALUE})")
+    int micMaxBufferedMs = 2000;
+
+    @Option(names = "--tts-cache-mb", description = "音声合成の結果をメモリに保持する合計サイズ (MB) (0で無効) (default: ${DEFAULT-VALUE})")
+    int ttsCacheMb = 32;
+
+    @Option(names = "--tts-cache-dir", description = "音声合成の結果を保存するディレクトリ。指定した場合、再起動後もキャッシュが残る")
+    Path ttsCacheDir;
+
+    @Option(names = "--tts-cache-disk-mb", description = "--tts-cache-dirに保存する合計サイズ (MB) (default: ${DEFAULT-VALUE})")
+    int ttsCacheDiskMb = 256;
+
+    @Option(names = "--tts-lookahead", description = "StreamTTSData・sayで、送信・再生中の文より先に合成しておく文の数 (default: ${DEFAULT-VALUE})")
+    int ttsLookahead = 2;
+
+    @Option(names = "--gateway", split = ",", paramLabel = "HOST:PORT",
+            description = "Sotaに接続せず、指定した複数のSota-gRPCサーバーに同じコマンドを転送するゲートウェイとして動作する (単項RPCのみ)")
+    List<String> gatewayBackends;
+
+    @Option(names = "--gateway-lead-ms", description = "ゲートウェイ: クライアントがsota-start-at-msを指定しなかった場合に、受け取ってから全台で開始するまでの時間 (default: ${DEFAULT-VALUE})")
+    long gatewayLeadMs = 150;
+
+    @Option(names = "--gateway-probe-interval-ms", description = "ゲートウェイ: 各サーバーの応答・往復時間・時計のずれを確認する間隔 (default: ${DEFAULT-VALUE})")
+    long gatewayProbeIntervalMs = 1000;
+
+    @Option(names = "--simulate", description = "実機に接続せず、模擬したSotaで動作する (負荷試験用)")
+    boolean simulate;
+
+    @Option(names = "--sim-command-latency-ms", description = "模擬Sota: SotaLib呼び出し1回あたりの時間 (default: ${DEFAULT-VALUE})")
+    int simCommandLatencyMs = new SimulatedSotaBackend.Config().commandLatencyMs;
+
+    @Option(names = "--sim-tts-latency-ms", description = "模擬Sota: 音声合成の固定時間 (default: ${DEFAULT-VALUE})")
+    int simTtsLatencyMs = new SimulatedSotaBackend.Config().ttsLatencyMs;
+
+    @Option(names = "--sim-tts-latency-ms-per-char", description = "模擬Sota: 音声合成の1文字あたりの時間 (default: ${DEFAULT-VALUE})")
+    int simTtsLatencyMsPerChar = new SimulatedSotaBackend.Config().ttsLatencyMsPerChar;
+
+    @Option(names = "--sim-speech-ms-per-char", description = "模擬Sota: 発話の1文字あたりの長さ (default: ${DEFAULT-VALUE})")
+    int simSpeechMsPerChar = new SimulatedSotaBackend.Config().speechMsPerChar;
+
+    public static void main(String[] args) {
+        System.exit(new CommandLine(new Main()).execute(args));
+    }
+
+    @Override
+    public Integer call() throws Exception {
         String TAG = "Sota-gRPC";
-        int port = 8080;
         System.out.println("Sota-gRPC server version 1.0.0");
-        // Sotaの各種ライブラリを初期
-        CRecordMic recordMic = new CRecordMic();
-        // TextToSpeechSotaは静的メソッドのみなのでインスタンス化は不要
+        if (gatewayBackends != null && !gatewayBackends.isEmpty()) {
+            return runGateway(TAG);
+        }
+        // Sotaの各種ライブラリを初期化 (接続はSota Threadの内部で行う)
+        SotaBackend backend = createBackend();
 //        CRobotUtil.Log("Sota", "Firmware Rev. " + sotaContext.mem.FirmwareRev.get());
 
         // 1. コマンドをやり取りするためのキューを作成
-        BlockingQueue<SotaTask<?>> commandQueue = new LinkedBlockingQueue<>();
+        SotaTaskQueue commandQueue = new SotaTaskQueue(TimeUnit.MILLISECONDS.toNanos(bulkMaxWaitMs), clientWeights);
+        if (clientStatsIntervalS > 0) {
+            logClientStats(commandQueue, clientStatsIntervalS);
+        }
+
+        // RPCの所要時間、Sota Threadの待ち時間・使用率などの計測値
+        Metrics metrics = new Metrics(commandQueue);
+        // 取り消された・期限に間に合わないタスクを、Sota Threadで実行する前に捨てる
+        TaskExpiry taskExpiry = new TaskExpiry(methodBudgetsMs, metrics);
+        // 過負荷のときは、キューに入れる前にRESOURCE_EXHAUSTEDで拒否する
+        AdmissionControl admissionControl = new AdmissionControl(metrics, TimeUnit.MILLISECONDS.toNanos(maxQueueDelayMs), maxQueuedTasks);
+
+        // ポーズ・電源・ボタンの状態は、Sota Threadの空き時間に読み取っておく
+        RobotStateSampler stateSampler = new RobotStateSampler(stateSampleHz, stateMaxStalenessMs);
+
+        // motion_idごとのモーションの状態
+        MotionRegistry motionRegistry = new MotionRegistry(commandQueue);
+        // モーションの操作権 (取得したクライアント以外のモーションのコマンドを拒否する)
+        ControlLease controlLease = new ControlLease();
+        // 音声を1つの出力にまとめて再生するミキサー (--mixerを指定しない場合は、再生ごとにCPlayWaveを使う)
+        AudioMixer audioMixer = mixer ? new AudioMixer(commandQueue, mixerSampleRate, mixerChannels, mixerDuckGain) : null;
 
         // 2. Sotaのスレッドアンセーフライブラリを操作する専用スレッドを起動
+        CompletableFuture<Void> sotaReady = new CompletableFuture<>();
         Thread sotaThread = new Thread(() -> {
             // ★★★★★ 専用スレッドの内部で、Sotaの初期化を行う ★★★★★
             SotaContext sotaContext;
-            sotaContext = new SotaContext();
+            try {
+                sotaContext = new SotaContext(backend);
+            } catch (Exception e) {
+                sotaReady.completeExceptionally(e);
+                return;
+            }
             CRobotUtil.Log(TAG, "SotaContext created successfully inside sotaThread.");
+            sotaReady.complete(null);
 
             // 初期化後、コマンドの処理ループを開始
+            // 待ち時間・実行時間・使用率はmetricsに記録する (--metrics-port, MetricsService)
             try {
                 while (true) {
-                    System.out.println("Waiting task for Sota Thread...");
-                    SotaTask<?> task = commandQueue.take();
+                    // 次に状態を読み取る時刻まではタスクを待つ
+                    SotaTask<?> task = commandQueue.poll(stateSampler.nanosUntilNextSample(), TimeUnit.NANOSECONDS);
+                    long startNanos = System.nanoTime();
+                    if (task == null) {
+                        // タスクがない間に状態を読み取る
+                        stateSampler.sample(sotaContext);
+                        metrics.recordBusy(System.nanoTime() - startNanos, false);
+                        continue;
+                    }
+                    // 呼び出しが取り消された・期限や予算に間に合わないタスクは実行しない
+                    TaskExpiry.Reason skipReason = taskExpiry.check(task, startNanos);
+                    if (skipReason != null) {
+                        metrics.recordSkipped(task, skipReason);
+                        TaskExpiry.skip(task, skipReason);
+                        continue;
+                    }
                     // 初期化済みのsotaContextを使ってタスクを実行
                     task.execute(sotaContext);
+                    long endNanos = System.nanoTime();
+                    metrics.recordTask(task, startNanos - task.enqueuedNanos, endNanos - startNanos);
+                    if (taskExpiry.isOverBudget(task, endNanos)) {
+                        metrics.recordOverBudget(task);
+                    }
+                    if (stateSampler.isOverdue()) {
+                        // タスクが途切れない場合も、状態が古くなりすぎないように読み取る
+                        stateSampler.sample(sotaContext);
+                        metrics.recordBusy(System.nanoTime() - endNanos, true);
+                    }
                 }
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 CRobotUtil.Err("Sota Thread", "SotaThread was interrupted.");
             }
-        });
+        }, "Sota Thread");
         sotaThread.setContextClassLoader(Thread.currentThread().getContextClassLoader()); // 専用スレッドにmainスレッドのクラスローダーをセットする
         sotaThread.start(); // スレッド開始
         CRobotUtil.Log(TAG, "Sota thread started.");
+        try {
+            sotaReady.get();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+            CRobotUtil.Err(TAG, "Failed to initialize Sota. Use --simulate to run without a robot.");
+            return 1;
+        }
 
         // gRPCサーバーを起動
         CRobotUtil.Log(TAG, "Starting gRPC server...");
         io.grpc.Server server = ServerBuilder.forPort(port)
-                .maxInboundMessageSize(512 * 1024 * 1024) // 例: 上限を512MBに設定
-                .addService(new MotionServiceImpl(commandQueue))
+                .maxInboundMessageSize(maxInboundMessageMb * 1024 * 1024) // PlayAudioで音声データ全体を1回で受け取るため、既定では512MB
+                .intercept(ScheduledStart.interceptor()) // sota-start-at-msで指定された開始時刻まで、タスクの実行を待つ
+                .intercept(controlLease.interceptor()) // 操作権を保持していないクライアントのモーションのコマンドを拒否する
+                .intercept(ClientIdentity.interceptor()) // クライアントIDを決める (後に登録したものほど先に実行される)
+                .intercept(admissionControl.interceptor()) // 待ち時間の見積もりが長すぎる場合は、RESOURCE_EXHAUSTEDで拒否する
+                .intercept(metrics.interceptor()) // 拒否されたものを含め、全てのRPCの所要時間とステータスを記録する
+                .addService(new MotionServiceImpl(commandQueue, stateSampler, new PoseStreamController(commandQueue, motionRegistry, poseStreamHz), motionRegistry, controlLease))
                 .addService(new MotionAsSotaWishServiceImpl(commandQueue))
-                .addService(new PlaybackServiceImpl(commandQueue))
-                .addService(new RecordingServiceImpl(recordMic))
+                .addService(new PlaybackServiceImpl(commandQueue, audioStreamBufferMs, audioStreamPrebufferMs,
+                        new AudioStore(audioStoreDir, audioStoreMb * 1024L * 1024), audioMixer))
+                .addService(new RecordingServiceImpl(backend, new MicrophoneStreamer(backend, micSampleRate, 1, micFrameMs, micMaxBufferedMs)))
 //                .addService(new SpeechRecognitionServiceImpl(speechRecog))
-                .addService(new TextToSpeechServiceImpl(commandQueue))
+                .addService(new TextToSpeechServiceImpl(commandQueue, backend,
+                        new TtsCache(ttsCacheMb * 1024L * 1024, ttsCacheDir, ttsCacheDiskMb * 1024L * 1024), ttsLookahead, audioMixer))
+                .addService(new MetricsServiceImpl(metrics))
                 .build();
         server.start();
-        CRobotUtil.Log(TAG, "Server started on port " + port);
+        CRobotUtil.Log(TAG, "Server started on port " + server.getPort());
+        metrics.registerMethods(server.getServices());
+        serveMetrics(TAG, metrics::toPrometheusText);
+
+        server.awaitTermination();
+        return 0;
+    }
+
+    /**
+     * --metrics-portが0でなければ、Prometheusの形式の計測値をhttp://<host>:<port>/metricsで公開する
+     */
+    private void serveMetrics(String TAG, Supplier<String> prometheusText) {
+        if (metricsPort <= 0) {
+            return;
+        }
+        try {
+            Metrics.serveHttp(metricsPort, prometheusText);
+            CRobotUtil.Log(TAG, "Metrics available at http://<host>:" + metricsPort + "/metrics");
+        } catch (IOException e) {
+            // gRPCはもう受け付けているので、計測値を公開できなくても止めない (同じホストで複数のサーバーを動かす場合など)
+            CRobotUtil.Err(TAG, "Failed to serve metrics on port " + metricsPort + " (" + e + "). Use --metrics-port to change it.");
+        }
+    }
+
+    /**
+     * クライアントごとの待ち行列の長さ・待ち時間を定期的にログに出す (前回からタスクを実行したクライアントのみ)
+     */
+    private static void logClientStats(SotaTaskQueue commandQueue, int intervalSeconds) {
+        ScheduledExecutorService logger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Client Stats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Map<String, Long> lastExecuted = new HashMap<>();
+        logger.scheduleWithFixedDelay(() -> {
+            for (SotaTaskQueue.ClientStats stats : commandQueue.getClientStats()) {
+                Long last = lastExecuted.put(stats.getClientId(), stats.getExecuted());
+                if (last == null || last != stats.getExecuted() || stats.getQueued() > 0) {
+                    CRobotUtil.Log("SotaTaskQueue", "Client " + stats);
+                }
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
 
+    /**
+     * 複数のSota-gRPCサーバーに同じコマンドを転送するゲートウェイとして動作する
+     */
+    private int runGateway(String TAG) throws Exception {
+        FleetGateway gateway = new FleetGateway(gatewayBackends, gatewayLeadMs, gatewayProbeIntervalMs);
+        ServerBuilder<?> builder = ServerBuilder.forPort(port)
+                .maxInboundMessageSize(maxInboundMessageMb * 1024 * 1024);
+        // Sota-gRPCサーバーと同じサービスを公開する
+        for (ServiceDescriptor service : new ServiceDescriptor[]{
+                MotionServiceGrpc.getServiceDescriptor(),
+                MotionAsSotaWishServiceGrpc.getServiceDescriptor(),
+                PlaybackServiceGrpc.getServiceDescriptor(),
+                RecordingServiceGrpc.getServiceDescriptor(),
+                TextToSpeechServiceGrpc.getServiceDescriptor()}) {
+            builder.addService(gateway.proxy(service));
+        }
+        io.grpc.Server server = builder.build();
+        server.start();
+        CRobotUtil.Log(TAG, "Gateway started on port " + server.getPort() + " for " + gatewayBackends);
+        // バックエンドごとの応答の有無・往復時間・時計のずれを公開する
+        serveMetrics(TAG, gateway::toPrometheusText);
         server.awaitTermination();
+        return 0;
+    }
+
+    private SotaBackend createBackend() {
+        if (!simulate) {
+            return new RobotSotaBackend();
+        }
+        SimulatedSotaBackend.Config config = new SimulatedSotaBackend.Config();
+        config.commandLatencyMs = simCommandLatencyMs;
+        config.ttsLatencyMs = simTtsLatencyMs;
+        config.ttsLatencyMsPerChar = simTtsLatencyMsPerChar;
+        config.speechMsPerChar = simSpeechMsPerChar;
+        return new SimulatedSotaBackend(config);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,615 @@
+package net.keimag.sotagrpc;
+
+import com.sun.net.httpserver.HttpServer;
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.ForwardingServerCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerMethodDefinition;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * サーバーの計測値 (RPCごとの所要時間・エラー数、Sota Threadの待ち時間・実行時間・使用率、キューの長さ)
+ *
+ * RPCの所要時間とステータスはServerInterceptorで、タスクの待ち時間・実行時間はSota Threadのループで記録する。
+ * 記録はAtomicLongの加算のみで、オブジェクトを生成しない (Sota Threadを遅らせない)。
+ * 計測値はMetricsServiceのGetMetricsと、Prometheusの形式のテキスト (serveHttp) で読み取る。
+ */
+public class Metrics {
+    /** RPCの外で作られたタスク (ミキサーの出力、サーバー内部の定期処理など) の計測値の名前 */
+    public static final String INTERNAL_METHOD = "internal";
+    /** 使用率を計算する最短の期間 (これより短い間隔で読み取った場合は前回の値を返す) */
+    private static final long BUSY_RATIO_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final Context.Key<MethodMetrics> METHOD_METRICS = Context.key("sota-method-metrics");
+    private static final Status.Code[] CODES = Status.Code.values();
+
+    private final SotaTaskQueue commandQueue;
+    private final ConcurrentHashMap<String, MethodMetrics> methods = new ConcurrentHashMap<>();
+    private final MethodMetrics internal = methodMetrics(INTERNAL_METHOD);
+    // Sota Threadがタスク・状態の読み取りを実行していた時間の累計 (Sota Threadのみが書き込む)
+    private final AtomicLong busyNanos = new AtomicLong();
+    // 以下はSota Threadのみが操作する (RPCのタスクの実行時間と、それ以外 (内部のタスク・タスクの合間の状態の読み取り) の時間)
+    private long windowStartNanos = System.nanoTime();
+    private long windowRpcNanos;
+    private long windowOverheadNanos;
+    // RPCのタスクの実行時間1あたりに、Sota Threadが実際に使う時間 (1以上)
+    private volatile double overheadFactor = 1.0;
+    // 以下はthisのロックを保持して操作する
+    private long ratioWindowStartNanos = System.nanoTime();
+    private long ratioWindowStartBusyNanos;
+    private double busyRatio;
+
+    public Metrics(SotaTaskQueue commandQueue) {
+        this.commandQueue = commandQueue;
+    }
+
+    /**
+     * @return 現在の呼び出しの計測値 (呼び出しの外、またはinterceptor()を登録していない場合はnull)
+     */
+    static MethodMetrics current() {
+        return METHOD_METRICS.get();
+    }
+
+    /**
+     * @return contextにRPCの計測値を入れたContext (この中で作られたSotaTaskはそのRPCのものとして記録される)
+     */
+    static Context withMethodMetrics(Context context, MethodMetrics method) {
+        return context.withValue(METHOD_METRICS, method);
+    }
+
+    /**
+     * サーバーの全てのRPCの計測値を作っておく (呼び出されていないRPCも0として出力するため)
+     */
+    public void registerMethods(List<ServerServiceDefinition> services) {
+        for (ServerServiceDefinition service : services) {
+            for (ServerMethodDefinition<?, ?> method : service.getMethods()) {
+                methodMetrics(method.getMethodDescriptor().getFullMethodName());
+            }
+        }
+    }
+
+    /**
+     * RPCの所要時間と終了時のステータスを記録し、タスクが呼び出しの計測値を参照できるようにContextに入れるServerInterceptor
+     * (拒否されたRPCも記録するため、最も外側 (最後) に登録すること)
+     */
+    public ServerInterceptor interceptor() {
+        return new ServerInterceptor() {
+            @Override
+            public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+                MethodMetrics method = methodMetrics(call.getMethodDescriptor().getFullMethodName());
+                MeasuredCall<ReqT, RespT> measured = new MeasuredCall<>(call, method);
+                ServerCall.Listener<ReqT> listener = Contexts.interceptCall(withMethodMetrics(Context.current(), method), measured, headers, next);
+                return new ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT>(listener) {
+                    @Override
+                    public void onCancel() {
+                        // クライアントが取り消した・期限が切れた場合は、close()が呼ばれないことがある
+                        measured.record(Status.Code.CANCELLED);
+                        super.onCancel();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Sota Threadで実行したタスクの待ち時間・実行時間を記録する (Sota Threadから呼び出すこと)
+     *
+     * @param waitNanos      キューに入れられて (開始時刻が指定された場合はその時刻から) 実行を始めるまでの時間
+     * @param executionNanos 実行にかかった時間
+     */
+    public void recordTask(Main.SotaTask<?> task, long waitNanos, long executionNanos) {
+        MethodMetrics method = task.methodMetrics != null ? task.methodMetrics : internal;
+        method.queueWait.record(waitNanos);
+        method.execution.record(executionNanos);
+        busyNanos.lazySet(busyNanos.get() + executionNanos);
+        if (method == internal) {
+            windowOverheadNanos += executionNanos;
+        } else {
+            windowRpcNanos += executionNanos;
+        }
+        updateOverheadFactor();
+    }
+
+    /**
+     * 実行しなかったタスクを、その理由と省けた時間 (そのRPCの平均実行時間) とともに記録する (Sota Threadから呼び出すこと)
+     */
+    public void recordSkipped(Main.SotaTask<?> task, TaskExpiry.Reason reason) {
+        MethodMetrics method = task.methodMetrics != null ? task.methodMetrics : internal;
+        method.skipped.incrementAndGet(reason.ordinal());
+        method.savedNanos.addAndGet(method.execution.getMeanNanos());
+    }
+
+    /**
+     * 実行を終えたときに予算 (--method-budget-ms) を超えていたタスクを記録する (Sota Threadから呼び出すこと)
+     */
+    public void recordOverBudget(Main.SotaTask<?> task) {
+        MethodMetrics method = task.methodMetrics != null ? task.methodMetrics : internal;
+        method.overBudget.incrementAndGet();
+    }
+
+    /**
+     * @return taskと同じRPCのタスクの平均実行時間 (まだ実行したことがなければ0)
+     */
+    public long expectedExecutionNanos(Main.SotaTask<?> task) {
+        MethodMetrics method = task.methodMetrics != null ? task.methodMetrics : internal;
+        return method.execution.getMeanNanos();
+    }
+
+    /**
+     * 実行しなかったタスクの分だけ、Sota Threadの時間を省けた合計 (秒、平均実行時間からの推定)
+     */
+    public double getSavedSeconds() {
+        long saved = 0;
+        for (MethodMetrics method : methods.values()) {
+            saved += method.savedNanos.get();
+        }
+        return saved / 1e9;
+    }
+
+    /**
+     * タスク以外でSota Threadを使った時間 (状態の読み取りなど) を記録する (Sota Threadから呼び出すこと)
+     *
+     * @param betweenTasks タスクの合間に実行した (タスクの待ち時間を延ばした) 場合はtrue、キューが空の間に実行した場合はfalse
+     */
+    public void recordBusy(long nanos, boolean betweenTasks) {
+        busyNanos.lazySet(busyNanos.get() + nanos);
+        if (betweenTasks) {
+            windowOverheadNanos += nanos;
+            updateOverheadFactor();
+        }
+    }
+
+    /**
+     * priorityのタスクを今キューに入れた場合に、実行を始めるまでの待ち時間の見積もり
+     * (キューのタスクの実行時間の見積もりの合計を、内部のタスクや状態の読み取りに使われる分だけ延ばしたもの)
+     */
+    public long estimatedDelayNanos(Main.SotaTask.Priority priority) {
+        return (long) (commandQueue.estimatedDelayNanos(priority) * overheadFactor);
+    }
+
+    /**
+     * @return RPCのタスクの実行時間1あたりに、Sota Threadが実際に使う時間 (直近1秒以上の期間で計算する)
+     */
+    public double getOverheadFactor() {
+        return overheadFactor;
+    }
+
+    // Sota Threadから呼び出すこと
+    private void updateOverheadFactor() {
+        long now = System.nanoTime();
+        if (now - windowStartNanos < BUSY_RATIO_WINDOW_NANOS) {
+            return;
+        }
+        // RPCのタスクを実行しなかった期間は、前回の値を使い続ける
+        if (windowRpcNanos > 0) {
+            overheadFactor = 1.0 + (double) windowOverheadNanos / windowRpcNanos;
+        }
+        windowStartNanos = now;
+        windowRpcNanos = 0;
+        windowOverheadNanos = 0;
+    }
+
+    /**
+     * Sota Threadがタスク・状態の読み取りを実行していた時間の累計 (秒)
+     */
+    public double getBusySeconds() {
+        return busyNanos.get() / 1e9;
+    }
+
+    /**
+     * @return 前回の計算から1秒以上経っていれば、その間にSota Threadがタスク・状態の読み取りを実行していた時間の割合 (経っていなければ前回の値)
+     */
+    public synchronized double getBusyRatio() {
+        long now = System.nanoTime();
+        long elapsed = now - ratioWindowStartNanos;
+        if (elapsed >= BUSY_RATIO_WINDOW_NANOS) {
+            long busy = busyNanos.get();
+            busyRatio = Math.min(1.0, (double) (busy - ratioWindowStartBusyNanos) / elapsed);
+            ratioWindowStartNanos = now;
+            ratioWindowStartBusyNanos = busy;
+        }
+        return busyRatio;
+    }
+
+    public SotaTaskQueue getCommandQueue() {
+        return commandQueue;
+    }
+
+    /**
+     * @return RPCごとの計測値 (名前順、INTERNAL_METHODを含む)
+     */
+    public Map<String, MethodMetrics> getMethods() {
+        return new TreeMap<>(methods);
+    }
+
+    /**
+     * Prometheusの形式 (text/plain; version=0.0.4) で計測値を出力する
+     */
+    public String toPrometheusText() {
+        StringBuilder out = new StringBuilder(16 * 1024);
+        Map<String, MethodMetrics> sorted = getMethods();
+
+        out.append("# HELP sota_grpc_server_handled_total RPCs completed on the server, by status code.\n");
+        out.append("# TYPE sota_grpc_server_handled_total counter\n");
+        for (MethodMetrics method : sorted.values()) {
+            for (Status.Code code : CODES) {
+                long count = method.getCount(code);
+                if (count > 0 || code == Status.Code.OK) {
+                    out.append("sota_grpc_server_handled_total{method=\"").append(escape(method.name))
+                            .append("\",code=\"").append(code.name()).append("\"} ").append(count).append('\n');
+                }
+            }
+        }
+        appendHistograms(out, "sota_grpc_server_handling_seconds", "Time from receiving an RPC to closing it.", sorted, 0);
+        appendHistograms(out, "sota_task_queue_wait_seconds", "Time a task waited in the command queue before the sota thread started it.", sorted, 1);
+        appendHistograms(out, "sota_task_execution_seconds", "Time the sota thread spent executing a task.", sorted, 2);
+
+        out.append("# HELP sota_task_queue_depth Tasks waiting for the sota thread, by priority.\n");
+        out.append("# TYPE sota_task_queue_depth gauge\n");
+        for (Main.SotaTask.Priority priority : Main.SotaTask.Priority.values()) {
+            out.append("sota_task_queue_depth{priority=\"").append(priority.name()).append("\"} ")
+                    .append(commandQueue.size(priority)).append('\n');
+        }
+        out.append("# HELP sota_task_queue_estimated_delay_seconds Estimated wait before a new task of each priority would start, used for admission control.\n");
+        out.append("# TYPE sota_task_queue_estimated_delay_seconds gauge\n");
+        for (Main.SotaTask.Priority priority : Main.SotaTask.Priority.values()) {
+            out.append("sota_task_queue_estimated_delay_seconds{priority=\"").append(priority.name()).append("\"} ")
+                    .append(estimatedDelayNanos(priority) / 1e9).append('\n');
+        }
+        appendSample(out, "sota_task_scheduled", "gauge", "Tasks waiting for their sota-start-at-ms.", commandQueue.scheduledSize());
+        appendSample(out, "sota_task_coalesced_total", "counter", "Tasks that shared the result of an identical pending read.", commandQueue.getCoalescedCount());
+        out.append("# HELP sota_task_skipped_total Tasks dropped before execution because the call was cancelled, its deadline would expire or its budget was exceeded.\n");
+        out.append("# TYPE sota_task_skipped_total counter\n");
+        for (MethodMetrics method : sorted.values()) {
+            for (TaskExpiry.Reason reason : TaskExpiry.Reason.values()) {
+                long count = method.getSkipped(reason);
+                if (count > 0) {
+                    out.append("sota_task_skipped_total{method=\"").append(escape(method.name))
+                            .append("\",reason=\"").append(reason.name()).append("\"} ").append(count).append('\n');
+                }
+            }
+        }
+        out.append("# HELP sota_task_over_budget_total Executed tasks that finished after their --method-budget-ms.\n");
+        out.append("# TYPE sota_task_over_budget_total counter\n");
+        for (MethodMetrics method : sorted.values()) {
+            if (method.getOverBudget() > 0) {
+                out.append("sota_task_over_budget_total{method=\"").append(escape(method.name)).append("\"} ").append(method.getOverBudget()).append('\n');
+            }
+        }
+        appendSample(out, "sota_task_skipped_saved_seconds_total", "counter", "Sota thread time saved by dropping tasks, estimated from the mean execution time of each method.", getSavedSeconds());
+        appendSample(out, "sota_thread_busy_seconds_total", "counter", "Time the sota thread spent executing tasks and sampling state.", getBusySeconds());
+        appendSample(out, "sota_thread_busy_ratio", "gauge", "Fraction of time the sota thread was busy over the last window of at least one second.", getBusyRatio());
+
+        List<SotaTaskQueue.ClientStats> clients = commandQueue.getClientStats();
+        out.append("# HELP sota_client_queued_tasks Tasks waiting for the sota thread, by client.\n");
+        out.append("# TYPE sota_client_queued_tasks gauge\n");
+        for (SotaTaskQueue.ClientStats client : clients) {
+            out.append("sota_client_queued_tasks{client=\"").append(escape(client.getClientId())).append("\"} ").append(client.getQueued()).append('\n');
+        }
+        out.append("# HELP sota_client_executed_tasks_total Tasks executed by the sota thread, by client.\n");
+        out.append("# TYPE sota_client_executed_tasks_total counter\n");
+        for (SotaTaskQueue.ClientStats client : clients) {
+            out.append("sota_client_executed_tasks_total{client=\"").append(escape(client.getClientId())).append("\"} ").append(client.getExecuted()).append('\n');
+        }
+        return out.toString();
+    }
+
+    /**
+     * Prometheusの形式の計測値をhttp://<host>:port/metricsで公開する (デーモンスレッドで処理する)
+     */
+    public HttpServer serveHttp(int port) throws IOException {
+        return serveHttp(port, this::toPrometheusText);
+    }
+
+    /**
+     * prometheusTextが返すテキストをhttp://<host>:port/metricsで公開する (ゲートウェイの計測値にも使う)
+     */
+    static HttpServer serveHttp(int port, Supplier<String> prometheusText) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/metrics", exchange -> {
+            try {
+                byte[] body = prometheusText.get().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(body);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                exchange.sendResponseHeaders(500, -1);
+            } finally {
+                exchange.close();
+            }
+        });
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "Metrics HTTP");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+        return server;
+    }
+
+    /**
+     * @return RPC (フルネーム) の計測値 (まだなければ作る)
+     */
+    MethodMetrics methodMetrics(String name) {
+        MethodMetrics method = methods.get(name);
+        if (method == null) {
+            MethodMetrics created = new MethodMetrics(name);
+            method = methods.putIfAbsent(name, created);
+            if (method == null) {
+                method = created;
+            }
+        }
+        return method;
+    }
+
+    private static void appendHistograms(StringBuilder out, String name, String help, Map<String, MethodMetrics> methods, int which) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" histogram\n");
+        for (MethodMetrics method : methods.values()) {
+            LatencyHistogram histogram = which == 0 ? method.latency : which == 1 ? method.queueWait : method.execution;
+            long[] counts = histogram.getBucketCounts();
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            if (total == 0 && which != 0) {
+                // Sota Threadを使わないRPCは出力しない
+                continue;
+            }
+            String label = escape(method.name);
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i];
+                out.append(name).append("_bucket{method=\"").append(label).append("\",le=\"")
+                        .append(i < LatencyHistogram.BOUNDED_BUCKETS ? Double.toString(LatencyHistogram.upperBoundMillis(i) / 1000) : "+Inf")
+                        .append("\"} ").append(cumulative).append('\n');
+            }
+            out.append(name).append("_sum{method=\"").append(label).append("\"} ").append(histogram.getSumMillis() / 1000).append('\n');
+            out.append(name).append("_count{method=\"").append(label).append("\"} ").append(cumulative).append('\n');
+        }
+    }
+
+    static void appendSample(StringBuilder out, String name, String type, String help, Number value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * 1つのRPC (またはINTERNAL_METHOD) の計測値
+     */
+    public static final class MethodMetrics {
+        private final String name;
+        // 終了したRPCの数 (Status.Code.value()ごと)
+        private final AtomicLongArray codes = new AtomicLongArray(CODES.length);
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LatencyHistogram queueWait = new LatencyHistogram();
+        final LatencyHistogram execution = new LatencyHistogram();
+        // 実行しなかったタスクの数 (TaskExpiry.Reason.ordinal()ごと)
+        private final AtomicLongArray skipped = new AtomicLongArray(TaskExpiry.Reason.values().length);
+        private final AtomicLong savedNanos = new AtomicLong();
+        private final AtomicLong overBudget = new AtomicLong();
+        // このRPCが作ったタスクの最も高い優先度 (まだタスクを作っていなければnull)
+        private volatile Main.SotaTask.Priority priority;
+
+        MethodMetrics(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /** statusで終了したRPCの数 */
+        public long getCount(Status.Code status) {
+            return codes.get(status.value());
+        }
+
+        /**
+         * @return このRPCが作ったタスクの最も高い優先度 (まだタスクを作っていない、Sota Threadを使わないRPCはnull)
+         */
+        public Main.SotaTask.Priority getPriority() {
+            return priority;
+        }
+
+        void observePriority(Main.SotaTask.Priority observed) {
+            Main.SotaTask.Priority current = priority;
+            if (current == null || observed.ordinal() < current.ordinal()) {
+                priority = observed;
+            }
+        }
+
+        /** reasonで実行しなかったタスクの数 */
+        public long getSkipped(TaskExpiry.Reason reason) {
+            return skipped.get(reason.ordinal());
+        }
+
+        /** 実行しなかったタスクの分だけ省けた時間 (ms、平均実行時間からの推定) */
+        public double getSavedMillis() {
+            return savedNanos.get() / 1e6;
+        }
+
+        /** 実行を終えたときに予算を超えていたタスクの数 */
+        public long getOverBudget() {
+            return overBudget.get();
+        }
+
+        /** 呼び出しを受け取ってから終了するまでの時間 */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /** タスクがSota Threadで実行されるまで待った時間 */
+        public LatencyHistogram getQueueWait() {
+            return queueWait;
+        }
+
+        /** タスクをSota Threadで実行した時間 */
+        public LatencyHistogram getExecution() {
+            return execution;
+        }
+
+        void recordCall(Status.Code status, long latencyNanos) {
+            codes.incrementAndGet(status.value());
+            latency.record(latencyNanos);
+        }
+    }
+
+    /**
+     * 所要時間のヒストグラム
+     *
+     * 区間は64μsから2倍ずつ (64μs, 128μs, ... 約33.6秒) と上限なしの21個。
+     * 記録はAtomicLongArray・AtomicLongの加算のみで、ロックもオブジェクトの生成もしない。
+     */
+    public static final class LatencyHistogram {
+        /** 上限のある区間の数 */
+        static final int BOUNDED_BUCKETS = 20;
+        // 最初の区間の上限 (μs) = 2^6
+        private static final int FIRST_BOUND_SHIFT = 6;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BOUNDED_BUCKETS + 1);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sumNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        public void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            buckets.incrementAndGet(bucketOf(nanos / 1000));
+            sumNanos.addAndGet(nanos);
+            count.incrementAndGet();
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+        }
+
+        /**
+         * i番目の区間の上限 (ms)
+         */
+        public static double upperBoundMillis(int i) {
+            return (1L << (FIRST_BOUND_SHIFT + i)) / 1000.0;
+        }
+
+        /**
+         * @return 各区間の数 (累積ではない。最後は上限なしの区間)
+         */
+        public long[] getBucketCounts() {
+            long[] counts = new long[buckets.length()];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets.get(i);
+            }
+            return counts;
+        }
+
+        /**
+         * @return 平均 (ns、まだ記録していなければ0)
+         */
+        public long getMeanNanos() {
+            long n = count.get();
+            return n > 0 ? sumNanos.get() / n : 0;
+        }
+
+        public double getSumMillis() {
+            return sumNanos.get() / 1e6;
+        }
+
+        public double getMaxMillis() {
+            return maxNanos.get() / 1e6;
+        }
+
+        /**
+         * countsからquantile (0〜1) の値を推定する (区間の中では線形に補間する。上限なしの区間は最大値を返す)
+         */
+        public double estimateMillis(long[] counts, double quantile) {
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            double rank = quantile * total;
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0 && cumulative + counts[i] >= rank) {
+                    if (i >= BOUNDED_BUCKETS) {
+                        return getMaxMillis();
+                    }
+                    double lower = i == 0 ? 0 : upperBoundMillis(i - 1);
+                    double upper = upperBoundMillis(i);
+                    return Math.min(lower + (upper - lower) * (rank - cumulative) / counts[i], getMaxMillis());
+                }
+                cumulative += counts[i];
+            }
+            return getMaxMillis();
+        }
+
+        // micros以上の上限を持つ最初の区間
+        private static int bucketOf(long micros) {
+            if (micros <= (1L << FIRST_BOUND_SHIFT)) {
+                return 0;
+            }
+            return Math.min(64 - Long.numberOfLeadingZeros((micros - 1) >>> FIRST_BOUND_SHIFT), BOUNDED_BUCKETS);
+        }
+    }
+
+    /**
+     * 終了時 (close) のステータスと所要時間を記録するServerCall
+     */
+    private static final class MeasuredCall<ReqT, RespT> extends ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT> {
+        private final MethodMetrics method;
+        private final long startNanos = System.nanoTime();
+        private boolean recorded;
+
+        MeasuredCall(ServerCall<ReqT, RespT> delegate, MethodMetrics method) {
+            super(delegate);
+            this.method = method;
+        }
+
+        @Override
+        public void close(Status status, Metadata trailers) {
+            record(status.getCode());
+            super.close(status, trailers);
+        }
+
+        // close()とonCancel()の先に呼ばれた方だけを記録する
+        void record(Status.Code status) {
+            synchronized (this) {
+                if (recorded) {
+                    return;
+                }
+                recorded = true;
+            }
+            method.recordCall(status, System.nanoTime() - startNanos);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package net.keimag.sotagrpc;
+
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import net.keimag.sotagrpc.v1.metrics.*;
+
+import java.util.Map;
+
+public class MetricsServiceImpl extends MetricsServiceGrpc.MetricsServiceImplBase {
+
+    private final Metrics metrics;
+
+    public MetricsServiceImpl(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * <pre>
+     * サーバーの計測値を返す (Sota Threadは使わない。頻繁に呼ばれるためログは出さない)
+     * </pre>
+     */
+    @Override
+    public void getMetrics(GetMetricsRequest request, StreamObserver<MetricsSnapshot> responseObserver) {
+        try {
+            SotaTaskQueue commandQueue = metrics.getCommandQueue();
+            MetricsSnapshot.Builder snapshot = MetricsSnapshot.newBuilder()
+                    .setTimestampMs(System.currentTimeMillis())
+                    .setQueueDepth(commandQueue.size())
+                    .setScheduledTasks(commandQueue.scheduledSize())
+                    .setCoalescedTasks(commandQueue.getCoalescedCount())
+                    .setSotaThreadBusyRatio(metrics.getBusyRatio())
+                    .setSotaThreadBusySeconds(metrics.getBusySeconds())
+                    .setSkippedSavedSeconds(metrics.getSavedSeconds());
+            for (Main.SotaTask.Priority priority : Main.SotaTask.Priority.values()) {
+                snapshot.putQueueDepthByPriority(priority.name(), commandQueue.size(priority));
+                snapshot.putEstimatedDelayMsByPriority(priority.name(), metrics.estimatedDelayNanos(priority) / 1e6);
+            }
+            for (Map.Entry<String, Metrics.MethodMetrics> entry : metrics.getMethods().entrySet()) {
+                snapshot.addMethods(toMethodMetrics(entry.getValue()));
+            }
+            for (SotaTaskQueue.ClientStats stats : commandQueue.getClientStats()) {
+                snapshot.addClients(ClientMetrics.newBuilder()
+                        .setClientId(stats.getClientId())
+                        .setQueued(stats.getQueued())
+                        .setExecuted(stats.getExecuted())
+                        .setAverageWaitMs(stats.getAverageWaitMillis())
+                        .setMaxWaitMs(stats.getMaxWaitMillis()));
+            }
+            responseObserver.onNext(snapshot.build());
+            responseObserver.onCompleted();
+        } catch (Exception e) {
+            e.printStackTrace();
+            responseObserver.onError(e);
+        }
+    }
+
+    // --- Helper Methods for type conversion ---
+
+    private static MethodMetrics toMethodMetrics(Metrics.MethodMetrics method) {
+        MethodMetrics.Builder builder = MethodMetrics.newBuilder()
+                .setMethod(method.getName())
+                .setLatency(toHistogram(method.getLatency()))
+                .setQueueWait(toHistogram(method.getQueueWait()))
+                .setExecution(toHistogram(method.getExecution()))
+                .setSavedMs(method.getSavedMillis())
+                .setOverBudget(method.getOverBudget());
+        for (TaskExpiry.Reason reason : TaskExpiry.Reason.values()) {
+            if (method.getSkipped(reason) > 0) {
+                builder.putSkipped(reason.name(), method.getSkipped(reason));
+            }
+        }
+        long calls = 0;
+        for (Status.Code code : Status.Code.values()) {
+            long count = method.getCount(code);
+            calls += count;
+            if (count > 0 && code != Status.Code.OK) {
+                builder.putErrors(code.name(), count);
+            }
+        }
+        return builder.setCalls(calls).build();
+    }
+
+    private static Histogram toHistogram(Metrics.LatencyHistogram histogram) {
+        long[] counts = histogram.getBucketCounts();
+        Histogram.Builder builder = Histogram.newBuilder()
+                .setSumMs(histogram.getSumMillis())
+                .setMaxMs(histogram.getMaxMillis())
+                .setP50Ms(histogram.estimateMillis(counts, 0.5))
+                .setP99Ms(histogram.estimateMillis(counts, 0.99));
+        long count = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (i < Metrics.LatencyHistogram.BOUNDED_BUCKETS) {
+                builder.addBucketUpperBoundsMs(Metrics.LatencyHistogram.upperBoundMillis(i));
+            }
+            builder.addBucketCounts(counts[i]);
+            count += counts[i];
+        }
+        return builder.setCount(count).build();
+    }
+}
@@ -0,0 +1,177 @@
+package net.keimag.sotagrpc;
+
+import com.google.protobuf.ByteString;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import jp.vstone.RobotLib.CRobotUtil;
+import net.keimag.sotagrpc.v1.robotlib.AudioFrame;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * マイクの音声をフレームごとに読み取り、StreamRecordingの購読者全員に配信するクラス
+ *
+ * マイクは1つしかないので、購読者がいる間だけ1つのスレッド (Microphone Capture) で読み取り、全員に同じフレームを送る。
+ * 受信が追いつかない購読者には、maxBufferedMs分までフレームを溜め、それを超えた分は古いものから捨てる。
+ */
+public class MicrophoneStreamer {
+    private static final String TAG = "MicrophoneStreamer";
+
+    private final SotaBackend backend;
+    private final int sampleRate;
+    private final int channels;
+    private final int frameMillis;
+    private final int defaultMaxBufferedMillis;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    // 読み取り中のスレッド (購読者がいない間はnull)。thisのロックを保持して操作する
+    private Thread captureThread;
+
+    public MicrophoneStreamer(SotaBackend backend, int sampleRate, int channels, int frameMillis, int defaultMaxBufferedMillis) {
+        this.backend = backend;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.frameMillis = frameMillis;
+        this.defaultMaxBufferedMillis = defaultMaxBufferedMillis;
+    }
+
+    /**
+     * 購読を開始する
+     *
+     * @param durationMs      配信する長さ (0以下の場合はキャンセルされるまで)
+     * @param maxBufferedMs   受信が追いつかない場合に溜めておく長さ (0以下の場合は既定値)
+     */
+    public void subscribe(ServerCallStreamObserver<AudioFrame> responseObserver, int durationMs, int maxBufferedMs) {
+        int bufferedMillis = maxBufferedMs > 0 ? maxBufferedMs : defaultMaxBufferedMillis;
+        long maxFrames = durationMs > 0 ? (durationMs + frameMillis - 1) / frameMillis : Long.MAX_VALUE;
+        Subscriber subscriber = new Subscriber(responseObserver, Math.max(1, bufferedMillis / frameMillis), maxFrames);
+        responseObserver.setOnReadyHandler(subscriber::drain);
+        responseObserver.setOnCancelHandler(() -> unsubscribe(subscriber));
+        subscribers.add(subscriber);
+        synchronized (this) {
+            if (captureThread == null) {
+                captureThread = new Thread(this::captureLoop, "Microphone Capture");
+                captureThread.setDaemon(true);
+                captureThread.start();
+            }
+        }
+    }
+
+    private void unsubscribe(Subscriber subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    private void captureLoop() {
+        SotaBackend.AudioCapture capture = backend.openAudioCapture(sampleRate, channels);
+        if (capture == null) {
+            synchronized (this) {
+                captureThread = null;
+            }
+            for (Subscriber subscriber : subscribers) {
+                unsubscribe(subscriber);
+                subscriber.fail(Status.UNAVAILABLE.withDescription("Failed to open microphone."));
+            }
+            return;
+        }
+        CRobotUtil.Log(TAG, "Microphone capture started.");
+        byte[] buffer = new byte[sampleRate * channels * 2 * frameMillis / 1000];
+        try {
+            while (true) {
+                synchronized (this) {
+                    if (subscribers.isEmpty()) {
+                        // 購読者がいなくなったらマイクを解放する (次の購読では、解放した後に開き直す)
+                        capture.close();
+                        captureThread = null;
+                        break;
+                    }
+                }
+                long timestampMillis = System.currentTimeMillis();
+                int length = capture.read(buffer, 0, buffer.length);
+                if (length < 0) {
+                    break;
+                }
+                // フレームは全購読者で共有する
+                AudioFrame frame = AudioFrame.newBuilder()
+                        .setPcmData(ByteString.copyFrom(buffer, 0, length))
+                        .setSampleRate(sampleRate)
+                        .setChannels(channels)
+                        .setTimestampMs(timestampMillis)
+                        .build();
+                for (Subscriber subscriber : subscribers) {
+                    if (!subscriber.offer(frame)) {
+                        unsubscribe(subscriber);
+                    }
+                }
+            }
+        } finally {
+            synchronized (this) {
+                if (captureThread == Thread.currentThread()) {
+                    // マイクが閉じられたなど、購読者が残ったまま終了した場合
+                    capture.close();
+                    captureThread = null;
+                    for (Subscriber subscriber : subscribers) {
+                        unsubscribe(subscriber);
+                        subscriber.fail(Status.UNAVAILABLE.withDescription("Microphone capture stopped."));
+                    }
+                }
+            }
+            CRobotUtil.Log(TAG, "Microphone capture stopped.");
+        }
+    }
+
+    /**
+     * 購読者ごとの送信待ちのフレーム
+     */
+    private static final class Subscriber {
+        private final ServerCallStreamObserver<AudioFrame> responseObserver;
+        private final int maxBufferedFrames;
+        private final ArrayDeque<AudioFrame> pending = new ArrayDeque<>();
+        private long remainingFrames;
+        private long droppedFrames;
+        private boolean closed;
+
+        Subscriber(ServerCallStreamObserver<AudioFrame> responseObserver, int maxBufferedFrames, long maxFrames) {
+            this.responseObserver = responseObserver;
+            this.maxBufferedFrames = maxBufferedFrames;
+            this.remainingFrames = maxFrames;
+        }
+
+        /**
+         * @return 今後もフレームを受け取るか
+         */
+        synchronized boolean offer(AudioFrame frame) {
+            if (closed || responseObserver.isCancelled()) {
+                return false;
+            }
+            if (pending.size() >= maxBufferedFrames) {
+                // 溜めておける長さを超えたので、古いフレームから捨てる
+                pending.pollFirst();
+                droppedFrames++;
+            }
+            pending.addLast(frame);
+            remainingFrames--;
+            drain();
+            return !closed && remainingFrames > 0;
+        }
+
+        synchronized void drain() {
+            while (!closed && !pending.isEmpty() && responseObserver.isReady()) {
+                AudioFrame frame = pending.pollFirst();
+                responseObserver.onNext(droppedFrames == 0 ? frame : frame.toBuilder().setDroppedFrames(droppedFrames).build());
+            }
+            if (!closed && remainingFrames <= 0 && pending.isEmpty()) {
+                // 指定した長さを送り終えた
+                closed = true;
+                responseObserver.onCompleted();
+            }
+        }
+
+        synchronized void fail(Status status) {
+            if (!closed) {
+                closed = true;
+                responseObserver.onError(status.asRuntimeException());
+            }
+        }
+    }
+}
@@ -8,15 +8,14 @@ import net.keimag.sotagrpc.v1.robotlib.ServoOnResponse;
 import net.keimag.sotagrpc.v1.sotatalk.*;
 import jp.vstone.sotatalk.MotionAsSotaWish;
 
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
 
 public class MotionAsSotaWishServiceImpl extends MotionAsSotaWishServiceGrpc.MotionAsSotaWishServiceImplBase {
-    private final BlockingQueue<Main.SotaTask<?>> commandQueue;
+    private final SotaTaskQueue commandQueue;
 
     private static final String TAG = "Sota-gRPC.MotionAsSotaWishService";
 
-    public MotionAsSotaWishServiceImpl(BlockingQueue<Main.SotaTask<?>> commandQueue) {
+    public MotionAsSotaWishServiceImpl(SotaTaskQueue commandQueue) {
         this.commandQueue = commandQueue;
     }
 
@@ -35,7 +34,7 @@ public class MotionAsSotaWishServiceImpl extends MotionAsSotaWishServiceGrpc.Mot
             // 1. 結果を受け取るためのCompletableFutureを作成
             CompletableFuture<Void> future = new CompletableFuture<>();
             // 2. 実行したい処理とFutureをSotaTaskとしてキューに入れる
-            this.commandQueue.put(new Main.SotaTask<Void>(
+            this.commandQueue.put(new Main.SotaTask<Void>(Main.SotaTask.Priority.BULK,
                     (sotaContext) -> {
                         String text = request.getText();
                         if (request.hasScene()) {
@@ -45,21 +44,18 @@ public class MotionAsSotaWishServiceImpl extends MotionAsSotaWishServiceGrpc.Mot
                                 int pitch = config.getPitch();
                                 int intonation = config.getIntonation();
                                 int speechRate = config.getSpeechRate();
-                                sotaContext.motionAsSotaWish.Say(text, scene, speechRate, pitch, intonation);
+                                sotaContext.backend.say(text, scene, speechRate, pitch, intonation);
                             } else {
-                                sotaContext.motionAsSotaWish.Say(text, scene);
+                                sotaContext.backend.say(text, scene);
                             }
                         } else {
-                            sotaContext.motionAsSotaWish.Say(text);
+                            sotaContext.backend.say(text);
                         }
                         return null;
                     }, future
             ));
-            // 3. 専用スレッドでの処理が完了し、futureに結果がセットされるまで待機する
-            future.get(); // 処理結果が来るまで待機
-            SayWithMotionResponse response = SayWithMotionResponse.newBuilder().build();
-            responseObserver.onNext(response);
-            responseObserver.onCompleted();
+            // 3. 専用スレッドでの処理が完了したら、コールバックでレスポンスを返す (gRPCスレッドは待機しない)
+            Main.respondAsync(future, responseObserver, (result) -> SayWithMotionResponse.newBuilder().build());
         } catch (Exception e) {
             e.printStackTrace();
             responseObserver.onError(e);
@@ -84,19 +80,16 @@ public class MotionAsSotaWishServiceImpl extends MotionAsSotaWishServiceGrpc.Mot
             // 1. 結果を受け取るためのCompletableFutureを作成
             CompletableFuture<Void> future = new CompletableFuture<>();
             // 2. 実行したい処理とFutureをSotaTaskとしてキューに入れる
-            this.commandQueue.put(new Main.SotaTask<Void>(
+            this.commandQueue.put(new Main.SotaTask<Void>(Main.SotaTask.Priority.BULK,
                     (sotaContext) -> {
                         String scene = request.getScene().toString();
                         int duration = request.getTimeMs();
-                        sotaContext.motionAsSotaWish.play(scene, duration);
+                        sotaContext.backend.playScene(scene, duration);
                         return null;
                     }, future
             ));
-            // 3. 専用スレッドでの処理が完了し、futureに結果がセットされるまで待機する
-            future.get(); // 処理結果が来るまで待機
-            PlaySceneResponse response = PlaySceneResponse.newBuilder().build();
-            responseObserver.onNext(response);
-            responseObserver.onCompleted();
+            // 3. 専用スレッドでの処理が完了したら、コールバックでレスポンスを返す (gRPCスレッドは待機しない)
+            Main.respondAsync(future, responseObserver, (result) -> PlaySceneResponse.newBuilder().build());
         } catch (Exception e) {
             e.printStackTrace();
             responseObserver.onError(e);
@@ -8,8 +8,6 @@ import jp.vstone.RobotLib.CSotaMotion;
 
 import java.awt.Color;
 import java.io.IOException;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 
 public class MotionDirectTest {
 
@@ -29,11 +27,16 @@ public class MotionDirectTest {
 
 
         // --- 2. gRPCサーバーを先に起動 ---
-        BlockingQueue<Main.SotaTask<?>> commandQueue = new LinkedBlockingQueue<>();
+        SotaTaskQueue commandQueue = new SotaTaskQueue();
+        MotionRegistry motionRegistry = new MotionRegistry(commandQueue);
+        ControlLease controlLease = new ControlLease();
         System.out.println("Starting gRPC server...");
         io.grpc.Server server = ServerBuilder.forPort(8080)
                 // MotionServiceImplの中身は、このテストでは使われないので仮でOK
-                .addService(new MotionServiceImpl(commandQueue))
+                .addService(new MotionServiceImpl(commandQueue, new RobotStateSampler(0, 0),
+                        new PoseStreamController(commandQueue, motionRegistry, 50), motionRegistry, controlLease))
+                .intercept(controlLease.interceptor())
+                .intercept(ClientIdentity.interceptor())
                 .build();
         server.start();
         System.out.println("Server started on port 8080.");
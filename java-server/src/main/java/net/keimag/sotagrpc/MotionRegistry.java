@@ -0,0 +1,255 @@
+package net.keimag.sotagrpc;
+
+import io.grpc.stub.ServerCallStreamObserver;
+import jp.vstone.RobotLib.CRobotUtil;
+import net.keimag.sotagrpc.v1.robotlib.MotionEvent;
+import net.keimag.sotagrpc.v1.robotlib.MotionEventType;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * motion_idごとにモーションの状態 (実行待ち・再生中・完了・中断・失敗) を管理するクラス
+ *
+ * PlayPoseのモーションはキューに入れた時点で実行待ちとして記録する。
+ * 再生を始めたモーションは、補間時間が過ぎた時点でisEndInterpAllを確認し、完了とする
+ * (まだ動いていた場合は少し待ってから再確認し、補間時間を大きく過ぎても終わらなければ失敗とする)。
+ * クライアントはIsEndInterAll(motion_id)をSota Threadを使わずに問い合わせるか、
+ * WatchMotionで完了の通知を受け取れる (ポーリングは不要)。
+ */
+public class MotionRegistry {
+    private static final String TAG = "MotionRegistry";
+    /** 完了・中断したモーションを保持しておく数 */
+    private static final int MAX_RETAINED_MOTIONS = 1024;
+    /** 補間時間が過ぎてもまだ動いていた場合に、再確認するまでの時間 */
+    private static final long RECHECK_MILLIS = 20;
+    /** 補間時間のこの倍数が過ぎても終わったことを確認できなければ、失敗とする */
+    private static final int GIVE_UP_FACTOR = 3;
+    /** 失敗とするまでの最短の時間 (補間時間が短い場合) */
+    private static final long MIN_GIVE_UP_MILLIS = 1000;
+
+    public enum State {
+        QUEUED, RUNNING, FINISHED, PREEMPTED, FAILED;
+
+        /**
+         * @return 終わった (完了・中断・失敗) か
+         */
+        public boolean isDone() {
+            return this != QUEUED && this != RUNNING;
+        }
+    }
+
+    /**
+     * 1つのモーションの状態 (stateはMotionRegistryのロックを保持して操作する)
+     */
+    public static final class Motion {
+        public final String id;
+        public final long startNanos;
+        public final long expectedEndNanos;
+        // この時刻を過ぎても終わったことを確認できなければ失敗とする
+        private final long giveUpNanos;
+        private State state;
+        private String preemptedBy;
+
+        Motion(String id, State state, long startNanos, long expectedEndNanos, long giveUpNanos) {
+            this.id = id;
+            this.state = state;
+            this.startNanos = startNanos;
+            this.expectedEndNanos = expectedEndNanos;
+            this.giveUpNanos = giveUpNanos;
+        }
+    }
+
+    private final SotaTaskQueue commandQueue;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "Motion Timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, Motion> motions = new LinkedHashMap<String, Motion>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Motion> eldest) {
+            return size() > MAX_RETAINED_MOTIONS && eldest.getValue().state.isDone();
+        }
+    };
+    // 再生中のモーション (通常は1つ)
+    private final List<Motion> running = new ArrayList<>();
+    private final List<EventWatcher<MotionEvent>> watchers = new CopyOnWriteArrayList<>();
+
+    public MotionRegistry(SotaTaskQueue commandQueue) {
+        this.commandQueue = commandQueue;
+    }
+
+    /**
+     * モーションをキューに入れたことを記録する (実行を待つ間も、IsEndInterAll・WatchMotionで追えるように)
+     */
+    public synchronized void queued(String motionId) {
+        long now = System.nanoTime();
+        Motion motion = new Motion(motionId, State.QUEUED, now, now, now);
+        motions.remove(motionId);
+        motions.put(motionId, motion);
+    }
+
+    /**
+     * モーションの再生を開始したことを記録する (Sota Threadから、playが成功した直後に呼び出すこと)
+     *
+     * 再生中だった他のモーションは中断したものとする。
+     */
+    public synchronized void started(String motionId, int timeMs) {
+        preemptRunning(motionId);
+        long now = System.nanoTime();
+        long durationNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(timeMs, 0));
+        long giveUpNanos = Math.max(durationNanos * GIVE_UP_FACTOR, TimeUnit.MILLISECONDS.toNanos(MIN_GIVE_UP_MILLIS));
+        Motion motion = new Motion(motionId, State.RUNNING, now, now + durationNanos, now + giveUpNanos);
+        motions.remove(motionId);
+        motions.put(motionId, motion);
+        running.add(motion);
+        publish(motion, MotionEventType.MOTION_STARTED, null);
+        timer.schedule(() -> confirmEnd(motion), Math.max(timeMs, 0), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * キューに入れたモーションを再生できなかったことを記録する (playの失敗や、実行されずに取り消された場合)
+     *
+     * 既に再生を始めた (または同じIDで入れ直された) 場合は何もしない。
+     */
+    public synchronized void failed(String motionId) {
+        Motion motion = motions.get(motionId);
+        if (motion != null && motion.state == State.QUEUED) {
+            motion.state = State.FAILED;
+            publish(motion, MotionEventType.MOTION_FAILED, null);
+        }
+    }
+
+    /**
+     * 再生中のモーションをすべて中断したものとする (ServoOffやStreamPosesなど、別の方法でサーボを動かした場合)
+     *
+     * @param preemptedBy 中断させたモーションのID (なければnull)
+     */
+    public synchronized void preemptRunning(String preemptedBy) {
+        for (Motion motion : running) {
+            motion.state = State.PREEMPTED;
+            motion.preemptedBy = preemptedBy;
+            publish(motion, MotionEventType.MOTION_PREEMPTED, preemptedBy);
+        }
+        running.clear();
+    }
+
+    /**
+     * @return モーションの状態 (知らないIDの場合はnull)
+     */
+    public synchronized State getState(String motionId) {
+        Motion motion = motions.get(motionId);
+        return motion != null ? motion.state : null;
+    }
+
+    /**
+     * モーションのイベントの購読を開始する
+     *
+     * @param motionId 購読するモーションのID (nullの場合はすべてのモーション)。
+     *                 指定した場合は、完了・中断のイベントを送った時点でストリームを閉じる
+     * @return 購読を開始できたか (知らないIDを指定した場合はfalse)
+     */
+    public synchronized boolean watch(String motionId, ServerCallStreamObserver<MotionEvent> responseObserver) {
+        EventWatcher<MotionEvent> watcher = new EventWatcher<>(motionId, responseObserver, watchers);
+        if (motionId != null) {
+            Motion motion = motions.get(motionId);
+            if (motion == null) {
+                return false;
+            }
+            if (motion.state.isDone()) {
+                // 既に終わっている場合は、その結果だけを送る
+                watcher.deliver(toEvent(motion, toEventType(motion.state), motion.preemptedBy), true);
+                return true;
+            }
+        }
+        watchers.add(watcher);
+        return true;
+    }
+
+    /**
+     * 補間時間が過ぎたモーションについて、補間が終わったかをSota Threadで確認する
+     */
+    private void confirmEnd(Motion motion) {
+        synchronized (this) {
+            if (motion.state != State.RUNNING) {
+                return;
+            }
+        }
+        try {
+            CompletableFuture<Boolean> future = new CompletableFuture<>();
+            // IsEndInterAllと同じ読み取りなので、実行待ちのものがあれば相乗りする
+            this.commandQueue.put(new Main.SotaTask<>(Main.SotaTask.Priority.QUERY, "IsEndInterAll",
+                    (sotaContext) -> sotaContext.backend.isEndInterpAll(), future
+            ));
+            future.whenComplete((isEnd, throwable) -> {
+                if (throwable == null && isEnd) {
+                    end(motion, State.FINISHED);
+                } else if (System.nanoTime() - motion.giveUpNanos >= 0) {
+                    // サーボが目標に届かないなど、いつまでも終わらない場合は確認をやめる
+                    CRobotUtil.Log(TAG, "Motion " + motion.id + " did not finish in time. Marking it as failed.");
+                    end(motion, State.FAILED);
+                } else {
+                    timer.schedule(() -> confirmEnd(motion), RECHECK_MILLIS, TimeUnit.MILLISECONDS);
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void end(Motion motion, State state) {
+        if (motion.state == State.RUNNING) {
+            motion.state = state;
+            running.remove(motion);
+            publish(motion, toEventType(state), null);
+        }
+    }
+
+    // ロックを保持した状態で呼び出すこと (イベントの順序を保つため)
+    private void publish(Motion motion, MotionEventType type, String preemptedBy) {
+        if (watchers.isEmpty()) {
+            return;
+        }
+        MotionEvent event = toEvent(motion, type, preemptedBy);
+        boolean terminal = type != MotionEventType.MOTION_STARTED;
+        for (EventWatcher<MotionEvent> watcher : watchers) {
+            if (watcher.matches(motion.id)) {
+                if (!watcher.deliver(event, terminal)) {
+                    watchers.remove(watcher);
+                }
+            }
+        }
+    }
+
+    private static MotionEventType toEventType(State state) {
+        switch (state) {
+            case FINISHED:
+                return MotionEventType.MOTION_FINISHED;
+            case PREEMPTED:
+                return MotionEventType.MOTION_PREEMPTED;
+            case FAILED:
+                return MotionEventType.MOTION_FAILED;
+            default:
+                return MotionEventType.MOTION_STARTED;
+        }
+    }
+
+    private static MotionEvent toEvent(Motion motion, MotionEventType type, String preemptedBy) {
+        MotionEvent.Builder event = MotionEvent.newBuilder()
+                .setMotionId(motion.id)
+                .setType(type)
+                .setTimestampMs(System.currentTimeMillis());
+        if (preemptedBy != null) {
+            event.setPreemptedBy(preemptedBy);
+        }
+        return event.build();
+    }
+}
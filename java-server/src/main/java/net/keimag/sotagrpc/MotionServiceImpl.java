@@ -1,23 +1,36 @@
 package net.keimag.sotagrpc;
 
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
-import jp.vstone.RobotLib.CRobotPose;
 import jp.vstone.RobotLib.CRobotUtil;
 import net.keimag.sotagrpc.v1.robotlib.*;
 
-import java.awt.Color;
 import java.util.*;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
 
 public class MotionServiceImpl extends MotionServiceGrpc.MotionServiceImplBase {
 
-    private final BlockingQueue<Main.SotaTask<?>> commandQueue;
+    private final SotaTaskQueue commandQueue;
+    private final RobotStateSampler stateSampler;
+    private final RobotStatePublisher statePublisher;
+    private final PoseStreamController poseStreamController;
+    private final MotionRegistry motionRegistry;
+    // モーションの操作権
+    private final ControlLease controlLease;
 
     private static final String TAG = "Sota-gRPC.MotionService";
 
-    public MotionServiceImpl(BlockingQueue<Main.SotaTask<?>> commandQueue) {
+    /**
+     * @param controlLease モーションの操作権 (ControlLease.interceptor()をサーバーに登録すると、保持していないクライアントのコマンドが拒否される)
+     */
+    public MotionServiceImpl(SotaTaskQueue commandQueue, RobotStateSampler stateSampler, PoseStreamController poseStreamController, MotionRegistry motionRegistry, ControlLease controlLease) {
         this.commandQueue = commandQueue;
+        this.controlLease = controlLease;
+        this.motionRegistry = motionRegistry;
+        this.poseStreamController = poseStreamController;
+        this.stateSampler = stateSampler;
+        this.statePublisher = new RobotStatePublisher(stateSampler);
     }
 
     /**
@@ -32,17 +45,14 @@ public class MotionServiceImpl extends MotionServiceGrpc.MotionServiceImplBase {
             // 1. 結果を受け取るためのCompletableFutureを作成
             CompletableFuture<Void> future = new CompletableFuture<>();
             // 2. 実行したい処理とFutureをSotaTaskとしてキューに入れる
-            this.commandQueue.put(new Main.SotaTask<Void>(
+            this.commandQueue.put(new Main.SotaTask<Void>(Main.SotaTask.Priority.CONTROL,
                     (sotaContext) -> {
-                        sotaContext.motion.ServoOn();
+                        sotaContext.backend.servoOn();
                         return null;
                     }, future
             ));
-            // 3. 専用スレッドでの処理が完了し、futureに結果がセットされるまで待機する
-            future.get(); // 処理結果が来るまで待機
-            ServoOnResponse response = ServoOnResponse.newBuilder().build();
-            responseObserver.onNext(response);
-            responseObserver.onCompleted();
+            // 3. 専用スレッドでの処理が完了したら、コールバックでレスポンスを返す (gRPCスレッドは待機しない)
+            Main.respondAsync(future, responseObserver, (result) -> ServoOnResponse.newBuilder().build());
         } catch (Exception e) {
             e.printStackTrace();
             responseObserver.onError(e);
@@ -64,17 +74,15 @@ public class MotionServiceImpl extends MotionServiceGrpc.MotionServiceImplBase {
             // 1. 結果を受け取るためのCompletableFutureを作成
             CompletableFuture<Void> future = new CompletableFuture<>();
             // 2. 実行したい処理とFutureをSotaTaskとしてキューに入れる
-            this.commandQueue.put(new Main.SotaTask<>(
+            this.commandQueue.put(new Main.SotaTask<>(Main.SotaTask.Priority.SAFETY,
                     (sotaContext) -> {
-                        sotaContext.motion.ServoOff();
+                        sotaContext.backend.servoOff();
+                        this.motionRegistry.preemptRunning(null);
                         return null;
                     }, future
             ));
-            // 3. 専用スレッドでの処理が完了し、futureに結果がセットされるまで待機する
-            future.get(); // 処理結果が来るまで待機
-            ServoOffResponse response = ServoOffResponse.newBuilder().build();
-            responseObserver.onNext(response);
-            responseObserver.onCompleted();
+            // 3. 専用スレッドでの処理が完了したら、コールバックでレスポンスを返す (gRPCスレッドは待機しない)
+            Main.respondAsync(future, responseObserver, (result) -> ServoOffResponse.newBuilder().build());
         } catch (Exception e) {
             e.printStackTrace();
             responseObserver.onError(e);
@@ -92,39 +100,33 @@ public class MotionServiceImpl extends MotionServiceGrpc.MotionServiceImplBase {
     @Override
     public void playPose(PlayPoseRequest request, StreamObserver<PlayPoseResponse> responseObserver) {
         CRobotUtil.Log(TAG, "RPC call: playPose");
+        // motion_idを省略した場合もIsEndInterAll・WatchMotionで追えるように、IDを割り当てる
+        String motionId = request.hasMotionId() && !request.getMotionId().isEmpty() ? request.getMotionId() : UUID.randomUUID().toString();
         try {
             // 1. 結果を受け取るためのCompletableFutureを作成
             CompletableFuture<Boolean> future = new CompletableFuture<>();
+            // 実行を待つ間もIsEndInterAll・WatchMotionで追えるように、先に実行待ちとして記録する
+            this.motionRegistry.queued(motionId);
+            future.whenComplete((success, throwable) -> {
+                if (throwable != null || !success) {
+                    this.motionRegistry.failed(motionId);
+                }
+            });
             // 2. 実行したい処理とFutureをSotaTaskとしてキューに入れる
-            this.commandQueue.put(new Main.SotaTask<>(
+            this.commandQueue.put(new Main.SotaTask<>(Main.SotaTask.Priority.BULK,
                     (sotaContext) -> {
-                        CRobotPose pose = new CRobotPose();
-                        ArrayList<Byte> ids = new ArrayList<>();
-                        ArrayList<Short> pos = new ArrayList<>();
-                        int time = request.getTimeMs();
-                        Pose requestedPose = request.getPose();
-                        Servo[] servos = requestedPose.getServosList().toArray(new Servo[0]);
-                        for (Servo servo : servos) {
-                            if (servo.getId() != ServoID.SERVO_ID_UNSPECIFIED) {
-                                ids.add((byte) servo.getId().getNumber());
-                                pos.add((short) servo.getAngle());
-                            }
-                        }
-                        pose.SetPose(ids.toArray(new Byte[0]), pos.toArray(new Short[0]));
-                        if (requestedPose.hasLed()) {
-                            LedState led = requestedPose.getLed();
-                            pose.setLED_Sota(toAwtColor(led.getLeftEye()), toAwtColor(led.getRightEye()), led.getMouth(), toAwtColor(led.getPowerButton()));
+                        boolean success = applyPose(sotaContext.backend, request);
+                        if (success) {
+                            this.motionRegistry.started(motionId, request.getTimeMs());
                         }
-                        return sotaContext.motion.play(pose, time);
+                        return success;
                     }, future
             ));
-            // 3. 専用スレッドでの処理が完了し、futureに結果がセットされるまで待機する
-            boolean success = future.get(); // 処理結果が来るまで待機
-            PlayPoseResponse response = PlayPoseResponse.newBuilder().setSuccess(success).build();
-            responseObserver.onNext(response);
-            responseObserver.onCompleted();
+            // 3. 専用スレッドでの処理が完了したら、コールバックでレスポンスを返す (gRPCスレッドは待機しない)
+            Main.respondAsync(future, responseObserver, (success) -> PlayPoseResponse.newBuilder().setSuccess(success).setMotionId(motionId).build());
         } catch (Exception e) {
             e.printStackTrace();
+            this.motionRegistry.failed(motionId);
             responseObserver.onError(e);
             if (e instanceof InterruptedException) {
                 Thread.currentThread().interrupt();
@@ -140,34 +142,26 @@ public class MotionServiceImpl extends MotionServiceGrpc.MotionServiceImplBase {
     @Override
     public void getCurrentPose(GetCurrentPoseRequest request, StreamObserver<Pose> responseObserver) {
         CRobotUtil.Log(TAG, "RPC call: getCurrentPose");
+        // 0. 十分に新しいスナップショットがあれば、キューを通さずにgRPCスレッドから返す
+        RobotStateSampler.Snapshot snapshot = stateSampler.getSnapshot(maxStalenessMs(request.hasMaxStalenessMs(), request.getMaxStalenessMs()));
+        if (snapshot != null) {
+            responseObserver.onNext(snapshot.pose);
+            responseObserver.onCompleted();
+            return;
+        }
         try {
             // 1. 結果を受け取るためのCompletableFutureを作成
             CompletableFuture<Pose> future = new CompletableFuture<>();
             // 2. 実行したい処理とFutureをSotaTaskとしてキューに入れる
-            this.commandQueue.put(new Main.SotaTask<>(
+            this.commandQueue.put(new Main.SotaTask<>(Main.SotaTask.Priority.QUERY, "GetCurrentPose",
                     (sotaContext) -> {
-                        Short[] angles = sotaContext.motion.getReadpos();
-                        Byte[] ids = sotaContext.motion.getDefaultIDs();
-
-                        if (angles == null || ids == null || ids.length != angles.length) {
-                            throw new IllegalStateException("Failed to read servo positions.");
-                        }
-
-                        Pose.Builder poseBuilder = Pose.newBuilder();
-                        for (int i = 0; i < ids.length; i++) {
-                            Servo servo = Servo.newBuilder()
-                                    .setId(ServoID.forNumber(ids[i]))
-                                    .setAngle(angles[i])
-                                    .build();
-                            poseBuilder.addServos(servo);
-                        }
-                        return poseBuilder.build();
+                        Short[] angles = sotaContext.backend.getReadpos();
+                        Byte[] ids = sotaContext.backend.getDefaultIDs();
+                        return toPose(ids, angles);
                     }, future
             ));
-            // 3. 専用スレッドでの処理が完了し、futureに結果がセットされるまで待機する
-            Pose pose = future.get(); // 処理結果が来るまで待機
-            responseObserver.onNext(pose);
-            responseObserver.onCompleted();
+            // 3. 専用スレッドでの処理が完了したら、コールバックでレスポンスを返す (gRPCスレッドは待機しない)
+            Main.respondAsync(future, responseObserver, (pose) -> pose);
         } catch (Exception e) {
             e.printStackTrace();
             responseObserver.onError(e);
@@ -185,20 +179,28 @@ public class MotionServiceImpl extends MotionServiceGrpc.MotionServiceImplBase {
     @Override
     public void isEndInterAll(IsEndInterAllRequest request, StreamObserver<IsEndInterAllResponse> responseObserver) {
         CRobotUtil.Log(TAG, "RPC call: isEndInterAll");
+        if (request.hasMotionId()) {
+            // 0. motion_idを指定した場合は、Sota Threadを使わずに記録したモーションの状態を返す
+            MotionRegistry.State state = this.motionRegistry.getState(request.getMotionId());
+            if (state == null) {
+                responseObserver.onError(Status.NOT_FOUND.withDescription("Unknown motion_id: " + request.getMotionId()).asRuntimeException());
+                return;
+            }
+            responseObserver.onNext(IsEndInterAllResponse.newBuilder().setIsEndInterAll(state.isDone()).build());
+            responseObserver.onCompleted();
+            return;
+        }
         try {
             // 1. 結果を受け取るためのCompletableFutureを作成
             CompletableFuture<Boolean> future = new CompletableFuture<>();
             // 2. 実行したい処理とFutureをSotaTaskとしてキューに入れる
-            this.commandQueue.put(new Main.SotaTask<>(
+            this.commandQueue.put(new Main.SotaTask<>(Main.SotaTask.Priority.QUERY, "IsEndInterAll",
                     (sotaContext) -> {
-                        return sotaContext.motion.isEndInterpAll();
+                        return sotaContext.backend.isEndInterpAll();
                     }, future
             ));
-            // 3. 専用スレッドでの処理が完了し、futureに結果がセットされるまで待機する
-            boolean isEndInterAll = future.get(); // 処理結果が来るまで待機
-            IsEndInterAllResponse response = IsEndInterAllResponse.newBuilder().setIsEndInterAll(isEndInterAll).build();
-            responseObserver.onNext(response);
-            responseObserver.onCompleted();
+            // 3. 専用スレッドでの処理が完了したら、コールバックでレスポンスを返す (gRPCスレッドは待機しない)
+            Main.respondAsync(future, responseObserver, (isEndInterAll) -> IsEndInterAllResponse.newBuilder().setIsEndInterAll(isEndInterAll).build());
         } catch (Exception e) {
             e.printStackTrace();
             responseObserver.onError(e);
@@ -216,24 +218,29 @@ public class MotionServiceImpl extends MotionServiceGrpc.MotionServiceImplBase {
     @Override
     public void getPowerStatus(GetPowerStatusRequest request, StreamObserver<GetPowerStatusResponse> responseObserver) {
         CRobotUtil.Log(TAG, "RPC call: getPowerStatus");
+        // 0. 十分に新しいスナップショットがあれば、キューを通さずにgRPCスレッドから返す
+        RobotStateSampler.Snapshot snapshot = stateSampler.getSnapshot(maxStalenessMs(request.hasMaxStalenessMs(), request.getMaxStalenessMs()));
+        if (snapshot != null) {
+            responseObserver.onNext(snapshot.power);
+            responseObserver.onCompleted();
+            return;
+        }
         try {
             // 1. 結果を受け取るためのCompletableFutureを作成
             CompletableFuture<GetPowerStatusResponse> future = new CompletableFuture<>();
             // 2. 実行したい処理とFutureをSotaTaskとしてキューに入れる
-            this.commandQueue.put(new Main.SotaTask<>(
+            this.commandQueue.put(new Main.SotaTask<>(Main.SotaTask.Priority.QUERY, "GetPowerStatus",
                     (sotaContext) -> {
-                        int voltage = sotaContext.motion.getBatteryVoltage();
-                        boolean isCharging = sotaContext.motion.isCharging();
+                        int voltage = sotaContext.backend.getBatteryVoltage();
+                        boolean isCharging = sotaContext.backend.isCharging();
                         return GetPowerStatusResponse.newBuilder()
                                 .setBatteryVoltageMv(voltage)
                                 .setIsCharging(isCharging)
                                 .build();
                     }, future
             ));
-            // 3. 専用スレッドでの処理が完了し、futureに結果がセットされるまで待機する
-            GetPowerStatusResponse response = future.get(); // 処理結果が来るまで待機
-            responseObserver.onNext(response);
-            responseObserver.onCompleted();
+            // 3. 専用スレッドでの処理が完了したら、コールバックでレスポンスを返す (gRPCスレッドは待機しない)
+            Main.respondAsync(future, responseObserver, (response) -> response);
         } catch (Exception e) {
             e.printStackTrace();
             responseObserver.onError(e);
@@ -251,15 +258,22 @@ public class MotionServiceImpl extends MotionServiceGrpc.MotionServiceImplBase {
     @Override
     public void getButtonState(GetButtonStateRequest request, StreamObserver<GetButtonStateResponse> responseObserver) {
         CRobotUtil.Log(TAG, "RPC call: getButtonState");
+        // 0. 十分に新しいスナップショットがあれば、キューを通さずにgRPCスレッドから返す
+        RobotStateSampler.Snapshot snapshot = stateSampler.getSnapshot(maxStalenessMs(request.hasMaxStalenessMs(), request.getMaxStalenessMs()));
+        if (snapshot != null) {
+            responseObserver.onNext(snapshot.buttons);
+            responseObserver.onCompleted();
+            return;
+        }
         try {
             // 1. 結果を受け取るためのCompletableFutureを作成
             CompletableFuture<GetButtonStateResponse> future = new CompletableFuture<>();
             // 2. 実行したい処理とFutureをSotaTaskとしてキューに入れる
-            this.commandQueue.put(new Main.SotaTask<>(
+            this.commandQueue.put(new Main.SotaTask<>(Main.SotaTask.Priority.QUERY, "GetButtonState",
                     (sotaContext) -> {
-                        boolean isPowerPressed = sotaContext.motion.isButton_Power();
-                        boolean isVolUpPressed = sotaContext.motion.isButton_VolUp();
-                        boolean isVolDownPressed = sotaContext.motion.isButton_VolDown();
+                        boolean isPowerPressed = sotaContext.backend.isButtonPower();
+                        boolean isVolUpPressed = sotaContext.backend.isButtonVolUp();
+                        boolean isVolDownPressed = sotaContext.backend.isButtonVolDown();
 
                         GetButtonStateResponse response = GetButtonStateResponse.newBuilder()
                                 .setIsPowerPressed(isPowerPressed)
@@ -269,10 +283,8 @@ public class MotionServiceImpl extends MotionServiceGrpc.MotionServiceImplBase {
                         return response;
                     }, future
             ));
-            // 3. 専用スレッドでの処理が完了し、futureに結果がセットされるまで待機する
-            GetButtonStateResponse response = future.get(); // 処理結果が来るまで待機
-            responseObserver.onNext(response);
-            responseObserver.onCompleted();
+            // 3. 専用スレッドでの処理が完了したら、コールバックでレスポンスを返す (gRPCスレッドは待機しない)
+            Main.respondAsync(future, responseObserver, (response) -> response);
         } catch (Exception e) {
             e.printStackTrace();
             responseObserver.onError(e);
@@ -294,21 +306,18 @@ public class MotionServiceImpl extends MotionServiceGrpc.MotionServiceImplBase {
             // 1. 結果を受け取るためのCompletableFutureを作成
             CompletableFuture<Void> future = new CompletableFuture<>();
             // 2. 実行したい処理とFutureをSotaTaskとしてキューに入れる
-            this.commandQueue.put(new Main.SotaTask<>(
+            this.commandQueue.put(new Main.SotaTask<>(Main.SotaTask.Priority.SAFETY,
                     (sotaContext) -> {
                         if (request.getEnabled()) {
-                            sotaContext.motion.EnableCollidionDetect();
+                            sotaContext.backend.enableCollisionDetect();
                         } else {
-                            sotaContext.motion.DisableCollidionDetect();
+                            sotaContext.backend.disableCollisionDetect();
                         }
                         return null;
                     }, future
             ));
-            // 3. 専用スレッドでの処理が完了し、futureに結果がセットされるまで待機する
-            future.get(); // 処理結果が来るまで待機
-            SetCollisionDetectionResponse response = SetCollisionDetectionResponse.newBuilder().build();
-            responseObserver.onNext(response);
-            responseObserver.onCompleted();
+            // 3. 専用スレッドでの処理が完了したら、コールバックでレスポンスを返す (gRPCスレッドは待機しない)
+            Main.respondAsync(future, responseObserver, (result) -> SetCollisionDetectionResponse.newBuilder().build());
         } catch (Exception e) {
             e.printStackTrace();
             responseObserver.onError(e);
@@ -330,21 +339,18 @@ public class MotionServiceImpl extends MotionServiceGrpc.MotionServiceImplBase {
             // 1. 結果を受け取るためのCompletableFutureを作成
             CompletableFuture<Void> future = new CompletableFuture<>();
             // 2. 実行したい処理とFutureをSotaTaskとしてキューに入れる
-            this.commandQueue.put(new Main.SotaTask<>(
+            this.commandQueue.put(new Main.SotaTask<>(Main.SotaTask.Priority.CONTROL,
                     (sotaContext) -> {
                         if (request.getEnabled()) {
-                            sotaContext.motion.enabeMouthLEDVoiceSync();
+                            sotaContext.backend.enableMouthLedVoiceSync();
                         } else {
-                            sotaContext.motion.disabeMouthLEDVoiceSync();
+                            sotaContext.backend.disableMouthLedVoiceSync();
                         }
                         return null;
                     }, future
             ));
-            // 3. 専用スレッドでの処理が完了し、futureに結果がセットされるまで待機する
-            future.get(); // 処理結果が来るまで待機
-            SetMouthLedVoiceSyncResponse response = SetMouthLedVoiceSyncResponse.newBuilder().build();
-            responseObserver.onNext(response);
-            responseObserver.onCompleted();
+            // 3. 専用スレッドでの処理が完了したら、コールバックでレスポンスを返す (gRPCスレッドは待機しない)
+            Main.respondAsync(future, responseObserver, (result) -> SetMouthLedVoiceSyncResponse.newBuilder().build());
         } catch (Exception e) {
             e.printStackTrace();
             responseObserver.onError(e);
@@ -354,8 +360,99 @@ public class MotionServiceImpl extends MotionServiceGrpc.MotionServiceImplBase {
         }
     }
 
+    /**
+     * <pre>
+     * ポーズ・電源・ボタンの状態を指定した頻度で送り続ける
+     * </pre>
+     */
+    @Override
+    public void subscribeRobotState(SubscribeRobotStateRequest request, StreamObserver<RobotState> responseObserver) {
+        CRobotUtil.Log(TAG, "RPC call: subscribeRobotState");
+        // 状態の読み取りはSota Threadの空き時間に行っているので、ここでは購読者として登録するだけ
+        this.statePublisher.subscribe((ServerCallStreamObserver<RobotState>) responseObserver, request.getRateHz());
+    }
+
+    /**
+     * <pre>
+     * 目標ポーズを送り続け、反映したサーボ角度を受け取る (遠隔操作用)
+     * </pre>
+     */
+    @Override
+    public StreamObserver<PoseTarget> streamPoses(StreamObserver<PoseFeedback> responseObserver) {
+        CRobotUtil.Log(TAG, "RPC call: streamPoses");
+        // 目標ポーズは1件ずつキューに入れず、制御周期ごとに最新のものだけを反映する
+        return this.poseStreamController.open((ServerCallStreamObserver<PoseFeedback>) responseObserver);
+    }
+
+    /**
+     * <pre>
+     * モーションの開始・完了・中断・失敗を通知する
+     * </pre>
+     */
+    @Override
+    public void watchMotion(WatchMotionRequest request, StreamObserver<MotionEvent> responseObserver) {
+        CRobotUtil.Log(TAG, "RPC call: watchMotion");
+        String motionId = request.hasMotionId() ? request.getMotionId() : null;
+        if (!this.motionRegistry.watch(motionId, (ServerCallStreamObserver<MotionEvent>) responseObserver)) {
+            responseObserver.onError(Status.NOT_FOUND.withDescription("Unknown motion_id: " + motionId).asRuntimeException());
+        }
+    }
+
+    /**
+     * <pre>
+     * モーションの操作権を取得・延長する (Sota Threadは使わない)
+     * </pre>
+     */
+    @Override
+    public void acquireControlLease(AcquireControlLeaseRequest request, StreamObserver<ControlLeaseResponse> responseObserver) {
+        CRobotUtil.Log(TAG, "RPC call: acquireControlLease");
+        long durationMillis = request.hasDurationMs() ? request.getDurationMs() : ControlLease.DEFAULT_DURATION_MILLIS;
+        responseObserver.onNext(this.controlLease.acquire(ClientIdentity.current(), durationMillis));
+        responseObserver.onCompleted();
+    }
+
+    /**
+     * <pre>
+     * モーションの操作権を返す (Sota Threadは使わない)
+     * </pre>
+     */
+    @Override
+    public void releaseControlLease(ReleaseControlLeaseRequest request, StreamObserver<ControlLeaseResponse> responseObserver) {
+        CRobotUtil.Log(TAG, "RPC call: releaseControlLease");
+        responseObserver.onNext(this.controlLease.release(ClientIdentity.current()));
+        responseObserver.onCompleted();
+    }
+
     // --- Helper Methods for type conversion ---
-    private Color toAwtColor(net.keimag.sotagrpc.v1.robotlib.Color grpcColor) {
-        return new Color(grpcColor.getRed(), grpcColor.getGreen(), grpcColor.getBlue());
+
+    /**
+     * PlayPoseRequestをサーボID・角度の配列に変換し、ポーズを再生する (Sota Threadから呼び出すこと)
+     */
+    static boolean applyPose(SotaBackend backend, PlayPoseRequest request) {
+        return applyPose(backend, request.getPose(), request.getTimeMs());
+    }
+
+    /**
+     * PoseをサーボID・角度の配列に変換し、time [ms]かけて再生する (Sota Threadから呼び出すこと)
+     */
+    static boolean applyPose(SotaBackend backend, Pose requestedPose, int time) {
+        PoseConverter.Scratch scratch = PoseConverter.scratch();
+        int count = PoseConverter.fromPose(requestedPose, scratch);
+        SotaBackend.Led led = requestedPose.hasLed() ? PoseConverter.toLed(requestedPose.getLed(), scratch) : null;
+        return backend.play(scratch.ids, scratch.angles, count, led, time);
+    }
+
+    /**
+     * リクエストのmax_staleness_msを解釈する (指定がなければ負の値を返し、既定値を使わせる)
+     */
+    private static long maxStalenessMs(boolean hasMaxStalenessMs, int maxStalenessMs) {
+        return hasMaxStalenessMs ? Math.max(maxStalenessMs, 0) : -1;
+    }
+
+    /**
+     * getReadposの結果をPoseに変換する (前回と同じ値であれば前回のPoseを返す)
+     */
+    static Pose toPose(Byte[] ids, Short[] angles) {
+        return PoseConverter.toPose(ids, angles);
     }
 }
@@ -0,0 +1,281 @@
+package net.keimag.sotagrpc;
+
+import io.grpc.stub.ServerCallStreamObserver;
+import jp.vstone.RobotLib.CRobotUtil;
+import net.keimag.sotagrpc.v1.robotlib.PlaybackEvent;
+import net.keimag.sotagrpc.v1.robotlib.PlaybackEventType;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * playback_idごとに音声の再生状態 (再生中・完了・停止) を管理するクラス
+ *
+ * 再生中のものは、一定の間隔でSota Threadから再生中かどうかを確認し (Playback Reaper)、
+ * 終わったものは登録から外して完了とする。IsAudioPlaying・StopAudioが呼ばれなくても登録は増え続けない。
+ * クライアントはWatchPlaybackで開始・完了・停止の通知を受け取れる (ポーリングは不要)。
+ */
+public class PlaybackRegistry {
+    private static final String TAG = "PlaybackRegistry";
+    /** 完了・停止した再生を保持しておく数 */
+    private static final int MAX_RETAINED_PLAYBACKS = 1024;
+    /** 同時に再生中として保持する数 (超えた場合は古いものから停止する) */
+    private static final int MAX_ACTIVE_PLAYBACKS = 64;
+    /** 再生中かどうかを確認する間隔 */
+    private static final long REAP_MILLIS = 100;
+    // Sota Threadが遅れている間は、確認のタスクを1つにまとめる
+    private static final String REAP_TASK_KEY = "ReapPlayers";
+
+    public enum State {
+        PLAYING, FINISHED, STOPPED
+    }
+
+    /**
+     * 1つの再生 (stateはPlaybackRegistryのロックを保持して操作する)
+     */
+    private static final class Playback {
+        final String id;
+        final SotaBackend.AudioPlayback player;
+        // 登録から外したときに行う後始末 (一時ファイルの削除など。なければnull)
+        final Runnable onRelease;
+        State state = State.PLAYING;
+
+        Playback(String id, SotaBackend.AudioPlayback player, Runnable onRelease) {
+            this.id = id;
+            this.player = player;
+            this.onRelease = onRelease;
+        }
+    }
+
+    private final SotaTaskQueue commandQueue;
+    private final Map<String, Playback> playbacks = new LinkedHashMap<String, Playback>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Playback> eldest) {
+            return size() > MAX_RETAINED_PLAYBACKS && eldest.getValue().state != State.PLAYING;
+        }
+    };
+    // 再生中のもの (登録順)
+    private final LinkedHashMap<String, Playback> active = new LinkedHashMap<>();
+    private final List<EventWatcher<PlaybackEvent>> watchers = new CopyOnWriteArrayList<>();
+
+    public PlaybackRegistry(SotaTaskQueue commandQueue) {
+        this.commandQueue = commandQueue;
+        ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Playback Reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reaper.scheduleWithFixedDelay(this::scheduleReap, REAP_MILLIS, REAP_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 再生を開始したことを記録する
+     *
+     * @param onRelease 再生が終わって登録から外したときに行う後始末 (なければnull)
+     */
+    public void started(String playbackId, SotaBackend.AudioPlayback player, Runnable onRelease) {
+        Playback evicted = null;
+        synchronized (this) {
+            Playback playback = new Playback(playbackId, player, onRelease);
+            playbacks.remove(playbackId);
+            playbacks.put(playbackId, playback);
+            active.put(playbackId, playback);
+            publish(playback, PlaybackEventType.PLAYBACK_STARTED);
+            if (active.size() > MAX_ACTIVE_PLAYBACKS) {
+                // 再生中のものが多すぎる場合は、最も古いものを止める
+                evicted = active.values().iterator().next();
+                end(evicted, State.STOPPED);
+            }
+        }
+        if (evicted != null) {
+            CRobotUtil.Log(TAG, "Too many active playbacks. Stopping " + evicted.id);
+            Playback playback = evicted;
+            try {
+                this.commandQueue.put(new Main.SotaTask<Void>(Main.SotaTask.Priority.SAFETY,
+                        (sotaContext) -> {
+                            stopPlayer(playback);
+                            return null;
+                        }, new CompletableFuture<>()
+                ));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 再生が終わったことを記録する (PlayAudioStreamなど、終わりが分かっている場合に呼び出す)
+     */
+    public void finished(String playbackId, SotaBackend.AudioPlayback player) {
+        Playback playback;
+        synchronized (this) {
+            playback = active.get(playbackId);
+            if (playback == null || playback.player != player) {
+                return;
+            }
+            end(playback, State.FINISHED);
+        }
+        release(playback);
+    }
+
+    /**
+     * 再生を止める (Sota Threadから呼び出すこと)
+     *
+     * @param playbackId 止める再生のID (nullの場合はすべて)
+     */
+    public void stop(String playbackId) {
+        List<Playback> stopped = new ArrayList<>();
+        synchronized (this) {
+            if (playbackId != null) {
+                Playback playback = active.get(playbackId);
+                if (playback != null) {
+                    stopped.add(playback);
+                }
+            } else {
+                stopped.addAll(active.values());
+            }
+            for (Playback playback : stopped) {
+                end(playback, State.STOPPED);
+            }
+        }
+        for (Playback playback : stopped) {
+            stopPlayer(playback);
+        }
+    }
+
+    /**
+     * 再生中かどうかを確認し、終わっていれば完了とする (Sota Threadから呼び出すこと)
+     *
+     * @param playbackId 確認する再生のID (nullの場合はいずれかが再生中か)
+     */
+    public boolean isPlaying(String playbackId) {
+        List<Playback> targets;
+        synchronized (this) {
+            if (playbackId != null) {
+                Playback playback = active.get(playbackId);
+                targets = new ArrayList<>(1);
+                if (playback != null) {
+                    targets.add(playback);
+                }
+            } else {
+                targets = new ArrayList<>(active.values());
+            }
+        }
+        boolean isPlaying = false;
+        for (Playback playback : targets) {
+            if (playback.player.isPlaying()) {
+                isPlaying = true;
+            } else {
+                finished(playback.id, playback.player);
+            }
+        }
+        return isPlaying;
+    }
+
+    /**
+     * @return 再生の状態 (知らないIDの場合はnull)
+     */
+    public synchronized State getState(String playbackId) {
+        Playback playback = playbacks.get(playbackId);
+        return playback != null ? playback.state : null;
+    }
+
+    public synchronized int getActiveCount() {
+        return active.size();
+    }
+
+    /**
+     * 再生のイベントの購読を開始する
+     *
+     * @param playbackId 購読する再生のID (nullの場合はすべての再生)。
+     *                   指定した場合は、完了・停止のイベントを送った時点でストリームを閉じる
+     * @return 購読を開始できたか (知らないIDを指定した場合はfalse)
+     */
+    public synchronized boolean watch(String playbackId, ServerCallStreamObserver<PlaybackEvent> responseObserver) {
+        EventWatcher<PlaybackEvent> watcher = new EventWatcher<>(playbackId, responseObserver, watchers);
+        if (playbackId != null) {
+            Playback playback = playbacks.get(playbackId);
+            if (playback == null) {
+                return false;
+            }
+            if (playback.state != State.PLAYING) {
+                // 既に終わっている場合は、その結果だけを送る
+                watcher.deliver(toEvent(playback, playback.state == State.FINISHED ? PlaybackEventType.PLAYBACK_FINISHED : PlaybackEventType.PLAYBACK_STOPPED), true);
+                return true;
+            }
+        }
+        watchers.add(watcher);
+        return true;
+    }
+
+    /**
+     * 再生中のものがあれば、Sota Threadで再生中かどうかを確認する
+     */
+    private void scheduleReap() {
+        try {
+            if (getActiveCount() == 0) {
+                return;
+            }
+            this.commandQueue.put(new Main.SotaTask<>(Main.SotaTask.Priority.QUERY, REAP_TASK_KEY,
+                    (sotaContext) -> isPlaying(null), new CompletableFuture<>()
+            ));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // 例外を投げると以降の確認が実行されなくなるので、ここで止める
+            e.printStackTrace();
+        }
+    }
+
+    // ロックを保持した状態で呼び出すこと
+    private void end(Playback playback, State state) {
+        playback.state = state;
+        active.remove(playback.id);
+        publish(playback, state == State.FINISHED ? PlaybackEventType.PLAYBACK_FINISHED : PlaybackEventType.PLAYBACK_STOPPED);
+    }
+
+    private void stopPlayer(Playback playback) {
+        try {
+            playback.player.stop();
+        } finally {
+            release(playback);
+        }
+    }
+
+    private static void release(Playback playback) {
+        if (playback.onRelease != null) {
+            playback.onRelease.run();
+        }
+    }
+
+    // ロックを保持した状態で呼び出すこと (イベントの順序を保つため)
+    private void publish(Playback playback, PlaybackEventType type) {
+        if (watchers.isEmpty()) {
+            return;
+        }
+        PlaybackEvent event = toEvent(playback, type);
+        boolean terminal = type != PlaybackEventType.PLAYBACK_STARTED;
+        for (EventWatcher<PlaybackEvent> watcher : watchers) {
+            if (watcher.matches(playback.id)) {
+                if (!watcher.deliver(event, terminal)) {
+                    watchers.remove(watcher);
+                }
+            }
+        }
+    }
+
+    private static PlaybackEvent toEvent(Playback playback, PlaybackEventType type) {
+        return PlaybackEvent.newBuilder()
+                .setPlaybackId(playback.id)
+                .setType(type)
+                .setTimestampMs(System.currentTimeMillis())
+                .build();
+    }
+}
@@ -1,28 +1,53 @@
 package net.keimag.sotagrpc;
 
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
-import jp.vstone.RobotLib.CPlayWave;
 import net.keimag.sotagrpc.v1.robotlib.*;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.UUID;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 
 public class PlaybackServiceImpl extends PlaybackServiceGrpc.PlaybackServiceImplBase {
-    private static final String TMP_AUDIO_FILENAME = "tmp_Sota-gRPC_playAudio.wav";
-    private final BlockingQueue<Main.SotaTask<?>> commandQueue;
+    private static final String TMP_AUDIO_PREFIX = "tmp_Sota-gRPC_playAudio";
+    private final SotaTaskQueue commandQueue;
+    // PlayAudioStreamのジッターバッファの長さと、再生を始めるまでに溜める長さ
+    private final int streamBufferMillis;
+    private final int streamPrebufferMillis;
+    // UploadAudioで受け取った音声データの保存先
+    private final AudioStore audioStore;
+    // 全ての音声を1つの出力にまとめて再生するミキサー (nullの場合は再生ごとにCPlayWaveを使う)
+    // 16bit PCM以外のWAVはミキサーで再生できないので、ミキサーがあってもCPlayWaveで再生する
+    private final AudioMixer audioMixer;
 
-    // 実行中のCPlayWaveインスタンスをスレッドセーフに管理するMap
-    // Key: playback_id, Value: CPlayWave instance
-    private final ConcurrentMap<String, CPlayWave> activePlayers = new ConcurrentHashMap<>();
+    // 実行中のCPlayWaveインスタンスをplayback_idごとに管理する (終わったものは自動的に登録から外れる)
+    private final PlaybackRegistry playbackRegistry;
 
-    public PlaybackServiceImpl(BlockingQueue<Main.SotaTask<?>> commandQueue) {
+    public PlaybackServiceImpl(SotaTaskQueue commandQueue) {
+        this(commandQueue, 2000, 200, null, null);
+    }
+
+    /**
+     * @param audioStore UploadAudioで受け取った音声データの保存先 (nullの場合はUploadAudio・PlayStoredAudio・HasAudioを使えない)
+     * @param audioMixer PlayAudio・PlayAudioStream・PlayLocalAudio・PlayStoredAudioの音声を混ぜて再生するミキサー (nullの場合は再生ごとにCPlayWaveを使う)
+     */
+    public PlaybackServiceImpl(SotaTaskQueue commandQueue, int streamBufferMillis, int streamPrebufferMillis, AudioStore audioStore, AudioMixer audioMixer) {
         this.commandQueue = commandQueue;
+        this.streamBufferMillis = streamBufferMillis;
+        this.streamPrebufferMillis = streamPrebufferMillis;
+        this.audioStore = audioStore;
+        this.audioMixer = audioMixer;
+        this.playbackRegistry = new PlaybackRegistry(commandQueue);
     }
 
     /**
@@ -33,47 +58,53 @@ public class PlaybackServiceImpl extends PlaybackServiceGrpc.PlaybackServiceImpl
     @Override
     public void playAudio(PlayAudioRequest request, StreamObserver<PlayAudioResponse> responseObserver) {
         System.out.println("RPC call: playAudio");
+        boolean waitForCompletion = request.hasWaitForCompletion() && request.getWaitForCompletion();
+        boolean saveFile = request.hasSaveFile() && request.getSaveFile();
+        if (audioMixer != null) {
+            // ミキサーで再生できる形式なら、コピーせずにそのまま渡す (ファイルへの書き出しも不要)
+            WavHeader header = AudioMixer.parseHeader(request.getAudioData());
+            if (AudioMixer.canMix(header)) {
+                playMixed(request.getAudioData(), header, request.hasGain() ? request.getGain() : 1f,
+                        request.getCategory(), waitForCompletion, responseObserver);
+                return;
+            }
+        }
         try {
+            // 0. 音声データの準備 (配列へのコピー、ファイルへの書き出し) はgRPCスレッドで済ませ、
+            //    Sota Threadでは再生の開始だけを行う (大きな音声データでも他のタスクを待たせない)
+            byte[] audioData = null;
+            Path spillFile = null;
+            if (saveFile) {
+                spillFile = spillToFile(request.getAudioData());
+            } else {
+                // CPlayWaveはbyte[]しか受け取れないので、ここで1回だけコピーする
+                audioData = request.getAudioData().toByteArray();
+            }
+            final byte[] wavData = audioData;
+            final Path wavFile = spillFile;
             // 1. 結果を受け取るためのCompletableFutureを作成
             CompletableFuture<PlayAudioResponse> future = new CompletableFuture<>();
             // 2. 実行したい処理とFutureをSotaTaskとしてキューに入れる
-            this.commandQueue.put(new Main.SotaTask<>(
-                    (v) -> {
-                        byte[] audioData = request.getAudioData().toByteArray();
-                        boolean waitForCompletion = false;
-                        boolean saveFile = false;
-                        if (request.hasWaitForCompletion()) {
-                            waitForCompletion = request.getWaitForCompletion();
-                        }
-                        if (request.hasSaveFile()) {
-                            saveFile = request.getSaveFile();
-                        }
-
+            this.commandQueue.put(new Main.SotaTask<>(Main.SotaTask.Priority.BULK,
+                    (sotaContext) -> {
                         // 再生を一意に識別するためのIDを生成
                         String playbackId = UUID.randomUUID().toString();
 
-
                         // CPlayWave.PlayWaveを呼び出し
-                        CPlayWave player = null;
-                        if (saveFile) {
-                            // audioDataをTMP_AUDIO_FILENAMEに保存する．
-                            try {
-                                // バイト配列をファイルに書き込む
-                                Files.write(Paths.get(TMP_AUDIO_FILENAME), audioData);
-//                    System.out.println("音声ファイルが正常に保存されました: " + path.toAbsolutePath());
-                                player = CPlayWave.PlayWave(TMP_AUDIO_FILENAME, waitForCompletion);
-                            } catch (IOException e) {
-//                    System.err.println("ファイルの書き込み中にエラーが発生しました。");
-                                e.printStackTrace();
-                            }
+                        SotaBackend.AudioPlayback player;
+                        if (wavFile != null) {
+                            player = sotaContext.backend.playWave(wavFile.toString(), waitForCompletion);
                         } else {
-                            player = CPlayWave.PlayWave(audioData, waitForCompletion);
+                            player = sotaContext.backend.playWave(wavData, waitForCompletion);
                         }
 
                         boolean success = (player != null);
                         if (success && !waitForCompletion) {
-                            // 非同期再生の場合のみ、後から操作できるようにMapに保存
-                            activePlayers.put(playbackId, player);
+                            // 非同期再生の場合のみ、後から操作できるように登録する
+                            // (書き出したファイルは再生が終わってから削除する)
+                            playbackRegistry.started(playbackId, player, wavFile != null ? () -> deleteQuietly(wavFile) : null);
+                        } else if (wavFile != null) {
+                            deleteQuietly(wavFile);
                         }
 
                         return PlayAudioResponse.newBuilder()
@@ -82,10 +113,8 @@ public class PlaybackServiceImpl extends PlaybackServiceGrpc.PlaybackServiceImpl
                                 .build();
                     }, future
             ));
-            // 3. 専用スレッドでの処理が完了し、futureに結果がセットされるまで待機する
-            PlayAudioResponse response = future.get(); // 処理結果が来るまで待機
-            responseObserver.onNext(response);
-            responseObserver.onCompleted();
+            // 3. 専用スレッドでの処理が完了したら、コールバックでレスポンスを返す (gRPCスレッドは待機しない)
+            Main.respondAsync(future, responseObserver, (response) -> response);
         } catch (Exception e) {
             e.printStackTrace();
             responseObserver.onError(e);
@@ -95,6 +124,19 @@ public class PlaybackServiceImpl extends PlaybackServiceGrpc.PlaybackServiceImpl
         }
     }
 
+    /**
+     * <pre>
+     * 音声データ(wav)を分割して送り、受信しながら再生する (大きな音声データ向け)
+     * </pre>
+     */
+    @Override
+    public StreamObserver<PlayAudioChunk> playAudioStream(StreamObserver<PlayAudioResponse> responseObserver) {
+        System.out.println("RPC call: playAudioStream");
+        // 受信・バッファリング・出力への書き込みはAudioStreamUploadが行い、出力を開く処理だけをSota Threadで行う
+        return new AudioStreamUpload(this.commandQueue, this.playbackRegistry, this.audioMixer,
+                (ServerCallStreamObserver<PlayAudioResponse>) responseObserver, this.streamBufferMillis, this.streamPrebufferMillis);
+    }
+
     /**
      * <pre>
      * Sotaローカルに保存された音声データ(wav)を再生し、再生IDを返す
@@ -106,12 +148,30 @@ public class PlaybackServiceImpl extends PlaybackServiceGrpc.PlaybackServiceImpl
     @Override
     public void playLocalAudio(PlayLocalAudioRequest request, StreamObserver<PlayAudioResponse> responseObserver) {
         System.out.println("RPC call: playLocalAudio");
+        if (audioMixer != null) {
+            try {
+                // ファイルをメモリにマップして、ヒープにコピーせずにミキサーへ渡す
+                ByteString wavData = mapFile(Paths.get(request.getLocalFilepath()));
+                WavHeader header = AudioMixer.parseHeader(wavData);
+                if (AudioMixer.canMix(header)) {
+                    playMixed(wavData, header, 1f, AudioCategory.AUDIO_CATEGORY_UNSPECIFIED,
+                            request.hasWaitForCompletion() && request.getWaitForCompletion(), responseObserver);
+                    return;
+                }
+            } catch (IOException | InvalidPathException e) {
+                // CPlayWaveと同じく、読み取れないファイルは再生に失敗したものとして返す
+                e.printStackTrace();
+                responseObserver.onNext(PlayAudioResponse.newBuilder().setSuccess(false).build());
+                responseObserver.onCompleted();
+                return;
+            }
+        }
         try {
             // 1. 結果を受け取るためのCompletableFutureを作成
             CompletableFuture<PlayAudioResponse> future = new CompletableFuture<>();
             // 2. 実行したい処理とFutureをSotaTaskとしてキューに入れる
-            this.commandQueue.put(new Main.SotaTask<>(
-                    (v) -> {
+            this.commandQueue.put(new Main.SotaTask<>(Main.SotaTask.Priority.BULK,
+                    (sotaContext) -> {
                         String audioFilePath = request.getLocalFilepath();
                         boolean waitForCompletion;
                         if (request.hasWaitForCompletion()) {
@@ -124,12 +184,12 @@ public class PlaybackServiceImpl extends PlaybackServiceGrpc.PlaybackServiceImpl
                         String playbackId = UUID.randomUUID().toString();
 
                         // CPlayWave.PlayWaveを呼び出し
-                        CPlayWave player = CPlayWave.PlayWave(audioFilePath, waitForCompletion);
+                        SotaBackend.AudioPlayback player = sotaContext.backend.playWave(audioFilePath, waitForCompletion);
 
                         boolean success = (player != null);
                         if (success && !waitForCompletion) {
-                            // 非同期再生の場合のみ、後から操作できるようにMapに保存
-                            activePlayers.put(playbackId, player);
+                            // 非同期再生の場合のみ、後から操作できるように登録する
+                            playbackRegistry.started(playbackId, player, null);
                         }
 
                         return PlayAudioResponse.newBuilder()
@@ -138,11 +198,8 @@ public class PlaybackServiceImpl extends PlaybackServiceGrpc.PlaybackServiceImpl
                                 .build();
                     }, future
             ));
-            // 3. 専用スレッドでの処理が完了し、futureに結果がセットされるまで待機する
-            PlayAudioResponse response = future.get(); // 処理結果が来るまで待機
-            responseObserver.onNext(response);
-            responseObserver.onCompleted();
-            System.out.println("Finish playLocalAudio");
+            // 3. 専用スレッドでの処理が完了したら、コールバックでレスポンスを返す (gRPCスレッドは待機しない)
+            Main.respondAsync(future, responseObserver, (response) -> response);
         } catch (Exception e) {
             e.printStackTrace();
             responseObserver.onError(e);
@@ -152,6 +209,123 @@ public class PlaybackServiceImpl extends PlaybackServiceGrpc.PlaybackServiceImpl
         }
     }
 
+    /**
+     * <pre>
+     * 音声データ(wav)を分割して送り、Sotaに保存する
+     * </pre>
+     */
+    @Override
+    public StreamObserver<UploadAudioChunk> uploadAudio(StreamObserver<UploadAudioResponse> responseObserver) {
+        System.out.println("RPC call: uploadAudio");
+        if (audioStore == null) {
+            responseObserver.onError(Status.FAILED_PRECONDITION.withDescription("Audio store is not configured.").asRuntimeException());
+            // 受信したデータは読み捨てる
+            return new StreamObserver<UploadAudioChunk>() {
+                @Override
+                public void onNext(UploadAudioChunk chunk) {
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                }
+
+                @Override
+                public void onCompleted() {
+                }
+            };
+        }
+        return audioStore.upload(responseObserver);
+    }
+
+    /**
+     * <pre>
+     * UploadAudioで保存した音声データを再生し、再生IDを返す
+     * </pre>
+     */
+    @Override
+    public void playStoredAudio(PlayStoredAudioRequest request, StreamObserver<PlayAudioResponse> responseObserver) {
+        System.out.println("RPC call: playStoredAudio");
+        if (audioStore == null) {
+            responseObserver.onError(Status.FAILED_PRECONDITION.withDescription("Audio store is not configured.").asRuntimeException());
+            return;
+        }
+        String digest = AudioStore.normalizeDigest(request.getDigest());
+        if (digest == null) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription("digest must be a hex-encoded SHA-256.").asRuntimeException());
+            return;
+        }
+        Path path = audioStore.find(digest, true);
+        if (path == null) {
+            responseObserver.onError(Status.NOT_FOUND.withDescription("Audio " + digest + " is not stored. Upload it with UploadAudio.").asRuntimeException());
+            return;
+        }
+        boolean waitForCompletion = request.hasWaitForCompletion() && request.getWaitForCompletion();
+        if (audioMixer != null) {
+            try {
+                // ファイルをメモリにマップして、ヒープにコピーせずにミキサーへ渡す
+                ByteString wavData = mapFile(path);
+                WavHeader header = AudioMixer.parseHeader(wavData);
+                if (AudioMixer.canMix(header)) {
+                    playMixed(wavData, header, request.hasGain() ? request.getGain() : 1f,
+                            request.getCategory(), waitForCompletion, responseObserver);
+                    return;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                responseObserver.onError(Status.INTERNAL.withDescription("Failed to read stored audio: " + e.getMessage()).asRuntimeException());
+                return;
+            }
+        }
+        try {
+            // 1. 結果を受け取るためのCompletableFutureを作成
+            CompletableFuture<PlayAudioResponse> future = new CompletableFuture<>();
+            // 2. 実行したい処理とFutureをSotaTaskとしてキューに入れる
+            this.commandQueue.put(new Main.SotaTask<>(Main.SotaTask.Priority.BULK,
+                    (sotaContext) -> {
+                        // 再生を一意に識別するためのIDを生成
+                        String playbackId = UUID.randomUUID().toString();
+
+                        // CPlayWave.PlayWaveを呼び出し
+                        SotaBackend.AudioPlayback player = sotaContext.backend.playWave(path.toString(), waitForCompletion);
+
+                        boolean success = (player != null);
+                        if (success && !waitForCompletion) {
+                            // 非同期再生の場合のみ、後から操作できるように登録する
+                            playbackRegistry.started(playbackId, player, null);
+                        }
+
+                        return PlayAudioResponse.newBuilder()
+                                .setSuccess(success)
+                                .setPlaybackId(playbackId)
+                                .build();
+                    }, future
+            ));
+            // 3. 専用スレッドでの処理が完了したら、コールバックでレスポンスを返す (gRPCスレッドは待機しない)
+            Main.respondAsync(future, responseObserver, (response) -> response);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            responseObserver.onError(e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * <pre>
+     * 指定したダイジェストの音声データが保存されているかを確認する (Sota Threadは使わない)
+     * </pre>
+     */
+    @Override
+    public void hasAudio(HasAudioRequest request, StreamObserver<HasAudioResponse> responseObserver) {
+        System.out.println("RPC call: hasAudio");
+        HasAudioResponse.Builder response = HasAudioResponse.newBuilder();
+        for (String digest : request.getDigestsList()) {
+            String normalized = AudioStore.normalizeDigest(digest);
+            response.addStored(audioStore != null && normalized != null && audioStore.find(normalized, false) != null);
+        }
+        responseObserver.onNext(response.build());
+        responseObserver.onCompleted();
+    }
+
     /**
      * <pre>
      * 指定したIDの音声再生を停止する
@@ -162,26 +336,14 @@ public class PlaybackServiceImpl extends PlaybackServiceGrpc.PlaybackServiceImpl
         System.out.println("RPC call: stopAudio");
         try {
             CompletableFuture<Void> future = new CompletableFuture<>();
-            this.commandQueue.put(new Main.SotaTask<>(
+            this.commandQueue.put(new Main.SotaTask<>(Main.SotaTask.Priority.SAFETY,
                     (sotaContext -> {
-                        if (request.hasPlaybackId()) {
-                            // 特定のIDの再生を停止
-                            String playbackId = request.getPlaybackId();
-                            CPlayWave player = activePlayers.remove(playbackId); // 取得と同時にMapから削除
-                            if (player != null) {
-                                player.stop();
-                            }
-                        } else {
-                            // 全ての再生を停止
-                            activePlayers.values().forEach(CPlayWave::stop);
-                            activePlayers.clear();
-                        }
+                        // 特定のIDの再生を停止 (IDがない場合は全ての再生を停止)
+                        playbackRegistry.stop(request.hasPlaybackId() ? request.getPlaybackId() : null);
                         return null;
                     }), future
             ));
-            future.get();
-            responseObserver.onNext(StopAudioResponse.newBuilder().build());
-            responseObserver.onCompleted();
+            Main.respondAsync(future, responseObserver, (result) -> StopAudioResponse.newBuilder().build());
         } catch (InterruptedException e) {
             e.printStackTrace();
             responseObserver.onError(e);
@@ -202,33 +364,15 @@ public class PlaybackServiceImpl extends PlaybackServiceGrpc.PlaybackServiceImpl
         System.out.println("RPC call: isAudioPlaying");
         try {
             CompletableFuture<Boolean> future = new CompletableFuture<>();
-            this.commandQueue.put(new Main.SotaTask<>(
+            this.commandQueue.put(new Main.SotaTask<>(Main.SotaTask.Priority.QUERY,
                     (sotaContext -> {
-                        boolean isPlaying = false;
-                        if (request.hasPlaybackId()) {
-                            // 特定のIDの再生状態を確認
-                            String playbackId = request.getPlaybackId();
-                            CPlayWave player = activePlayers.get(playbackId);
-                            if (player != null) {
-                                isPlaying = player.isPlaying();
-                                // もし再生が終わっていたらMapから削除（クリーンアップ）
-                                if (!isPlaying) {
-                                    activePlayers.remove(playbackId);
-                                }
-                            }
-                        } else {
-                            // いずれかの音声が再生中か確認
-                            // 再生が終わったものを掃除しながら確認
-                            activePlayers.entrySet().removeIf(entry -> !entry.getValue().isPlaying());
-                            isPlaying = !activePlayers.isEmpty();
-                        }
+                        // 特定のIDの再生状態を確認 (IDがない場合はいずれかが再生中か確認)
+                        // 再生が終わっていたものは登録から外れる
+                        boolean isPlaying = playbackRegistry.isPlaying(request.hasPlaybackId() ? request.getPlaybackId() : null);
                         return isPlaying;
                     }), future
             ));
-            boolean isPlaying = future.get();
-            IsAudioPlayingResponse response = IsAudioPlayingResponse.newBuilder().setIsPlaying(isPlaying).build();
-            responseObserver.onNext(response);
-            responseObserver.onCompleted();
+            Main.respondAsync(future, responseObserver, (isPlaying) -> IsAudioPlayingResponse.newBuilder().setIsPlaying(isPlaying).build());
         } catch (InterruptedException e) {
             e.printStackTrace();
             responseObserver.onError(e);
@@ -238,4 +382,78 @@ public class PlaybackServiceImpl extends PlaybackServiceGrpc.PlaybackServiceImpl
             responseObserver.onError(e);
         }
     }
+
+    /**
+     * <pre>
+     * 再生の開始・完了・停止の通知を受け取る (playback_idを指定した場合は、完了・停止した時点でストリームを閉じる)
+     * </pre>
+     */
+    @Override
+    public void watchPlayback(WatchPlaybackRequest request, StreamObserver<PlaybackEvent> responseObserver) {
+        System.out.println("RPC call: watchPlayback");
+        String playbackId = request.hasPlaybackId() ? request.getPlaybackId() : null;
+        if (!this.playbackRegistry.watch(playbackId, (ServerCallStreamObserver<PlaybackEvent>) responseObserver)) {
+            responseObserver.onError(Status.NOT_FOUND.withDescription("Unknown playback_id: " + playbackId).asRuntimeException());
+        }
+    }
+
+    // --- Helper Methods ---
+
+    /**
+     * ミキサーで再生する (出力を開く処理はミキサーが行うので、Sota Threadは使わない)
+     */
+    private void playMixed(ByteString wavData, WavHeader header, float gain, AudioCategory category,
+                           boolean waitForCompletion, StreamObserver<PlayAudioResponse> responseObserver) {
+        String playbackId = UUID.randomUUID().toString();
+        AudioMixer.Source source = audioMixer.play(wavData, header, category, gain);
+        // 後から操作・監視できるように登録し、再生が終わったらすぐに完了とする (Playback Reaperを待たない)
+        playbackRegistry.started(playbackId, source, null);
+        CompletableFuture<Void> completion = source.getCompletion()
+                .thenRun(() -> playbackRegistry.finished(playbackId, source));
+        if (waitForCompletion) {
+            // 再生が終わったらレスポンスを返す (gRPCスレッドは待機しない。止めた・出力を開けなかった場合は失敗)
+            Main.respondAsync(completion, responseObserver, (result) -> PlayAudioResponse.newBuilder()
+                    .setSuccess(!source.wasStopped())
+                    .setPlaybackId(playbackId)
+                    .build());
+            return;
+        }
+        responseObserver.onNext(PlayAudioResponse.newBuilder()
+                .setSuccess(true)
+                .setPlaybackId(playbackId)
+                .build());
+        responseObserver.onCompleted();
+    }
+
+    private static ByteString mapFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return UnsafeByteOperations.unsafeWrap(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * 音声データを再生ごとに別の一時ファイルに書き出す (ヒープ上にコピーを作らず、ByteStringの内容をそのまま書き込む)
+     */
+    private static Path spillToFile(ByteString audioData) throws IOException {
+        Path path = Files.createTempFile(TMP_AUDIO_PREFIX, ".wav");
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            for (ByteBuffer buffer : audioData.asReadOnlyByteBufferList()) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        } catch (IOException e) {
+            deleteQuietly(path);
+            throw e;
+        }
+        return path;
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 }
@@ -0,0 +1,197 @@
+package net.keimag.sotagrpc;
+
+import net.keimag.sotagrpc.v1.robotlib.LedState;
+import net.keimag.sotagrpc.v1.robotlib.Pose;
+import net.keimag.sotagrpc.v1.robotlib.Servo;
+import net.keimag.sotagrpc.v1.robotlib.ServoID;
+
+import java.awt.Color;
+
+/**
+ * Pose (protobuf) とSotaLibのサーボID・角度の配列の変換
+ *
+ * PlayPose・StreamPosesで毎回ArrayListやボックス化した値を作らないように、プリミティブの配列に変換する。
+ * 配列はスレッドごとに再利用する (Sota Threadから呼び出すことを想定)。
+ * CRobotPose.SetPoseに渡すByte[]・Short[]はSotaLibが保持するかもしれないため毎回作るが、
+ * Short (角度) は範囲内の値をキャッシュする (Byteは全ての値がJVMにキャッシュされている)。
+ * 読み取ったポーズが前回と同じ場合 (ロボットが止まっている場合) は、前回のPoseをそのまま返す。
+ */
+final class PoseConverter {
+    /** ServoIDの並び (BODY_Y, L_SHOULDER, L_ELBOW, R_SHOULDER, R_ELBOW, HEAD_Y, HEAD_P, HEAD_R) のサーボ数 */
+    static final int SERVO_COUNT = 8;
+
+    /** SotaLibのサーボID (1〜8) からServoIDへの表 (範囲外はnull) */
+    private static final ServoID[] SERVO_IDS = new ServoID[SERVO_COUNT + 1];
+    /** キャッシュする角度 (0.1度単位) の範囲。Sotaのサーボの可動範囲を含む */
+    private static final int MIN_CACHED_ANGLE = -2048;
+    private static final int MAX_CACHED_ANGLE = 2047;
+    // 角度のShortのキャッシュ (使われたものから作る。Shortは不変なので、複数のスレッドから作っても問題ない)
+    private static final Short[] ANGLES = new Short[MAX_CACHED_ANGLE - MIN_CACHED_ANGLE + 1];
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    static {
+        for (ServoID id : ServoID.values()) {
+            if (id != ServoID.UNRECOGNIZED && id.getNumber() > 0 && id.getNumber() <= SERVO_COUNT) {
+                SERVO_IDS[id.getNumber()] = id;
+            }
+        }
+    }
+
+    private PoseConverter() {
+    }
+
+    /**
+     * 呼び出したスレッドの作業用の配列
+     */
+    static Scratch scratch() {
+        return SCRATCH.get();
+    }
+
+    /**
+     * Poseのサーボ (SERVO_ID_UNSPECIFIED以外) をscratch.ids・scratch.anglesの先頭に入れる
+     *
+     * @return 入れたサーボの数
+     */
+    static int fromPose(Pose pose, Scratch scratch) {
+        int servoCount = pose.getServosCount();
+        scratch.ensureCapacity(servoCount);
+        int count = 0;
+        for (int i = 0; i < servoCount; i++) {
+            Servo servo = pose.getServos(i);
+            int id = servo.getIdValue();
+            if (id != ServoID.SERVO_ID_UNSPECIFIED_VALUE) {
+                scratch.ids[count] = (byte) id;
+                scratch.angles[count] = (short) servo.getAngle();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * LedStateをSotaBackend.Ledに変換する (前回と同じ状態であれば、前回のLedを返す)
+     */
+    static SotaBackend.Led toLed(LedState ledState, Scratch scratch) {
+        if (!ledState.equals(scratch.lastLedState)) {
+            scratch.lastLed = new SotaBackend.Led(toAwtColor(ledState.getLeftEye()), toAwtColor(ledState.getRightEye()),
+                    ledState.getMouth(), toAwtColor(ledState.getPowerButton()));
+            scratch.lastLedState = ledState;
+        }
+        return scratch.lastLed;
+    }
+
+    /**
+     * CRobotPose.SetPoseに渡すByte[] (長さcount、呼び出すたびに新しく作る)
+     */
+    static Byte[] boxIds(byte[] ids, int count) {
+        Byte[] boxed = new Byte[count];
+        for (int i = 0; i < count; i++) {
+            boxed[i] = ids[i];
+        }
+        return boxed;
+    }
+
+    /**
+     * CRobotPose.SetPoseに渡すShort[] (長さcount、呼び出すたびに新しく作る)
+     */
+    static Short[] boxAngles(short[] angles, int count) {
+        Short[] boxed = new Short[count];
+        for (int i = 0; i < count; i++) {
+            boxed[i] = boxAngle(angles[i]);
+        }
+        return boxed;
+    }
+
+    /**
+     * getDefaultIDs・getReadposの結果をPoseに変換する (前回と同じ値であれば、前回のPoseを返す)
+     */
+    static Pose toPose(Byte[] ids, Short[] angles) {
+        if (angles == null || ids == null || ids.length != angles.length) {
+            throw new IllegalStateException("Failed to read servo positions.");
+        }
+        Scratch scratch = scratch();
+        if (scratch.lastPose != null && scratch.isLastReading(ids, angles)) {
+            return scratch.lastPose;
+        }
+        Pose.Builder poseBuilder = Pose.newBuilder();
+        for (int i = 0; i < ids.length; i++) {
+            ServoID servoId = toServoId(ids[i]);
+            Servo.Builder servo = servoId != null ? Servo.newBuilder().setId(servoId) : Servo.newBuilder().setIdValue(ids[i]);
+            poseBuilder.addServos(servo.setAngle(angles[i]));
+        }
+        Pose pose = poseBuilder.build();
+        scratch.remember(ids, angles, pose);
+        return pose;
+    }
+
+    /**
+     * SotaLibのサーボIDをServoIDに変換する (範囲外はnull)
+     */
+    static ServoID toServoId(int id) {
+        return id > 0 && id <= SERVO_COUNT ? SERVO_IDS[id] : null;
+    }
+
+    private static Short boxAngle(short angle) {
+        if (angle < MIN_CACHED_ANGLE || angle > MAX_CACHED_ANGLE) {
+            return angle;
+        }
+        Short boxed = ANGLES[angle - MIN_CACHED_ANGLE];
+        if (boxed == null) {
+            boxed = angle;
+            ANGLES[angle - MIN_CACHED_ANGLE] = boxed;
+        }
+        return boxed;
+    }
+
+    private static Color toAwtColor(net.keimag.sotagrpc.v1.robotlib.Color grpcColor) {
+        return new Color(grpcColor.getRed(), grpcColor.getGreen(), grpcColor.getBlue());
+    }
+
+    /**
+     * スレッドごとの作業用の配列
+     */
+    static final class Scratch {
+        /** fromPoseの結果 (サーボが9個以上あるPoseを受け取ったら広げる) */
+        byte[] ids = new byte[SERVO_COUNT];
+        short[] angles = new short[SERVO_COUNT];
+        // 前回変換したLED
+        private LedState lastLedState;
+        private SotaBackend.Led lastLed;
+        // 前回読み取ったポーズ
+        private final byte[] lastIds = new byte[SERVO_COUNT];
+        private final short[] lastAngles = new short[SERVO_COUNT];
+        private Pose lastPose;
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > ids.length) {
+                ids = new byte[capacity];
+                angles = new short[capacity];
+            }
+        }
+
+        private boolean isLastReading(Byte[] ids, Short[] angles) {
+            if (ids.length != lastPose.getServosCount()) {
+                return false;
+            }
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] != lastIds[i] || angles[i] != lastAngles[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void remember(Byte[] ids, Short[] angles, Pose pose) {
+            if (ids.length > SERVO_COUNT) {
+                lastPose = null;
+                return;
+            }
+            for (int i = 0; i < ids.length; i++) {
+                lastIds[i] = ids[i];
+                lastAngles[i] = angles[i];
+            }
+            lastPose = pose;
+        }
+    }
+}
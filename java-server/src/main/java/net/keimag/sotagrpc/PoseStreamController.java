@@ -0,0 +1,189 @@
+package net.keimag.sotagrpc;
+
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import jp.vstone.RobotLib.CRobotUtil;
+import net.keimag.sotagrpc.v1.robotlib.Pose;
+import net.keimag.sotagrpc.v1.robotlib.PoseFeedback;
+import net.keimag.sotagrpc.v1.robotlib.PoseTarget;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * StreamPosesで受け取った目標ポーズを、一定の制御周期でSota Threadから反映するクラス
+ *
+ * ストリームごとに最新の目標ポーズだけを保持し、反映する前に届いた古い目標ポーズは捨てる。
+ * 周期ごとに1つのCONTROLタスクで全ストリームの目標ポーズを反映するので、
+ * クライアントの送信頻度が上がってもキューにタスクが溜まることはない。
+ */
+public class PoseStreamController {
+    private static final String TAG = "PoseStreamController";
+    // Sota Threadが遅れている間は、周期ごとのタスクを1つにまとめる
+    private static final String TASK_KEY = "StreamPoses";
+
+    private final SotaTaskQueue commandQueue;
+    private final MotionRegistry motionRegistry;
+    private final List<PoseStream> streams = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param controlRateHz 目標ポーズを反映する頻度
+     */
+    public PoseStreamController(SotaTaskQueue commandQueue, MotionRegistry motionRegistry, int controlRateHz) {
+        this.commandQueue = commandQueue;
+        this.motionRegistry = motionRegistry;
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Pose Stream Ticker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long periodNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(controlRateHz, 1);
+        ticker.scheduleAtFixedRate(this::tick, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 新しいストリームを開始する
+     *
+     * @return 目標ポーズを受け取るStreamObserver
+     */
+    public StreamObserver<PoseTarget> open(ServerCallStreamObserver<PoseFeedback> responseObserver) {
+        PoseStream stream = new PoseStream(responseObserver);
+        streams.add(stream);
+        return stream;
+    }
+
+    private void tick() {
+        try {
+            boolean hasTarget = false;
+            for (PoseStream stream : streams) {
+                if (stream.latest.get() != null) {
+                    hasTarget = true;
+                    break;
+                }
+            }
+            if (!hasTarget) {
+                return;
+            }
+            this.commandQueue.put(new Main.SotaTask<Void>(Main.SotaTask.Priority.CONTROL, TASK_KEY,
+                    (sotaContext) -> {
+                        applyLatest(sotaContext.backend);
+                        return null;
+                    }, new CompletableFuture<>()
+            ));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // 例外を投げると以降の周期が実行されなくなるので、ここで止める
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 各ストリームの最新の目標ポーズを反映し、反映後のサーボ角度を送り返す (Sota Threadから呼び出すこと)
+     */
+    private void applyLatest(SotaBackend backend) {
+        List<PoseStream> applied = new ArrayList<>(streams.size());
+        List<Target> targets = new ArrayList<>(streams.size());
+        for (PoseStream stream : streams) {
+            Target target = stream.latest.getAndSet(null);
+            if (target == null) {
+                continue;
+            }
+            if (!MotionServiceImpl.applyPose(backend, target.request.getPose(), target.request.getTimeMs())) {
+                CRobotUtil.Err(TAG, "Failed to apply pose #" + target.request.getSequence());
+            }
+            target.appliedNanos = System.nanoTime();
+            applied.add(stream);
+            targets.add(target);
+        }
+        if (applied.isEmpty()) {
+            return;
+        }
+        // PlayPoseで再生中だったモーションは、目標ポーズで上書きされる
+        this.motionRegistry.preemptRunning(null);
+        Pose actual = MotionServiceImpl.toPose(backend.getDefaultIDs(), backend.getReadpos());
+        for (int i = 0; i < applied.size(); i++) {
+            applied.get(i).sendFeedback(targets.get(i), actual);
+        }
+    }
+
+    /**
+     * 受信した目標ポーズと、その受信時刻
+     */
+    private static final class Target {
+        final PoseTarget request;
+        final long receivedNanos;
+        long appliedNanos;
+
+        Target(PoseTarget request, long receivedNanos) {
+            this.request = request;
+            this.receivedNanos = receivedNanos;
+        }
+    }
+
+    private final class PoseStream implements StreamObserver<PoseTarget> {
+        private final ServerCallStreamObserver<PoseFeedback> responseObserver;
+        // まだ反映していない最新の目標ポーズ
+        final AtomicReference<Target> latest = new AtomicReference<>();
+        private final AtomicLong droppedTargets = new AtomicLong();
+        private volatile boolean halfClosed;
+        private boolean completed;
+
+        PoseStream(ServerCallStreamObserver<PoseFeedback> responseObserver) {
+            this.responseObserver = responseObserver;
+        }
+
+        @Override
+        public void onNext(PoseTarget request) {
+            if (latest.getAndSet(new Target(request, System.nanoTime())) != null) {
+                droppedTargets.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            streams.remove(this);
+        }
+
+        @Override
+        public void onCompleted() {
+            // 最後の目標ポーズを反映してからストリームを閉じる
+            halfClosed = true;
+            if (latest.get() == null) {
+                complete();
+            }
+        }
+
+        synchronized void sendFeedback(Target target, Pose actual) {
+            if (!completed && !responseObserver.isCancelled() && responseObserver.isReady()) {
+                // 受信が追いつかない場合は送らない (次の周期で新しい角度を送る)
+                responseObserver.onNext(PoseFeedback.newBuilder()
+                        .setAppliedSequence(target.request.getSequence())
+                        .setActual(actual)
+                        .setApplyLatencyUs(TimeUnit.NANOSECONDS.toMicros(target.appliedNanos - target.receivedNanos))
+                        .setDroppedTargets(droppedTargets.get())
+                        .build());
+            }
+            if (halfClosed && latest.get() == null) {
+                complete();
+            }
+        }
+
+        private synchronized void complete() {
+            streams.remove(this);
+            if (!completed) {
+                completed = true;
+                if (!responseObserver.isCancelled()) {
+                    responseObserver.onCompleted();
+                }
+            }
+        }
+    }
+}
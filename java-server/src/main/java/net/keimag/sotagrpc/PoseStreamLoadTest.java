@@ -0,0 +1,172 @@
+package net.keimag.sotagrpc;
+
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.ServerBuilder;
+import io.grpc.stub.StreamObserver;
+import net.keimag.sotagrpc.v1.robotlib.MotionServiceGrpc;
+import net.keimag.sotagrpc.v1.robotlib.PlayPoseRequest;
+import net.keimag.sotagrpc.v1.robotlib.PlayPoseResponse;
+import net.keimag.sotagrpc.v1.robotlib.Pose;
+import net.keimag.sotagrpc.v1.robotlib.PoseFeedback;
+import net.keimag.sotagrpc.v1.robotlib.PoseTarget;
+import net.keimag.sotagrpc.v1.robotlib.Servo;
+import net.keimag.sotagrpc.v1.robotlib.ServoID;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 遠隔操作を想定し、一定の頻度で目標ポーズを送ったときの、送信から反映までの時間を計測する負荷テスト
+ *
+ * 模擬Sota (SimulatedSotaBackend) を使い、PlayPoseを1フレームずつ呼ぶ場合とStreamPosesを使う場合を比較する。
+ * StreamPosesでは、反映された (PoseFeedback.applied_sequenceで返ってきた) フレームについて計測する。
+ *
+ * 使い方: PoseStreamLoadTest [送信頻度Hz=50] [秒数=5] [SotaLib呼び出し1回あたりの時間ms=25]
+ */
+public class PoseStreamLoadTest {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int rateHz = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int commandLatencyMs = args.length > 2 ? Integer.parseInt(args[2]) : 25;
+        int frames = rateHz * seconds;
+        long periodNanos = TimeUnit.SECONDS.toNanos(1) / rateHz;
+
+        // --- 1. 模擬SotaとSota Thread ---
+        SimulatedSotaBackend.Config config = new SimulatedSotaBackend.Config();
+        config.commandLatencyMs = commandLatencyMs;
+        SotaTaskQueue commandQueue = new SotaTaskQueue();
+        MotionRegistry motionRegistry = new MotionRegistry(commandQueue);
+        ControlLease controlLease = new ControlLease();
+        Thread sotaThread = new Thread(() -> {
+            Main.SotaContext sotaContext = new Main.SotaContext(new SimulatedSotaBackend(config));
+            try {
+                while (true) {
+                    commandQueue.take().execute(sotaContext);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "Sota Thread");
+        sotaThread.setDaemon(true);
+        sotaThread.start();
+
+        io.grpc.Server server = ServerBuilder.forPort(0)
+                .addService(new MotionServiceImpl(commandQueue, new RobotStateSampler(0, 0),
+                        new PoseStreamController(commandQueue, motionRegistry, 50), motionRegistry, controlLease))
+                .intercept(controlLease.interceptor())
+                .intercept(ClientIdentity.interceptor())
+                .build();
+        server.start();
+        ManagedChannel channel = ManagedChannelBuilder.forAddress("localhost", server.getPort()).usePlaintext().build();
+        MotionServiceGrpc.MotionServiceStub stub = MotionServiceGrpc.newStub(channel);
+
+        // --- 2. PlayPoseを1フレームずつ呼ぶ ---
+        long[] unaryLatencies = new long[frames];
+        CountDownLatch unaryDone = new CountDownLatch(frames);
+        long start = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            sleepUntil(start + i * periodNanos);
+            final int index = i;
+            final long sentNanos = System.nanoTime();
+            stub.playPose(PlayPoseRequest.newBuilder().setPose(poseAt(i)).setTimeMs(1000 / rateHz).build(), new StreamObserver<PlayPoseResponse>() {
+                @Override
+                public void onNext(PlayPoseResponse value) {
+                    unaryLatencies[index] = System.nanoTime() - sentNanos;
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    t.printStackTrace();
+                    unaryDone.countDown();
+                }
+
+                @Override
+                public void onCompleted() {
+                    unaryDone.countDown();
+                }
+            });
+        }
+        unaryDone.await();
+
+        // --- 3. StreamPosesで同じ頻度で送る ---
+        long[] sentNanos = new long[frames];
+        long[] streamLatencies = new long[frames];
+        AtomicInteger applied = new AtomicInteger();
+        AtomicLong dropped = new AtomicLong();
+        CountDownLatch streamDone = new CountDownLatch(1);
+        StreamObserver<PoseTarget> targets = stub.streamPoses(new StreamObserver<PoseFeedback>() {
+            @Override
+            public void onNext(PoseFeedback feedback) {
+                int sequence = (int) feedback.getAppliedSequence();
+                streamLatencies[applied.getAndIncrement()] = System.nanoTime() - sentNanos[sequence];
+                dropped.set(feedback.getDroppedTargets());
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                t.printStackTrace();
+                streamDone.countDown();
+            }
+
+            @Override
+            public void onCompleted() {
+                streamDone.countDown();
+            }
+        });
+        start = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            sleepUntil(start + i * periodNanos);
+            sentNanos[i] = System.nanoTime();
+            targets.onNext(PoseTarget.newBuilder().setPose(poseAt(i)).setTimeMs(1000 / rateHz).setSequence(i).build());
+        }
+        targets.onCompleted();
+        streamDone.await();
+
+        System.out.println("------------------------------------------");
+        System.out.println("send rate (Hz)            : " + rateHz);
+        System.out.println("frames                    : " + frames);
+        System.out.println("sota call latency (ms)    : " + commandLatencyMs);
+        System.out.println("PlayPose    p50/p99 (ms)  : " + percentiles(unaryLatencies, frames));
+        System.out.println("StreamPoses p50/p99 (ms)  : " + percentiles(streamLatencies, applied.get()));
+        System.out.println("StreamPoses applied       : " + applied.get());
+        System.out.println("StreamPoses dropped       : " + dropped.get());
+        System.out.println("------------------------------------------");
+
+        channel.shutdownNow();
+        server.shutdownNow();
+    }
+
+    /**
+     * 首を左右に振るポーズ
+     */
+    private static Pose poseAt(int frame) {
+        int angle = (int) (Math.sin(frame / 10.0) * 600);
+        return Pose.newBuilder()
+                .addServos(Servo.newBuilder().setId(ServoID.HEAD_Y).setAngle(angle))
+                .build();
+    }
+
+    private static String percentiles(long[] latencies, int count) {
+        if (count == 0) {
+            return "-";
+        }
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        return String.format("%.1f / %.1f",
+                sorted[count / 2] / 1e6,
+                sorted[Math.min(count - 1, (int) Math.ceil(count * 0.99) - 1)] / 1e6);
+    }
+
+    private static void sleepUntil(long deadlineNanos) throws InterruptedException {
+        long remaining = deadlineNanos - System.nanoTime();
+        if (remaining > 0) {
+            TimeUnit.NANOSECONDS.sleep(remaining);
+        }
+    }
+}
@@ -1,21 +1,24 @@
 package net.keimag.sotagrpc;
 
-import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import  net.keimag.sotagrpc.v1.robotlib.*;
-import  jp.vstone.RobotLib.CRecordMic;
 import java.io.FileNotFoundException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class RecordingServiceImpl extends RecordingServiceGrpc.RecordingServiceImplBase {
-    private final CRecordMic recordMic;
-    public static final String TMP_AUDIO_FILENAME = "tmp_Sota-gRPC_recording.wav";
+    private final SotaBackend backend;
+    private final MicrophoneStreamer microphoneStreamer;
+    public static final String TMP_AUDIO_PREFIX = "tmp_Sota-gRPC_recording";
+    // 録音中のファイル (録音ごとに別のファイルを使い、他のクライアントの録音を上書きしないようにする)
+    private final AtomicReference<Path> recordingFile = new AtomicReference<>();
 
-    public RecordingServiceImpl(CRecordMic recordMic) {
-        this.recordMic = recordMic;
+    public RecordingServiceImpl(SotaBackend backend, MicrophoneStreamer microphoneStreamer) {
+        this.backend = backend;
+        this.microphoneStreamer = microphoneStreamer;
     }
 
     /**
@@ -26,7 +29,23 @@ public class RecordingServiceImpl extends RecordingServiceGrpc.RecordingServiceI
     public void startRecording(StartRecordingRequest request, StreamObserver<StartRecordingResponse> responseObserver) {
         System.out.println("RPC call: startRecording");
         try {
-            boolean is_success =  recordMic.startRecording(TMP_AUDIO_FILENAME, request.getDurationMs());
+            if (backend.isRecording()) {
+                // 録音中のファイルはstopRecordingで読むので、消さずに失敗を返す
+                responseObserver.onNext(StartRecordingResponse.newBuilder().setSuccess(false).build());
+                responseObserver.onCompleted();
+                return;
+            }
+            Path filePath = Files.createTempFile(TMP_AUDIO_PREFIX, ".wav");
+            boolean is_success =  backend.startRecording(filePath.toString(), request.getDurationMs());
+            if (is_success) {
+                Path previous = recordingFile.getAndSet(filePath);
+                if (previous != null) {
+                    // 終わった後に読み出されなかった録音のファイルは削除する
+                    Files.deleteIfExists(previous);
+                }
+            } else {
+                Files.deleteIfExists(filePath);
+            }
             responseObserver.onNext(StartRecordingResponse.newBuilder().setSuccess(is_success).build());
             responseObserver.onCompleted();
         } catch (Exception e) {
@@ -42,15 +61,16 @@ public class RecordingServiceImpl extends RecordingServiceGrpc.RecordingServiceI
     public void stopRecording(StopRecordingRequest request, StreamObserver<StopRecordingResponse> responseObserver) {
         System.out.println("RPC call: stopRecording");
         try {
-            recordMic.stopRecording();
-            Path filePath = Paths.get(TMP_AUDIO_FILENAME);
-            if (!Files.exists(filePath)) {
-                responseObserver.onError(new FileNotFoundException(TMP_AUDIO_FILENAME + " does not exist."));
+            backend.stopRecording();
+            Path filePath = recordingFile.getAndSet(null);
+            if (filePath == null || !Files.exists(filePath)) {
+                responseObserver.onError(new FileNotFoundException("No recording file. Call startRecording first."));
             } else {
-                // TMP_AUDIO_FILENAMEからwavファイルのバイトデータを読みだして，StopRecordingResponseのaudioDataにbytesとして入れる．そのあとオーディオファイルを削除する．
+                // 録音ファイルからwavファイルのバイトデータを読みだして，StopRecordingResponseのaudioDataにbytesとして入れる．そのあとオーディオファイルを削除する．
                 byte[] audio_data = Files.readAllBytes(filePath);
                 Files.delete(filePath);
-                responseObserver.onNext(StopRecordingResponse.newBuilder().setAudioData(ByteString.copyFrom(audio_data)).build());
+                // 読み込んだ配列は他から参照されないので、コピーせずにそのまま送る
+                responseObserver.onNext(StopRecordingResponse.newBuilder().setAudioData(UnsafeByteOperations.unsafeWrap(audio_data)).build());
                 responseObserver.onCompleted();
             }
         } catch (Exception e) {
@@ -65,7 +85,19 @@ public class RecordingServiceImpl extends RecordingServiceGrpc.RecordingServiceI
     @Override
     public void isRecording(IsRecordingRequest request, StreamObserver<IsRecordingResponse> responseObserver) {
         System.out.println("RPC call: isRecording");
-        responseObserver.onNext(IsRecordingResponse.newBuilder().setIsRecording(this.recordMic.isRacoding()).build());
+        responseObserver.onNext(IsRecordingResponse.newBuilder().setIsRecording(this.backend.isRecording()).build());
         responseObserver.onCompleted();
     }
+
+    /**
+     * マイクの音声をPCMのまま少しずつ受け取る
+     *
+     * @param request
+     * @param responseObserver
+     */
+    @Override
+    public void streamRecording(StreamRecordingRequest request, StreamObserver<AudioFrame> responseObserver) {
+        System.out.println("RPC call: streamRecording");
+        this.microphoneStreamer.subscribe((ServerCallStreamObserver<AudioFrame>) responseObserver, request.getDurationMs(), request.getMaxBufferedMs());
+    }
 }
@@ -0,0 +1,299 @@
+package net.keimag.sotagrpc;
+
+import jp.vstone.RobotLib.CPlayWave;
+import jp.vstone.RobotLib.CRecordMic;
+import jp.vstone.RobotLib.CRobotMem;
+import jp.vstone.RobotLib.CRobotPose;
+import jp.vstone.RobotLib.CRobotUtil;
+import jp.vstone.RobotLib.CSotaMotion;
+import jp.vstone.sotatalk.MotionAsSotaWish;
+import jp.vstone.sotatalk.SpeechRecog;
+import jp.vstone.sotatalk.TextToSpeechSota;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import javax.sound.sampled.TargetDataLine;
+
+/**
+ * SotaLibを使って実機を操作するSotaBackend
+ */
+public class RobotSotaBackend implements SotaBackend {
+    private static final String TAG = "RobotSotaBackend";
+
+    private CRobotMem mem;
+    private CSotaMotion motion;
+    private SpeechRecog speechRecog;
+    private MotionAsSotaWish motionAsSotaWish;
+    // 他のライブラリもここに追加していく
+    private final CRecordMic recordMic = new CRecordMic();
+
+    @Override
+    public void connect() {
+        CRobotUtil.Log(TAG, "Initializing Sota connection...");
+        this.mem = new CRobotMem();
+        if (!mem.Connect()) {
+            throw new RuntimeException("Failed to connect to Sota.");
+        } else {
+            CRobotUtil.Log(TAG, "VSMD connection established.");
+        }
+
+        // Sotaの各種スレッドアンセーフライブラリを初期化
+        this.motion = new CSotaMotion(mem);
+        this.speechRecog = new SpeechRecog(motion);
+        this.motionAsSotaWish = new MotionAsSotaWish(motion);
+        this.motion.InitRobot_Sota();
+    }
+
+    public SpeechRecog getSpeechRecog() {
+        return speechRecog;
+    }
+
+    @Override
+    public void servoOn() {
+        motion.ServoOn();
+    }
+
+    @Override
+    public void servoOff() {
+        motion.ServoOff();
+    }
+
+    @Override
+    public boolean play(byte[] ids, short[] angles, int count, Led led, int timeMs) {
+        return motion.play(toCRobotPose(ids, angles, count, led), timeMs);
+    }
+
+    /**
+     * サーボID・角度の配列とLEDの状態からCRobotPoseを作成する
+     */
+    static CRobotPose toCRobotPose(byte[] ids, short[] angles, int count, Led led) {
+        CRobotPose pose = new CRobotPose();
+        pose.SetPose(PoseConverter.boxIds(ids, count), PoseConverter.boxAngles(angles, count));
+        if (led != null) {
+            pose.setLED_Sota(led.leftEye, led.rightEye, led.mouth, led.powerButton);
+        }
+        return pose;
+    }
+
+    @Override
+    public Short[] getReadpos() {
+        return motion.getReadpos();
+    }
+
+    @Override
+    public Byte[] getDefaultIDs() {
+        return motion.getDefaultIDs();
+    }
+
+    @Override
+    public boolean isEndInterpAll() {
+        return motion.isEndInterpAll();
+    }
+
+    @Override
+    public int getBatteryVoltage() {
+        return motion.getBatteryVoltage();
+    }
+
+    @Override
+    public boolean isCharging() {
+        return motion.isCharging();
+    }
+
+    @Override
+    public boolean isButtonPower() {
+        return motion.isButton_Power();
+    }
+
+    @Override
+    public boolean isButtonVolUp() {
+        return motion.isButton_VolUp();
+    }
+
+    @Override
+    public boolean isButtonVolDown() {
+        return motion.isButton_VolDown();
+    }
+
+    @Override
+    public void enableCollisionDetect() {
+        motion.EnableCollidionDetect();
+    }
+
+    @Override
+    public void disableCollisionDetect() {
+        motion.DisableCollidionDetect();
+    }
+
+    @Override
+    public void enableMouthLedVoiceSync() {
+        motion.enabeMouthLEDVoiceSync();
+    }
+
+    @Override
+    public void disableMouthLedVoiceSync() {
+        motion.disabeMouthLEDVoiceSync();
+    }
+
+    @Override
+    public void say(String text) {
+        motionAsSotaWish.Say(text);
+    }
+
+    @Override
+    public void say(String text, String scene) {
+        motionAsSotaWish.Say(text, scene);
+    }
+
+    @Override
+    public void say(String text, String scene, int speechRate, int pitch, int intonation) {
+        motionAsSotaWish.Say(text, scene, speechRate, pitch, intonation);
+    }
+
+    @Override
+    public void playScene(String scene, int timeMs) {
+        motionAsSotaWish.play(scene, timeMs);
+    }
+
+    @Override
+    public AudioPlayback playWave(byte[] wavData, boolean waitForCompletion) {
+        return wrap(CPlayWave.PlayWave(wavData, waitForCompletion));
+    }
+
+    @Override
+    public AudioPlayback playWave(String filePath, boolean waitForCompletion) {
+        return wrap(CPlayWave.PlayWave(filePath, waitForCompletion));
+    }
+
+    @Override
+    public AudioStream openAudioStream(int sampleRate, int channels, int bitsPerSample) {
+        // CPlayWaveには少しずつ書き込む手段がないので、同じ出力デバイスにjavax.soundで直接書き込む
+        AudioFormat format = new AudioFormat(sampleRate, bitsPerSample, channels, bitsPerSample > 8, false);
+        try {
+            SourceDataLine line = AudioSystem.getSourceDataLine(format);
+            line.open(format);
+            line.start();
+            return new LineAudioStream(line);
+        } catch (LineUnavailableException | IllegalArgumentException e) {
+            CRobotUtil.Err(TAG, "Failed to open audio line: " + e);
+            return null;
+        }
+    }
+
+    @Override
+    public byte[] getTTSData(String text) {
+        return TextToSpeechSota.getTTSData(text);
+    }
+
+    @Override
+    public byte[] getTTSData(String text, int speechRate, int pitch, int intonation) {
+        return TextToSpeechSota.getTTSData(text, speechRate, pitch, intonation);
+    }
+
+    @Override
+    public boolean startRecording(String filePath, int durationMs) {
+        return recordMic.startRecording(filePath, durationMs);
+    }
+
+    @Override
+    public void stopRecording() {
+        recordMic.stopRecording();
+    }
+
+    @Override
+    public boolean isRecording() {
+        return recordMic.isRacoding();
+    }
+
+    @Override
+    public AudioCapture openAudioCapture(int sampleRate, int channels) {
+        // CRecordMicはファイルにしか録音できないので、同じマイクからjavax.soundで直接読み取る
+        AudioFormat format = new AudioFormat(sampleRate, 16, channels, true, false);
+        try {
+            TargetDataLine line = AudioSystem.getTargetDataLine(format);
+            line.open(format);
+            line.start();
+            return new AudioCapture() {
+                @Override
+                public int read(byte[] data, int offset, int length) {
+                    if (!line.isOpen()) {
+                        return -1;
+                    }
+                    int n = line.read(data, offset, length);
+                    return line.isOpen() || n > 0 ? n : -1;
+                }
+
+                @Override
+                public void close() {
+                    line.stop();
+                    line.close();
+                }
+            };
+        } catch (LineUnavailableException | IllegalArgumentException e) {
+            CRobotUtil.Err(TAG, "Failed to open microphone: " + e);
+            return null;
+        }
+    }
+
+    private static AudioPlayback wrap(CPlayWave player) {
+        if (player == null) {
+            return null;
+        }
+        return new AudioPlayback() {
+            @Override
+            public void stop() {
+                player.stop();
+            }
+
+            @Override
+            public boolean isPlaying() {
+                return player.isPlaying();
+            }
+        };
+    }
+
+    /**
+     * SourceDataLineに書き込むAudioStream
+     */
+    private static class LineAudioStream implements AudioStream {
+        private final SourceDataLine line;
+        private volatile boolean stopped;
+        private volatile boolean finished;
+
+        LineAudioStream(SourceDataLine line) {
+            this.line = line;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) {
+            if (!stopped) {
+                line.write(data, offset, length);
+            }
+        }
+
+        @Override
+        public void finish() {
+            if (!stopped) {
+                line.drain();
+            }
+            finished = true;
+            line.close();
+        }
+
+        @Override
+        public void stop() {
+            // 書き込み中のwriteも、closeすると戻る
+            stopped = true;
+            line.stop();
+            line.flush();
+            line.close();
+        }
+
+        @Override
+        public boolean isPlaying() {
+            return !stopped && !finished && line.isOpen();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package net.keimag.sotagrpc;
+
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import net.keimag.sotagrpc.v1.robotlib.RobotState;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * RobotStateSamplerが読み取った状態を、SubscribeRobotStateの購読者全員に配信するクラス
+ *
+ * 読み取りは1か所 (Sota Thread) で行い、購読者が増えてもSotaLibの呼び出しは増えない。
+ * 送信は専用の1スレッド (Robot State Publisher) で行うので、Sota Threadは送信を待たない。
+ * 受信が追いつかない購読者には最新の状態だけを残し、古い状態は捨てる (バッファは購読者ごとに1つ)。
+ */
+public class RobotStatePublisher {
+    // 購読者の一覧とその状態は、このスレッドからのみ操作する
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Robot State Publisher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final List<Subscription> subscriptions = new ArrayList<>();
+    private final long samplePeriodNanos;
+
+    // Sota Threadから渡された最新の状態 (配信が遅れている間に来た状態はまとめる)
+    private final AtomicReference<RobotStateSampler.Snapshot> latest = new AtomicReference<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+    public RobotStatePublisher(RobotStateSampler sampler) {
+        this.samplePeriodNanos = sampler.getPeriodNanos();
+        sampler.setListener(this::onSample);
+    }
+
+    /**
+     * 購読を開始する
+     *
+     * @param rateHz 1秒あたりの送信回数 (0以下の場合は読み取るたびに送る)
+     */
+    public void subscribe(ServerCallStreamObserver<RobotState> responseObserver, int rateHz) {
+        if (samplePeriodNanos <= 0) {
+            responseObserver.onError(Status.FAILED_PRECONDITION
+                    .withDescription("Robot state sampling is disabled (--state-sample-hz 0).")
+                    .asRuntimeException());
+            return;
+        }
+        long intervalNanos = rateHz > 0 ? TimeUnit.SECONDS.toNanos(1) / rateHz : 0;
+        Subscription subscription = new Subscription(responseObserver, intervalNanos);
+        responseObserver.setOnReadyHandler(() -> executor.execute(subscription::trySend));
+        responseObserver.setOnCancelHandler(() -> executor.execute(() -> subscriptions.remove(subscription)));
+        executor.execute(() -> subscriptions.add(subscription));
+    }
+
+    /**
+     * Sota Threadから呼び出される (すぐに戻る)
+     */
+    private void onSample(RobotStateSampler.Snapshot snapshot) {
+        latest.set(snapshot);
+        if (drainScheduled.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        drainScheduled.set(false);
+        RobotStateSampler.Snapshot snapshot = latest.get();
+        if (snapshot == null || subscriptions.isEmpty()) {
+            return;
+        }
+        // 全購読者で同じメッセージを使い回す
+        RobotState state = RobotState.newBuilder()
+                .setTimestampMs(snapshot.timestampMillis)
+                .setPose(snapshot.pose)
+                .setPower(snapshot.power)
+                .setButtons(snapshot.buttons)
+                .build();
+        for (int i = subscriptions.size() - 1; i >= 0; i--) {
+            Subscription subscription = subscriptions.get(i);
+            if (subscription.responseObserver.isCancelled()) {
+                subscriptions.remove(i);
+                continue;
+            }
+            subscription.offer(state);
+        }
+    }
+
+    /**
+     * 購読者ごとの送信状態 (Robot State Publisherスレッドからのみ操作する)
+     */
+    private static final class Subscription {
+        private final ServerCallStreamObserver<RobotState> responseObserver;
+        private final long intervalNanos;
+        // まだ送っていない最新の状態
+        private RobotState pending;
+        private boolean waitingForReady;
+        private long lastSentNanos;
+        private long droppedFrames;
+
+        Subscription(ServerCallStreamObserver<RobotState> responseObserver, long intervalNanos) {
+            this.responseObserver = responseObserver;
+            this.intervalNanos = intervalNanos;
+            this.lastSentNanos = System.nanoTime() - intervalNanos;
+        }
+
+        void offer(RobotState state) {
+            if (pending != null && waitingForReady) {
+                // 受信が追いつかず送れなかった状態は、新しい状態で置き換える
+                droppedFrames++;
+            }
+            pending = state;
+            trySend();
+        }
+
+        void trySend() {
+            if (pending == null || responseObserver.isCancelled()) {
+                return;
+            }
+            if (!responseObserver.isReady()) {
+                waitingForReady = true;
+                return;
+            }
+            waitingForReady = false;
+            long now = System.nanoTime();
+            // 読み取り周期の揺らぎで間引きすぎないよう、間隔の1/10までは早めに送ってよい
+            if (now - lastSentNanos < intervalNanos - intervalNanos / 10) {
+                return;
+            }
+            RobotState state = pending;
+            pending = null;
+            lastSentNanos = now;
+            responseObserver.onNext(droppedFrames == 0 ? state : state.toBuilder().setDroppedFrames(droppedFrames).build());
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package net.keimag.sotagrpc;
+
+import jp.vstone.RobotLib.CRobotUtil;
+import net.keimag.sotagrpc.v1.robotlib.GetButtonStateResponse;
+import net.keimag.sotagrpc.v1.robotlib.GetPowerStatusResponse;
+import net.keimag.sotagrpc.v1.robotlib.Pose;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * ポーズ・電源・ボタンの状態を定期的に読み取り、スナップショットとして公開するクラス
+ *
+ * sample()はSota Threadがタスクを待っている間 (アイドル時) に呼び出す。
+ * 公開したスナップショットは不変なので、gRPCスレッドからロックなしで読み取れる。
+ */
+public class RobotStateSampler {
+    private static final String TAG = "RobotStateSampler";
+
+    /**
+     * ある時点のロボットの状態 (不変)
+     */
+    public static final class Snapshot {
+        /** 読み取った時刻 (System.nanoTime) */
+        public final long sampledNanos;
+        /** 読み取った時刻 (UNIX時間, ms) */
+        public final long timestampMillis;
+        public final Pose pose;
+        public final GetPowerStatusResponse power;
+        public final GetButtonStateResponse buttons;
+
+        public Snapshot(long sampledNanos, long timestampMillis, Pose pose, GetPowerStatusResponse power, GetButtonStateResponse buttons) {
+            this.sampledNanos = sampledNanos;
+            this.timestampMillis = timestampMillis;
+            this.pose = pose;
+            this.power = power;
+            this.buttons = buttons;
+        }
+
+        public long getAgeMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sampledNanos);
+        }
+    }
+
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+    private final long periodNanos;
+    private final long defaultMaxStalenessMs;
+    private long nextSampleNanos = System.nanoTime();
+    private volatile Consumer<Snapshot> listener;
+
+    /**
+     * @param sampleRateHz          1秒あたりの読み取り回数 (0以下で読み取らない)
+     * @param defaultMaxStalenessMs クライアントが許容する古さを指定しなかった場合に使う上限
+     */
+    public RobotStateSampler(double sampleRateHz, long defaultMaxStalenessMs) {
+        this.periodNanos = sampleRateHz > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / sampleRateHz) : 0;
+        this.defaultMaxStalenessMs = defaultMaxStalenessMs;
+    }
+
+    public boolean isEnabled() {
+        return periodNanos > 0;
+    }
+
+    /**
+     * 読み取りの周期 (読み取らない場合は0)
+     */
+    public long getPeriodNanos() {
+        return periodNanos;
+    }
+
+    /**
+     * 読み取るたびに呼び出すリスナーを設定する
+     *
+     * リスナーはSota Threadから呼び出されるので、すぐに戻ること。
+     */
+    public void setListener(Consumer<Snapshot> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 次の読み取りまでの時間 (Sota Threadがタスクを待つ上限)
+     */
+    public long nanosUntilNextSample() {
+        if (!isEnabled()) {
+            return Long.MAX_VALUE;
+        }
+        return nextSampleNanos - System.nanoTime();
+    }
+
+    /**
+     * タスクが途切れずアイドル時間がない場合でも、周期の2倍以上は古くならないように読み取るべきか
+     */
+    public boolean isOverdue() {
+        return isEnabled() && System.nanoTime() - nextSampleNanos >= periodNanos;
+    }
+
+    /**
+     * 状態を読み取ってスナップショットを更新する (Sota Threadから呼び出すこと)
+     */
+    public void sample(Main.SotaContext sotaContext) {
+        long now = System.nanoTime();
+        nextSampleNanos = now + periodNanos;
+        try {
+            SotaBackend backend = sotaContext.backend;
+            Pose pose = MotionServiceImpl.toPose(backend.getDefaultIDs(), backend.getReadpos());
+            GetPowerStatusResponse power = GetPowerStatusResponse.newBuilder()
+                    .setBatteryVoltageMv(backend.getBatteryVoltage())
+                    .setIsCharging(backend.isCharging())
+                    .build();
+            GetButtonStateResponse buttons = GetButtonStateResponse.newBuilder()
+                    .setIsPowerPressed(backend.isButtonPower())
+                    .setIsVolUpPressed(backend.isButtonVolUp())
+                    .setIsVolDownPressed(backend.isButtonVolDown())
+                    .build();
+            Snapshot sampled = new Snapshot(now, System.currentTimeMillis(), pose, power, buttons);
+            snapshot.set(sampled);
+            Consumer<Snapshot> listener = this.listener;
+            if (listener != null) {
+                listener.accept(sampled);
+            }
+        } catch (Exception e) {
+            CRobotUtil.Err(TAG, "Failed to sample robot state: " + e);
+        }
+    }
+
+    /**
+     * 最新のスナップショットを返す
+     *
+     * @param maxStalenessMs 許容する古さ (負の値の場合は既定値を使う)
+     * @return スナップショット (まだ読み取っていない、または許容する古さを超えている場合はnull)
+     */
+    public Snapshot getSnapshot(long maxStalenessMs) {
+        Snapshot current = snapshot.get();
+        if (current == null) {
+            return null;
+        }
+        long limit = maxStalenessMs >= 0 ? maxStalenessMs : defaultMaxStalenessMs;
+        return current.getAgeMillis() <= limit ? current : null;
+    }
+
+    /**
+     * 最新のスナップショットを古さに関係なく返す (まだ読み取っていない場合はnull)
+     */
+    public Snapshot getLatest() {
+        return snapshot.get();
+    }
+}
@@ -0,0 +1,90 @@
+package net.keimag.sotagrpc;
+
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.ForwardingServerCall;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 開始時刻を指定したコマンドの実行 (複数台のSotaで動きを揃えるため)
+ *
+ * クライアント (またはFleetGateway) がメタデータsota-start-at-msにUNIX時刻 (ms) を指定すると、
+ * その呼び出しで作られたSotaTaskは指定した時刻になるまでSota Threadで実行されない (待っている間も他のタスクは実行する)。
+ * SAFETYのタスクは時刻を指定されていても待たずに実行する。
+ *
+ * 各レスポンスのヘッダーには、呼び出しを受け取った時刻と返した時刻を付ける (FleetGatewayが時計のずれを推定するため)。
+ */
+public final class ScheduledStart {
+    /** 開始時刻 (UNIX時刻, ms) */
+    public static final Metadata.Key<String> START_AT_KEY = Metadata.Key.of("sota-start-at-ms", Metadata.ASCII_STRING_MARSHALLER);
+    /** サーバーが呼び出しを受け取った時刻 (UNIX時刻, ms) */
+    public static final Metadata.Key<String> RECEIVED_AT_KEY = Metadata.Key.of("sota-received-at-ms", Metadata.ASCII_STRING_MARSHALLER);
+    /** サーバーがレスポンスを返した時刻 (UNIX時刻, ms) */
+    public static final Metadata.Key<String> RESPONDED_AT_KEY = Metadata.Key.of("sota-responded-at-ms", Metadata.ASCII_STRING_MARSHALLER);
+    /** これより先の時刻は受け付けない (時計の設定ミスでコマンドが実行されないままになるのを防ぐ) */
+    private static final long MAX_SCHEDULE_AHEAD_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+    private static final Context.Key<Long> START_AT = Context.key("sota-start-at-ms");
+
+    private ScheduledStart() {
+    }
+
+    /**
+     * @return 現在の呼び出しで指定された開始時刻 (UNIX時刻, ms)。指定がなければ0
+     */
+    public static long currentStartAtMillis() {
+        Long startAt = START_AT.get();
+        return startAt != null ? startAt : 0;
+    }
+
+    /**
+     * @return contextに開始時刻を入れたContext (この中で作られたSotaTaskはその時刻まで実行されない)
+     */
+    static Context withStartAtMillis(Context context, long startAtMillis) {
+        return context.withValue(START_AT, startAtMillis);
+    }
+
+    /**
+     * メタデータから開始時刻を読み取り、呼び出しのContextに入れるServerInterceptor
+     */
+    public static ServerInterceptor interceptor() {
+        return new ServerInterceptor() {
+            @Override
+            public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+                long receivedAt = System.currentTimeMillis();
+                ServerCall<ReqT, RespT> timedCall = new ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT>(call) {
+                    @Override
+                    public void sendHeaders(Metadata responseHeaders) {
+                        responseHeaders.put(RECEIVED_AT_KEY, Long.toString(receivedAt));
+                        responseHeaders.put(RESPONDED_AT_KEY, Long.toString(System.currentTimeMillis()));
+                        super.sendHeaders(responseHeaders);
+                    }
+                };
+                String value = headers.get(START_AT_KEY);
+                if (value == null) {
+                    return next.startCall(timedCall, headers);
+                }
+                long startAt;
+                try {
+                    startAt = Long.parseLong(value.trim());
+                } catch (NumberFormatException e) {
+                    call.close(Status.INVALID_ARGUMENT.withDescription(START_AT_KEY.name() + " must be a UNIX time in milliseconds: " + value), new Metadata());
+                    return new ServerCall.Listener<ReqT>() {
+                    };
+                }
+                if (startAt - receivedAt > MAX_SCHEDULE_AHEAD_MILLIS) {
+                    call.close(Status.INVALID_ARGUMENT.withDescription(START_AT_KEY.name() + " is more than " + MAX_SCHEDULE_AHEAD_MILLIS + " ms ahead of the server clock."), new Metadata());
+                    return new ServerCall.Listener<ReqT>() {
+                    };
+                }
+                return Contexts.interceptCall(withStartAtMillis(Context.current(), startAt), timedCall, headers, next);
+            }
+        };
+    }
+}
@@ -0,0 +1,442 @@
+package net.keimag.sotagrpc;
+
+import jp.vstone.RobotLib.CRobotUtil;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 実機なしでサーバーを動かすためのSotaBackend
+ *
+ * サーボの補間時間、バッテリー・ボタンの状態、音声再生時間、音声合成の待ち時間を模擬する。
+ * 負荷試験やソークテストでディスパッチ経路を計測するために使う。
+ */
+public class SimulatedSotaBackend implements SotaBackend {
+    private static final String TAG = "SimulatedSotaBackend";
+
+    /** CSotaMotion.getDefaultIDs() と同じ並び (BODY_Y, L_SHOULDER, L_ELBOW, R_SHOULDER, R_ELBOW, HEAD_Y, HEAD_P, HEAD_R) */
+    private static final Byte[] DEFAULT_IDS = {1, 2, 3, 4, 5, 6, 7, 8};
+    private static final int TTS_SAMPLE_RATE = 16000;
+
+    /**
+     * 模擬する遅延などの設定
+     */
+    public static class Config {
+        /** SotaLibの呼び出し1回ごとにかかる時間 (VSMDとの通信) */
+        public int commandLatencyMs = 2;
+        /** 音声合成にかかる固定時間 */
+        public int ttsLatencyMs = 300;
+        /** 音声合成にかかる1文字あたりの時間 */
+        public int ttsLatencyMsPerChar = 10;
+        /** 合成音声の1文字あたりの長さ */
+        public int speechMsPerChar = 150;
+        /** 起動時のバッテリー電圧 */
+        public int batteryVoltageMv = 8000;
+        /** 充電していないときの1分あたりの電圧低下 */
+        public int batteryDrainMvPerMinute = 5;
+        /** バッテリー電圧の下限 */
+        public int minBatteryVoltageMv = 6600;
+    }
+
+    private final Config config;
+    private final long startNanos = System.nanoTime();
+
+    // サーボ補間の状態 (Sota Threadからのみ操作する)
+    private final short[] startAngles = new short[DEFAULT_IDS.length];
+    private final short[] targetAngles = new short[DEFAULT_IDS.length];
+    private long interpStartNanos;
+    private long interpEndNanos;
+    private boolean servoOn;
+
+    // ボタン・充電の状態 (テストから変更できるようにvolatile)
+    private volatile boolean charging;
+    private volatile boolean buttonPower;
+    private volatile boolean buttonVolUp;
+    private volatile boolean buttonVolDown;
+
+    private volatile long recordingStartNanos = -1;
+    private volatile long recordingEndNanos;
+    private volatile String recordingFilePath;
+
+    public SimulatedSotaBackend(Config config) {
+        this.config = config;
+    }
+
+    @Override
+    public void connect() {
+        CRobotUtil.Log(TAG, "Running with simulated Sota (no robot connection).");
+        interpStartNanos = interpEndNanos = System.nanoTime();
+    }
+
+    @Override
+    public void servoOn() {
+        commandDelay();
+        servoOn = true;
+    }
+
+    @Override
+    public void servoOff() {
+        commandDelay();
+        freezeAt(System.nanoTime());
+        servoOn = false;
+    }
+
+    @Override
+    public boolean play(byte[] ids, short[] angles, int count, Led led, int timeMs) {
+        commandDelay();
+        long now = System.nanoTime();
+        freezeAt(now);
+        for (int i = 0; i < count; i++) {
+            int index = ids[i] - 1;
+            if (index >= 0 && index < targetAngles.length) {
+                targetAngles[index] = angles[i];
+            }
+        }
+        if (!servoOn) {
+            // トルクがオフの間は動かない
+            System.arraycopy(startAngles, 0, targetAngles, 0, targetAngles.length);
+        }
+        interpStartNanos = now;
+        interpEndNanos = now + TimeUnit.MILLISECONDS.toNanos(Math.max(timeMs, 0));
+        return true;
+    }
+
+    @Override
+    public Short[] getReadpos() {
+        commandDelay();
+        long now = System.nanoTime();
+        Short[] angles = new Short[DEFAULT_IDS.length];
+        for (int i = 0; i < angles.length; i++) {
+            angles[i] = angleAt(i, now);
+        }
+        return angles;
+    }
+
+    @Override
+    public Byte[] getDefaultIDs() {
+        return DEFAULT_IDS.clone();
+    }
+
+    @Override
+    public boolean isEndInterpAll() {
+        commandDelay();
+        return System.nanoTime() >= interpEndNanos;
+    }
+
+    @Override
+    public int getBatteryVoltage() {
+        commandDelay();
+        if (charging) {
+            return config.batteryVoltageMv;
+        }
+        long minutes = TimeUnit.NANOSECONDS.toMinutes(System.nanoTime() - startNanos);
+        return (int) Math.max(config.minBatteryVoltageMv, config.batteryVoltageMv - minutes * config.batteryDrainMvPerMinute);
+    }
+
+    @Override
+    public boolean isCharging() {
+        commandDelay();
+        return charging;
+    }
+
+    @Override
+    public boolean isButtonPower() {
+        commandDelay();
+        return buttonPower;
+    }
+
+    @Override
+    public boolean isButtonVolUp() {
+        commandDelay();
+        return buttonVolUp;
+    }
+
+    @Override
+    public boolean isButtonVolDown() {
+        commandDelay();
+        return buttonVolDown;
+    }
+
+    @Override
+    public void enableCollisionDetect() {
+        commandDelay();
+    }
+
+    @Override
+    public void disableCollisionDetect() {
+        commandDelay();
+    }
+
+    @Override
+    public void enableMouthLedVoiceSync() {
+        commandDelay();
+    }
+
+    @Override
+    public void disableMouthLedVoiceSync() {
+        commandDelay();
+    }
+
+    @Override
+    public void say(String text) {
+        // MotionAsSotaWish.Sayは合成してから話し終えるまで戻らない
+        sleep(ttsLatency(text) + speechDuration(text));
+    }
+
+    @Override
+    public void say(String text, String scene) {
+        say(text);
+    }
+
+    @Override
+    public void say(String text, String scene, int speechRate, int pitch, int intonation) {
+        say(text);
+    }
+
+    @Override
+    public void playScene(String scene, int timeMs) {
+        sleep(timeMs);
+    }
+
+    @Override
+    public AudioPlayback playWave(byte[] wavData, boolean waitForCompletion) {
+        WavHeader header = WavHeader.parse(wavData);
+        if (header == null) {
+            return null;
+        }
+        return startPlayback(header.getDurationMillis(), waitForCompletion);
+    }
+
+    @Override
+    public AudioPlayback playWave(String filePath, boolean waitForCompletion) {
+        try {
+            WavHeader header = WavHeader.read(Paths.get(filePath));
+            if (header == null) {
+                return null;
+            }
+            return startPlayback(header.getDurationMillis(), waitForCompletion);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public AudioStream openAudioStream(int sampleRate, int channels, int bitsPerSample) {
+        commandDelay();
+        return new SimulatedAudioStream(sampleRate * channels * (bitsPerSample / 8));
+    }
+
+    @Override
+    public byte[] getTTSData(String text) {
+        sleep(ttsLatency(text));
+        return WavHeader.silence(TTS_SAMPLE_RATE, 1, speechDuration(text));
+    }
+
+    @Override
+    public byte[] getTTSData(String text, int speechRate, int pitch, int intonation) {
+        return getTTSData(text);
+    }
+
+    @Override
+    public boolean startRecording(String filePath, int durationMs) {
+        recordingFilePath = filePath;
+        recordingStartNanos = System.nanoTime();
+        recordingEndNanos = recordingStartNanos + TimeUnit.MILLISECONDS.toNanos(durationMs);
+        return true;
+    }
+
+    @Override
+    public void stopRecording() {
+        long start = recordingStartNanos;
+        if (start < 0) {
+            return;
+        }
+        long end = Math.min(System.nanoTime(), recordingEndNanos);
+        recordingStartNanos = -1;
+        try {
+            Files.write(Paths.get(recordingFilePath), WavHeader.silence(TTS_SAMPLE_RATE, 1, TimeUnit.NANOSECONDS.toMillis(end - start)));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public boolean isRecording() {
+        return recordingStartNanos >= 0 && System.nanoTime() < recordingEndNanos;
+    }
+
+    @Override
+    public AudioCapture openAudioCapture(int sampleRate, int channels) {
+        return new SimulatedAudioCapture(sampleRate * channels * 2);
+    }
+
+    public void setCharging(boolean charging) {
+        this.charging = charging;
+    }
+
+    public void setButtonState(boolean power, boolean volUp, boolean volDown) {
+        this.buttonPower = power;
+        this.buttonVolUp = volUp;
+        this.buttonVolDown = volDown;
+    }
+
+    // --- Helper Methods ---
+
+    /**
+     * 補間中の現在角度を補間の始点とし、そこで止める
+     */
+    private void freezeAt(long now) {
+        for (int i = 0; i < startAngles.length; i++) {
+            startAngles[i] = angleAt(i, now);
+        }
+        System.arraycopy(startAngles, 0, targetAngles, 0, targetAngles.length);
+        interpStartNanos = interpEndNanos = now;
+    }
+
+    private short angleAt(int index, long now) {
+        if (now >= interpEndNanos) {
+            return targetAngles[index];
+        }
+        double ratio = (double) (now - interpStartNanos) / (interpEndNanos - interpStartNanos);
+        return (short) Math.round(startAngles[index] + (targetAngles[index] - startAngles[index]) * ratio);
+    }
+
+    private long ttsLatency(String text) {
+        return config.ttsLatencyMs + (long) config.ttsLatencyMsPerChar * text.length();
+    }
+
+    private long speechDuration(String text) {
+        return (long) config.speechMsPerChar * text.length();
+    }
+
+    private AudioPlayback startPlayback(long durationMillis, boolean waitForCompletion) {
+        commandDelay();
+        long endNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        SimulatedPlayback playback = new SimulatedPlayback(endNanos);
+        if (waitForCompletion) {
+            sleep(durationMillis);
+        }
+        return playback;
+    }
+
+    private void commandDelay() {
+        sleep(config.commandLatencyMs);
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 再生時間が過ぎるまで再生中とみなすAudioPlayback
+     */
+    private static class SimulatedPlayback implements AudioPlayback {
+        private volatile long endNanos;
+
+        SimulatedPlayback(long endNanos) {
+            this.endNanos = endNanos;
+        }
+
+        @Override
+        public void stop() {
+            endNanos = System.nanoTime();
+        }
+
+        @Override
+        public boolean isPlaying() {
+            return System.nanoTime() < endNanos;
+        }
+    }
+
+    /**
+     * 書き込んだデータの再生時間だけ待機するAudioStream (出力のバッファは100ms分とする)
+     */
+    private static class SimulatedAudioStream implements AudioStream {
+        private static final long LINE_BUFFER_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+        private final int byteRate;
+        private volatile long playedUntilNanos = System.nanoTime();
+        private volatile boolean stopped;
+
+        SimulatedAudioStream(int byteRate) {
+            this.byteRate = byteRate;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) {
+            if (stopped) {
+                return;
+            }
+            long start = Math.max(System.nanoTime(), playedUntilNanos);
+            playedUntilNanos = start + TimeUnit.SECONDS.toNanos(length) / byteRate;
+            sleepNanos(playedUntilNanos - LINE_BUFFER_NANOS - System.nanoTime());
+        }
+
+        @Override
+        public void finish() {
+            sleepNanos(playedUntilNanos - System.nanoTime());
+        }
+
+        @Override
+        public void stop() {
+            stopped = true;
+            playedUntilNanos = System.nanoTime();
+        }
+
+        @Override
+        public boolean isPlaying() {
+            return !stopped && System.nanoTime() < playedUntilNanos;
+        }
+
+        private void sleepNanos(long nanos) {
+            // stop()された場合は早めに戻る
+            long end = System.nanoTime() + nanos;
+            while (!stopped && System.nanoTime() < end) {
+                sleep(Math.min(10, TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime()) + 1));
+            }
+        }
+    }
+
+    /**
+     * 実時間に合わせて無音を返すAudioCapture
+     */
+    private static class SimulatedAudioCapture implements AudioCapture {
+        private final int byteRate;
+        private final long startNanos = System.nanoTime();
+        private long capturedBytes;
+        private volatile boolean closed;
+
+        SimulatedAudioCapture(int byteRate) {
+            this.byteRate = byteRate;
+        }
+
+        @Override
+        public int read(byte[] data, int offset, int length) {
+            capturedBytes += length;
+            long readyNanos = startNanos + TimeUnit.SECONDS.toNanos(capturedBytes) / byteRate;
+            while (!closed && System.nanoTime() < readyNanos) {
+                sleep(Math.min(10, TimeUnit.NANOSECONDS.toMillis(readyNanos - System.nanoTime()) + 1));
+            }
+            if (closed) {
+                return -1;
+            }
+            Arrays.fill(data, offset, offset + length, (byte) 0);
+            return length;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package net.keimag.sotagrpc;
+
+import java.awt.Color;
+
+/**
+ * Sota Threadから呼び出すSotaLibの機能をまとめたインターフェース
+ *
+ * 実機を操作する{@link RobotSotaBackend}と、実機なしでサーバーを動かすための{@link SimulatedSotaBackend}がある。
+ * 特に記載のないメソッドはスレッドセーフではないため、Sota Threadからのみ呼び出すこと。
+ */
+public interface SotaBackend {
+
+    /**
+     * ロボットに接続し、初期化する (Sota Threadの内部で呼び出すこと)
+     *
+     * @throws RuntimeException 接続に失敗した場合
+     */
+    void connect();
+
+    // --- CSotaMotion ---
+
+    void servoOn();
+
+    void servoOff();
+
+    /**
+     * 指定したサーボを目標角度までtimeMsかけて補間移動させる (CRobotPose.SetPose + CSotaMotion.play)
+     *
+     * @param ids    サーボID (先頭のcount個を使う)
+     * @param angles 目標角度 (先頭のcount個を使う)
+     * @param count  サーボの数
+     * @param led    LEDの状態 (変更しない場合はnull)
+     * @param timeMs 補間時間
+     * @return 送信に成功した場合true
+     */
+    boolean play(byte[] ids, short[] angles, int count, Led led, int timeMs);
+
+    Short[] getReadpos();
+
+    Byte[] getDefaultIDs();
+
+    boolean isEndInterpAll();
+
+    int getBatteryVoltage();
+
+    boolean isCharging();
+
+    boolean isButtonPower();
+
+    boolean isButtonVolUp();
+
+    boolean isButtonVolDown();
+
+    void enableCollisionDetect();
+
+    void disableCollisionDetect();
+
+    void enableMouthLedVoiceSync();
+
+    void disableMouthLedVoiceSync();
+
+    // --- MotionAsSotaWish ---
+
+    void say(String text);
+
+    void say(String text, String scene);
+
+    void say(String text, String scene, int speechRate, int pitch, int intonation);
+
+    void playScene(String scene, int timeMs);
+
+    // --- CPlayWave ---
+
+    /**
+     * @return 再生を操作するハンドル (再生を開始できなかった場合はnull)
+     */
+    AudioPlayback playWave(byte[] wavData, boolean waitForCompletion);
+
+    /**
+     * @return 再生を操作するハンドル (再生を開始できなかった場合はnull)
+     */
+    AudioPlayback playWave(String filePath, boolean waitForCompletion);
+
+    /**
+     * PCMデータを少しずつ書き込んで再生する出力を開く
+     * (CPlayWaveはデータ全体を受け取ってから再生するため、受信しながら再生する場合に使う)
+     *
+     * @return 音声出力 (開けなかった場合はnull)
+     */
+    AudioStream openAudioStream(int sampleRate, int channels, int bitsPerSample);
+
+    // --- TextToSpeechSota (任意のスレッドから呼び出し可能) ---
+
+    byte[] getTTSData(String text);
+
+    byte[] getTTSData(String text, int speechRate, int pitch, int intonation);
+
+    // --- CRecordMic (任意のスレッドから呼び出し可能) ---
+
+    boolean startRecording(String filePath, int durationMs);
+
+    void stopRecording();
+
+    boolean isRecording();
+
+    /**
+     * マイクの音声を16bit PCMで少しずつ読み取る入力を開く (任意のスレッドから呼び出し可能)
+     *
+     * @return 音声入力 (開けなかった場合はnull)
+     */
+    AudioCapture openAudioCapture(int sampleRate, int channels);
+
+    /**
+     * 再生中の音声を操作するハンドル (CPlayWave)
+     */
+    interface AudioPlayback {
+        void stop();
+
+        boolean isPlaying();
+    }
+
+    /**
+     * マイクの音声を読み取る入力 (readとcloseは別のスレッドから呼び出してよい)
+     */
+    interface AudioCapture {
+        /**
+         * lengthバイト読み取れるまで待機する
+         *
+         * @return 読み取ったバイト数 (閉じられた場合は-1)
+         */
+        int read(byte[] data, int offset, int length);
+
+        void close();
+    }
+
+    /**
+     * PCMデータを書き込んで再生する音声出力 (write・finishはSota Thread以外の1つのスレッドから呼び出すこと)
+     */
+    interface AudioStream extends AudioPlayback {
+        /**
+         * データを再生する (出力のバッファに空きができるまで待機する)
+         *
+         * @param length フレームサイズの倍数であること
+         */
+        void write(byte[] data, int offset, int length);
+
+        /**
+         * 書き込んだデータを最後まで再生してから閉じる
+         */
+        void finish();
+    }
+
+    /**
+     * CRobotPose.setLED_Sotaに渡すLEDの状態
+     */
+    final class Led {
+        public final Color leftEye;
+        public final Color rightEye;
+        public final int mouth;
+        public final Color powerButton;
+
+        public Led(Color leftEye, Color rightEye, int mouth, Color powerButton) {
+            this.leftEye = leftEye;
+            this.rightEye = rightEye;
+            this.mouth = mouth;
+            this.powerButton = powerButton;
+        }
+    }
+}
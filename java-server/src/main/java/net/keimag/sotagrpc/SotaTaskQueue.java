@@ -0,0 +1,486 @@
+package net.keimag.sotagrpc;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Sota Threadに渡すSotaTaskの優先度付きキュー
+ *
+ * 優先度 (SAFETY > CONTROL > QUERY > BULK) ごとのキューを持ち、常に最も優先度の高いタスクから取り出す。
+ * ただしBULKのタスクがmaxBulkWaitNanos以上待たされている場合は、SAFETYの次に取り出す (飢餓防止)。
+ *
+ * 同じ優先度の中では、タスクを作ったクライアント (ClientIdentity) ごとのFIFOに分け、重み付きラウンドロビンで取り出す
+ * (1巡ごとに、各クライアントから重みの数だけ取り出す)。あるクライアントが大量にコマンドを送っても、
+ * 他のクライアントのコマンドはその後ろに並ばない。クライアントごとの待ち行列の長さと待ち時間を記録する。
+ *
+ * coalesceKeyを持つタスクは、同じキーのタスクがまだ実行待ちであればキューに入れず、その実行結果を共有する
+ * (複数のクライアントが同時にポーリングしても、SotaLibの呼び出しは1回で済む)。開始時刻を待つタスクは相乗りしない。
+ *
+ * 開始時刻が指定されたタスク (ScheduledStart) は、その時刻まで別の待ち行列に置き、時刻になったら同じ優先度のタスクの先頭に入れる。
+ *
+ * 各タスクの実行時間を、タスクを作ったRPCの平均実行時間で見積もり、優先度ごとに合計しておく (AdmissionControlが待ち時間の見積もりに使う)。
+ * 開始時刻を待っているタスクは、時刻になって優先度ごとのキューに移したときに初めてタスク数と見積もりに加える
+ * (先の時刻に予約された動きで、今のコマンドが拒否されないように)。
+ */
+public class SotaTaskQueue {
+    private static final Main.SotaTask.Priority[] PRIORITIES = Main.SotaTask.Priority.values();
+
+    /** 実行したことのないRPC・呼び出しの外で作られたタスクの実行時間の見積もり (優先度ごと) */
+    private static final long[] DEFAULT_COST_NANOS = {
+            TimeUnit.MILLISECONDS.toNanos(1), // SAFETY
+            TimeUnit.MILLISECONDS.toNanos(5), // CONTROL
+            TimeUnit.MILLISECONDS.toNanos(5), // QUERY
+            TimeUnit.MILLISECONDS.toNanos(100) // BULK
+    };
+    /** 待ち行列が空のクライアントの統計は、この数を超えたら古いものから捨てる */
+    private static final int MAX_CLIENT_STATS = 256;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final FairQueue[] queues;
+    private final long maxBulkWaitNanos;
+    // クライアントIDごとの重み (指定がなければ1)
+    private final Map<String, Integer> clientWeights;
+    // クライアントIDごとの統計 (最近使われた順)
+    private final LinkedHashMap<String, ClientStats> clientStats = new LinkedHashMap<String, ClientStats>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ClientStats> eldest) {
+            return size() > MAX_CLIENT_STATS && eldest.getValue().queued == 0;
+        }
+    };
+    // 実行待ちのタスクのうちcoalesceKeyを持つもの
+    private final Map<String, Main.SotaTask<?>> pendingByKey = new HashMap<>();
+    // 開始時刻になっていないタスク (開始時刻順)
+    private final PriorityQueue<Main.SotaTask<?>> scheduled = new PriorityQueue<>(
+            Comparator.comparingLong((Main.SotaTask<?> task) -> task.startAtNanos));
+    // 実行待ちのタスクの実行時間の見積もりの合計 (優先度ごと、開始時刻を待っているものは含まない)
+    private final long[] pendingCostNanos = new long[PRIORITIES.length];
+    private int size;
+    private long coalescedCount;
+
+    /**
+     * @param maxBulkWaitNanos BULKのタスクを他より優先して実行するまでの待ち時間
+     * @param clientWeights    クライアントIDごとの重み (1巡で取り出すタスク数)。指定のないクライアントは1
+     */
+    public SotaTaskQueue(long maxBulkWaitNanos, Map<String, Integer> clientWeights) {
+        this.maxBulkWaitNanos = maxBulkWaitNanos;
+        this.clientWeights = new HashMap<>(clientWeights);
+        this.queues = new FairQueue[PRIORITIES.length];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new FairQueue();
+        }
+    }
+
+    public SotaTaskQueue(long maxBulkWaitNanos) {
+        this(maxBulkWaitNanos, Collections.emptyMap());
+    }
+
+    public SotaTaskQueue() {
+        this(TimeUnit.SECONDS.toNanos(2));
+    }
+
+    /**
+     * タスクをキューに入れる
+     *
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    public void put(Main.SotaTask<?> task) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            // 開始時刻を待つタスクは相乗りさせない (時刻を指定していない読み取りが、開始時刻まで待たされないように)
+            boolean waitsForStart = task.scheduled && task.startAtNanos - System.nanoTime() > 0;
+            String key = waitsForStart ? null : task.getCoalesceKey();
+            if (key != null) {
+                Main.SotaTask<?> pending = pendingByKey.get(key);
+                if (pending != null) {
+                    // 同じ読み取りが既に実行待ちなので、その結果を共有する
+                    pending.shareResultWith(task);
+                    coalescedCount++;
+                    return;
+                }
+                pendingByKey.put(key, task);
+            }
+            task.enqueuedNanos = System.nanoTime();
+            if (task.methodMetrics != null) {
+                task.methodMetrics.observePriority(task.getPriority());
+            }
+            statsOf(task.clientId).queued++;
+            if (waitsForStart) {
+                // 待っているスレッドが開始時刻に起きるように、待ち時間を計算し直させる
+                scheduled.add(task);
+                notEmpty.signal();
+                return;
+            }
+            task.costNanos = estimateCost(task);
+            pendingCostNanos[task.getPriority().ordinal()] += task.costNanos;
+            queues[task.getPriority().ordinal()].addLast(task);
+            size++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 次に実行すべきタスクを取り出す (キューが空の場合は待機する)
+     */
+    public Main.SotaTask<?> take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                promoteDueTasks();
+                if (size > 0) {
+                    return dequeue();
+                }
+                if (scheduled.isEmpty()) {
+                    notEmpty.await();
+                } else {
+                    notEmpty.awaitNanos(scheduled.peek().startAtNanos - System.nanoTime());
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 次に実行すべきタスクを取り出す (timeoutまでにタスクが来なければnullを返す)
+     */
+    public Main.SotaTask<?> poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                promoteDueTasks();
+                if (size > 0) {
+                    return dequeue();
+                }
+                if (nanos <= 0) {
+                    return null;
+                }
+                long waitNanos = scheduled.isEmpty() ? nanos : Math.min(nanos, scheduled.peek().startAtNanos - System.nanoTime());
+                nanos -= waitNanos - notEmpty.awaitNanos(waitNanos);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 実行を待っているタスク数 (開始時刻を待っているものは含まない。scheduledSizeを参照)
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 優先度ごとのキューに入っているタスク数
+     */
+    public int size(Main.SotaTask.Priority priority) {
+        lock.lock();
+        try {
+            return queues[priority.ordinal()].size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * priorityのタスクを今キューに入れた場合に、実行を始めるまでの待ち時間の見積もり
+     * (同じかより高い優先度の実行待ちのタスクの、実行時間の見積もりの合計。開始時刻を待っているタスクは含まない)
+     */
+    public long estimatedDelayNanos(Main.SotaTask.Priority priority) {
+        lock.lock();
+        try {
+            long delay = 0;
+            for (int i = 0; i <= priority.ordinal(); i++) {
+                delay += pendingCostNanos[i];
+            }
+            return delay;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 実行待ちのタスクに相乗りして、SotaLibの呼び出しを省略できたタスクの累計
+     */
+    public long getCoalescedCount() {
+        lock.lock();
+        try {
+            return coalescedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return クライアントごとの統計 (呼び出した時点のコピー、最近使われた順)
+     */
+    public List<ClientStats> getClientStats() {
+        lock.lock();
+        try {
+            List<ClientStats> snapshot = new ArrayList<>(clientStats.size());
+            for (ClientStats stats : clientStats.values()) {
+                snapshot.add(stats.copy());
+            }
+            Collections.reverse(snapshot);
+            return snapshot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 開始時刻を待っているタスク数
+     */
+    public int scheduledSize() {
+        lock.lock();
+        try {
+            return scheduled.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 開始時刻になったタスクを、同じ優先度のタスクの先頭に移す (lockを保持した状態で呼び出すこと)
+     */
+    private void promoteDueTasks() {
+        if (scheduled.isEmpty() || scheduled.peek().startAtNanos - System.nanoTime() > 0) {
+            return;
+        }
+        // 同時に開始時刻になったものは、開始時刻順に並べる
+        ArrayDeque<Main.SotaTask<?>> due = new ArrayDeque<>();
+        long now = System.nanoTime();
+        while (!scheduled.isEmpty() && scheduled.peek().startAtNanos - now <= 0) {
+            due.addFirst(scheduled.poll());
+        }
+        for (Main.SotaTask<?> task : due) {
+            // 開始時刻から待たされた時間で、BULKの飢餓防止を判定する
+            task.enqueuedNanos = task.startAtNanos;
+            task.costNanos = estimateCost(task);
+            pendingCostNanos[task.getPriority().ordinal()] += task.costNanos;
+            queues[task.getPriority().ordinal()].addFirst(task);
+            size++;
+        }
+    }
+
+    // lockを保持した状態で呼び出すこと
+    private Main.SotaTask<?> dequeue() {
+        FairQueue safety = queues[Main.SotaTask.Priority.SAFETY.ordinal()];
+        FairQueue bulk = queues[Main.SotaTask.Priority.BULK.ordinal()];
+        long now = System.nanoTime();
+        Main.SotaTask<?> task = safety.pollFirst();
+        if (task == null && bulk.size > 0 && now - bulk.oldestEnqueuedNanos() >= maxBulkWaitNanos) {
+            // 長く待たされているBULKはCONTROL・QUERYより先に実行する
+            task = bulk.pollOldest();
+        }
+        for (int i = 1; task == null && i < queues.length; i++) {
+            task = queues[i].pollFirst();
+        }
+        size--;
+        pendingCostNanos[task.getPriority().ordinal()] -= task.costNanos;
+        ClientStats stats = statsOf(task.clientId);
+        stats.queued--;
+        stats.executed++;
+        long waitNanos = now - task.enqueuedNanos;
+        stats.totalWaitNanos += waitNanos;
+        stats.maxWaitNanos = Math.max(stats.maxWaitNanos, waitNanos);
+        if (task.getCoalesceKey() != null) {
+            // 取り出した後に来た同じ読み取りは、新しい値を返すために別のタスクとして実行する
+            pendingByKey.remove(task.getCoalesceKey(), task);
+        }
+        return task;
+    }
+
+    /**
+     * タスクを作ったRPCの平均実行時間 (まだ実行したことがなければ優先度ごとの既定値)
+     */
+    private static long estimateCost(Main.SotaTask<?> task) {
+        long mean = task.methodMetrics != null ? task.methodMetrics.getExecution().getMeanNanos() : 0;
+        return mean > 0 ? mean : DEFAULT_COST_NANOS[task.getPriority().ordinal()];
+    }
+
+    // lockを保持した状態で呼び出すこと
+    private ClientStats statsOf(String clientId) {
+        ClientStats stats = clientStats.get(clientId);
+        if (stats == null) {
+            stats = new ClientStats(clientId);
+            clientStats.put(clientId, stats);
+        }
+        return stats;
+    }
+
+    private int weightOf(String clientId) {
+        Integer weight = clientWeights.get(clientId);
+        return weight != null && weight > 0 ? weight : 1;
+    }
+
+    /**
+     * 1つのクライアントの統計
+     */
+    public static final class ClientStats {
+        private final String clientId;
+        // 以下はSotaTaskQueueのlockを保持して操作する
+        private int queued;
+        private long executed;
+        private long totalWaitNanos;
+        private long maxWaitNanos;
+
+        ClientStats(String clientId) {
+            this.clientId = clientId;
+        }
+
+        public String getClientId() {
+            return clientId;
+        }
+
+        /** 実行待ちのタスク数 (開始時刻を待っているものを含む) */
+        public int getQueued() {
+            return queued;
+        }
+
+        /** 実行したタスクの累計 */
+        public long getExecuted() {
+            return executed;
+        }
+
+        public double getAverageWaitMillis() {
+            return executed > 0 ? totalWaitNanos / 1e6 / executed : 0;
+        }
+
+        public double getMaxWaitMillis() {
+            return maxWaitNanos / 1e6;
+        }
+
+        ClientStats copy() {
+            ClientStats copy = new ClientStats(clientId);
+            copy.queued = queued;
+            copy.executed = executed;
+            copy.totalWaitNanos = totalWaitNanos;
+            copy.maxWaitNanos = maxWaitNanos;
+            return copy;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s (queued %d, executed %d, wait avg %.1f ms, max %.1f ms)",
+                    clientId, queued, executed, getAverageWaitMillis(), getMaxWaitMillis());
+        }
+    }
+
+    /**
+     * 1つの優先度のタスクを、クライアントごとのFIFOに分けて持つキュー (lockを保持して操作する)
+     */
+    private final class FairQueue {
+        // タスクのあるクライアント (先頭から順に取り出す)
+        private final ArrayDeque<ClientQueue> ring = new ArrayDeque<>();
+        private final Map<String, ClientQueue> clients = new HashMap<>();
+        int size;
+
+        void addLast(Main.SotaTask<?> task) {
+            ClientQueue client = clientQueue(task.clientId);
+            client.tasks.addLast(task);
+            if (client.tasks.size() == 1) {
+                ring.addLast(client);
+            }
+            size++;
+        }
+
+        /**
+         * 次に取り出すタスクにする (開始時刻になったタスク用)
+         */
+        void addFirst(Main.SotaTask<?> task) {
+            ClientQueue client = clientQueue(task.clientId);
+            client.tasks.addFirst(task);
+            if (client.tasks.size() > 1) {
+                ring.remove(client);
+            }
+            ring.addFirst(client);
+            size++;
+        }
+
+        Main.SotaTask<?> pollFirst() {
+            ClientQueue client = ring.peekFirst();
+            if (client == null) {
+                return null;
+            }
+            Main.SotaTask<?> task = client.tasks.pollFirst();
+            size--;
+            if (client.tasks.isEmpty()) {
+                ring.pollFirst();
+                clients.remove(client.clientId);
+            } else if (--client.credit <= 0) {
+                // 重みの数だけ取り出したので、次のクライアントに回す
+                client.credit = weightOf(client.clientId);
+                ring.addLast(ring.pollFirst());
+            }
+            return task;
+        }
+
+        long oldestEnqueuedNanos() {
+            return oldest().tasks.peekFirst().enqueuedNanos;
+        }
+
+        /**
+         * 最も長く待っているタスクを取り出す (飢餓防止用。ラウンドロビンの順番は変えない)
+         */
+        Main.SotaTask<?> pollOldest() {
+            ClientQueue client = oldest();
+            Main.SotaTask<?> task = client.tasks.pollFirst();
+            size--;
+            if (client.tasks.isEmpty()) {
+                ring.remove(client);
+                clients.remove(client.clientId);
+            }
+            return task;
+        }
+
+        private ClientQueue oldest() {
+            ClientQueue oldest = null;
+            for (ClientQueue client : ring) {
+                if (oldest == null || client.tasks.peekFirst().enqueuedNanos - oldest.tasks.peekFirst().enqueuedNanos < 0) {
+                    oldest = client;
+                }
+            }
+            return oldest;
+        }
+
+        private ClientQueue clientQueue(String clientId) {
+            ClientQueue client = clients.get(clientId);
+            if (client == null) {
+                client = new ClientQueue(clientId, weightOf(clientId));
+                clients.put(clientId, client);
+            }
+            return client;
+        }
+    }
+
+    private static final class ClientQueue {
+        final String clientId;
+        final ArrayDeque<Main.SotaTask<?>> tasks = new ArrayDeque<>();
+        // この巡でまだ取り出せるタスク数
+        int credit;
+
+        ClientQueue(String clientId, int weight) {
+            this.clientId = clientId;
+            this.credit = weight;
+        }
+    }
+}
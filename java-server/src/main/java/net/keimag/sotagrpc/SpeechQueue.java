@@ -0,0 +1,306 @@
+package net.keimag.sotagrpc;
+
+import com.google.protobuf.ByteString;
+import io.grpc.stub.ServerCallStreamObserver;
+import jp.vstone.RobotLib.CRobotUtil;
+import net.keimag.sotagrpc.v1.robotlib.AudioCategory;
+import sotagrpc.v1.Common;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * sayで受け取った発話を順番に再生するキュー
+ *
+ * 再生は専用のスレッド (Speech Player) が1文ずつ行い、ある文を再生している間に次の文
+ * (次の発話の最初の文を含む) の合成とbyte[]への変換を済ませておく。前の文が終わったら、すぐに次の文の再生を始める。
+ * Sota Threadで行うのは、再生の開始 (CPlayWave) と再生中かどうかの確認だけ。
+ * ミキサーを使う場合は、SPEECHとしてミキサーで再生し (再生中のMUSICの音量が下がる)、Sota Threadは使わない。
+ */
+public class SpeechQueue {
+    private static final String TAG = "SpeechQueue";
+    /** 再生が終わる見込みの時刻のこれだけ前から、再生中かどうかを確認し始める */
+    private static final long END_MARGIN_NANOS = TimeUnit.MILLISECONDS.toNanos(30);
+    /** 再生中かどうかを確認する間隔 */
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private final SotaTaskQueue commandQueue;
+    // nullの場合はCPlayWaveで再生する
+    private final AudioMixer audioMixer;
+    private final LinkedBlockingDeque<Utterance> queue = new LinkedBlockingDeque<>();
+
+    public SpeechQueue(SotaTaskQueue commandQueue) {
+        this(commandQueue, null);
+    }
+
+    public SpeechQueue(SotaTaskQueue commandQueue, AudioMixer audioMixer) {
+        this.commandQueue = commandQueue;
+        this.audioMixer = audioMixer;
+        Thread thread = new Thread(this::playLoop, "Speech Player");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 発話をキューに入れる (最後の文の再生が終わった時点でレスポンスを返す)
+     */
+    public void say(TtsPipeline pipeline, ServerCallStreamObserver<Common.SuccessResponse> responseObserver) {
+        Utterance utterance = new Utterance(pipeline, responseObserver);
+        responseObserver.setOnCancelHandler(() -> {
+            utterance.cancelled = true;
+            pipeline.cancel();
+        });
+        if (pipeline.size() == 0) {
+            utterance.respond(true);
+            return;
+        }
+        queue.offer(utterance);
+    }
+
+    /**
+     * 1回のsay
+     */
+    private static final class Utterance {
+        final TtsPipeline pipeline;
+        final ServerCallStreamObserver<Common.SuccessResponse> responseObserver;
+        volatile boolean cancelled;
+        private boolean responded;
+
+        Utterance(TtsPipeline pipeline, ServerCallStreamObserver<Common.SuccessResponse> responseObserver) {
+            this.pipeline = pipeline;
+            this.responseObserver = responseObserver;
+        }
+
+        synchronized void respond(boolean success) {
+            if (responded) {
+                return;
+            }
+            responded = true;
+            if (!responseObserver.isCancelled()) {
+                responseObserver.onNext(Common.SuccessResponse.newBuilder().setIsSuccessful(success).build());
+                responseObserver.onCompleted();
+            }
+        }
+    }
+
+    /**
+     * 再生中の文
+     */
+    private static final class Clip {
+        final Utterance utterance;
+        final SotaBackend.AudioPlayback player;
+        final long expectedEndNanos;
+        // 発話の最後の文か
+        final boolean last;
+
+        Clip(Utterance utterance, SotaBackend.AudioPlayback player, long expectedEndNanos, boolean last) {
+            this.utterance = utterance;
+            this.player = player;
+            this.expectedEndNanos = expectedEndNanos;
+            this.last = last;
+        }
+    }
+
+    private void playLoop() {
+        Utterance current = null;
+        int index = 0;
+        Clip playing = null;
+        try {
+            while (true) {
+                try {
+                    // 1. 次に再生する文を決める
+                    if (current == null || current.cancelled || index >= current.pipeline.size()) {
+                        if (current != null && current.cancelled) {
+                            current.respond(false);
+                        }
+                        // 再生中の文があれば、それが終わるまでに来た発話は続けて再生する (合成もその間に始める)
+                        current = playing == null ? queue.take()
+                                : queue.poll(Math.max(playing.expectedEndNanos - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+                        index = 0;
+                        if (current == null) {
+                            // 次の発話がまだないので、再生中の文が終わるのを待つ
+                            finish(playing);
+                            playing = null;
+                            continue;
+                        }
+                        if (current.cancelled) {
+                            continue;
+                        }
+                    }
+
+                    // 2. 次の文の合成を待ち、byte[]に変換しておく (再生中の文があれば、その再生中に行う)
+                    CompletableFuture<ByteString> future = current.pipeline.take(index);
+                    ByteString data;
+                    try {
+                        if (playing != null) {
+                            try {
+                                data = future.get(Math.max(playing.expectedEndNanos - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+                            } catch (TimeoutException e) {
+                                // 合成が間に合わなかったので、先に再生中の文を終わらせてから待つ
+                                finish(playing);
+                                playing = null;
+                                data = future.get();
+                            }
+                        } else {
+                            data = future.get();
+                        }
+                    } catch (ExecutionException e) {
+                        e.getCause().printStackTrace();
+                        current.pipeline.cancel();
+                        current.respond(false);
+                        current = null;
+                        continue;
+                    }
+                    WavHeader header = AudioMixer.parseHeader(data);
+                    // CPlayWaveで再生する場合は、ここでbyte[]に変換しておく
+                    boolean mixed = audioMixer != null && AudioMixer.canMix(header);
+                    byte[] wavData = mixed ? null : data.toByteArray();
+                    long durationNanos = TimeUnit.MILLISECONDS.toNanos(header != null ? header.getDurationMillis() : 0);
+                    boolean last = index == current.pipeline.size() - 1;
+                    index++;
+
+                    // 3. 再生中の文が終わるのを待ち、すぐに次の文の再生を始める
+                    finish(playing);
+                    playing = null;
+                    if (current.cancelled) {
+                        continue;
+                    }
+                    SotaBackend.AudioPlayback player = mixed
+                            ? audioMixer.play(data, header, AudioCategory.AUDIO_CATEGORY_SPEECH, 1f) : start(wavData);
+                    if (player == null) {
+                        CRobotUtil.Err(TAG, "Failed to play sentence: " + current.pipeline.getSentence(index - 1));
+                        current.pipeline.cancel();
+                        current.respond(false);
+                        current = null;
+                        continue;
+                    }
+                    playing = new Clip(current, player, System.nanoTime() + durationNanos, last);
+                } catch (RuntimeException e) {
+                    // 取り消された発話の合成 (CancellationException) や再生の開始に失敗しても、次の発話の再生を続ける
+                    if (!(e instanceof CancellationException)) {
+                        e.printStackTrace();
+                    }
+                    if (current != null) {
+                        current.pipeline.cancel();
+                        current.respond(false);
+                        current = null;
+                    }
+                    abandon(playing);
+                    playing = null;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 再生中の文を終わらせる (失敗した場合は、その発話を失敗として返す)
+     */
+    private void abandon(Clip clip) throws InterruptedException {
+        if (clip == null) {
+            return;
+        }
+        try {
+            finish(clip);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            clip.utterance.respond(false);
+        }
+    }
+
+    private SotaBackend.AudioPlayback start(byte[] wavData) throws InterruptedException {
+        CompletableFuture<SotaBackend.AudioPlayback> future = new CompletableFuture<>();
+        this.commandQueue.put(new Main.SotaTask<>(Main.SotaTask.Priority.BULK,
+                (sotaContext) -> sotaContext.backend.playWave(wavData, false), future
+        ));
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * 文の再生が終わるまで待ち、発話の最後の文ならレスポンスを返す (発話が取り消された場合は再生を止める)
+     */
+    private void finish(Clip clip) throws InterruptedException {
+        if (clip == null) {
+            return;
+        }
+        if (clip.player instanceof AudioMixer.Source) {
+            finishMixed(clip, (AudioMixer.Source) clip.player);
+            return;
+        }
+        // 終わる見込みの時刻の少し前までは、Sota Threadを使わずに待つ
+        long remaining;
+        while (!clip.utterance.cancelled && (remaining = clip.expectedEndNanos - END_MARGIN_NANOS - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(20)));
+        }
+        while (!clip.utterance.cancelled && isPlaying(clip.player)) {
+            TimeUnit.NANOSECONDS.sleep(POLL_NANOS);
+        }
+        if (clip.utterance.cancelled) {
+            stop(clip.player);
+            clip.utterance.respond(false);
+        } else if (clip.last) {
+            clip.utterance.respond(true);
+        }
+    }
+
+    /**
+     * ミキサーで再生している文の終わりを待つ (Sota Threadは使わない)
+     */
+    private void finishMixed(Clip clip, AudioMixer.Source source) throws InterruptedException {
+        while (!clip.utterance.cancelled) {
+            try {
+                source.getCompletion().get(20, TimeUnit.MILLISECONDS);
+                break;
+            } catch (TimeoutException e) {
+                // 取り消されていないか確認して、待ち続ける
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+                break;
+            }
+        }
+        if (clip.utterance.cancelled) {
+            source.stop();
+            clip.utterance.respond(false);
+        } else if (clip.last) {
+            clip.utterance.respond(true);
+        }
+    }
+
+    private boolean isPlaying(SotaBackend.AudioPlayback player) throws InterruptedException {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        this.commandQueue.put(new Main.SotaTask<>(Main.SotaTask.Priority.QUERY,
+                (sotaContext) -> player.isPlaying(), future
+        ));
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+            return false;
+        }
+    }
+
+    private void stop(SotaBackend.AudioPlayback player) throws InterruptedException {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        this.commandQueue.put(new Main.SotaTask<Void>(Main.SotaTask.Priority.SAFETY,
+                (sotaContext) -> {
+                    player.stop();
+                    return null;
+                }, future
+        ));
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        }
+    }
+}
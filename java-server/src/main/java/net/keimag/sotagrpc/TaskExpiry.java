@@ -0,0 +1,119 @@
+package net.keimag.sotagrpc;
+
+import io.grpc.Deadline;
+import io.grpc.Status;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sota Threadで実行する直前に、もう実行しなくてよいタスクを判定する
+ *
+ * 次のタスクは実行せず、FutureをDEADLINE_EXCEEDEDまたはCANCELLEDで完了する
+ * (クライアントが諦めた古いPlayPoseなどで、ロボットが誰も望んでいない目標に動き続けないようにする)。
+ * <ul>
+ *     <li>タスクを作った呼び出しがクライアントに取り消された (切断を含む)</li>
+ *     <li>呼び出しの期限 (deadline) が過ぎた、または残り時間がこのRPCの平均実行時間より短い</li>
+ *     <li>RPCごとの予算 (--method-budget-ms) を、待ち時間と平均実行時間の合計が超える</li>
+ * </ul>
+ * SAFETYのタスク (緊急停止) と、同じ読み取りを他の呼び出しと共有しているタスクは常に実行する。
+ * SotaLibの呼び出しは途中で止められないため、実行を始めたタスクが予算を超えた場合は数えるだけにする。
+ */
+public class TaskExpiry {
+    /** 実行しなかった理由 (Metricsが理由ごとに数える) */
+    public enum Reason {
+        CANCELLED,
+        DEADLINE_EXCEEDED,
+        BUDGET_EXCEEDED
+    }
+
+    private static final long NO_BUDGET = Long.MAX_VALUE;
+
+    // RPCの名前 (PlayPose、またはsotagrpc.v1.MotionService/PlayPose) ごとの予算 (ns)
+    private final Map<String, Long> budgets = new HashMap<>();
+    // RPCのフルネームごとの予算 (ns)。初めて使うときに決めて、以降は再利用する
+    private final ConcurrentHashMap<String, Long> resolved = new ConcurrentHashMap<>();
+    private final Metrics metrics;
+
+    /**
+     * @param budgetsMillis RPCの名前 (メソッド名のみ、またはサービス名を含むフルネーム) ごとの、
+     *                      キューに入れられてから実行を終えるまでの予算 (ms)
+     */
+    public TaskExpiry(Map<String, Long> budgetsMillis, Metrics metrics) {
+        for (Map.Entry<String, Long> entry : budgetsMillis.entrySet()) {
+            budgets.put(entry.getKey(), TimeUnit.MILLISECONDS.toNanos(entry.getValue()));
+        }
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param nowNanos Sota Threadで実行を始めようとしている時刻 (System.nanoTime)
+     * @return 実行しない場合はその理由 (実行する場合はnull)
+     */
+    public Reason check(Main.SotaTask<?> task, long nowNanos) {
+        if (task.getPriority() == Main.SotaTask.Priority.SAFETY || task.shared) {
+            return null;
+        }
+        Deadline deadline = task.callContext.getDeadline();
+        long expectedNanos = metrics.expectedExecutionNanos(task);
+        if (deadline != null && deadline.timeRemaining(TimeUnit.NANOSECONDS) < expectedNanos) {
+            return Reason.DEADLINE_EXCEEDED;
+        }
+        if (task.callContext.isCancelled()) {
+            return Reason.CANCELLED;
+        }
+        long budget = budgetNanos(task);
+        if (budget != NO_BUDGET && nowNanos - task.enqueuedNanos + expectedNanos > budget) {
+            return Reason.BUDGET_EXCEEDED;
+        }
+        return null;
+    }
+
+    /**
+     * @return 実行を終えたタスクが予算を超えていたか (予算のないRPCはfalse)
+     */
+    public boolean isOverBudget(Main.SotaTask<?> task, long endNanos) {
+        long budget = budgetNanos(task);
+        return budget != NO_BUDGET && endNanos - task.enqueuedNanos > budget;
+    }
+
+    /**
+     * 実行しないタスクのFutureを、理由に応じたステータスで完了する
+     */
+    public static void skip(Main.SotaTask<?> task, Reason reason) {
+        Status status;
+        switch (reason) {
+            case CANCELLED:
+                status = Status.CANCELLED.withDescription("The call was cancelled before the Sota Thread started its task.");
+                break;
+            case DEADLINE_EXCEEDED:
+                status = Status.DEADLINE_EXCEEDED.withDescription("The deadline would expire before the task finished on the Sota Thread.");
+                break;
+            default:
+                status = Status.DEADLINE_EXCEEDED.withDescription("The task would exceed its execution budget (--method-budget-ms).");
+                break;
+        }
+        task.fail(status.asRuntimeException());
+    }
+
+    private long budgetNanos(Main.SotaTask<?> task) {
+        if (budgets.isEmpty() || task.methodMetrics == null) {
+            return NO_BUDGET;
+        }
+        String fullMethodName = task.methodMetrics.getName();
+        Long budget = resolved.get(fullMethodName);
+        if (budget == null) {
+            budget = budgets.get(fullMethodName);
+            if (budget == null) {
+                budget = budgets.get(fullMethodName.substring(fullMethodName.lastIndexOf('/') + 1));
+            }
+            if (budget == null) {
+                budget = NO_BUDGET;
+            }
+            resolved.put(fullMethodName, budget);
+        }
+        return budget;
+    }
+}
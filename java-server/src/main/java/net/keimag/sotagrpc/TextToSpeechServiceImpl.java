@@ -1,6 +1,8 @@
 package net.keimag.sotagrpc;
 
 import com.google.protobuf.ByteString;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import jp.vstone.RobotLib.CPlayWave;
 import jp.vstone.RobotLib.CRobotUtil;
@@ -8,22 +10,52 @@ import jp.vstone.RobotLib.CSotaMotion;
 import jp.vstone.sotatalk.TextToSpeechSota;
 import net.keimag.sotagrpc.v1.robotlib.PlayAudioResponse;
 import net.keimag.sotagrpc.v1.sotatalk.SpeechConfig;
+import net.keimag.sotagrpc.v1.sotatalk.TTSDataChunk;
 import net.keimag.sotagrpc.v1.sotatalk.TTSDataRequest;
 import net.keimag.sotagrpc.v1.sotatalk.GetTTSDataResponse;
+import net.keimag.sotagrpc.v1.sotatalk.PrewarmTTSProgress;
+import net.keimag.sotagrpc.v1.sotatalk.PrewarmTTSRequest;
 import net.keimag.sotagrpc.v1.sotatalk.TextToSpeechServiceGrpc;
 import sotagrpc.v1.Common;
 
 import java.lang.reflect.Method;
-import java.util.concurrent.BlockingQueue;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 public class TextToSpeechServiceImpl extends TextToSpeechServiceGrpc.TextToSpeechServiceImplBase {
     private static final String TAG = "Sota-gRPC.MotionAsSotaWishService";
-    private final BlockingQueue<Main.SotaTask<?>> commandQueue;
+    private final SotaTaskQueue commandQueue;
 
-    public TextToSpeechServiceImpl(BlockingQueue<Main.SotaTask<?>> commandQueue) {
+    // 音声合成を行うスレッドプール (gRPCスレッドを合成の完了まで占有しないため)
+    private final ExecutorService ttsExecutor = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(),
+            (runnable) -> {
+                Thread thread = new Thread(runnable, "TTS Thread");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private final SotaBackend backend;
+    // 音声合成の結果のキャッシュ
+    private final TtsCache ttsCache;
+    // StreamTTSData・sayで、送信・再生中の文より先に合成しておく文の数
+    private final int ttsLookahead;
+    // sayで受け取った発話を順番に再生するキュー
+    private final SpeechQueue speechQueue;
+
+    /**
+     * @param audioMixer sayの発話を再生するミキサー (nullの場合はCPlayWaveで再生する)
+     */
+    public TextToSpeechServiceImpl(SotaTaskQueue commandQueue, SotaBackend backend, TtsCache ttsCache, int ttsLookahead, AudioMixer audioMixer) {
         this.commandQueue = commandQueue;
+        this.backend = backend;
+        this.ttsCache = ttsCache;
+        this.ttsLookahead = ttsLookahead;
+        this.speechQueue = new SpeechQueue(commandQueue, audioMixer);
     }
 
     /**
@@ -37,60 +69,234 @@ public class TextToSpeechServiceImpl extends TextToSpeechServiceGrpc.TextToSpeec
     @Override
     public void getTTSData(TTSDataRequest request, StreamObserver<GetTTSDataResponse> responseObserver) {
         CRobotUtil.Log(TAG,"RPC call: getTTSData");
+        // 音声合成は時間がかかるため専用のExecutorで行い、gRPCスレッドは待機しない
+        CompletableFuture<ByteString> future = synthesizeAsync(request.getText(), request.hasConfig() ? request.getConfig() : null);
+        Main.respondAsync(future, responseObserver, (data) -> GetTTSDataResponse.newBuilder().setAudioData(data).build());
+    }
+
+    /**
+     * <pre>
+     * テキストを文ごとに音声データに変換し、合成できた文から順に返す
+     * </pre>
+     *
+     * @param request
+     * @param responseObserver
+     */
+    @Override
+    public void streamTTSData(TTSDataRequest request, StreamObserver<TTSDataChunk> responseObserver) {
+        CRobotUtil.Log(TAG, "RPC call: streamTTSData");
+        SpeechConfig speechConfig = request.hasConfig() ? request.getConfig() : null;
+        TtsPipeline pipeline = new TtsPipeline(request.getText(), (text) -> synthesizeAsync(text, speechConfig), ttsLookahead);
+        new SentenceStream(pipeline, (ServerCallStreamObserver<TTSDataChunk>) responseObserver).start();
+    }
+
+    /**
+     * <pre>
+     * 発話する予定のテキストをまとめて合成しておく
+     * </pre>
+     *
+     * @param request
+     * @param responseObserver
+     */
+    @Override
+    public void prewarmTTS(PrewarmTTSRequest request, StreamObserver<PrewarmTTSProgress> responseObserver) {
+        CRobotUtil.Log(TAG, "RPC call: prewarmTTS (" + request.getRequestsCount() + " texts)");
+        new Prewarm(request.getRequestsList(), (ServerCallStreamObserver<PrewarmTTSProgress>) responseObserver).start();
+    }
+
+    /**
+     * ttsExecutorで音声合成を行う
+     */
+    private CompletableFuture<ByteString> synthesizeAsync(String text, SpeechConfig speechConfig) {
+        return CompletableFuture.supplyAsync(() -> synthesize(text, speechConfig), ttsExecutor);
+    }
+
+    /**
+     * 音声合成を行う (同じテキスト・設定で合成済みの場合はキャッシュから返す)。ttsExecutorから呼び出すこと
+     *
+     * @param speechConfig 合成時の設定 (指定しない場合はnull)
+     */
+    private ByteString synthesize(String text, SpeechConfig speechConfig) {
         try {
-            String text = request.getText();
-            byte[] data;
-            if (request.hasConfig()) {
-                SpeechConfig speechConfig = request.getConfig();
-                int speechRate = speechConfig.getSpeechRate();
-                int intonation = speechConfig.getIntonation();
-                int pitch = speechConfig.getPitch();
-                //        if (speechConfig.hasLanguageCode()) {
-                //            callSetLocalizeReflectively(speechConfig.getLanguageCode());
-                //        }
-                data = TextToSpeechSota.getTTSData(text, speechRate, pitch, intonation);
-            } else {
-                data = TextToSpeechSota.getTTSData(text);
+            ByteString data = ttsCache.get(text, speechConfig, () -> {
+                if (speechConfig != null) {
+                    int speechRate = speechConfig.getSpeechRate();
+                    int intonation = speechConfig.getIntonation();
+                    int pitch = speechConfig.getPitch();
+                    //        if (speechConfig.hasLanguageCode()) {
+                    //            callSetLocalizeReflectively(speechConfig.getLanguageCode());
+                    //        }
+                    return backend.getTTSData(text, speechRate, pitch, intonation);
+                } else {
+                    return backend.getTTSData(text);
+                }
+            });
+            if (data == null) {
+                throw Status.INTERNAL.withDescription("Speech synthesis failed.").asRuntimeException();
             }
-            responseObserver.onNext(GetTTSDataResponse.newBuilder().setAudioData(ByteString.copyFrom(data)).build());
-            responseObserver.onCompleted();
-        } catch (Exception e) {
-            e.printStackTrace();
-            responseObserver.onError(e);
+            return data;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Status.CANCELLED.withDescription("Interrupted while synthesizing speech.").asRuntimeException();
         }
     }
 
-//    /**
-//     * @param request
-//     * @param responseObserver
-//     */
-//    @Override
-//    public void say(TTSDataRequest request, StreamObserver<Common.SuccessResponse> responseObserver) {
-//        CRobotUtil.Log(TAG,"RPC call: say");
-//        try {
-//            String text = request.getText();
-//            byte[] data;
-//            if (request.hasConfig()) {
-//                SpeechConfig speechConfig = request.getConfig();
-//                int speechRate = speechConfig.getSpeechRate();
-//                int intonation = speechConfig.getIntonation();
-//                int pitch = speechConfig.getPitch();
-//                //        if (speechConfig.hasLanguageCode()) {
-//                //            callSetLocalizeReflectively(speechConfig.getLanguageCode());
-//                //        }
-//                data = TextToSpeechSota.getTTSData(text, speechRate, pitch, intonation);
-//            } else {
-//                data = TextToSpeechSota.getTTSData(text);
-//            }
-//            CompletableFuture<PlayAudioResponse> future = new CompletableFuture<>();
-//            commandQueue.put(new Main.SotaTask<>());
-//            responseObserver.onNext(GetTTSDataResponse.newBuilder().setAudioData(ByteString.copyFrom(data)).build());
-//            responseObserver.onCompleted();
-//        } catch (Exception e) {
-//            e.printStackTrace();
-//            responseObserver.onError(e);
-//        }
-//    }
+    /**
+     * <pre>
+     * テキストを合成して発話する (前の発話が終わってから、続けて発話する)
+     * 最後まで発話し終えた時点でレスポンスを返す
+     * </pre>
+     *
+     * @param request
+     * @param responseObserver
+     */
+    @Override
+    public void say(TTSDataRequest request, StreamObserver<Common.SuccessResponse> responseObserver) {
+        CRobotUtil.Log(TAG, "RPC call: say");
+        SpeechConfig speechConfig = request.hasConfig() ? request.getConfig() : null;
+        TtsPipeline pipeline = new TtsPipeline(request.getText(), (text) -> synthesizeAsync(text, speechConfig), ttsLookahead);
+        speechQueue.say(pipeline, (ServerCallStreamObserver<Common.SuccessResponse>) responseObserver);
+    }
+
+    /**
+     * PrewarmTTSの1回の呼び出し
+     *
+     * ttsExecutorのスレッド数までを同時に合成し、1件終わるごとに次を投入する
+     * (全件を一度に投入すると、その間に来たGetTTSDataが全件の合成を待つことになるため)。
+     */
+    private final class Prewarm {
+        private final List<TTSDataRequest> requests;
+        private final ServerCallStreamObserver<PrewarmTTSProgress> responseObserver;
+        private final int parallelism;
+        // 以下はthisのロックを保持して操作する
+        private int next;
+        private int completed;
+
+        Prewarm(List<TTSDataRequest> requests, ServerCallStreamObserver<PrewarmTTSProgress> responseObserver) {
+            this.requests = requests;
+            this.responseObserver = responseObserver;
+            this.parallelism = Runtime.getRuntime().availableProcessors();
+        }
+
+        synchronized void start() {
+            if (requests.isEmpty()) {
+                responseObserver.onCompleted();
+                return;
+            }
+            while (next < requests.size() && next < parallelism) {
+                submit(next++);
+            }
+        }
+
+        private void submit(int index) {
+            ttsExecutor.execute(() -> {
+                TTSDataRequest request = requests.get(index);
+                boolean cached = ttsCache.peek(request.getText(), request.hasConfig() ? request.getConfig() : null) != null;
+                long startNanos = System.nanoTime();
+                boolean success;
+                try {
+                    success = responseObserver.isCancelled()
+                            || synthesize(request.getText(), request.hasConfig() ? request.getConfig() : null) != null;
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    success = false;
+                }
+                finished(PrewarmTTSProgress.newBuilder()
+                        .setIndex(index)
+                        .setSuccess(success)
+                        .setCached(cached)
+                        .setSynthesisMs(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)));
+            });
+        }
+
+        private synchronized void finished(PrewarmTTSProgress.Builder progress) {
+            completed++;
+            if (responseObserver.isCancelled()) {
+                // クライアントが取り消した場合は、残りを合成しない
+                return;
+            }
+            // 進捗は小さいメッセージなので、受信が遅いクライアントにも捨てずに送る
+            responseObserver.onNext(progress.setCompleted(completed).setTotal(requests.size()).build());
+            if (next < requests.size()) {
+                submit(next++);
+            } else if (completed == requests.size()) {
+                responseObserver.onCompleted();
+            }
+        }
+    }
+
+    /**
+     * StreamTTSDataの1回の呼び出し
+     *
+     * 文の順番どおりに、合成が終わった文から送る。クライアントの受信が追いつかない間は送らず、
+     * 先読みも進めない (合成済みの音声データが溜まり続けないようにするため)。
+     */
+    private static final class SentenceStream {
+        private final TtsPipeline pipeline;
+        private final ServerCallStreamObserver<TTSDataChunk> responseObserver;
+        // 以下はthisのロックを保持して操作する
+        private int next;
+        private boolean waitingForSynthesis;
+        private boolean closed;
+
+        SentenceStream(TtsPipeline pipeline, ServerCallStreamObserver<TTSDataChunk> responseObserver) {
+            this.pipeline = pipeline;
+            this.responseObserver = responseObserver;
+        }
+
+        void start() {
+            responseObserver.setOnCancelHandler(() -> {
+                synchronized (this) {
+                    closed = true;
+                }
+                pipeline.cancel();
+            });
+            responseObserver.setOnReadyHandler(this::sendReady);
+            sendReady();
+        }
+
+        private synchronized void sendReady() {
+            while (!closed && !waitingForSynthesis) {
+                if (next >= pipeline.size()) {
+                    closed = true;
+                    responseObserver.onCompleted();
+                    return;
+                }
+                CompletableFuture<ByteString> future = pipeline.take(next);
+                if (!future.isDone()) {
+                    // 合成が終わったら続きを送る
+                    waitingForSynthesis = true;
+                    future.whenComplete((data, throwable) -> {
+                        synchronized (this) {
+                            waitingForSynthesis = false;
+                        }
+                        sendReady();
+                    });
+                    return;
+                }
+                if (!responseObserver.isReady()) {
+                    return;
+                }
+                ByteString data;
+                try {
+                    data = future.join();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    closed = true;
+                    pipeline.cancel();
+                    responseObserver.onError(e.getCause() != null ? e.getCause() : e);
+                    return;
+                }
+                responseObserver.onNext(TTSDataChunk.newBuilder()
+                        .setIndex(next)
+                        .setTotal(pipeline.size())
+                        .setText(pipeline.getSentence(next))
+                        .setAudioData(data)
+                        .build());
+                next++;
+            }
+        }
+    }
 
     /**
      * リフレクションを使い、TextToSpeechSota.setLocalize(String)を安全に呼び出す。
@@ -0,0 +1,300 @@
+package net.keimag.sotagrpc;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import jp.vstone.RobotLib.CRobotUtil;
+import net.keimag.sotagrpc.v1.sotatalk.SpeechConfig;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 音声合成の結果を、テキストとSpeechConfigごとに保持するキャッシュ
+ *
+ * メモリ上の合計サイズがmaxBytesを超えたら、最も長く使われていないものから捨てる (LRU)。
+ * ディレクトリを指定した場合は合成結果をファイルにも保存し、メモリにない場合はファイルから読み込む
+ * (サーバーを再起動しても、よく使う発話は合成し直さずに済む)。
+ * 保持するByteStringは合成結果の配列をそのまま包んだもので、ヒットした場合は配列を新しく確保しない。
+ */
+public class TtsCache {
+    private static final String TAG = "TtsCache";
+    private static final String FILE_SUFFIX = ".wav";
+
+    /**
+     * キャッシュのキー (SpeechConfigを指定しなかった場合は、ライブラリの既定値で合成したものとして区別する)
+     */
+    private static final class Key {
+        final String text;
+        final boolean hasConfig;
+        final int speechRate;
+        final int pitch;
+        final int intonation;
+
+        Key(String text, SpeechConfig config) {
+            this.text = text;
+            this.hasConfig = config != null;
+            this.speechRate = config != null ? config.getSpeechRate() : 0;
+            this.pitch = config != null ? config.getPitch() : 0;
+            this.intonation = config != null ? config.getIntonation() : 0;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return hasConfig == key.hasConfig && speechRate == key.speechRate && pitch == key.pitch
+                    && intonation == key.intonation && text.equals(key.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(text, hasConfig, speechRate, pitch, intonation);
+        }
+
+        /**
+         * ファイルに保存する場合のファイル名 (テキストをそのままファイル名にはできないのでハッシュ値にする)
+         */
+        String fileName() {
+            String source = hasConfig ? speechRate + "/" + pitch + "/" + intonation + "/" + text : "default/" + text;
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(source.getBytes(StandardCharsets.UTF_8));
+                StringBuilder name = new StringBuilder(digest.length * 2 + FILE_SUFFIX.length());
+                for (byte b : digest) {
+                    name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+                }
+                return name.append(FILE_SUFFIX).toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private final long maxBytes;
+    private final Path directory;
+    private final long maxDiskBytes;
+    // ファイルのキャッシュ (ディレクトリを指定しなかった場合はnull)
+    private final LruDirectory files;
+
+    // 以下のメモリ上のキャッシュはthisのロックを保持して操作する (アクセス順)
+    private final LinkedHashMap<Key, ByteString> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    // 合成中のキー (同じテキストの要求が同時に来た場合は、1回だけ合成して結果を共有する)
+    private final ConcurrentMap<Key, CompletableFuture<ByteString>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxBytes     メモリ上に保持する合計サイズ (0以下の場合はメモリに保持しない)
+     * @param directory    合成結果を保存するディレクトリ (nullの場合はファイルに保存しない)
+     * @param maxDiskBytes ディレクトリに保存する合計サイズ
+     */
+    public TtsCache(long maxBytes, Path directory, long maxDiskBytes) {
+        this.maxBytes = maxBytes;
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+        this.files = directory != null ? new LruDirectory(TAG, directory, FILE_SUFFIX, maxDiskBytes) : null;
+        if (files != null) {
+            try {
+                files.load(name -> true);
+                CRobotUtil.Log(TAG, "Loaded " + files.size() + " cached speech files from " + directory);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * キャッシュにあればそれを返し、なければsynthesizeで合成してキャッシュに入れる (合成を行うスレッドから呼び出すこと)
+     *
+     * @param config     合成時の設定 (指定しない場合はnull)
+     * @param synthesize 音声合成を行う関数 (失敗した場合はnullを返す)
+     * @return 合成結果 (合成に失敗した場合はnull)
+     */
+    public ByteString get(String text, SpeechConfig config, Supplier<byte[]> synthesize) throws InterruptedException {
+        Key key = new Key(text, config);
+        ByteString cached = getIfPresent(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        CompletableFuture<ByteString> future = new CompletableFuture<>();
+        CompletableFuture<ByteString> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            // 他のスレッドが合成中なので、その結果を待つ
+            hits.incrementAndGet();
+            try {
+                return existing.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        try {
+            // 直前に他のスレッドが合成を終えていた場合
+            ByteString data = getIfPresent(key);
+            if (data != null) {
+                hits.incrementAndGet();
+                future.complete(data);
+                return data;
+            }
+            data = readFile(key);
+            if (data != null) {
+                diskHits.incrementAndGet();
+            } else {
+                misses.incrementAndGet();
+                byte[] synthesized = synthesize.get();
+                data = synthesized != null ? UnsafeByteOperations.unsafeWrap(synthesized) : null;
+                if (data != null) {
+                    writeFile(key, data);
+                }
+            }
+            if (data != null) {
+                put(key, data);
+            }
+            future.complete(data);
+            return data;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * @return キャッシュにあれば合成結果 (なければnull。合成は行わない)
+     */
+    public ByteString peek(String text, SpeechConfig config) {
+        return getIfPresent(new Key(text, config));
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public String toString() {
+        return "TtsCache{entries=" + size() + ", bytes=" + getTotalBytes() + "/" + maxBytes
+                + ", hits=" + hits.get() + ", diskHits=" + diskHits.get() + ", misses=" + misses.get()
+                + ", evictions=" + evictions.get() + "}";
+    }
+
+    private synchronized ByteString getIfPresent(Key key) {
+        return entries.get(key);
+    }
+
+    private synchronized void put(Key key, ByteString data) {
+        if (data.size() > maxBytes) {
+            // 1つでmaxBytesを超えるものは保持しない
+            return;
+        }
+        ByteString previous = entries.put(key, data);
+        if (previous != null) {
+            totalBytes -= previous.size();
+        }
+        totalBytes += data.size();
+        Iterator<Map.Entry<Key, ByteString>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<Key, ByteString> eldest = iterator.next();
+            totalBytes -= eldest.getValue().size();
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    // --- ファイルのキャッシュ ---
+
+    private ByteString readFile(Key key) {
+        if (files == null) {
+            return null;
+        }
+        String name = key.fileName();
+        if (!files.touch(name)) {
+            return null;
+        }
+        try {
+            return UnsafeByteOperations.unsafeWrap(Files.readAllBytes(directory.resolve(name)));
+        } catch (IOException e) {
+            e.printStackTrace();
+            files.remove(name);
+            return null;
+        }
+    }
+
+    private void writeFile(Key key, ByteString data) {
+        if (files == null || data.size() > maxDiskBytes) {
+            return;
+        }
+        String name = key.fileName();
+        Path temp = null;
+        try {
+            // 書き込み途中のファイルを読まないように、一時ファイルに書いてから置き換える
+            temp = Files.createTempFile(directory, name, LruDirectory.TEMP_SUFFIX);
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                for (ByteBuffer buffer : data.asReadOnlyByteBufferList()) {
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                }
+            }
+            Files.move(temp, directory.resolve(name), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            files.add(name, data.size());
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (temp != null) {
+                // 書き込み・置き換えに失敗した場合も一時ファイルを残さない (置き換えた後は何もしない)
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
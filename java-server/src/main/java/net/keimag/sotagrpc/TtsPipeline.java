@@ -0,0 +1,115 @@
+package net.keimag.sotagrpc;
+
+import com.google.protobuf.ByteString;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * 長いテキストを文ごとに分け、先読みしながら合成するクラス (1回の発話につき1つ)
+ *
+ * index番目の文を取り出すときに、index + lookahead番目までの合成を投入する。
+ * 合成は並列に進むが、取り出す側は文の順番どおりに受け取る。
+ */
+public class TtsPipeline {
+    /** これより長い文は、読点などでさらに区切る */
+    private static final int MAX_CLAUSE_CHARS = 40;
+
+    private final List<String> sentences;
+    private final Function<String, CompletableFuture<ByteString>> synthesize;
+    private final int lookahead;
+    // 以下はthisのロックを保持して操作する
+    private final List<CompletableFuture<ByteString>> futures;
+    private boolean cancelled;
+
+    /**
+     * @param synthesize 1文を合成する関数 (合成用のスレッドで実行し、結果をFutureで返すこと)
+     * @param lookahead  取り出した文より先に合成しておく文の数
+     */
+    public TtsPipeline(String text, Function<String, CompletableFuture<ByteString>> synthesize, int lookahead) {
+        this.sentences = split(text);
+        this.synthesize = synthesize;
+        this.lookahead = Math.max(lookahead, 0);
+        this.futures = new ArrayList<>(sentences.size());
+    }
+
+    public int size() {
+        return sentences.size();
+    }
+
+    public String getSentence(int index) {
+        return sentences.get(index);
+    }
+
+    /**
+     * index番目の文の合成結果を取り出す (index + lookahead番目までの合成も投入する)
+     */
+    public synchronized CompletableFuture<ByteString> take(int index) {
+        int end = Math.min(sentences.size(), index + lookahead + 1);
+        while (!cancelled && futures.size() < end) {
+            futures.add(synthesize.apply(sentences.get(futures.size())));
+        }
+        if (index < futures.size()) {
+            return futures.get(index);
+        }
+        CompletableFuture<ByteString> future = new CompletableFuture<>();
+        future.cancel(false);
+        return future;
+    }
+
+    /**
+     * まだ投入していない文の合成を取りやめる (投入済みのものは合成が終わればキャッシュに残る)
+     */
+    public synchronized void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * テキストを文 (長い文はさらに読点) で区切る
+     */
+    static List<String> split(String text) {
+        List<String> sentences = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            current.append(c);
+            boolean end = c == '。' || c == '！' || c == '？' || c == '!' || c == '?' || c == '．' || c == '\n'
+                    // 英文のピリオドは、後ろに空白が続く場合だけ文末とする (小数点などで区切らないため)
+                    || (c == '.' && (i + 1 == text.length() || Character.isWhitespace(text.charAt(i + 1))));
+            boolean clause = (c == '、' || c == '，' || c == ',') && current.length() >= MAX_CLAUSE_CHARS;
+            if (end || clause) {
+                // 文末の後ろの閉じかっこは、同じ文に含める
+                while (i + 1 < text.length() && isClosingBracket(text.charAt(i + 1))) {
+                    current.append(text.charAt(++i));
+                }
+                addSentence(sentences, current);
+            }
+        }
+        addSentence(sentences, current);
+        return sentences;
+    }
+
+    private static void addSentence(List<String> sentences, StringBuilder current) {
+        String sentence = current.toString().trim();
+        current.setLength(0);
+        if (sentence.isEmpty()) {
+            return;
+        }
+        boolean hasText = false;
+        for (int i = 0; i < sentence.length() && !hasText; i++) {
+            hasText = Character.isLetterOrDigit(sentence.charAt(i));
+        }
+        if (!hasText && !sentences.isEmpty()) {
+            // 記号だけの場合は前の文につなげる
+            sentences.set(sentences.size() - 1, sentences.get(sentences.size() - 1) + sentence);
+        } else {
+            sentences.add(sentence);
+        }
+    }
+
+    private static boolean isClosingBracket(char c) {
+        return c == '」' || c == '』' || c == '）' || c == ')' || c == '"' || c == '”';
+    }
+}
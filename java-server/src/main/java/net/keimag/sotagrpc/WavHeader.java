@@ -0,0 +1,116 @@
+package net.keimag.sotagrpc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * WAV(RIFF)ファイルのヘッダー情報
+ */
+public final class WavHeader {
+    public final int channels;
+    public final int sampleRate;
+    public final int bitsPerSample;
+    /** dataチャンク本体の開始位置 (ファイル先頭からのバイト数) */
+    public final int dataOffset;
+    /** dataチャンク本体の長さ (バイト数) */
+    public final long dataLength;
+
+    public WavHeader(int channels, int sampleRate, int bitsPerSample, int dataOffset, long dataLength) {
+        this.channels = channels;
+        this.sampleRate = sampleRate;
+        this.bitsPerSample = bitsPerSample;
+        this.dataOffset = dataOffset;
+        this.dataLength = dataLength;
+    }
+
+    public int getBytesPerFrame() {
+        return channels * (bitsPerSample / 8);
+    }
+
+    public int getByteRate() {
+        return sampleRate * getBytesPerFrame();
+    }
+
+    /**
+     * @return 再生時間 (ms)
+     */
+    public long getDurationMillis() {
+        int byteRate = getByteRate();
+        return byteRate > 0 ? dataLength * 1000 / byteRate : 0;
+    }
+
+    /**
+     * WAVデータの先頭からヘッダーを読み取る
+     *
+     * @param data WAVデータ (少なくともdataチャンクのヘッダーまで含むこと)
+     * @param length dataのうち有効なバイト数
+     * @return ヘッダー情報 (WAVとして解釈できない、またはdataチャンクまで届いていない場合はnull)
+     */
+    public static WavHeader parse(byte[] data, int length) {
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, length).order(ByteOrder.LITTLE_ENDIAN);
+        if (length < 12 || buffer.getInt(0) != 0x46464952 /* "RIFF" */ || buffer.getInt(8) != 0x45564157 /* "WAVE" */) {
+            return null;
+        }
+        int channels = 0;
+        int sampleRate = 0;
+        int bitsPerSample = 0;
+        int position = 12;
+        while (position + 8 <= length) {
+            int chunkId = buffer.getInt(position);
+            long chunkSize = buffer.getInt(position + 4) & 0xFFFFFFFFL;
+            int body = position + 8;
+            if (chunkId == 0x20746D66 /* "fmt " */) {
+                if (body + 16 > length) {
+                    return null;
+                }
+                channels = buffer.getShort(body + 2);
+                sampleRate = buffer.getInt(body + 4);
+                bitsPerSample = buffer.getShort(body + 14);
+            } else if (chunkId == 0x61746164 /* "data" */) {
+                if (channels == 0) {
+                    return null;
+                }
+                return new WavHeader(channels, sampleRate, bitsPerSample, body, chunkSize);
+            }
+            position = (int) (body + chunkSize + (chunkSize & 1));
+        }
+        return null;
+    }
+
+    public static WavHeader parse(byte[] data) {
+        return parse(data, data.length);
+    }
+
+    /**
+     * WAVファイルの先頭を読み込んでヘッダーを取得する
+     */
+    public static WavHeader read(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            byte[] head = new byte[4096];
+            int length = 0;
+            int n;
+            while (length < head.length && (n = in.read(head, length, head.length - length)) > 0) {
+                length += n;
+            }
+            return parse(head, length);
+        }
+    }
+
+    /**
+     * 16bit PCMの無音WAVを生成する
+     */
+    public static byte[] silence(int sampleRate, int channels, long durationMillis) {
+        int dataLength = (int) (sampleRate * channels * 2 * durationMillis / 1000);
+        byte[] wav = new byte[44 + dataLength];
+        ByteBuffer header = ByteBuffer.wrap(wav).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0x46464952).putInt(36 + dataLength).putInt(0x45564157);
+        header.putInt(0x20746D66).putInt(16).putShort((short) 1).putShort((short) channels)
+                .putInt(sampleRate).putInt(sampleRate * channels * 2).putShort((short) (channels * 2)).putShort((short) 16);
+        header.putInt(0x61746164).putInt(dataLength);
+        return wav;
+    }
+}
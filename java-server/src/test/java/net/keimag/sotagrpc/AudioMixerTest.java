@@ -0,0 +1,218 @@
+package net.keimag.sotagrpc;
+
+import com.google.protobuf.ByteString;
+import net.keimag.sotagrpc.v1.robotlib.AudioCategory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * AudioMixerの再生の終わりの通知 (最後まで再生した・止めた・出力を開けなかった、のいずれでもgetCompletionが完了する) とダッキングのテスト
+ */
+class AudioMixerTest {
+    private static final int SAMPLE_RATE = 16000;
+    private static final float DUCK_GAIN = 0.25f;
+
+    private final SotaTaskQueue commandQueue = new SotaTaskQueue();
+    private final RecordingBackend backend = new RecordingBackend();
+    private Thread sotaThread;
+    private AudioMixer mixer;
+
+    @BeforeEach
+    void startSotaThread() {
+        Main.SotaContext context = new Main.SotaContext(backend);
+        sotaThread = new Thread(() -> {
+            try {
+                while (true) {
+                    commandQueue.take().execute(context);
+                }
+            } catch (InterruptedException e) {
+                // テストの終わり
+            }
+        }, "Sota Thread");
+        sotaThread.setDaemon(true);
+        sotaThread.start();
+        mixer = new AudioMixer(commandQueue, SAMPLE_RATE, 1, DUCK_GAIN);
+    }
+
+    @AfterEach
+    void stopSotaThread() throws InterruptedException {
+        sotaThread.interrupt();
+        sotaThread.join(1000);
+    }
+
+    @Test
+    void completesWhenPlayedToTheEnd() throws Exception {
+        AudioMixer.Source source = play(tone(100, 1000), AudioCategory.AUDIO_CATEGORY_UNSPECIFIED);
+
+        source.getCompletion().get(2, TimeUnit.SECONDS);
+
+        assertFalse(source.isPlaying());
+        assertFalse(source.wasStopped());
+    }
+
+    @Test
+    void completesWhenStopped() throws Exception {
+        AudioMixer.Source source = play(tone(10000, 1000), AudioCategory.AUDIO_CATEGORY_UNSPECIFIED);
+        TimeUnit.MILLISECONDS.sleep(100);
+
+        source.stop();
+
+        source.getCompletion().get(1, TimeUnit.SECONDS);
+        assertFalse(source.isPlaying());
+        assertTrue(source.wasStopped());
+    }
+
+    @Test
+    void completesSourcesStoppedRightAfterTheyAreAdded() throws Exception {
+        // ループが配列を読んだ直後に追加され、すぐに止められた音声も取り除かれて通知される
+        AudioMixer.Source background = play(tone(10000, 0), AudioCategory.AUDIO_CATEGORY_UNSPECIFIED);
+        List<AudioMixer.Source> sources = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            AudioMixer.Source source = play(tone(10000, 0), AudioCategory.AUDIO_CATEGORY_UNSPECIFIED);
+            source.stop();
+            sources.add(source);
+        }
+
+        for (AudioMixer.Source source : sources) {
+            source.getCompletion().get(2, TimeUnit.SECONDS);
+        }
+        background.stop();
+        background.getCompletion().get(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void completesSourcesWhenTheOutputCannotBeOpened() throws Exception {
+        backend.failOpen = true;
+
+        AudioMixer.Source source = play(tone(10000, 1000), AudioCategory.AUDIO_CATEGORY_UNSPECIFIED);
+
+        source.getCompletion().get(2, TimeUnit.SECONDS);
+        assertFalse(source.isPlaying());
+        assertTrue(source.wasStopped());
+    }
+
+    @Test
+    void finishesStreamAfterPlayingWrittenData() throws Exception {
+        WavHeader header = new WavHeader(1, SAMPLE_RATE, 16, 0, 0);
+        AudioMixer.StreamSource stream = mixer.openStream(header, AudioCategory.AUDIO_CATEGORY_UNSPECIFIED, 1f);
+        byte[] pcm = new byte[SAMPLE_RATE * 2 / 5];
+        long start = System.nanoTime();
+
+        // バッファ (100ms) より長い200msを書き込み、最後まで再生されるのを待つ
+        stream.write(pcm, 0, pcm.length);
+        stream.finish();
+
+        assertTrue(stream.getCompletion().isDone());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    void stoppedStreamReturnsFromWriteAndFinish() throws Exception {
+        WavHeader header = new WavHeader(1, SAMPLE_RATE, 16, 0, 0);
+        AudioMixer.StreamSource stream = mixer.openStream(header, AudioCategory.AUDIO_CATEGORY_UNSPECIFIED, 1f);
+        stream.stop();
+
+        stream.write(new byte[SAMPLE_RATE * 2], 0, SAMPLE_RATE * 2);
+        stream.finish();
+
+        assertTrue(stream.getCompletion().isDone());
+    }
+
+    @Test
+    void lowersMusicWhileSpeechIsPlaying() throws Exception {
+        AudioMixer.Source music = play(tone(10000, 8000), AudioCategory.AUDIO_CATEGORY_MUSIC);
+        TimeUnit.MILLISECONDS.sleep(200);
+        assertEquals(8000, backend.lastPeak, 100);
+
+        AudioMixer.Source speech = play(tone(10000, 0), AudioCategory.AUDIO_CATEGORY_SPEECH);
+        TimeUnit.MILLISECONDS.sleep(300);
+        assertEquals(8000 * DUCK_GAIN, backend.lastPeak, 100);
+
+        // SPEECHが終わると元の音量に戻る
+        speech.stop();
+        TimeUnit.MILLISECONDS.sleep(700);
+        assertEquals(8000, backend.lastPeak, 100);
+
+        music.stop();
+        music.getCompletion().get(1, TimeUnit.SECONDS);
+    }
+
+    private AudioMixer.Source play(byte[] wav, AudioCategory category) {
+        ByteString wavData = ByteString.copyFrom(wav);
+        WavHeader header = AudioMixer.parseHeader(wavData);
+        assertNotNull(header);
+        assertTrue(AudioMixer.canMix(header));
+        return mixer.play(wavData, header, category, 1f);
+    }
+
+    /**
+     * 一定の値 (amplitude) が続く16bitモノラルのWAV
+     */
+    private static byte[] tone(long durationMillis, int amplitude) {
+        byte[] wav = WavHeader.silence(SAMPLE_RATE, 1, durationMillis);
+        ByteBuffer data = ByteBuffer.wrap(wav).order(ByteOrder.LITTLE_ENDIAN);
+        for (int offset = 44; offset + 1 < wav.length; offset += 2) {
+            data.putShort(offset, (short) amplitude);
+        }
+        return wav;
+    }
+
+    /**
+     * ミキサーが書き込んだ音声の最後のフレームの最大値を記録するバックエンド
+     */
+    private static final class RecordingBackend extends SimulatedSotaBackend {
+        volatile boolean failOpen;
+        volatile int lastPeak;
+
+        RecordingBackend() {
+            super(new Config());
+        }
+
+        @Override
+        public AudioStream openAudioStream(int sampleRate, int channels, int bitsPerSample) {
+            if (failOpen) {
+                throw new IllegalStateException("Audio output is not available.");
+            }
+            AudioStream output = super.openAudioStream(sampleRate, channels, bitsPerSample);
+            return new AudioStream() {
+                @Override
+                public void write(byte[] data, int offset, int length) {
+                    ByteBuffer samples = ByteBuffer.wrap(data, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+                    int peak = 0;
+                    for (int i = offset; i + 1 < offset + length; i += 2) {
+                        peak = Math.max(peak, Math.abs(samples.getShort(i)));
+                    }
+                    lastPeak = peak;
+                    output.write(data, offset, length);
+                }
+
+                @Override
+                public void finish() {
+                    output.finish();
+                }
+
+                @Override
+                public void stop() {
+                    output.stop();
+                }
+
+                @Override
+                public boolean isPlaying() {
+                    return output.isPlaying();
+                }
+            };
+        }
+    }
+}
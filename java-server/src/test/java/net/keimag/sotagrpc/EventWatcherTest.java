@@ -0,0 +1,150 @@
+package net.keimag.sotagrpc;
+
+import io.grpc.stub.ServerCallStreamObserver;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * EventWatcherの送信 (受信が遅いクライアントの分を溜める・捨てる、IDを指定した購読を閉じる) のテスト
+ */
+class EventWatcherTest {
+    private final List<EventWatcher<String>> watchers = new CopyOnWriteArrayList<>();
+    private final EventObserver observer = new EventObserver();
+
+    @Test
+    void sendsPendingEventsWhenTheClientIsReady() {
+        EventWatcher<String> watcher = new EventWatcher<>(null, observer, watchers);
+        observer.ready = false;
+
+        assertTrue(watcher.deliver("started", false));
+        assertTrue(watcher.deliver("finished", true));
+        assertEquals(0, observer.events.size());
+
+        observer.becomeReady();
+
+        assertEquals(Arrays.asList("started", "finished"), observer.events);
+        assertFalse(observer.completed);
+    }
+
+    @Test
+    void dropsOldestEventsWhileTheClientIsNotReady() {
+        EventWatcher<String> watcher = new EventWatcher<>(null, observer, watchers);
+        observer.ready = false;
+
+        for (int i = 0; i < 100; i++) {
+            watcher.deliver("event" + i, false);
+        }
+        observer.becomeReady();
+
+        assertEquals(64, observer.events.size());
+        assertEquals("event36", observer.events.get(0));
+        assertEquals("event99", observer.events.get(63));
+    }
+
+    @Test
+    void closesWatcherOfOneIdAfterItsLastEvent() {
+        EventWatcher<String> watcher = new EventWatcher<>("a", observer, watchers);
+        assertTrue(watcher.matches("a"));
+        assertFalse(watcher.matches("b"));
+        observer.ready = false;
+
+        assertFalse(watcher.deliver("finished", true));
+        assertFalse(observer.completed);
+
+        // 最後のイベントを送り終えてから閉じる
+        observer.becomeReady();
+        assertEquals(Arrays.asList("finished"), observer.events);
+        assertTrue(observer.completed);
+    }
+
+    @Test
+    void removesWatcherWhenTheClientCancels() {
+        EventWatcher<String> watcher = new EventWatcher<>(null, observer, watchers);
+        watchers.add(watcher);
+
+        observer.cancel();
+
+        assertTrue(watchers.isEmpty());
+        assertFalse(watcher.deliver("started", false));
+    }
+
+    /**
+     * isReadyを切り替えられるStreamObserver
+     */
+    private static final class EventObserver extends ServerCallStreamObserver<String> {
+        final List<String> events = new ArrayList<>();
+        volatile boolean ready = true;
+        boolean completed;
+        private boolean cancelled;
+        private Runnable onReadyHandler;
+        private Runnable onCancelHandler;
+
+        void becomeReady() {
+            ready = true;
+            onReadyHandler.run();
+        }
+
+        void cancel() {
+            cancelled = true;
+            onCancelHandler.run();
+        }
+
+        @Override
+        public void onNext(String value) {
+            events.add(value);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+        }
+
+        @Override
+        public void onCompleted() {
+            completed = true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void setOnCancelHandler(Runnable onCancelHandler) {
+            this.onCancelHandler = onCancelHandler;
+        }
+
+        @Override
+        public void setCompression(String compression) {
+        }
+
+        @Override
+        public boolean isReady() {
+            return ready;
+        }
+
+        @Override
+        public void setOnReadyHandler(Runnable onReadyHandler) {
+            this.onReadyHandler = onReadyHandler;
+        }
+
+        @Override
+        public void disableAutoInboundFlowControl() {
+        }
+
+        @Override
+        public void request(int count) {
+        }
+
+        @Override
+        public void setMessageCompression(boolean enable) {
+        }
+    }
+}
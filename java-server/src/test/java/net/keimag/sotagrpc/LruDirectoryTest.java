@@ -0,0 +1,73 @@
+package net.keimag.sotagrpc;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * LruDirectoryの削除の順序 (使った順序が再起動後も残る) と、一時ファイルの削除のテスト
+ */
+class LruDirectoryTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void evictsLeastRecentlyUsedFile() throws IOException {
+        LruDirectory files = new LruDirectory("LruDirectoryTest", directory, ".wav", 25);
+        files.add(write("a.wav", 10, 1000), 10);
+        files.add(write("b.wav", 10, 2000), 10);
+        assertTrue(files.touch("a.wav"));
+
+        files.add(write("c.wav", 10, 3000), 10);
+
+        assertTrue(files.contains("a.wav"));
+        assertFalse(files.contains("b.wav"));
+        assertFalse(Files.exists(directory.resolve("b.wav")));
+        assertEquals(20, files.getTotalBytes());
+    }
+
+    @Test
+    void keepsRecentlyUsedFilesAfterRestart() throws IOException {
+        write("a.wav", 10, 1000);
+        write("b.wav", 10, 2000);
+        LruDirectory files = new LruDirectory("LruDirectoryTest", directory, ".wav", 1024);
+        files.load(name -> true);
+        files.touch("a.wav");
+
+        // 更新日時が新しくなったaは、再起動後もbより後に削除される
+        LruDirectory restarted = new LruDirectory("LruDirectoryTest", directory, ".wav", 15);
+        restarted.load(name -> true);
+
+        assertTrue(restarted.contains("a.wav"));
+        assertFalse(restarted.contains("b.wav"));
+        assertEquals(1, restarted.size());
+    }
+
+    @Test
+    void loadsOnlyAcceptedFilesAndDeletesTempFiles() throws IOException {
+        write("a.wav", 10, 1000);
+        write("other.wav", 10, 1000);
+        Path temp = directory.resolve(write("a.wav123.tmp", 10, 1000));
+        LruDirectory files = new LruDirectory("LruDirectoryTest", directory, ".wav", 1024);
+
+        files.load(name -> name.startsWith("a"));
+
+        assertEquals(1, files.size());
+        assertFalse(Files.exists(temp));
+        assertTrue(Files.exists(directory.resolve("other.wav")));
+    }
+
+    private String write(String name, int size, long lastModifiedMillis) throws IOException {
+        Path path = Files.write(directory.resolve(name), new byte[size]);
+        Files.setLastModifiedTime(path, FileTime.fromMillis(lastModifiedMillis));
+        return name;
+    }
+}
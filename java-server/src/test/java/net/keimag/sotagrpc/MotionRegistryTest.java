@@ -0,0 +1,122 @@
+package net.keimag.sotagrpc;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * MotionRegistryの状態の遷移 (実行待ち・再生中・完了・失敗) のテスト
+ */
+class MotionRegistryTest {
+    private final SotaTaskQueue commandQueue = new SotaTaskQueue();
+    private final MovingBackend backend = new MovingBackend();
+    private Thread sotaThread;
+
+    @BeforeEach
+    void startSotaThread() {
+        Main.SotaContext context = new Main.SotaContext(backend);
+        sotaThread = new Thread(() -> {
+            try {
+                while (true) {
+                    commandQueue.take().execute(context);
+                }
+            } catch (InterruptedException e) {
+                // テストの終わり
+            }
+        }, "Sota Thread");
+        sotaThread.setDaemon(true);
+        sotaThread.start();
+    }
+
+    @AfterEach
+    void stopSotaThread() throws InterruptedException {
+        sotaThread.interrupt();
+        sotaThread.join(1000);
+    }
+
+    @Test
+    void knowsQueuedMotionBeforeItStarts() {
+        MotionRegistry registry = new MotionRegistry(commandQueue);
+        assertNull(registry.getState("a"));
+
+        registry.queued("a");
+
+        assertEquals(MotionRegistry.State.QUEUED, registry.getState("a"));
+        assertFalse(registry.getState("a").isDone());
+    }
+
+    @Test
+    void failsQueuedMotionThatCouldNotStart() {
+        MotionRegistry registry = new MotionRegistry(commandQueue);
+        registry.queued("a");
+
+        registry.failed("a");
+
+        assertEquals(MotionRegistry.State.FAILED, registry.getState("a"));
+    }
+
+    @Test
+    void doesNotFailMotionThatHasStarted() {
+        MotionRegistry registry = new MotionRegistry(commandQueue);
+        registry.queued("a");
+        registry.started("a", 10000);
+
+        registry.failed("a");
+
+        assertEquals(MotionRegistry.State.RUNNING, registry.getState("a"));
+    }
+
+    @Test
+    void finishesMotionAfterItsInterpolationEnds() throws InterruptedException {
+        MotionRegistry registry = new MotionRegistry(commandQueue);
+        registry.queued("a");
+        registry.started("a", 50);
+        TimeUnit.MILLISECONDS.sleep(100);
+
+        backend.moving = false;
+
+        assertEquals(MotionRegistry.State.FINISHED, awaitDone(registry, "a", 1000));
+    }
+
+    @Test
+    void failsMotionThatDoesNotEndInTime() throws InterruptedException {
+        MotionRegistry registry = new MotionRegistry(commandQueue);
+        registry.started("a", 0);
+
+        // 終わったことを確認できないまま、最短の時間 (1秒) が過ぎると失敗とする
+        assertEquals(MotionRegistry.State.RUNNING, registry.getState("a"));
+        assertEquals(MotionRegistry.State.FAILED, awaitDone(registry, "a", 2000));
+    }
+
+    private static MotionRegistry.State awaitDone(MotionRegistry registry, String motionId, long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        MotionRegistry.State state = registry.getState(motionId);
+        while (!state.isDone() && System.nanoTime() - deadline < 0) {
+            TimeUnit.MILLISECONDS.sleep(10);
+            state = registry.getState(motionId);
+        }
+        return state;
+    }
+
+    /**
+     * movingをfalseにするまで、補間が終わらないバックエンド
+     */
+    private static final class MovingBackend extends SimulatedSotaBackend {
+        volatile boolean moving = true;
+
+        MovingBackend() {
+            super(new Config());
+        }
+
+        @Override
+        public boolean isEndInterpAll() {
+            return !moving;
+        }
+    }
+}
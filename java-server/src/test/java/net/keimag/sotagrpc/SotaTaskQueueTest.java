@@ -0,0 +1,266 @@
+package net.keimag.sotagrpc;
+
+import io.grpc.Context;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * SotaTaskQueueの取り出し順 (優先度・BULKの飢餓防止・クライアントごとの重み付きラウンドロビン) と、読み取りの相乗りのテスト
+ */
+class SotaTaskQueueTest {
+    private static final long NO_BULK_PROMOTION = TimeUnit.MINUTES.toNanos(10);
+
+    // 実行したタスクの名前 (実行した順)
+    private final List<String> executed = new ArrayList<>();
+
+    @Test
+    void takesHigherPriorityFirst() throws InterruptedException {
+        SotaTaskQueue queue = new SotaTaskQueue(NO_BULK_PROMOTION);
+        queue.put(task("a", Main.SotaTask.Priority.BULK, "bulk"));
+        queue.put(task("a", Main.SotaTask.Priority.QUERY, "query"));
+        queue.put(task("a", Main.SotaTask.Priority.CONTROL, "control"));
+        queue.put(task("a", Main.SotaTask.Priority.SAFETY, "safety"));
+
+        runAll(queue);
+
+        assertEquals(Arrays.asList("safety", "control", "query", "bulk"), executed);
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    void keepsFifoOrderWithinOneClient() throws InterruptedException {
+        SotaTaskQueue queue = new SotaTaskQueue(NO_BULK_PROMOTION);
+        for (int i = 0; i < 5; i++) {
+            queue.put(task("a", Main.SotaTask.Priority.BULK, "a" + i));
+        }
+
+        runAll(queue);
+
+        assertEquals(Arrays.asList("a0", "a1", "a2", "a3", "a4"), executed);
+    }
+
+    @Test
+    void alternatesBetweenClientsOfTheSamePriority() throws InterruptedException {
+        SotaTaskQueue queue = new SotaTaskQueue(NO_BULK_PROMOTION);
+        // aが先にまとめて入れても、bのタスクはaの後ろに並ばない
+        for (int i = 0; i < 3; i++) {
+            queue.put(task("a", Main.SotaTask.Priority.BULK, "a" + i));
+        }
+        for (int i = 0; i < 2; i++) {
+            queue.put(task("b", Main.SotaTask.Priority.BULK, "b" + i));
+        }
+
+        runAll(queue);
+
+        assertEquals(Arrays.asList("a0", "b0", "a1", "b1", "a2"), executed);
+    }
+
+    @Test
+    void takesWeightTasksPerRound() throws InterruptedException {
+        Map<String, Integer> weights = new HashMap<>();
+        weights.put("a", 2);
+        SotaTaskQueue queue = new SotaTaskQueue(NO_BULK_PROMOTION, weights);
+        for (int i = 0; i < 4; i++) {
+            queue.put(task("a", Main.SotaTask.Priority.BULK, "a" + i));
+        }
+        for (int i = 0; i < 2; i++) {
+            queue.put(task("b", Main.SotaTask.Priority.BULK, "b" + i));
+        }
+
+        runAll(queue);
+
+        assertEquals(Arrays.asList("a0", "a1", "b0", "a2", "a3", "b1"), executed);
+    }
+
+    @Test
+    void fairnessDoesNotOverridePriority() throws InterruptedException {
+        SotaTaskQueue queue = new SotaTaskQueue(NO_BULK_PROMOTION);
+        queue.put(task("a", Main.SotaTask.Priority.BULK, "a-bulk"));
+        queue.put(task("a", Main.SotaTask.Priority.BULK, "a-bulk2"));
+        queue.put(task("b", Main.SotaTask.Priority.CONTROL, "b-control"));
+
+        runAll(queue);
+
+        assertEquals(Arrays.asList("b-control", "a-bulk", "a-bulk2"), executed);
+    }
+
+    @Test
+    void runsLongWaitingBulkBeforeControl() throws InterruptedException {
+        SotaTaskQueue queue = new SotaTaskQueue(TimeUnit.MILLISECONDS.toNanos(50));
+        queue.put(task("a", Main.SotaTask.Priority.BULK, "bulk"));
+        TimeUnit.MILLISECONDS.sleep(100);
+        queue.put(task("a", Main.SotaTask.Priority.CONTROL, "control"));
+        queue.put(task("a", Main.SotaTask.Priority.SAFETY, "safety"));
+
+        runAll(queue);
+
+        // SAFETYは待たされたBULKよりも先
+        assertEquals(Arrays.asList("safety", "bulk", "control"), executed);
+    }
+
+    @Test
+    void promotesTheOldestBulkAcrossClients() throws InterruptedException {
+        SotaTaskQueue queue = new SotaTaskQueue(TimeUnit.MILLISECONDS.toNanos(50));
+        queue.put(task("b", Main.SotaTask.Priority.BULK, "b0"));
+        TimeUnit.MILLISECONDS.sleep(10);
+        queue.put(task("a", Main.SotaTask.Priority.BULK, "a0"));
+        TimeUnit.MILLISECONDS.sleep(100);
+        queue.put(task("c", Main.SotaTask.Priority.QUERY, "query"));
+
+        queue.take().execute(null);
+
+        assertEquals(Collections.singletonList("b0"), executed);
+    }
+
+    @Test
+    void sharesResultOfPendingTaskWithTheSameKey() throws Exception {
+        SotaTaskQueue queue = new SotaTaskQueue(NO_BULK_PROMOTION);
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> second = new CompletableFuture<>();
+        queue.put(new Main.SotaTask<>(Main.SotaTask.Priority.QUERY, "pose", context -> {
+            executed.add("read");
+            return "pose-1";
+        }, first));
+        queue.put(new Main.SotaTask<>(Main.SotaTask.Priority.QUERY, "pose", context -> {
+            executed.add("read");
+            return "pose-2";
+        }, second));
+
+        assertEquals(1, queue.size());
+        assertEquals(1, queue.getCoalescedCount());
+        runAll(queue);
+
+        assertEquals(Collections.singletonList("read"), executed);
+        assertEquals("pose-1", first.get(1, TimeUnit.SECONDS));
+        assertEquals("pose-1", second.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void doesNotShareWithTaskAlreadyTaken() throws InterruptedException {
+        SotaTaskQueue queue = new SotaTaskQueue(NO_BULK_PROMOTION);
+        queue.put(new Main.SotaTask<>(Main.SotaTask.Priority.QUERY, "pose", context -> "pose-1", new CompletableFuture<>()));
+        Main.SotaTask<?> running = queue.take();
+
+        // 実行中のタスクの後に来た読み取りは、新しい値を返すために別に実行する
+        queue.put(new Main.SotaTask<>(Main.SotaTask.Priority.QUERY, "pose", context -> "pose-2", new CompletableFuture<>()));
+        running.execute(null);
+
+        assertEquals(1, queue.size());
+        assertEquals(0, queue.getCoalescedCount());
+    }
+
+    @Test
+    void doesNotShareWithTaskWaitingForItsStartTime() throws Exception {
+        SotaTaskQueue queue = new SotaTaskQueue(NO_BULK_PROMOTION);
+        CompletableFuture<String> scheduled = new CompletableFuture<>();
+        CompletableFuture<String> now = new CompletableFuture<>();
+        Context context = ScheduledStart.withStartAtMillis(Context.current(), System.currentTimeMillis() + 10000);
+        Context previous = context.attach();
+        try {
+            queue.put(new Main.SotaTask<>(Main.SotaTask.Priority.QUERY, "pose", sotaContext -> "scheduled", scheduled));
+        } finally {
+            context.detach(previous);
+        }
+
+        // 開始時刻を指定していない読み取りは、10秒後のタスクを待たずに実行する
+        queue.put(new Main.SotaTask<>(Main.SotaTask.Priority.QUERY, "pose", sotaContext -> "now", now));
+        queue.poll(0, TimeUnit.MILLISECONDS).execute(null);
+
+        assertEquals("now", now.get(1, TimeUnit.SECONDS));
+        assertEquals(0, queue.getCoalescedCount());
+        assertEquals(1, queue.scheduledSize());
+    }
+
+    @Test
+    void countsScheduledTaskOnlyFromItsStartTime() throws InterruptedException {
+        SotaTaskQueue queue = new SotaTaskQueue(NO_BULK_PROMOTION);
+        Context context = ScheduledStart.withStartAtMillis(Context.current(), System.currentTimeMillis() + 200);
+        Context previous = context.attach();
+        try {
+            queue.put(new Main.SotaTask<>(Main.SotaTask.Priority.BULK, sotaContext -> null, new CompletableFuture<>()));
+        } finally {
+            context.detach(previous);
+        }
+
+        // 先の時刻に予約されたタスクは、今のコマンドの待ち時間の見積もりに入れない
+        assertEquals(0, queue.size());
+        assertEquals(1, queue.scheduledSize());
+        assertEquals(0, queue.estimatedDelayNanos(Main.SotaTask.Priority.BULK));
+
+        queue.put(task("a", Main.SotaTask.Priority.BULK, "now"));
+        assertEquals(1, queue.size());
+        long oneTask = queue.estimatedDelayNanos(Main.SotaTask.Priority.BULK);
+        assertTrue(oneTask > 0);
+
+        TimeUnit.MILLISECONDS.sleep(250);
+        // 開始時刻になったタスクは、同じ優先度のタスクの先頭に入る
+        assertNotNull(queue.poll(0, TimeUnit.MILLISECONDS));
+        assertEquals(0, queue.scheduledSize());
+        assertEquals(oneTask, queue.estimatedDelayNanos(Main.SotaTask.Priority.BULK));
+        runAll(queue);
+        assertEquals(Collections.singletonList("now"), executed);
+        assertEquals(0, queue.estimatedDelayNanos(Main.SotaTask.Priority.BULK));
+    }
+
+    @Test
+    void recordsQueuedAndExecutedTasksPerClient() throws InterruptedException {
+        SotaTaskQueue queue = new SotaTaskQueue(NO_BULK_PROMOTION);
+        queue.put(task("a", Main.SotaTask.Priority.BULK, "a0"));
+        queue.put(task("a", Main.SotaTask.Priority.BULK, "a1"));
+        queue.put(task("b", Main.SotaTask.Priority.BULK, "b0"));
+        queue.take().execute(null);
+
+        Map<String, SotaTaskQueue.ClientStats> stats = new HashMap<>();
+        for (SotaTaskQueue.ClientStats clientStats : queue.getClientStats()) {
+            stats.put(clientStats.getClientId(), clientStats);
+        }
+        assertEquals(1, stats.get("a").getQueued());
+        assertEquals(1, stats.get("a").getExecuted());
+        assertEquals(1, stats.get("b").getQueued());
+        assertEquals(0, stats.get("b").getExecuted());
+    }
+
+    @Test
+    void pollReturnsNullWhenEmpty() throws InterruptedException {
+        SotaTaskQueue queue = new SotaTaskQueue();
+
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+        assertEquals(0, queue.size());
+    }
+
+    /**
+     * clientIdの呼び出しの中で作ったタスク (実行するとnameを記録する)
+     */
+    private Main.SotaTask<Void> task(String clientId, Main.SotaTask.Priority priority, String name) {
+        Context context = ClientIdentity.withClientId(Context.current(), clientId);
+        Context previous = context.attach();
+        try {
+            return new Main.SotaTask<>(priority, sotaContext -> {
+                executed.add(name);
+                return null;
+            }, new CompletableFuture<>());
+        } finally {
+            context.detach(previous);
+        }
+    }
+
+    private static void runAll(SotaTaskQueue queue) throws InterruptedException {
+        Main.SotaTask<?> task;
+        while ((task = queue.poll(0, TimeUnit.MILLISECONDS)) != null) {
+            task.execute(null);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package net.keimag.sotagrpc;
+
+import com.google.protobuf.ByteString;
+import io.grpc.stub.ServerCallStreamObserver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sotagrpc.v1.Common;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * SpeechQueueが、失敗・取り消しのあった発話の後も次の発話を再生し続けるかのテスト
+ */
+class SpeechQueueTest {
+    private final SotaTaskQueue commandQueue = new SotaTaskQueue();
+    private Thread sotaThread;
+
+    @BeforeEach
+    void startSotaThread() {
+        Main.SotaContext context = new Main.SotaContext(new SimulatedSotaBackend(new SimulatedSotaBackend.Config()));
+        sotaThread = new Thread(() -> {
+            try {
+                while (true) {
+                    commandQueue.take().execute(context);
+                }
+            } catch (InterruptedException e) {
+                // テストの終わり
+            }
+        }, "Sota Thread");
+        sotaThread.setDaemon(true);
+        sotaThread.start();
+    }
+
+    @AfterEach
+    void stopSotaThread() throws InterruptedException {
+        sotaThread.interrupt();
+        sotaThread.join(1000);
+    }
+
+    @Test
+    void playsNextUtteranceAfterOneCancelledBeforeSynthesis() throws Exception {
+        SpeechQueue speechQueue = new SpeechQueue(commandQueue);
+        // 最初の文を取り出す前に取り消されると、取り消し済みのFutureが返る
+        TtsPipeline cancelled = pipeline("こんにちは。", text -> CompletableFuture.completedFuture(speech()));
+        cancelled.cancel();
+        ResponseObserver first = new ResponseObserver();
+        speechQueue.say(cancelled, first);
+
+        ResponseObserver second = new ResponseObserver();
+        speechQueue.say(pipeline("さようなら。", text -> CompletableFuture.completedFuture(speech())), second);
+
+        assertFalse(first.response.get(2, TimeUnit.SECONDS).getIsSuccessful());
+        assertTrue(second.response.get(2, TimeUnit.SECONDS).getIsSuccessful());
+    }
+
+    @Test
+    void playsNextUtteranceAfterSynthesisThrows() throws Exception {
+        SpeechQueue speechQueue = new SpeechQueue(commandQueue);
+        ResponseObserver first = new ResponseObserver();
+        speechQueue.say(pipeline("こんにちは。", text -> {
+            throw new IllegalStateException("TTS is not available.");
+        }), first);
+
+        ResponseObserver second = new ResponseObserver();
+        speechQueue.say(pipeline("さようなら。", text -> CompletableFuture.completedFuture(speech())), second);
+
+        assertFalse(first.response.get(2, TimeUnit.SECONDS).getIsSuccessful());
+        assertTrue(second.response.get(2, TimeUnit.SECONDS).getIsSuccessful());
+    }
+
+    private static TtsPipeline pipeline(String text, Function<String, CompletableFuture<ByteString>> synthesize) {
+        return new TtsPipeline(text, synthesize, 1);
+    }
+
+    private static ByteString speech() {
+        return ByteString.copyFrom(WavHeader.silence(16000, 1, 50));
+    }
+
+    /**
+     * sayのレスポンスを受け取るStreamObserver
+     */
+    private static final class ResponseObserver extends ServerCallStreamObserver<Common.SuccessResponse> {
+        final CompletableFuture<Common.SuccessResponse> response = new CompletableFuture<>();
+
+        @Override
+        public void onNext(Common.SuccessResponse value) {
+            response.complete(value);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            response.completeExceptionally(t);
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public void setOnCancelHandler(Runnable onCancelHandler) {
+        }
+
+        @Override
+        public void setCompression(String compression) {
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setOnReadyHandler(Runnable onReadyHandler) {
+        }
+
+        @Override
+        public void disableAutoInboundFlowControl() {
+        }
+
+        @Override
+        public void request(int count) {
+        }
+
+        @Override
+        public void setMessageCompression(boolean enable) {
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package net.keimag.sotagrpc;
+
+import io.grpc.Context;
+import io.grpc.Deadline;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * TaskExpiryが実行しないと判定するタスク (取り消し・期限切れ・予算超過) と、常に実行するタスク (SAFETY・共有) のテスト
+ */
+class TaskExpiryTest {
+    private static final String PLAY_POSE = "sotagrpc.v1.robotlib.MotionService/PlayPose";
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Metrics metrics = new Metrics(new SotaTaskQueue());
+    // 最後に作ったタスクのFuture
+    private CompletableFuture<Void> future;
+
+    @AfterEach
+    void shutdownScheduler() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void runsTaskOfActiveCall() {
+        TaskExpiry expiry = new TaskExpiry(Collections.emptyMap(), metrics);
+        Main.SotaTask<Void> task = task(Context.current(), Main.SotaTask.Priority.BULK);
+
+        assertNull(expiry.check(task, System.nanoTime()));
+    }
+
+    @Test
+    void skipsTaskOfCancelledCall() {
+        TaskExpiry expiry = new TaskExpiry(Collections.emptyMap(), metrics);
+        Context.CancellableContext call = Context.current().withCancellation();
+        Main.SotaTask<Void> task = task(call, Main.SotaTask.Priority.BULK);
+        call.cancel(null);
+
+        TaskExpiry.Reason reason = expiry.check(task, System.nanoTime());
+        assertEquals(TaskExpiry.Reason.CANCELLED, reason);
+
+        TaskExpiry.skip(task, reason);
+        assertEquals(Status.Code.CANCELLED, failureOf(future).getStatus().getCode());
+    }
+
+    @Test
+    void skipsTaskWhoseDeadlineHasPassed() {
+        TaskExpiry expiry = new TaskExpiry(Collections.emptyMap(), metrics);
+        Context.CancellableContext call = Context.current().withDeadline(Deadline.after(-1, TimeUnit.MILLISECONDS), scheduler);
+        Main.SotaTask<Void> task = task(call, Main.SotaTask.Priority.BULK);
+
+        TaskExpiry.Reason reason = expiry.check(task, System.nanoTime());
+        assertEquals(TaskExpiry.Reason.DEADLINE_EXCEEDED, reason);
+
+        TaskExpiry.skip(task, reason);
+        assertEquals(Status.Code.DEADLINE_EXCEEDED, failureOf(future).getStatus().getCode());
+    }
+
+    @Test
+    void skipsTaskThatCannotFinishBeforeTheDeadline() {
+        TaskExpiry expiry = new TaskExpiry(Collections.emptyMap(), metrics);
+        Context call = Metrics.withMethodMetrics(
+                Context.current().withDeadline(Deadline.after(1, TimeUnit.SECONDS), scheduler), metrics.methodMetrics(PLAY_POSE));
+        Main.SotaTask<Void> task = task(call, Main.SotaTask.Priority.BULK);
+        assertNull(expiry.check(task, System.nanoTime()));
+
+        // このRPCの平均実行時間が、残り時間より長くなった
+        metrics.recordTask(task, 0, TimeUnit.SECONDS.toNanos(2));
+
+        assertEquals(TaskExpiry.Reason.DEADLINE_EXCEEDED, expiry.check(task, System.nanoTime()));
+    }
+
+    @Test
+    void skipsTaskThatWouldExceedItsBudget() {
+        TaskExpiry expiry = new TaskExpiry(Collections.singletonMap("PlayPose", 100L), metrics);
+        Main.SotaTask<Void> task = task(Metrics.withMethodMetrics(Context.current(), metrics.methodMetrics(PLAY_POSE)),
+                Main.SotaTask.Priority.BULK);
+        task.enqueuedNanos = System.nanoTime();
+
+        assertNull(expiry.check(task, task.enqueuedNanos + TimeUnit.MILLISECONDS.toNanos(50)));
+        assertEquals(TaskExpiry.Reason.BUDGET_EXCEEDED, expiry.check(task, task.enqueuedNanos + TimeUnit.MILLISECONDS.toNanos(150)));
+        assertFalse(expiry.isOverBudget(task, task.enqueuedNanos + TimeUnit.MILLISECONDS.toNanos(50)));
+        assertTrue(expiry.isOverBudget(task, task.enqueuedNanos + TimeUnit.MILLISECONDS.toNanos(150)));
+    }
+
+    @Test
+    void prefersTheBudgetOfTheFullMethodName() {
+        Map<String, Long> budgets = new HashMap<>();
+        budgets.put("PlayPose", 100L);
+        budgets.put(PLAY_POSE, 1000L);
+        TaskExpiry expiry = new TaskExpiry(budgets, metrics);
+        Main.SotaTask<Void> task = task(Metrics.withMethodMetrics(Context.current(), metrics.methodMetrics(PLAY_POSE)),
+                Main.SotaTask.Priority.BULK);
+        task.enqueuedNanos = System.nanoTime();
+
+        assertNull(expiry.check(task, task.enqueuedNanos + TimeUnit.MILLISECONDS.toNanos(500)));
+    }
+
+    @Test
+    void ignoresBudgetsOfOtherMethodsAndInternalTasks() {
+        TaskExpiry expiry = new TaskExpiry(Collections.singletonMap("PlayPose", 100L), metrics);
+        Main.SotaTask<Void> other = task(Metrics.withMethodMetrics(Context.current(),
+                metrics.methodMetrics("sotagrpc.v1.robotlib.MotionService/PlayScene")), Main.SotaTask.Priority.BULK);
+        Main.SotaTask<Void> internal = task(Context.current(), Main.SotaTask.Priority.BULK);
+        other.enqueuedNanos = System.nanoTime();
+        internal.enqueuedNanos = other.enqueuedNanos;
+
+        long late = other.enqueuedNanos + TimeUnit.SECONDS.toNanos(10);
+        assertNull(expiry.check(other, late));
+        assertNull(expiry.check(internal, late));
+    }
+
+    @Test
+    void alwaysRunsSafetyTasks() {
+        TaskExpiry expiry = new TaskExpiry(Collections.emptyMap(), metrics);
+        Context.CancellableContext call = Context.current().withCancellation();
+        Main.SotaTask<Void> task = task(call, Main.SotaTask.Priority.SAFETY);
+        call.cancel(null);
+
+        assertNull(expiry.check(task, System.nanoTime()));
+    }
+
+    @Test
+    void alwaysRunsTasksSharedWithOtherCalls() throws InterruptedException {
+        TaskExpiry expiry = new TaskExpiry(Collections.emptyMap(), metrics);
+        SotaTaskQueue queue = new SotaTaskQueue();
+        Context.CancellableContext call = Context.current().withCancellation();
+        Main.SotaTask<Void> task = task(call, Main.SotaTask.Priority.QUERY, "pose");
+        queue.put(task);
+        queue.put(task(Context.current(), Main.SotaTask.Priority.QUERY, "pose"));
+        call.cancel(null);
+
+        // 取り消された呼び出しのタスクでも、他の呼び出しが結果を待っている
+        assertNull(expiry.check(queue.take(), System.nanoTime()));
+    }
+
+    private Main.SotaTask<Void> task(Context call, Main.SotaTask.Priority priority) {
+        return task(call, priority, null);
+    }
+
+    /**
+     * callの中で作ったタスク
+     */
+    private Main.SotaTask<Void> task(Context call, Main.SotaTask.Priority priority, String coalesceKey) {
+        Context previous = call.attach();
+        try {
+            future = new CompletableFuture<>();
+            return new Main.SotaTask<>(priority, coalesceKey, sotaContext -> null, future);
+        } finally {
+            call.detach(previous);
+        }
+    }
+
+    private static StatusRuntimeException failureOf(CompletableFuture<?> future) {
+        ExecutionException e = assertThrows(ExecutionException.class, future::get);
+        return (StatusRuntimeException) e.getCause();
+    }
+}
@@ -0,0 +1,206 @@
+package net.keimag.sotagrpc;
+
+import com.google.protobuf.ByteString;
+import net.keimag.sotagrpc.v1.sotatalk.SpeechConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * TtsCacheのメモリ上のLRU・ファイルのキャッシュ・同じテキストの合成の共有のテスト
+ */
+class TtsCacheTest {
+    @TempDir
+    Path directory;
+
+    // 合成した回数
+    private final AtomicInteger synthesized = new AtomicInteger();
+
+    @Test
+    void returnsCachedDataWithoutSynthesizingAgain() throws InterruptedException {
+        TtsCache cache = new TtsCache(1024, null, 0);
+
+        ByteString first = cache.get("こんにちは", null, synthesize(10));
+        ByteString second = cache.get("こんにちは", null, synthesize(10));
+
+        assertSame(first, second);
+        assertEquals(1, synthesized.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void distinguishesSpeechConfigs() throws InterruptedException {
+        TtsCache cache = new TtsCache(1024, null, 0);
+        SpeechConfig slow = SpeechConfig.newBuilder().setSpeechRate(8).build();
+
+        cache.get("こんにちは", null, synthesize(10));
+        cache.get("こんにちは", slow, synthesize(10));
+        cache.get("こんにちは", SpeechConfig.newBuilder().setSpeechRate(8).build(), synthesize(10));
+
+        assertEquals(2, synthesized.get());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedWhenOverMaxBytes() throws InterruptedException {
+        TtsCache cache = new TtsCache(30, null, 0);
+        cache.get("a", null, synthesize(10));
+        cache.get("b", null, synthesize(10));
+        cache.get("c", null, synthesize(10));
+        // aを使ったので、次に捨てられるのはb
+        cache.get("a", null, synthesize(10));
+
+        cache.get("d", null, synthesize(10));
+
+        assertNotNull(cache.peek("a", null));
+        assertNull(cache.peek("b", null));
+        assertNotNull(cache.peek("c", null));
+        assertNotNull(cache.peek("d", null));
+        assertEquals(30, cache.getTotalBytes());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    void doesNotKeepDataLargerThanMaxBytes() throws InterruptedException {
+        TtsCache cache = new TtsCache(30, null, 0);
+        cache.get("a", null, synthesize(10));
+
+        ByteString large = cache.get("large", null, synthesize(40));
+
+        assertEquals(40, large.size());
+        assertNull(cache.peek("large", null));
+        assertNotNull(cache.peek("a", null));
+        assertEquals(0, cache.getEvictions());
+    }
+
+    @Test
+    void doesNotCacheFailedSynthesis() throws InterruptedException {
+        TtsCache cache = new TtsCache(1024, null, 0);
+
+        assertNull(cache.get("a", null, () -> null));
+        cache.get("a", null, synthesize(10));
+
+        assertEquals(1, synthesized.get());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    void readsSynthesizedDataFromDiskAfterRestart() throws InterruptedException {
+        ByteString written = new TtsCache(1024, directory, 1024).get("こんにちは", null, synthesize(10));
+
+        TtsCache restarted = new TtsCache(1024, directory, 1024);
+        ByteString read = restarted.get("こんにちは", null, synthesize(10));
+
+        assertEquals(written, read);
+        assertEquals(1, synthesized.get());
+        assertEquals(1, restarted.getDiskHits());
+        assertEquals(0, restarted.getMisses());
+    }
+
+    @Test
+    void evictsOldestFilesWhenOverMaxDiskBytes() throws InterruptedException, IOException {
+        TtsCache cache = new TtsCache(0, directory, 25);
+        cache.get("a", null, synthesize(10));
+        cache.get("b", null, synthesize(10));
+
+        cache.get("c", null, synthesize(10));
+
+        assertEquals(2, countFiles());
+        // メモリには保持しないので、ファイルから消えたaは合成し直す
+        cache.get("a", null, synthesize(10));
+        assertEquals(4, synthesized.get());
+        cache.get("c", null, synthesize(10));
+        assertEquals(1, cache.getDiskHits());
+    }
+
+    @Test
+    void evictsFilesOverMaxDiskBytesOnLoad() throws InterruptedException, IOException {
+        TtsCache cache = new TtsCache(0, directory, 1024);
+        cache.get("a", null, synthesize(10));
+        cache.get("b", null, synthesize(10));
+        cache.get("c", null, synthesize(10));
+
+        new TtsCache(0, directory, 15);
+
+        assertEquals(1, countFiles());
+    }
+
+    @Test
+    void deletesTempFilesLeftByAnInterruptedWrite() throws IOException {
+        Path temp = Files.createTempFile(directory, "interrupted", ".tmp");
+
+        new TtsCache(0, directory, 1024);
+
+        assertFalse(Files.exists(temp));
+    }
+
+    @Test
+    void synthesizesConcurrentRequestsForTheSameTextOnce() throws Exception {
+        TtsCache cache = new TtsCache(1024, null, 0);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<ByteString> first = executor.submit(() -> cache.get("a", null, () -> {
+                started.countDown();
+                await(release);
+                return synthesize(10).get();
+            }));
+            started.await(1, TimeUnit.SECONDS);
+            Future<ByteString> second = executor.submit(() -> cache.get("a", null, synthesize(10)));
+            TimeUnit.MILLISECONDS.sleep(50);
+            release.countDown();
+
+            assertSame(first.get(1, TimeUnit.SECONDS), second.get(1, TimeUnit.SECONDS));
+            assertEquals(1, synthesized.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * lengthバイトの合成結果を返す (呼ばれた回数を数える)
+     */
+    private Supplier<byte[]> synthesize(int length) {
+        return () -> {
+            synthesized.incrementAndGet();
+            return new byte[length];
+        };
+    }
+
+    private int countFiles() throws IOException {
+        int count = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.wav")) {
+            for (Path ignored : stream) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
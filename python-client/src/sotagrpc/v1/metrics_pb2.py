@@ -0,0 +1,63 @@
+# -*- coding: utf-8 -*-
+# Generated by the protocol buffer compiler.  DO NOT EDIT!
+# NO CHECKED-IN PROTOBUF GENCODE
+# source: sotagrpc/v1/metrics.proto
+# Protobuf Python Version: 6.31.0
+"""Generated protocol buffer code."""
+from google.protobuf import descriptor as _descriptor
+from google.protobuf import descriptor_pool as _descriptor_pool
+from google.protobuf import runtime_version as _runtime_version
+from google.protobuf import symbol_database as _symbol_database
+from google.protobuf.internal import builder as _builder
+_runtime_version.ValidateProtobufRuntimeVersion(
+    _runtime_version.Domain.PUBLIC,
+    6,
+    31,
+    0,
+    '',
+    'sotagrpc/v1/metrics.proto'
+)
+# @@protoc_insertion_point(imports)
+
+_sym_db = _symbol_database.Default()
+
+
+
+
+DESCRIPTOR = _descriptor_pool.Default().AddSerializedFile(b'\n\x19sotagrpc/v1/metrics.proto\x12\x0bsotagrpc.v1\"\x13\n\x11GetMetricsRequest\"\xe8\x04\n\x0fMetricsSnapshot\x12\x14\n\x0ctimestamp_ms\x18\x01 \x01(\x03\x12\x13\n\x0bqueue_depth\x18\x02 \x01(\x05\x12W\n\x17queue_depth_by_priority\x18\x03 \x03(\x0b\x32\x36.sotagrpc.v1.MetricsSnapshot.QueueDepthByPriorityEntry\x12\x17\n\x0fscheduled_tasks\x18\x04 \x01(\x05\x12\x17\n\x0f\x63oalesced_tasks\x18\x05 \x01(\x03\x12\x1e\n\x16sota_thread_busy_ratio\x18\x06 \x01(\x01\x12 \n\x18sota_thread_busy_seconds\x18\x07 \x01(\x01\x12+\n\x07methods\x18\x08 \x03(\x0b\x32\x1a.sotagrpc.v1.MethodMetrics\x12+\n\x07\x63lients\x18\t \x03(\x0b\x32\x1a.sotagrpc.v1.ClientMetrics\x12\x64\n\x1e\x65stimated_delay_ms_by_priority\x18\x0b \x03(\x0b\x32<.sotagrpc.v1.MetricsSnapshot.EstimatedDelayMsByPriorityEntry\x12\x1d\n\x15skipped_saved_seconds\x18\n \x01(\x01\x1a;\n\x19QueueDepthByPriorityEntry\x12\x0b\n\x03key\x18\x01 \x01(\t\x12\r\n\x05value\x18\x02 \x01(\x05:\x02\x38\x01\x1a\x41\n\x1f\x45stimatedDelayMsByPriorityEntry\x12\x0b\n\x03key\x18\x01 \x01(\t\x12\r\n\x05value\x18\x02 \x01(\x01:\x02\x38\x01\"\xa6\x03\n\rMethodMetrics\x12\x0e\n\x06method\x18\x01 \x01(\t\x12\r\n\x05\x63\x61lls\x18\x02 \x01(\x03\x12\x36\n\x06\x65rrors\x18\x03 \x03(\x0b\x32&.sotagrpc.v1.MethodMetrics.ErrorsEntry\x12\'\n\x07latency\x18\x04 \x01(\x0b\x32\x16.sotagrpc.v1.Histogram\x12*\n\nqueue_wait\x18\x05 \x01(\x0b\x32\x16.sotagrpc.v1.Histogram\x12)\n\texecution\x18\x06 \x01(\x0b\x32\x16.sotagrpc.v1.Histogram\x12\x38\n\x07skipped\x18\x07 \x03(\x0b\x32\'.sotagrpc.v1.MethodMetrics.SkippedEntry\x12\x10\n\x08saved_ms\x18\x08 \x01(\x01\x12\x13\n\x0bover_budget\x18\t \x01(\x03\x1a-\n\x0b\x45rrorsEntry\x12\x0b\n\x03key\x18\x01 \x01(\t\x12\r\n\x05value\x18\x02 \x01(\x03:\x02\x38\x01\x1a.\n\x0cSkippedEntry\x12\x0b\n\x03key\x18\x01 \x01(\t\x12\r\n\x05value\x18\x02 \x01(\x03:\x02\x38\x01\"r\n\rClientMetrics\x12\x11\n\tclient_id\x18\x01 \x01(\t\x12\x0e\n\x06queued\x18\x02 \x01(\x05\x12\x10\n\x08\x65xecuted\x18\x03 \x01(\x03\x12\x17\n\x0f\x61verage_wait_ms\x18\x04 \x01(\x01\x12\x13\n\x0bmax_wait_ms\x18\x05 \x01(\x01\"\x91\x01\n\tHistogram\x12\x1e\n\x16\x62ucket_upper_bounds_ms\x18\x01 \x03(\x01\x12\x15\n\rbucket_counts\x18\x02 \x03(\x03\x12\r\n\x05\x63ount\x18\x03 \x01(\x03\x12\x0e\n\x06sum_ms\x18\x04 \x01(\x01\x12\x0e\n\x06max_ms\x18\x05 \x01(\x01\x12\x0e\n\x06p50_ms\x18\x06 \x01(\x01\x12\x0e\n\x06p99_ms\x18\x07 \x01(\x01\x32\\\n\x0eMetricsService\x12J\n\nGetMetrics\x12\x1e.sotagrpc.v1.GetMetricsRequest\x1a\x1c.sotagrpc.v1.MetricsSnapshotB0\n\x1enet.keimag.sotagrpc.v1.metricsB\x0cMetricsProtoP\x01\x62\x06proto3')
+
+_globals = globals()
+_builder.BuildMessageAndEnumDescriptors(DESCRIPTOR, _globals)
+_builder.BuildTopDescriptorsAndMessages(DESCRIPTOR, 'sotagrpc.v1.metrics_pb2', _globals)
+if not _descriptor._USE_C_DESCRIPTORS:
+  _globals['DESCRIPTOR']._loaded_options = None
+  _globals['DESCRIPTOR']._serialized_options = b'\n\036net.keimag.sotagrpc.v1.metricsB\014MetricsProtoP\001'
+  _globals['_METRICSSNAPSHOT_QUEUEDEPTHBYPRIORITYENTRY']._loaded_options = None
+  _globals['_METRICSSNAPSHOT_QUEUEDEPTHBYPRIORITYENTRY']._serialized_options = b'8\001'
+  _globals['_METRICSSNAPSHOT_ESTIMATEDDELAYMSBYPRIORITYENTRY']._loaded_options = None
+  _globals['_METRICSSNAPSHOT_ESTIMATEDDELAYMSBYPRIORITYENTRY']._serialized_options = b'8\001'
+  _globals['_METHODMETRICS_ERRORSENTRY']._loaded_options = None
+  _globals['_METHODMETRICS_ERRORSENTRY']._serialized_options = b'8\001'
+  _globals['_METHODMETRICS_SKIPPEDENTRY']._loaded_options = None
+  _globals['_METHODMETRICS_SKIPPEDENTRY']._serialized_options = b'8\001'
+  _globals['_GETMETRICSREQUEST']._serialized_start=42
+  _globals['_GETMETRICSREQUEST']._serialized_end=61
+  _globals['_METRICSSNAPSHOT']._serialized_start=64
+  _globals['_METRICSSNAPSHOT']._serialized_end=680
+  _globals['_METRICSSNAPSHOT_QUEUEDEPTHBYPRIORITYENTRY']._serialized_start=554
+  _globals['_METRICSSNAPSHOT_QUEUEDEPTHBYPRIORITYENTRY']._serialized_end=613
+  _globals['_METRICSSNAPSHOT_ESTIMATEDDELAYMSBYPRIORITYENTRY']._serialized_start=615
+  _globals['_METRICSSNAPSHOT_ESTIMATEDDELAYMSBYPRIORITYENTRY']._serialized_end=680
+  _globals['_METHODMETRICS']._serialized_start=683
+  _globals['_METHODMETRICS']._serialized_end=1105
+  _globals['_METHODMETRICS_ERRORSENTRY']._serialized_start=1012
+  _globals['_METHODMETRICS_ERRORSENTRY']._serialized_end=1057
+  _globals['_METHODMETRICS_SKIPPEDENTRY']._serialized_start=1059
+  _globals['_METHODMETRICS_SKIPPEDENTRY']._serialized_end=1105
+  _globals['_CLIENTMETRICS']._serialized_start=1107
+  _globals['_CLIENTMETRICS']._serialized_end=1221
+  _globals['_HISTOGRAM']._serialized_start=1224
+  _globals['_HISTOGRAM']._serialized_end=1369
+  _globals['_METRICSSERVICE']._serialized_start=1371
+  _globals['_METRICSSERVICE']._serialized_end=1463
+# @@protoc_insertion_point(module_scope)
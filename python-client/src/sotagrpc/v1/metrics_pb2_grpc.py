@@ -0,0 +1,115 @@
+# Generated by the gRPC Python protocol compiler plugin. DO NOT EDIT!
+"""Client and server classes corresponding to protobuf-defined services."""
+import grpc
+import warnings
+
+from sotagrpc.v1 import metrics_pb2 as sotagrpc_dot_v1_dot_metrics__pb2
+
+GRPC_GENERATED_VERSION = '1.73.1'
+GRPC_VERSION = grpc.__version__
+_version_not_supported = False
+
+try:
+    from grpc._utilities import first_version_is_lower
+    _version_not_supported = first_version_is_lower(GRPC_VERSION, GRPC_GENERATED_VERSION)
+except ImportError:
+    _version_not_supported = True
+
+if _version_not_supported:
+    raise RuntimeError(
+        f'The grpc package installed is at version {GRPC_VERSION},'
+        + f' but the generated code in sotagrpc/v1/metrics_pb2_grpc.py depends on'
+        + f' grpcio>={GRPC_GENERATED_VERSION}.'
+        + f' Please upgrade your grpc module to grpcio>={GRPC_GENERATED_VERSION}'
+        + f' or downgrade your generated code using grpcio-tools<={GRPC_VERSION}.'
+    )
+
+
+class MetricsServiceStub(object):
+    """--------------------
+    サービス定義
+    --------------------
+
+    サーバーの計測値 (RPCごとの所要時間、Sota Threadの待ち行列・使用率など) を提供
+    同じ値はPrometheusの形式でも取得できる (--metrics-portのhttp://<Sota>:<port>/metrics)
+    """
+
+    def __init__(self, channel):
+        """Constructor.
+
+        Args:
+            channel: A grpc.Channel.
+        """
+        self.GetMetrics = channel.unary_unary(
+                '/sotagrpc.v1.MetricsService/GetMetrics',
+                request_serializer=sotagrpc_dot_v1_dot_metrics__pb2.GetMetricsRequest.SerializeToString,
+                response_deserializer=sotagrpc_dot_v1_dot_metrics__pb2.MetricsSnapshot.FromString,
+                _registered_method=True)
+
+
+class MetricsServiceServicer(object):
+    """--------------------
+    サービス定義
+    --------------------
+
+    サーバーの計測値 (RPCごとの所要時間、Sota Threadの待ち行列・使用率など) を提供
+    同じ値はPrometheusの形式でも取得できる (--metrics-portのhttp://<Sota>:<port>/metrics)
+    """
+
+    def GetMetrics(self, request, context):
+        """Missing associated documentation comment in .proto file."""
+        context.set_code(grpc.StatusCode.UNIMPLEMENTED)
+        context.set_details('Method not implemented!')
+        raise NotImplementedError('Method not implemented!')
+
+
+def add_MetricsServiceServicer_to_server(servicer, server):
+    rpc_method_handlers = {
+            'GetMetrics': grpc.unary_unary_rpc_method_handler(
+                    servicer.GetMetrics,
+                    request_deserializer=sotagrpc_dot_v1_dot_metrics__pb2.GetMetricsRequest.FromString,
+                    response_serializer=sotagrpc_dot_v1_dot_metrics__pb2.MetricsSnapshot.SerializeToString,
+            ),
+    }
+    generic_handler = grpc.method_handlers_generic_handler(
+            'sotagrpc.v1.MetricsService', rpc_method_handlers)
+    server.add_generic_rpc_handlers((generic_handler,))
+    server.add_registered_method_handlers('sotagrpc.v1.MetricsService', rpc_method_handlers)
+
+
+ # This class is part of an EXPERIMENTAL API.
+class MetricsService(object):
+    """--------------------
+    サービス定義
+    --------------------
+
+    サーバーの計測値 (RPCごとの所要時間、Sota Threadの待ち行列・使用率など) を提供
+    同じ値はPrometheusの形式でも取得できる (--metrics-portのhttp://<Sota>:<port>/metrics)
+    """
+
+    @staticmethod
+    def GetMetrics(request,
+            target,
+            options=(),
+            channel_credentials=None,
+            call_credentials=None,
+            insecure=False,
+            compression=None,
+            wait_for_ready=None,
+            timeout=None,
+            metadata=None):
+        return grpc.experimental.unary_unary(
+            request,
+            target,
+            '/sotagrpc.v1.MetricsService/GetMetrics',
+            sotagrpc_dot_v1_dot_metrics__pb2.GetMetricsRequest.SerializeToString,
+            sotagrpc_dot_v1_dot_metrics__pb2.MetricsSnapshot.FromString,
+            options,
+            channel_credentials,
+            insecure,
+            call_credentials,
+            compression,
+            wait_for_ready,
+            timeout,
+            metadata,
+            _registered_method=True)
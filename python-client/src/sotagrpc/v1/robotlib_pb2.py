@@ -24,7 +24,7 @@ _sym_db = _symbol_database.Default()
 
 
 
-DESCRIPTOR = _descriptor_pool.Default().AddSerializedFile(b'\n\x1asotagrpc/v1/robotlib.proto\x12\x0bsotagrpc.v1\"\x15\n\x13GetIPAddressRequest\"J\n\x14GetIPAddressResponse\x12\x11\n\tipv4_addr\x18\x01 \x01(\t\x12\x11\n\tipv6_addr\x18\x02 \x01(\t\x12\x0c\n\x04port\x18\x03 \x01(\x05\"\x1b\n\x19GetFirmwareVersionRequest\"6\n\x1aGetFirmwareVersionResponse\x12\x18\n\x10\x66irmware_version\x18\x01 \x01(\t\"1\n\x05\x43olor\x12\x0b\n\x03red\x18\x01 \x01(\x05\x12\r\n\x05green\x18\x02 \x01(\x05\x12\x0c\n\x04\x62lue\x18\x03 \x01(\x05\"\x90\x01\n\x08LedState\x12$\n\x08left_eye\x18\x01 \x01(\x0b\x32\x12.sotagrpc.v1.Color\x12%\n\tright_eye\x18\x02 \x01(\x0b\x32\x12.sotagrpc.v1.Color\x12\r\n\x05mouth\x18\x03 \x01(\x05\x12(\n\x0cpower_button\x18\x04 \x01(\x0b\x32\x12.sotagrpc.v1.Color\"[\n\x04Pose\x12\"\n\x06servos\x18\x01 \x03(\x0b\x32\x12.sotagrpc.v1.Servo\x12\'\n\x03led\x18\x02 \x01(\x0b\x32\x15.sotagrpc.v1.LedStateH\x00\x88\x01\x01\x42\x06\n\x04_led\"8\n\x05Servo\x12 \n\x02id\x18\x01 \x01(\x0e\x32\x14.sotagrpc.v1.ServoID\x12\r\n\x05\x61ngle\x18\x02 \x01(\x05\"\x10\n\x0eServoOnRequest\"\x11\n\x0fServoOnResponse\"\x11\n\x0fServoOffRequest\"\x12\n\x10ServoOffResponse\"i\n\x0fPlayPoseRequest\x12\x1f\n\x04pose\x18\x01 \x01(\x0b\x32\x11.sotagrpc.v1.Pose\x12\x0f\n\x07time_ms\x18\x02 \x01(\x05\x12\x16\n\tmotion_id\x18\x03 \x01(\tH\x00\x88\x01\x01\x42\x0c\n\n_motion_id\"#\n\x10PlayPoseResponse\x12\x0f\n\x07success\x18\x01 \x01(\x08\"\x17\n\x15GetCurrentPoseRequest\"<\n\x14IsEndInterAllRequest\x12\x16\n\tmotion_id\x18\x01 \x01(\tH\x00\x88\x01\x01\x42\x0c\n\n_motion_id\"1\n\x15IsEndInterAllResponse\x12\x18\n\x10is_end_inter_all\x18\x01 \x01(\x08\"\x17\n\x15GetPowerStatusRequest\"I\n\x16GetPowerStatusResponse\x12\x1a\n\x12\x62\x61ttery_voltage_mv\x18\x01 \x01(\x05\x12\x13\n\x0bis_charging\x18\x02 \x01(\x08\"\x17\n\x15GetButtonStateRequest\"j\n\x16GetButtonStateResponse\x12\x18\n\x10is_power_pressed\x18\x01 \x01(\x08\x12\x19\n\x11is_vol_up_pressed\x18\x02 \x01(\x08\x12\x1b\n\x13is_vol_down_pressed\x18\x03 \x01(\x08\"/\n\x1cSetCollisionDetectionRequest\x12\x0f\n\x07\x65nabled\x18\x01 \x01(\x08\"\x1f\n\x1dSetCollisionDetectionResponse\".\n\x1bSetMouthLedVoiceSyncRequest\x12\x0f\n\x07\x65nabled\x18\x01 \x01(\x08\"\x1e\n\x1cSetMouthLedVoiceSyncResponse\",\n\x15StartRecordingRequest\x12\x13\n\x0b\x64uration_ms\x18\x01 \x01(\x05\")\n\x16StartRecordingResponse\x12\x0f\n\x07success\x18\x01 \x01(\x08\"\x16\n\x14StopRecordingRequest\"+\n\x15StopRecordingResponse\x12\x12\n\naudio_data\x18\x01 \x01(\x0c\"\x14\n\x12IsRecordingRequest\"+\n\x13IsRecordingResponse\x12\x14\n\x0cis_recording\x18\x01 \x01(\x08\"7\n\x11SetMicModeRequest\x12\"\n\x04mode\x18\x01 \x01(\x0e\x32\x14.sotagrpc.v1.MicMode\"\x14\n\x12SetMicModeResponse\"\x17\n\x15GetSoundSourceRequest\"J\n\x16GetSoundSourceResponse\x12\x19\n\x11is_voice_detected\x18\x01 \x01(\x08\x12\x15\n\rdirection_deg\x18\x02 \x01(\x05\"\x86\x01\n\x10PlayAudioRequest\x12\x12\n\naudio_data\x18\x01 \x01(\x0c\x12 \n\x13wait_for_completion\x18\x02 \x01(\x08H\x00\x88\x01\x01\x12\x16\n\tsave_file\x18\x03 \x01(\x08H\x01\x88\x01\x01\x42\x16\n\x14_wait_for_completionB\x0c\n\n_save_file\"i\n\x15PlayLocalAudioRequest\x12\x16\n\x0elocal_filepath\x18\x01 \x01(\t\x12 \n\x13wait_for_completion\x18\x02 \x01(\x08H\x00\x88\x01\x01\x42\x16\n\x14_wait_for_completion\"9\n\x11PlayAudioResponse\x12\x0f\n\x07success\x18\x01 \x01(\x08\x12\x13\n\x0bplayback_id\x18\x02 \x01(\t\"?\n\x17SaveAudioToLocalRequest\x12\x12\n\naudio_data\x18\x01 \x01(\x0c\x12\x10\n\x08\x66ilepath\x18\x02 \x01(\t\"&\n\rRequestStatus\x12\x15\n\ris_successful\x18\x01 \x01(\x08\"<\n\x10StopAudioRequest\x12\x18\n\x0bplayback_id\x18\x01 \x01(\tH\x00\x88\x01\x01\x42\x0e\n\x0c_playback_id\"\x13\n\x11StopAudioResponse\"A\n\x15IsAudioPlayingRequest\x12\x18\n\x0bplayback_id\x18\x01 \x01(\tH\x00\x88\x01\x01\x42\x0e\n\x0c_playback_id\",\n\x16IsAudioPlayingResponse\x12\x12\n\nis_playing\x18\x01 \x01(\x08*\x8d\x01\n\x07ServoID\x12\x18\n\x14SERVO_ID_UNSPECIFIED\x10\x00\x12\n\n\x06\x42ODY_Y\x10\x01\x12\x0e\n\nL_SHOULDER\x10\x02\x12\x0b\n\x07L_ELBOW\x10\x03\x12\x0e\n\nR_SHOULDER\x10\x04\x12\x0b\n\x07R_ELBOW\x10\x05\x12\n\n\x06HEAD_Y\x10\x06\x12\n\n\x06HEAD_P\x10\x07\x12\n\n\x06HEAD_R\x10\x08*N\n\x07MicMode\x12\x18\n\x14MIC_MODE_UNSPECIFIED\x10\x00\x12\n\n\x06NO_USE\x10\x01\x12\t\n\x05\x46RONT\x10\x02\x12\x12\n\x0e\x41UTO_DIRECTION\x10\x03\x32\xd2\x01\n\x14\x43onfigurationService\x12S\n\x0cGetIPAddress\x12 .sotagrpc.v1.GetIPAddressRequest\x1a!.sotagrpc.v1.GetIPAddressResponse\x12\x65\n\x12GetFirmwareVersion\x12&.sotagrpc.v1.GetFirmwareVersionRequest\x1a\'.sotagrpc.v1.GetFirmwareVersionResponse2\x9b\x06\n\rMotionService\x12\x44\n\x07ServoOn\x12\x1b.sotagrpc.v1.ServoOnRequest\x1a\x1c.sotagrpc.v1.ServoOnResponse\x12G\n\x08ServoOff\x12\x1c.sotagrpc.v1.ServoOffRequest\x1a\x1d.sotagrpc.v1.ServoOffResponse\x12G\n\x08PlayPose\x12\x1c.sotagrpc.v1.PlayPoseRequest\x1a\x1d.sotagrpc.v1.PlayPoseResponse\x12G\n\x0eGetCurrentPose\x12\".sotagrpc.v1.GetCurrentPoseRequest\x1a\x11.sotagrpc.v1.Pose\x12V\n\rIsEndInterAll\x12!.sotagrpc.v1.IsEndInterAllRequest\x1a\".sotagrpc.v1.IsEndInterAllResponse\x12Y\n\x0eGetPowerStatus\x12\".sotagrpc.v1.GetPowerStatusRequest\x1a#.sotagrpc.v1.GetPowerStatusResponse\x12Y\n\x0eGetButtonState\x12\".sotagrpc.v1.GetButtonStateRequest\x1a#.sotagrpc.v1.GetButtonStateResponse\x12n\n\x15SetCollisionDetection\x12).sotagrpc.v1.SetCollisionDetectionRequest\x1a*.sotagrpc.v1.SetCollisionDetectionResponse\x12k\n\x14SetMouthLedVoiceSync\x12(.sotagrpc.v1.SetMouthLedVoiceSyncRequest\x1a).sotagrpc.v1.SetMouthLedVoiceSyncResponse2\xda\x02\n\x0fPlaybackService\x12J\n\tPlayAudio\x12\x1d.sotagrpc.v1.PlayAudioRequest\x1a\x1e.sotagrpc.v1.PlayAudioResponse\x12T\n\x0ePlayLocalAudio\x12\".sotagrpc.v1.PlayLocalAudioRequest\x1a\x1e.sotagrpc.v1.PlayAudioResponse\x12J\n\tStopAudio\x12\x1d.sotagrpc.v1.StopAudioRequest\x1a\x1e.sotagrpc.v1.StopAudioResponse\x12Y\n\x0eIsAudioPlaying\x12\".sotagrpc.v1.IsAudioPlayingRequest\x1a#.sotagrpc.v1.IsAudioPlayingResponse2\x97\x02\n\x10RecordingService\x12Y\n\x0eStartRecording\x12\".sotagrpc.v1.StartRecordingRequest\x1a#.sotagrpc.v1.StartRecordingResponse\x12V\n\rStopRecording\x12!.sotagrpc.v1.StopRecordingRequest\x1a\".sotagrpc.v1.StopRecordingResponse\x12P\n\x0bIsRecording\x12\x1f.sotagrpc.v1.IsRecordingRequest\x1a .sotagrpc.v1.IsRecordingResponse2\xbe\x01\n\x15IntelligentMicService\x12J\n\x07SetMode\x12\x1e.sotagrpc.v1.SetMicModeRequest\x1a\x1f.sotagrpc.v1.SetMicModeResponse\x12Y\n\x0eGetSoundSource\x12\".sotagrpc.v1.GetSoundSourceRequest\x1a#.sotagrpc.v1.GetSoundSourceResponseB#\n\x1fnet.keimag.sotagrpc.v1.robotlibP\x01\x62\x06proto3')
+DESCRIPTOR = _descriptor_pool.Default().AddSerializedFile(b'\n\x1asotagrpc/v1/robotlib.proto\x12\x0bsotagrpc.v1\"\x15\n\x13GetIPAddressRequest\"J\n\x14GetIPAddressResponse\x12\x11\n\tipv4_addr\x18\x01 \x01(\t\x12\x11\n\tipv6_addr\x18\x02 \x01(\t\x12\x0c\n\x04port\x18\x03 \x01(\x05\"\x1b\n\x19GetFirmwareVersionRequest\"6\n\x1aGetFirmwareVersionResponse\x12\x18\n\x10\x66irmware_version\x18\x01 \x01(\t\"1\n\x05\x43olor\x12\x0b\n\x03red\x18\x01 \x01(\x05\x12\r\n\x05green\x18\x02 \x01(\x05\x12\x0c\n\x04\x62lue\x18\x03 \x01(\x05\"\x90\x01\n\x08LedState\x12$\n\x08left_eye\x18\x01 \x01(\x0b\x32\x12.sotagrpc.v1.Color\x12%\n\tright_eye\x18\x02 \x01(\x0b\x32\x12.sotagrpc.v1.Color\x12\r\n\x05mouth\x18\x03 \x01(\x05\x12(\n\x0cpower_button\x18\x04 \x01(\x0b\x32\x12.sotagrpc.v1.Color\"[\n\x04Pose\x12\"\n\x06servos\x18\x01 \x03(\x0b\x32\x12.sotagrpc.v1.Servo\x12\'\n\x03led\x18\x02 \x01(\x0b\x32\x15.sotagrpc.v1.LedStateH\x00\x88\x01\x01\x42\x06\n\x04_led\"8\n\x05Servo\x12 \n\x02id\x18\x01 \x01(\x0e\x32\x14.sotagrpc.v1.ServoID\x12\r\n\x05\x61ngle\x18\x02 \x01(\x05\"\x10\n\x0eServoOnRequest\"\x11\n\x0fServoOnResponse\"\x11\n\x0fServoOffRequest\"\x12\n\x10ServoOffResponse\"i\n\x0fPlayPoseRequest\x12\x1f\n\x04pose\x18\x01 \x01(\x0b\x32\x11.sotagrpc.v1.Pose\x12\x0f\n\x07time_ms\x18\x02 \x01(\x05\x12\x16\n\tmotion_id\x18\x03 \x01(\tH\x00\x88\x01\x01\x42\x0c\n\n_motion_id\"6\n\x10PlayPoseResponse\x12\x0f\n\x07success\x18\x01 \x01(\x08\x12\x11\n\tmotion_id\x18\x02 \x01(\t\"K\n\x15GetCurrentPoseRequest\x12\x1d\n\x10max_staleness_ms\x18\x01 \x01(\x05H\x00\x88\x01\x01\x42\x13\n\x11_max_staleness_ms\"<\n\x14IsEndInterAllRequest\x12\x16\n\tmotion_id\x18\x01 \x01(\tH\x00\x88\x01\x01\x42\x0c\n\n_motion_id\"1\n\x15IsEndInterAllResponse\x12\x18\n\x10is_end_inter_all\x18\x01 \x01(\x08\"K\n\x15GetPowerStatusRequest\x12\x1d\n\x10max_staleness_ms\x18\x01 \x01(\x05H\x00\x88\x01\x01\x42\x13\n\x11_max_staleness_ms\"I\n\x16GetPowerStatusResponse\x12\x1a\n\x12\x62\x61ttery_voltage_mv\x18\x01 \x01(\x05\x12\x13\n\x0bis_charging\x18\x02 \x01(\x08\"K\n\x15GetButtonStateRequest\x12\x1d\n\x10max_staleness_ms\x18\x01 \x01(\x05H\x00\x88\x01\x01\x42\x13\n\x11_max_staleness_ms\"j\n\x16GetButtonStateResponse\x12\x18\n\x10is_power_pressed\x18\x01 \x01(\x08\x12\x19\n\x11is_vol_up_pressed\x18\x02 \x01(\x08\x12\x1b\n\x13is_vol_down_pressed\x18\x03 \x01(\x08\"/\n\x1cSetCollisionDetectionRequest\x12\x0f\n\x07\x65nabled\x18\x01 \x01(\x08\"\x1f\n\x1dSetCollisionDetectionResponse\".\n\x1bSetMouthLedVoiceSyncRequest\x12\x0f\n\x07\x65nabled\x18\x01 \x01(\x08\"\x1e\n\x1cSetMouthLedVoiceSyncResponse\":\n\x12WatchMotionRequest\x12\x16\n\tmotion_id\x18\x01 \x01(\tH\x00\x88\x01\x01\x42\x0c\n\n_motion_id\"\x8e\x01\n\x0bMotionEvent\x12\x11\n\tmotion_id\x18\x01 \x01(\t\x12*\n\x04type\x18\x02 \x01(\x0e\x32\x1c.sotagrpc.v1.MotionEventType\x12\x14\n\x0ctimestamp_ms\x18\x03 \x01(\x03\x12\x19\n\x0cpreempted_by\x18\x04 \x01(\tH\x00\x88\x01\x01\x42\x0f\n\r_preempted_by\"F\n\x1a\x41\x63quireControlLeaseRequest\x12\x18\n\x0b\x64uration_ms\x18\x01 \x01(\x05H\x00\x88\x01\x01\x42\x0e\n\x0c_duration_ms\"\x1c\n\x1aReleaseControlLeaseRequest\"N\n\x14\x43ontrolLeaseResponse\x12\x0f\n\x07granted\x18\x01 \x01(\x08\x12\x0e\n\x06holder\x18\x02 \x01(\t\x12\x15\n\rexpires_at_ms\x18\x03 \x01(\x03\"-\n\x1aSubscribeRobotStateRequest\x12\x0f\n\x07rate_hz\x18\x01 \x01(\x05\"\xc5\x01\n\nRobotState\x12\x14\n\x0ctimestamp_ms\x18\x01 \x01(\x03\x12\x1f\n\x04pose\x18\x02 \x01(\x0b\x32\x11.sotagrpc.v1.Pose\x12\x32\n\x05power\x18\x03 \x01(\x0b\x32#.sotagrpc.v1.GetPowerStatusResponse\x12\x34\n\x07\x62uttons\x18\x04 \x01(\x0b\x32#.sotagrpc.v1.GetButtonStateResponse\x12\x16\n\x0e\x64ropped_frames\x18\x05 \x01(\x03\"P\n\nPoseTarget\x12\x1f\n\x04pose\x18\x01 \x01(\x0b\x32\x11.sotagrpc.v1.Pose\x12\x0f\n\x07time_ms\x18\x02 \x01(\x05\x12\x10\n\x08sequence\x18\x03 \x01(\x03\"~\n\x0cPoseFeedback\x12\x18\n\x10\x61pplied_sequence\x18\x01 \x01(\x03\x12!\n\x06\x61\x63tual\x18\x02 \x01(\x0b\x32\x11.sotagrpc.v1.Pose\x12\x18\n\x10\x61pply_latency_us\x18\x03 \x01(\x03\x12\x17\n\x0f\x64ropped_targets\x18\x04 \x01(\x03\",\n\x15StartRecordingRequest\x12\x13\n\x0b\x64uration_ms\x18\x01 \x01(\x05\")\n\x16StartRecordingResponse\x12\x0f\n\x07success\x18\x01 \x01(\x08\"\x16\n\x14StopRecordingRequest\"+\n\x15StopRecordingResponse\x12\x12\n\naudio_data\x18\x01 \x01(\x0c\"\x14\n\x12IsRecordingRequest\"+\n\x13IsRecordingResponse\x12\x14\n\x0cis_recording\x18\x01 \x01(\x08\"F\n\x16StreamRecordingRequest\x12\x13\n\x0b\x64uration_ms\x18\x01 \x01(\x05\x12\x17\n\x0fmax_buffered_ms\x18\x02 \x01(\x05\"s\n\nAudioFrame\x12\x10\n\x08pcm_data\x18\x01 \x01(\x0c\x12\x13\n\x0bsample_rate\x18\x02 \x01(\x05\x12\x10\n\x08\x63hannels\x18\x03 \x01(\x05\x12\x14\n\x0ctimestamp_ms\x18\x04 \x01(\x03\x12\x16\n\x0e\x64ropped_frames\x18\x05 \x01(\x03\"7\n\x11SetMicModeRequest\x12\"\n\x04mode\x18\x01 \x01(\x0e\x32\x14.sotagrpc.v1.MicMode\"\x14\n\x12SetMicModeResponse\"\x17\n\x15GetSoundSourceRequest\"J\n\x16GetSoundSourceResponse\x12\x19\n\x11is_voice_detected\x18\x01 \x01(\x08\x12\x15\n\rdirection_deg\x18\x02 \x01(\x05\"\xe2\x01\n\x10PlayAudioRequest\x12\x12\n\naudio_data\x18\x01 \x01(\x0c\x12 \n\x13wait_for_completion\x18\x02 \x01(\x08H\x00\x88\x01\x01\x12\x16\n\tsave_file\x18\x03 \x01(\x08H\x01\x88\x01\x01\x12\x11\n\x04gain\x18\x04 \x01(\x02H\x02\x88\x01\x01\x12\x31\n\x08\x63\x61tegory\x18\x05 \x01(\x0e\x32\x1a.sotagrpc.v1.AudioCategoryH\x03\x88\x01\x01\x42\x16\n\x14_wait_for_completionB\x0c\n\n_save_fileB\x07\n\x05_gainB\x0b\n\t_category\"^\n\x0ePlayAudioChunk\x12\x12\n\naudio_data\x18\x01 \x01(\x0c\x12 \n\x13wait_for_completion\x18\x02 \x01(\x08H\x00\x88\x01\x01\x42\x16\n\x14_wait_for_completion\"i\n\x15PlayLocalAudioRequest\x12\x16\n\x0elocal_filepath\x18\x01 \x01(\t\x12 \n\x13wait_for_completion\x18\x02 \x01(\x08H\x00\x88\x01\x01\x42\x16\n\x14_wait_for_completion\"F\n\x10UploadAudioChunk\x12\x12\n\naudio_data\x18\x01 \x01(\x0c\x12\x13\n\x06\x64igest\x18\x02 \x01(\tH\x00\x88\x01\x01\x42\t\n\x07_digest\"9\n\x13UploadAudioResponse\x12\x0e\n\x06\x64igest\x18\x01 \x01(\t\x12\x12\n\nsize_bytes\x18\x02 \x01(\x03\"\xbe\x01\n\x16PlayStoredAudioRequest\x12\x0e\n\x06\x64igest\x18\x01 \x01(\t\x12 \n\x13wait_for_completion\x18\x02 \x01(\x08H\x00\x88\x01\x01\x12\x11\n\x04gain\x18\x03 \x01(\x02H\x01\x88\x01\x01\x12\x31\n\x08\x63\x61tegory\x18\x04 \x01(\x0e\x32\x1a.sotagrpc.v1.AudioCategoryH\x02\x88\x01\x01\x42\x16\n\x14_wait_for_completionB\x07\n\x05_gainB\x0b\n\t_category\"\"\n\x0fHasAudioRequest\x12\x0f\n\x07\x64igests\x18\x01 \x03(\t\"\"\n\x10HasAudioResponse\x12\x0e\n\x06stored\x18\x01 \x03(\x08\"9\n\x11PlayAudioResponse\x12\x0f\n\x07success\x18\x01 \x01(\x08\x12\x13\n\x0bplayback_id\x18\x02 \x01(\t\"?\n\x17SaveAudioToLocalRequest\x12\x12\n\naudio_data\x18\x01 \x01(\x0c\x12\x10\n\x08\x66ilepath\x18\x02 \x01(\t\"&\n\rRequestStatus\x12\x15\n\ris_successful\x18\x01 \x01(\x08\"<\n\x10StopAudioRequest\x12\x18\n\x0bplayback_id\x18\x01 \x01(\tH\x00\x88\x01\x01\x42\x0e\n\x0c_playback_id\"\x13\n\x11StopAudioResponse\"A\n\x15IsAudioPlayingRequest\x12\x18\n\x0bplayback_id\x18\x01 \x01(\tH\x00\x88\x01\x01\x42\x0e\n\x0c_playback_id\",\n\x16IsAudioPlayingResponse\x12\x12\n\nis_playing\x18\x01 \x01(\x08\"@\n\x14WatchPlaybackRequest\x12\x18\n\x0bplayback_id\x18\x01 \x01(\tH\x00\x88\x01\x01\x42\x0e\n\x0c_playback_id\"h\n\rPlaybackEvent\x12\x13\n\x0bplayback_id\x18\x01 \x01(\t\x12,\n\x04type\x18\x02 \x01(\x0e\x32\x1e.sotagrpc.v1.PlaybackEventType\x12\x14\n\x0ctimestamp_ms\x18\x03 \x01(\x03*\x8d\x01\n\x07ServoID\x12\x18\n\x14SERVO_ID_UNSPECIFIED\x10\x00\x12\n\n\x06\x42ODY_Y\x10\x01\x12\x0e\n\nL_SHOULDER\x10\x02\x12\x0b\n\x07L_ELBOW\x10\x03\x12\x0e\n\nR_SHOULDER\x10\x04\x12\x0b\n\x07R_ELBOW\x10\x05\x12\n\n\x06HEAD_Y\x10\x06\x12\n\n\x06HEAD_P\x10\x07\x12\n\n\x06HEAD_R\x10\x08*\x86\x01\n\x0fMotionEventType\x12!\n\x1dMOTION_EVENT_TYPE_UNSPECIFIED\x10\x00\x12\x12\n\x0eMOTION_STARTED\x10\x01\x12\x13\n\x0fMOTION_FINISHED\x10\x02\x12\x14\n\x10MOTION_PREEMPTED\x10\x03\x12\x11\n\rMOTION_FAILED\x10\x04*N\n\x07MicMode\x12\x18\n\x14MIC_MODE_UNSPECIFIED\x10\x00\x12\n\n\x06NO_USE\x10\x01\x12\t\n\x05\x46RONT\x10\x02\x12\x12\n\x0e\x41UTO_DIRECTION\x10\x03*\x7f\n\rAudioCategory\x12\x1e\n\x1a\x41UDIO_CATEGORY_UNSPECIFIED\x10\x00\x12\x19\n\x15\x41UDIO_CATEGORY_EFFECT\x10\x01\x12\x18\n\x14\x41UDIO_CATEGORY_MUSIC\x10\x02\x12\x19\n\x15\x41UDIO_CATEGORY_SPEECH\x10\x03*{\n\x11PlaybackEventType\x12#\n\x1fPLAYBACK_EVENT_TYPE_UNSPECIFIED\x10\x00\x12\x14\n\x10PLAYBACK_STARTED\x10\x01\x12\x15\n\x11PLAYBACK_FINISHED\x10\x02\x12\x14\n\x10PLAYBACK_STOPPED\x10\x03\x32\xd2\x01\n\x14\x43onfigurationService\x12S\n\x0cGetIPAddress\x12 .sotagrpc.v1.GetIPAddressRequest\x1a!.sotagrpc.v1.GetIPAddressResponse\x12\x65\n\x12GetFirmwareVersion\x12&.sotagrpc.v1.GetFirmwareVersionRequest\x1a\'.sotagrpc.v1.GetFirmwareVersionResponse2\xcf\t\n\rMotionService\x12\x44\n\x07ServoOn\x12\x1b.sotagrpc.v1.ServoOnRequest\x1a\x1c.sotagrpc.v1.ServoOnResponse\x12G\n\x08ServoOff\x12\x1c.sotagrpc.v1.ServoOffRequest\x1a\x1d.sotagrpc.v1.ServoOffResponse\x12G\n\x08PlayPose\x12\x1c.sotagrpc.v1.PlayPoseRequest\x1a\x1d.sotagrpc.v1.PlayPoseResponse\x12G\n\x0eGetCurrentPose\x12\".sotagrpc.v1.GetCurrentPoseRequest\x1a\x11.sotagrpc.v1.Pose\x12V\n\rIsEndInterAll\x12!.sotagrpc.v1.IsEndInterAllRequest\x1a\".sotagrpc.v1.IsEndInterAllResponse\x12Y\n\x0eGetPowerStatus\x12\".sotagrpc.v1.GetPowerStatusRequest\x1a#.sotagrpc.v1.GetPowerStatusResponse\x12Y\n\x0eGetButtonState\x12\".sotagrpc.v1.GetButtonStateRequest\x1a#.sotagrpc.v1.GetButtonStateResponse\x12n\n\x15SetCollisionDetection\x12).sotagrpc.v1.SetCollisionDetectionRequest\x1a*.sotagrpc.v1.SetCollisionDetectionResponse\x12k\n\x14SetMouthLedVoiceSync\x12(.sotagrpc.v1.SetMouthLedVoiceSyncRequest\x1a).sotagrpc.v1.SetMouthLedVoiceSyncResponse\x12Y\n\x13SubscribeRobotState\x12\'.sotagrpc.v1.SubscribeRobotStateRequest\x1a\x17.sotagrpc.v1.RobotState0\x01\x12\x45\n\x0bStreamPoses\x12\x17.sotagrpc.v1.PoseTarget\x1a\x19.sotagrpc.v1.PoseFeedback(\x01\x30\x01\x12J\n\x0bWatchMotion\x12\x1f.sotagrpc.v1.WatchMotionRequest\x1a\x18.sotagrpc.v1.MotionEvent0\x01\x12\x61\n\x13\x41\x63quireControlLease\x12\'.sotagrpc.v1.AcquireControlLeaseRequest\x1a!.sotagrpc.v1.ControlLeaseResponse\x12\x61\n\x13ReleaseControlLease\x12\'.sotagrpc.v1.ReleaseControlLeaseRequest\x1a!.sotagrpc.v1.ControlLeaseResponse2\xf1\x05\n\x0fPlaybackService\x12J\n\tPlayAudio\x12\x1d.sotagrpc.v1.PlayAudioRequest\x1a\x1e.sotagrpc.v1.PlayAudioResponse\x12P\n\x0fPlayAudioStream\x12\x1b.sotagrpc.v1.PlayAudioChunk\x1a\x1e.sotagrpc.v1.PlayAudioResponse(\x01\x12T\n\x0ePlayLocalAudio\x12\".sotagrpc.v1.PlayLocalAudioRequest\x1a\x1e.sotagrpc.v1.PlayAudioResponse\x12P\n\x0bUploadAudio\x12\x1d.sotagrpc.v1.UploadAudioChunk\x1a .sotagrpc.v1.UploadAudioResponse(\x01\x12V\n\x0fPlayStoredAudio\x12#.sotagrpc.v1.PlayStoredAudioRequest\x1a\x1e.sotagrpc.v1.PlayAudioResponse\x12G\n\x08HasAudio\x12\x1c.sotagrpc.v1.HasAudioRequest\x1a\x1d.sotagrpc.v1.HasAudioResponse\x12J\n\tStopAudio\x12\x1d.sotagrpc.v1.StopAudioRequest\x1a\x1e.sotagrpc.v1.StopAudioResponse\x12Y\n\x0eIsAudioPlaying\x12\".sotagrpc.v1.IsAudioPlayingRequest\x1a#.sotagrpc.v1.IsAudioPlayingResponse\x12P\n\rWatchPlayback\x12!.sotagrpc.v1.WatchPlaybackRequest\x1a\x1a.sotagrpc.v1.PlaybackEvent0\x01\x32\xea\x02\n\x10RecordingService\x12Y\n\x0eStartRecording\x12\".sotagrpc.v1.StartRecordingRequest\x1a#.sotagrpc.v1.StartRecordingResponse\x12V\n\rStopRecording\x12!.sotagrpc.v1.StopRecordingRequest\x1a\".sotagrpc.v1.StopRecordingResponse\x12P\n\x0bIsRecording\x12\x1f.sotagrpc.v1.IsRecordingRequest\x1a .sotagrpc.v1.IsRecordingResponse\x12Q\n\x0fStreamRecording\x12#.sotagrpc.v1.StreamRecordingRequest\x1a\x17.sotagrpc.v1.AudioFrame0\x01\x32\xbe\x01\n\x15IntelligentMicService\x12J\n\x07SetMode\x12\x1e.sotagrpc.v1.SetMicModeRequest\x1a\x1f.sotagrpc.v1.SetMicModeResponse\x12Y\n\x0eGetSoundSource\x12\".sotagrpc.v1.GetSoundSourceRequest\x1a#.sotagrpc.v1.GetSoundSourceResponseB#\n\x1fnet.keimag.sotagrpc.v1.robotlibP\x01\x62\x06proto3')
 
 _globals = globals()
 _builder.BuildMessageAndEnumDescriptors(DESCRIPTOR, _globals)
@@ -32,10 +32,16 @@ _builder.BuildTopDescriptorsAndMessages(DESCRIPTOR, 'sotagrpc.v1.robotlib_pb2',
 if not _descriptor._USE_C_DESCRIPTORS:
   _globals['DESCRIPTOR']._loaded_options = None
   _globals['DESCRIPTOR']._serialized_options = b'\n\037net.keimag.sotagrpc.v1.robotlibP\001'
-  _globals['_SERVOID']._serialized_start=2339
-  _globals['_SERVOID']._serialized_end=2480
-  _globals['_MICMODE']._serialized_start=2482
-  _globals['_MICMODE']._serialized_end=2560
+  _globals['_SERVOID']._serialized_start=4303
+  _globals['_SERVOID']._serialized_end=4444
+  _globals['_MOTIONEVENTTYPE']._serialized_start=4447
+  _globals['_MOTIONEVENTTYPE']._serialized_end=4581
+  _globals['_MICMODE']._serialized_start=4583
+  _globals['_MICMODE']._serialized_end=4661
+  _globals['_AUDIOCATEGORY']._serialized_start=4663
+  _globals['_AUDIOCATEGORY']._serialized_end=4790
+  _globals['_PLAYBACKEVENTTYPE']._serialized_start=4792
+  _globals['_PLAYBACKEVENTTYPE']._serialized_end=4915
   _globals['_GETIPADDRESSREQUEST']._serialized_start=43
   _globals['_GETIPADDRESSREQUEST']._serialized_end=64
   _globals['_GETIPADDRESSRESPONSE']._serialized_start=66
@@ -63,75 +69,113 @@ if not _descriptor._USE_C_DESCRIPTORS:
   _globals['_PLAYPOSEREQUEST']._serialized_start=652
   _globals['_PLAYPOSEREQUEST']._serialized_end=757
   _globals['_PLAYPOSERESPONSE']._serialized_start=759
-  _globals['_PLAYPOSERESPONSE']._serialized_end=794
-  _globals['_GETCURRENTPOSEREQUEST']._serialized_start=796
-  _globals['_GETCURRENTPOSEREQUEST']._serialized_end=819
-  _globals['_ISENDINTERALLREQUEST']._serialized_start=821
-  _globals['_ISENDINTERALLREQUEST']._serialized_end=881
-  _globals['_ISENDINTERALLRESPONSE']._serialized_start=883
-  _globals['_ISENDINTERALLRESPONSE']._serialized_end=932
-  _globals['_GETPOWERSTATUSREQUEST']._serialized_start=934
-  _globals['_GETPOWERSTATUSREQUEST']._serialized_end=957
-  _globals['_GETPOWERSTATUSRESPONSE']._serialized_start=959
-  _globals['_GETPOWERSTATUSRESPONSE']._serialized_end=1032
-  _globals['_GETBUTTONSTATEREQUEST']._serialized_start=1034
-  _globals['_GETBUTTONSTATEREQUEST']._serialized_end=1057
-  _globals['_GETBUTTONSTATERESPONSE']._serialized_start=1059
-  _globals['_GETBUTTONSTATERESPONSE']._serialized_end=1165
-  _globals['_SETCOLLISIONDETECTIONREQUEST']._serialized_start=1167
-  _globals['_SETCOLLISIONDETECTIONREQUEST']._serialized_end=1214
-  _globals['_SETCOLLISIONDETECTIONRESPONSE']._serialized_start=1216
-  _globals['_SETCOLLISIONDETECTIONRESPONSE']._serialized_end=1247
-  _globals['_SETMOUTHLEDVOICESYNCREQUEST']._serialized_start=1249
-  _globals['_SETMOUTHLEDVOICESYNCREQUEST']._serialized_end=1295
-  _globals['_SETMOUTHLEDVOICESYNCRESPONSE']._serialized_start=1297
-  _globals['_SETMOUTHLEDVOICESYNCRESPONSE']._serialized_end=1327
-  _globals['_STARTRECORDINGREQUEST']._serialized_start=1329
-  _globals['_STARTRECORDINGREQUEST']._serialized_end=1373
-  _globals['_STARTRECORDINGRESPONSE']._serialized_start=1375
-  _globals['_STARTRECORDINGRESPONSE']._serialized_end=1416
-  _globals['_STOPRECORDINGREQUEST']._serialized_start=1418
-  _globals['_STOPRECORDINGREQUEST']._serialized_end=1440
-  _globals['_STOPRECORDINGRESPONSE']._serialized_start=1442
-  _globals['_STOPRECORDINGRESPONSE']._serialized_end=1485
-  _globals['_ISRECORDINGREQUEST']._serialized_start=1487
-  _globals['_ISRECORDINGREQUEST']._serialized_end=1507
-  _globals['_ISRECORDINGRESPONSE']._serialized_start=1509
-  _globals['_ISRECORDINGRESPONSE']._serialized_end=1552
-  _globals['_SETMICMODEREQUEST']._serialized_start=1554
-  _globals['_SETMICMODEREQUEST']._serialized_end=1609
-  _globals['_SETMICMODERESPONSE']._serialized_start=1611
-  _globals['_SETMICMODERESPONSE']._serialized_end=1631
-  _globals['_GETSOUNDSOURCEREQUEST']._serialized_start=1633
-  _globals['_GETSOUNDSOURCEREQUEST']._serialized_end=1656
-  _globals['_GETSOUNDSOURCERESPONSE']._serialized_start=1658
-  _globals['_GETSOUNDSOURCERESPONSE']._serialized_end=1732
-  _globals['_PLAYAUDIOREQUEST']._serialized_start=1735
-  _globals['_PLAYAUDIOREQUEST']._serialized_end=1869
-  _globals['_PLAYLOCALAUDIOREQUEST']._serialized_start=1871
-  _globals['_PLAYLOCALAUDIOREQUEST']._serialized_end=1976
-  _globals['_PLAYAUDIORESPONSE']._serialized_start=1978
-  _globals['_PLAYAUDIORESPONSE']._serialized_end=2035
-  _globals['_SAVEAUDIOTOLOCALREQUEST']._serialized_start=2037
-  _globals['_SAVEAUDIOTOLOCALREQUEST']._serialized_end=2100
-  _globals['_REQUESTSTATUS']._serialized_start=2102
-  _globals['_REQUESTSTATUS']._serialized_end=2140
-  _globals['_STOPAUDIOREQUEST']._serialized_start=2142
-  _globals['_STOPAUDIOREQUEST']._serialized_end=2202
-  _globals['_STOPAUDIORESPONSE']._serialized_start=2204
-  _globals['_STOPAUDIORESPONSE']._serialized_end=2223
-  _globals['_ISAUDIOPLAYINGREQUEST']._serialized_start=2225
-  _globals['_ISAUDIOPLAYINGREQUEST']._serialized_end=2290
-  _globals['_ISAUDIOPLAYINGRESPONSE']._serialized_start=2292
-  _globals['_ISAUDIOPLAYINGRESPONSE']._serialized_end=2336
-  _globals['_CONFIGURATIONSERVICE']._serialized_start=2563
-  _globals['_CONFIGURATIONSERVICE']._serialized_end=2773
-  _globals['_MOTIONSERVICE']._serialized_start=2776
-  _globals['_MOTIONSERVICE']._serialized_end=3571
-  _globals['_PLAYBACKSERVICE']._serialized_start=3574
-  _globals['_PLAYBACKSERVICE']._serialized_end=3920
-  _globals['_RECORDINGSERVICE']._serialized_start=3923
-  _globals['_RECORDINGSERVICE']._serialized_end=4202
-  _globals['_INTELLIGENTMICSERVICE']._serialized_start=4205
-  _globals['_INTELLIGENTMICSERVICE']._serialized_end=4395
+  _globals['_PLAYPOSERESPONSE']._serialized_end=813
+  _globals['_GETCURRENTPOSEREQUEST']._serialized_start=815
+  _globals['_GETCURRENTPOSEREQUEST']._serialized_end=890
+  _globals['_ISENDINTERALLREQUEST']._serialized_start=892
+  _globals['_ISENDINTERALLREQUEST']._serialized_end=952
+  _globals['_ISENDINTERALLRESPONSE']._serialized_start=954
+  _globals['_ISENDINTERALLRESPONSE']._serialized_end=1003
+  _globals['_GETPOWERSTATUSREQUEST']._serialized_start=1005
+  _globals['_GETPOWERSTATUSREQUEST']._serialized_end=1080
+  _globals['_GETPOWERSTATUSRESPONSE']._serialized_start=1082
+  _globals['_GETPOWERSTATUSRESPONSE']._serialized_end=1155
+  _globals['_GETBUTTONSTATEREQUEST']._serialized_start=1157
+  _globals['_GETBUTTONSTATEREQUEST']._serialized_end=1232
+  _globals['_GETBUTTONSTATERESPONSE']._serialized_start=1234
+  _globals['_GETBUTTONSTATERESPONSE']._serialized_end=1340
+  _globals['_SETCOLLISIONDETECTIONREQUEST']._serialized_start=1342
+  _globals['_SETCOLLISIONDETECTIONREQUEST']._serialized_end=1389
+  _globals['_SETCOLLISIONDETECTIONRESPONSE']._serialized_start=1391
+  _globals['_SETCOLLISIONDETECTIONRESPONSE']._serialized_end=1422
+  _globals['_SETMOUTHLEDVOICESYNCREQUEST']._serialized_start=1424
+  _globals['_SETMOUTHLEDVOICESYNCREQUEST']._serialized_end=1470
+  _globals['_SETMOUTHLEDVOICESYNCRESPONSE']._serialized_start=1472
+  _globals['_SETMOUTHLEDVOICESYNCRESPONSE']._serialized_end=1502
+  _globals['_WATCHMOTIONREQUEST']._serialized_start=1504
+  _globals['_WATCHMOTIONREQUEST']._serialized_end=1562
+  _globals['_MOTIONEVENT']._serialized_start=1565
+  _globals['_MOTIONEVENT']._serialized_end=1707
+  _globals['_ACQUIRECONTROLLEASEREQUEST']._serialized_start=1709
+  _globals['_ACQUIRECONTROLLEASEREQUEST']._serialized_end=1779
+  _globals['_RELEASECONTROLLEASEREQUEST']._serialized_start=1781
+  _globals['_RELEASECONTROLLEASEREQUEST']._serialized_end=1809
+  _globals['_CONTROLLEASERESPONSE']._serialized_start=1811
+  _globals['_CONTROLLEASERESPONSE']._serialized_end=1889
+  _globals['_SUBSCRIBEROBOTSTATEREQUEST']._serialized_start=1891
+  _globals['_SUBSCRIBEROBOTSTATEREQUEST']._serialized_end=1936
+  _globals['_ROBOTSTATE']._serialized_start=1939
+  _globals['_ROBOTSTATE']._serialized_end=2136
+  _globals['_POSETARGET']._serialized_start=2138
+  _globals['_POSETARGET']._serialized_end=2218
+  _globals['_POSEFEEDBACK']._serialized_start=2220
+  _globals['_POSEFEEDBACK']._serialized_end=2346
+  _globals['_STARTRECORDINGREQUEST']._serialized_start=2348
+  _globals['_STARTRECORDINGREQUEST']._serialized_end=2392
+  _globals['_STARTRECORDINGRESPONSE']._serialized_start=2394
+  _globals['_STARTRECORDINGRESPONSE']._serialized_end=2435
+  _globals['_STOPRECORDINGREQUEST']._serialized_start=2437
+  _globals['_STOPRECORDINGREQUEST']._serialized_end=2459
+  _globals['_STOPRECORDINGRESPONSE']._serialized_start=2461
+  _globals['_STOPRECORDINGRESPONSE']._serialized_end=2504
+  _globals['_ISRECORDINGREQUEST']._serialized_start=2506
+  _globals['_ISRECORDINGREQUEST']._serialized_end=2526
+  _globals['_ISRECORDINGRESPONSE']._serialized_start=2528
+  _globals['_ISRECORDINGRESPONSE']._serialized_end=2571
+  _globals['_STREAMRECORDINGREQUEST']._serialized_start=2573
+  _globals['_STREAMRECORDINGREQUEST']._serialized_end=2643
+  _globals['_AUDIOFRAME']._serialized_start=2645
+  _globals['_AUDIOFRAME']._serialized_end=2760
+  _globals['_SETMICMODEREQUEST']._serialized_start=2762
+  _globals['_SETMICMODEREQUEST']._serialized_end=2817
+  _globals['_SETMICMODERESPONSE']._serialized_start=2819
+  _globals['_SETMICMODERESPONSE']._serialized_end=2839
+  _globals['_GETSOUNDSOURCEREQUEST']._serialized_start=2841
+  _globals['_GETSOUNDSOURCEREQUEST']._serialized_end=2864
+  _globals['_GETSOUNDSOURCERESPONSE']._serialized_start=2866
+  _globals['_GETSOUNDSOURCERESPONSE']._serialized_end=2940
+  _globals['_PLAYAUDIOREQUEST']._serialized_start=2943
+  _globals['_PLAYAUDIOREQUEST']._serialized_end=3169
+  _globals['_PLAYAUDIOCHUNK']._serialized_start=3171
+  _globals['_PLAYAUDIOCHUNK']._serialized_end=3265
+  _globals['_PLAYLOCALAUDIOREQUEST']._serialized_start=3267
+  _globals['_PLAYLOCALAUDIOREQUEST']._serialized_end=3372
+  _globals['_UPLOADAUDIOCHUNK']._serialized_start=3374
+  _globals['_UPLOADAUDIOCHUNK']._serialized_end=3444
+  _globals['_UPLOADAUDIORESPONSE']._serialized_start=3446
+  _globals['_UPLOADAUDIORESPONSE']._serialized_end=3503
+  _globals['_PLAYSTOREDAUDIOREQUEST']._serialized_start=3506
+  _globals['_PLAYSTOREDAUDIOREQUEST']._serialized_end=3696
+  _globals['_HASAUDIOREQUEST']._serialized_start=3698
+  _globals['_HASAUDIOREQUEST']._serialized_end=3732
+  _globals['_HASAUDIORESPONSE']._serialized_start=3734
+  _globals['_HASAUDIORESPONSE']._serialized_end=3768
+  _globals['_PLAYAUDIORESPONSE']._serialized_start=3770
+  _globals['_PLAYAUDIORESPONSE']._serialized_end=3827
+  _globals['_SAVEAUDIOTOLOCALREQUEST']._serialized_start=3829
+  _globals['_SAVEAUDIOTOLOCALREQUEST']._serialized_end=3892
+  _globals['_REQUESTSTATUS']._serialized_start=3894
+  _globals['_REQUESTSTATUS']._serialized_end=3932
+  _globals['_STOPAUDIOREQUEST']._serialized_start=3934
+  _globals['_STOPAUDIOREQUEST']._serialized_end=3994
+  _globals['_STOPAUDIORESPONSE']._serialized_start=3996
+  _globals['_STOPAUDIORESPONSE']._serialized_end=4015
+  _globals['_ISAUDIOPLAYINGREQUEST']._serialized_start=4017
+  _globals['_ISAUDIOPLAYINGREQUEST']._serialized_end=4082
+  _globals['_ISAUDIOPLAYINGRESPONSE']._serialized_start=4084
+  _globals['_ISAUDIOPLAYINGRESPONSE']._serialized_end=4128
+  _globals['_WATCHPLAYBACKREQUEST']._serialized_start=4130
+  _globals['_WATCHPLAYBACKREQUEST']._serialized_end=4194
+  _globals['_PLAYBACKEVENT']._serialized_start=4196
+  _globals['_PLAYBACKEVENT']._serialized_end=4300
+  _globals['_CONFIGURATIONSERVICE']._serialized_start=4918
+  _globals['_CONFIGURATIONSERVICE']._serialized_end=5128
+  _globals['_MOTIONSERVICE']._serialized_start=5131
+  _globals['_MOTIONSERVICE']._serialized_end=6362
+  _globals['_PLAYBACKSERVICE']._serialized_start=6365
+  _globals['_PLAYBACKSERVICE']._serialized_end=7118
+  _globals['_RECORDINGSERVICE']._serialized_start=7121
+  _globals['_RECORDINGSERVICE']._serialized_end=7483
+  _globals['_INTELLIGENTMICSERVICE']._serialized_start=7486
+  _globals['_INTELLIGENTMICSERVICE']._serialized_end=7676
 # @@protoc_insertion_point(module_scope)
@@ -210,6 +210,31 @@ class MotionServiceStub(object):
                 request_serializer=sotagrpc_dot_v1_dot_robotlib__pb2.SetMouthLedVoiceSyncRequest.SerializeToString,
                 response_deserializer=sotagrpc_dot_v1_dot_robotlib__pb2.SetMouthLedVoiceSyncResponse.FromString,
                 _registered_method=True)
+        self.SubscribeRobotState = channel.unary_stream(
+                '/sotagrpc.v1.MotionService/SubscribeRobotState',
+                request_serializer=sotagrpc_dot_v1_dot_robotlib__pb2.SubscribeRobotStateRequest.SerializeToString,
+                response_deserializer=sotagrpc_dot_v1_dot_robotlib__pb2.RobotState.FromString,
+                _registered_method=True)
+        self.StreamPoses = channel.stream_stream(
+                '/sotagrpc.v1.MotionService/StreamPoses',
+                request_serializer=sotagrpc_dot_v1_dot_robotlib__pb2.PoseTarget.SerializeToString,
+                response_deserializer=sotagrpc_dot_v1_dot_robotlib__pb2.PoseFeedback.FromString,
+                _registered_method=True)
+        self.WatchMotion = channel.unary_stream(
+                '/sotagrpc.v1.MotionService/WatchMotion',
+                request_serializer=sotagrpc_dot_v1_dot_robotlib__pb2.WatchMotionRequest.SerializeToString,
+                response_deserializer=sotagrpc_dot_v1_dot_robotlib__pb2.MotionEvent.FromString,
+                _registered_method=True)
+        self.AcquireControlLease = channel.unary_unary(
+                '/sotagrpc.v1.MotionService/AcquireControlLease',
+                request_serializer=sotagrpc_dot_v1_dot_robotlib__pb2.AcquireControlLeaseRequest.SerializeToString,
+                response_deserializer=sotagrpc_dot_v1_dot_robotlib__pb2.ControlLeaseResponse.FromString,
+                _registered_method=True)
+        self.ReleaseControlLease = channel.unary_unary(
+                '/sotagrpc.v1.MotionService/ReleaseControlLease',
+                request_serializer=sotagrpc_dot_v1_dot_robotlib__pb2.ReleaseControlLeaseRequest.SerializeToString,
+                response_deserializer=sotagrpc_dot_v1_dot_robotlib__pb2.ControlLeaseResponse.FromString,
+                _registered_method=True)
 
 
 class MotionServiceServicer(object):
@@ -271,6 +296,42 @@ class MotionServiceServicer(object):
         context.set_details('Method not implemented!')
         raise NotImplementedError('Method not implemented!')
 
+    def SubscribeRobotState(self, request, context):
+        """ポーズ・電源・ボタンの状態を指定した頻度で送り続ける
+        """
+        context.set_code(grpc.StatusCode.UNIMPLEMENTED)
+        context.set_details('Method not implemented!')
+        raise NotImplementedError('Method not implemented!')
+
+    def StreamPoses(self, request_iterator, context):
+        """目標ポーズを送り続け、反映したサーボ角度を受け取る (遠隔操作用)
+        """
+        context.set_code(grpc.StatusCode.UNIMPLEMENTED)
+        context.set_details('Method not implemented!')
+        raise NotImplementedError('Method not implemented!')
+
+    def WatchMotion(self, request, context):
+        """モーションの開始・完了・中断・失敗を通知する
+        """
+        context.set_code(grpc.StatusCode.UNIMPLEMENTED)
+        context.set_details('Method not implemented!')
+        raise NotImplementedError('Method not implemented!')
+
+    def AcquireControlLease(self, request, context):
+        """モーションの操作権 (リース) を取得・延長する。保持している間は、他のクライアントのモーションのコマンドは拒否される
+        (ServoOff・SetCollisionDetectionは拒否されない)
+        """
+        context.set_code(grpc.StatusCode.UNIMPLEMENTED)
+        context.set_details('Method not implemented!')
+        raise NotImplementedError('Method not implemented!')
+
+    def ReleaseControlLease(self, request, context):
+        """モーションの操作権を返す
+        """
+        context.set_code(grpc.StatusCode.UNIMPLEMENTED)
+        context.set_details('Method not implemented!')
+        raise NotImplementedError('Method not implemented!')
+
 
 def add_MotionServiceServicer_to_server(servicer, server):
     rpc_method_handlers = {
@@ -319,6 +380,31 @@ def add_MotionServiceServicer_to_server(servicer, server):
                     request_deserializer=sotagrpc_dot_v1_dot_robotlib__pb2.SetMouthLedVoiceSyncRequest.FromString,
                     response_serializer=sotagrpc_dot_v1_dot_robotlib__pb2.SetMouthLedVoiceSyncResponse.SerializeToString,
             ),
+            'SubscribeRobotState': grpc.unary_stream_rpc_method_handler(
+                    servicer.SubscribeRobotState,
+                    request_deserializer=sotagrpc_dot_v1_dot_robotlib__pb2.SubscribeRobotStateRequest.FromString,
+                    response_serializer=sotagrpc_dot_v1_dot_robotlib__pb2.RobotState.SerializeToString,
+            ),
+            'StreamPoses': grpc.stream_stream_rpc_method_handler(
+                    servicer.StreamPoses,
+                    request_deserializer=sotagrpc_dot_v1_dot_robotlib__pb2.PoseTarget.FromString,
+                    response_serializer=sotagrpc_dot_v1_dot_robotlib__pb2.PoseFeedback.SerializeToString,
+            ),
+            'WatchMotion': grpc.unary_stream_rpc_method_handler(
+                    servicer.WatchMotion,
+                    request_deserializer=sotagrpc_dot_v1_dot_robotlib__pb2.WatchMotionRequest.FromString,
+                    response_serializer=sotagrpc_dot_v1_dot_robotlib__pb2.MotionEvent.SerializeToString,
+            ),
+            'AcquireControlLease': grpc.unary_unary_rpc_method_handler(
+                    servicer.AcquireControlLease,
+                    request_deserializer=sotagrpc_dot_v1_dot_robotlib__pb2.AcquireControlLeaseRequest.FromString,
+                    response_serializer=sotagrpc_dot_v1_dot_robotlib__pb2.ControlLeaseResponse.SerializeToString,
+            ),
+            'ReleaseControlLease': grpc.unary_unary_rpc_method_handler(
+                    servicer.ReleaseControlLease,
+                    request_deserializer=sotagrpc_dot_v1_dot_robotlib__pb2.ReleaseControlLeaseRequest.FromString,
+                    response_serializer=sotagrpc_dot_v1_dot_robotlib__pb2.ControlLeaseResponse.SerializeToString,
+            ),
     }
     generic_handler = grpc.method_handlers_generic_handler(
             'sotagrpc.v1.MotionService', rpc_method_handlers)
@@ -574,6 +660,141 @@ class MotionService(object):
             metadata,
             _registered_method=True)
 
+    @staticmethod
+    def SubscribeRobotState(request,
+            target,
+            options=(),
+            channel_credentials=None,
+            call_credentials=None,
+            insecure=False,
+            compression=None,
+            wait_for_ready=None,
+            timeout=None,
+            metadata=None):
+        return grpc.experimental.unary_stream(
+            request,
+            target,
+            '/sotagrpc.v1.MotionService/SubscribeRobotState',
+            sotagrpc_dot_v1_dot_robotlib__pb2.SubscribeRobotStateRequest.SerializeToString,
+            sotagrpc_dot_v1_dot_robotlib__pb2.RobotState.FromString,
+            options,
+            channel_credentials,
+            insecure,
+            call_credentials,
+            compression,
+            wait_for_ready,
+            timeout,
+            metadata,
+            _registered_method=True)
+
+    @staticmethod
+    def StreamPoses(request_iterator,
+            target,
+            options=(),
+            channel_credentials=None,
+            call_credentials=None,
+            insecure=False,
+            compression=None,
+            wait_for_ready=None,
+            timeout=None,
+            metadata=None):
+        return grpc.experimental.stream_stream(
+            request_iterator,
+            target,
+            '/sotagrpc.v1.MotionService/StreamPoses',
+            sotagrpc_dot_v1_dot_robotlib__pb2.PoseTarget.SerializeToString,
+            sotagrpc_dot_v1_dot_robotlib__pb2.PoseFeedback.FromString,
+            options,
+            channel_credentials,
+            insecure,
+            call_credentials,
+            compression,
+            wait_for_ready,
+            timeout,
+            metadata,
+            _registered_method=True)
+
+    @staticmethod
+    def WatchMotion(request,
+            target,
+            options=(),
+            channel_credentials=None,
+            call_credentials=None,
+            insecure=False,
+            compression=None,
+            wait_for_ready=None,
+            timeout=None,
+            metadata=None):
+        return grpc.experimental.unary_stream(
+            request,
+            target,
+            '/sotagrpc.v1.MotionService/WatchMotion',
+            sotagrpc_dot_v1_dot_robotlib__pb2.WatchMotionRequest.SerializeToString,
+            sotagrpc_dot_v1_dot_robotlib__pb2.MotionEvent.FromString,
+            options,
+            channel_credentials,
+            insecure,
+            call_credentials,
+            compression,
+            wait_for_ready,
+            timeout,
+            metadata,
+            _registered_method=True)
+
+    @staticmethod
+    def AcquireControlLease(request,
+            target,
+            options=(),
+            channel_credentials=None,
+            call_credentials=None,
+            insecure=False,
+            compression=None,
+            wait_for_ready=None,
+            timeout=None,
+            metadata=None):
+        return grpc.experimental.unary_unary(
+            request,
+            target,
+            '/sotagrpc.v1.MotionService/AcquireControlLease',
+            sotagrpc_dot_v1_dot_robotlib__pb2.AcquireControlLeaseRequest.SerializeToString,
+            sotagrpc_dot_v1_dot_robotlib__pb2.ControlLeaseResponse.FromString,
+            options,
+            channel_credentials,
+            insecure,
+            call_credentials,
+            compression,
+            wait_for_ready,
+            timeout,
+            metadata,
+            _registered_method=True)
+
+    @staticmethod
+    def ReleaseControlLease(request,
+            target,
+            options=(),
+            channel_credentials=None,
+            call_credentials=None,
+            insecure=False,
+            compression=None,
+            wait_for_ready=None,
+            timeout=None,
+            metadata=None):
+        return grpc.experimental.unary_unary(
+            request,
+            target,
+            '/sotagrpc.v1.MotionService/ReleaseControlLease',
+            sotagrpc_dot_v1_dot_robotlib__pb2.ReleaseControlLeaseRequest.SerializeToString,
+            sotagrpc_dot_v1_dot_robotlib__pb2.ControlLeaseResponse.FromString,
+            options,
+            channel_credentials,
+            insecure,
+            call_credentials,
+            compression,
+            wait_for_ready,
+            timeout,
+            metadata,
+            _registered_method=True)
+
 
 class PlaybackServiceStub(object):
     """CPlayWave の機能を提供
@@ -590,11 +811,31 @@ class PlaybackServiceStub(object):
                 request_serializer=sotagrpc_dot_v1_dot_robotlib__pb2.PlayAudioRequest.SerializeToString,
                 response_deserializer=sotagrpc_dot_v1_dot_robotlib__pb2.PlayAudioResponse.FromString,
                 _registered_method=True)
+        self.PlayAudioStream = channel.stream_unary(
+                '/sotagrpc.v1.PlaybackService/PlayAudioStream',
+                request_serializer=sotagrpc_dot_v1_dot_robotlib__pb2.PlayAudioChunk.SerializeToString,
+                response_deserializer=sotagrpc_dot_v1_dot_robotlib__pb2.PlayAudioResponse.FromString,
+                _registered_method=True)
         self.PlayLocalAudio = channel.unary_unary(
                 '/sotagrpc.v1.PlaybackService/PlayLocalAudio',
                 request_serializer=sotagrpc_dot_v1_dot_robotlib__pb2.PlayLocalAudioRequest.SerializeToString,
                 response_deserializer=sotagrpc_dot_v1_dot_robotlib__pb2.PlayAudioResponse.FromString,
                 _registered_method=True)
+        self.UploadAudio = channel.stream_unary(
+                '/sotagrpc.v1.PlaybackService/UploadAudio',
+                request_serializer=sotagrpc_dot_v1_dot_robotlib__pb2.UploadAudioChunk.SerializeToString,
+                response_deserializer=sotagrpc_dot_v1_dot_robotlib__pb2.UploadAudioResponse.FromString,
+                _registered_method=True)
+        self.PlayStoredAudio = channel.unary_unary(
+                '/sotagrpc.v1.PlaybackService/PlayStoredAudio',
+                request_serializer=sotagrpc_dot_v1_dot_robotlib__pb2.PlayStoredAudioRequest.SerializeToString,
+                response_deserializer=sotagrpc_dot_v1_dot_robotlib__pb2.PlayAudioResponse.FromString,
+                _registered_method=True)
+        self.HasAudio = channel.unary_unary(
+                '/sotagrpc.v1.PlaybackService/HasAudio',
+                request_serializer=sotagrpc_dot_v1_dot_robotlib__pb2.HasAudioRequest.SerializeToString,
+                response_deserializer=sotagrpc_dot_v1_dot_robotlib__pb2.HasAudioResponse.FromString,
+                _registered_method=True)
         self.StopAudio = channel.unary_unary(
                 '/sotagrpc.v1.PlaybackService/StopAudio',
                 request_serializer=sotagrpc_dot_v1_dot_robotlib__pb2.StopAudioRequest.SerializeToString,
@@ -605,6 +846,11 @@ class PlaybackServiceStub(object):
                 request_serializer=sotagrpc_dot_v1_dot_robotlib__pb2.IsAudioPlayingRequest.SerializeToString,
                 response_deserializer=sotagrpc_dot_v1_dot_robotlib__pb2.IsAudioPlayingResponse.FromString,
                 _registered_method=True)
+        self.WatchPlayback = channel.unary_stream(
+                '/sotagrpc.v1.PlaybackService/WatchPlayback',
+                request_serializer=sotagrpc_dot_v1_dot_robotlib__pb2.WatchPlaybackRequest.SerializeToString,
+                response_deserializer=sotagrpc_dot_v1_dot_robotlib__pb2.PlaybackEvent.FromString,
+                _registered_method=True)
 
 
 class PlaybackServiceServicer(object):
@@ -618,6 +864,13 @@ class PlaybackServiceServicer(object):
         context.set_details('Method not implemented!')
         raise NotImplementedError('Method not implemented!')
 
+    def PlayAudioStream(self, request_iterator, context):
+        """音声データ(wav)を分割して送り、受信しながら再生する (大きな音声データ向け)
+        """
+        context.set_code(grpc.StatusCode.UNIMPLEMENTED)
+        context.set_details('Method not implemented!')
+        raise NotImplementedError('Method not implemented!')
+
     def PlayLocalAudio(self, request, context):
         """Sotaローカルに保存された音声データ(wav)を再生し、再生IDを返す
         """
@@ -625,10 +878,31 @@ class PlaybackServiceServicer(object):
         context.set_details('Method not implemented!')
         raise NotImplementedError('Method not implemented!')
 
-    def StopAudio(self, request, context):
+    def UploadAudio(self, request_iterator, context):
         """rpc SaveAudioToLocal(SaveAudioToLocalRequest) returns RequestStatus;
 
-        指定したIDの音声再生を停止する
+        音声データ(wav)を分割して送り、Sotaに保存する (内容のSHA-256をダイジェストとして返す)
+        """
+        context.set_code(grpc.StatusCode.UNIMPLEMENTED)
+        context.set_details('Method not implemented!')
+        raise NotImplementedError('Method not implemented!')
+
+    def PlayStoredAudio(self, request, context):
+        """UploadAudioで保存した音声データを、ダイジェストを指定して再生し、再生IDを返す
+        """
+        context.set_code(grpc.StatusCode.UNIMPLEMENTED)
+        context.set_details('Method not implemented!')
+        raise NotImplementedError('Method not implemented!')
+
+    def HasAudio(self, request, context):
+        """指定したダイジェストの音声データが保存されているかをまとめて確認する
+        """
+        context.set_code(grpc.StatusCode.UNIMPLEMENTED)
+        context.set_details('Method not implemented!')
+        raise NotImplementedError('Method not implemented!')
+
+    def StopAudio(self, request, context):
+        """指定したIDの音声再生を停止する
         """
         context.set_code(grpc.StatusCode.UNIMPLEMENTED)
         context.set_details('Method not implemented!')
@@ -641,6 +915,13 @@ class PlaybackServiceServicer(object):
         context.set_details('Method not implemented!')
         raise NotImplementedError('Method not implemented!')
 
+    def WatchPlayback(self, request, context):
+        """音声再生の開始・完了・停止の通知を受け取る (IsAudioPlayingのポーリングの代わり)
+        """
+        context.set_code(grpc.StatusCode.UNIMPLEMENTED)
+        context.set_details('Method not implemented!')
+        raise NotImplementedError('Method not implemented!')
+
 
 def add_PlaybackServiceServicer_to_server(servicer, server):
     rpc_method_handlers = {
@@ -649,11 +930,31 @@ def add_PlaybackServiceServicer_to_server(servicer, server):
                     request_deserializer=sotagrpc_dot_v1_dot_robotlib__pb2.PlayAudioRequest.FromString,
                     response_serializer=sotagrpc_dot_v1_dot_robotlib__pb2.PlayAudioResponse.SerializeToString,
             ),
+            'PlayAudioStream': grpc.stream_unary_rpc_method_handler(
+                    servicer.PlayAudioStream,
+                    request_deserializer=sotagrpc_dot_v1_dot_robotlib__pb2.PlayAudioChunk.FromString,
+                    response_serializer=sotagrpc_dot_v1_dot_robotlib__pb2.PlayAudioResponse.SerializeToString,
+            ),
             'PlayLocalAudio': grpc.unary_unary_rpc_method_handler(
                     servicer.PlayLocalAudio,
                     request_deserializer=sotagrpc_dot_v1_dot_robotlib__pb2.PlayLocalAudioRequest.FromString,
                     response_serializer=sotagrpc_dot_v1_dot_robotlib__pb2.PlayAudioResponse.SerializeToString,
             ),
+            'UploadAudio': grpc.stream_unary_rpc_method_handler(
+                    servicer.UploadAudio,
+                    request_deserializer=sotagrpc_dot_v1_dot_robotlib__pb2.UploadAudioChunk.FromString,
+                    response_serializer=sotagrpc_dot_v1_dot_robotlib__pb2.UploadAudioResponse.SerializeToString,
+            ),
+            'PlayStoredAudio': grpc.unary_unary_rpc_method_handler(
+                    servicer.PlayStoredAudio,
+                    request_deserializer=sotagrpc_dot_v1_dot_robotlib__pb2.PlayStoredAudioRequest.FromString,
+                    response_serializer=sotagrpc_dot_v1_dot_robotlib__pb2.PlayAudioResponse.SerializeToString,
+            ),
+            'HasAudio': grpc.unary_unary_rpc_method_handler(
+                    servicer.HasAudio,
+                    request_deserializer=sotagrpc_dot_v1_dot_robotlib__pb2.HasAudioRequest.FromString,
+                    response_serializer=sotagrpc_dot_v1_dot_robotlib__pb2.HasAudioResponse.SerializeToString,
+            ),
             'StopAudio': grpc.unary_unary_rpc_method_handler(
                     servicer.StopAudio,
                     request_deserializer=sotagrpc_dot_v1_dot_robotlib__pb2.StopAudioRequest.FromString,
@@ -664,6 +965,11 @@ def add_PlaybackServiceServicer_to_server(servicer, server):
                     request_deserializer=sotagrpc_dot_v1_dot_robotlib__pb2.IsAudioPlayingRequest.FromString,
                     response_serializer=sotagrpc_dot_v1_dot_robotlib__pb2.IsAudioPlayingResponse.SerializeToString,
             ),
+            'WatchPlayback': grpc.unary_stream_rpc_method_handler(
+                    servicer.WatchPlayback,
+                    request_deserializer=sotagrpc_dot_v1_dot_robotlib__pb2.WatchPlaybackRequest.FromString,
+                    response_serializer=sotagrpc_dot_v1_dot_robotlib__pb2.PlaybackEvent.SerializeToString,
+            ),
     }
     generic_handler = grpc.method_handlers_generic_handler(
             'sotagrpc.v1.PlaybackService', rpc_method_handlers)
@@ -703,6 +1009,33 @@ class PlaybackService(object):
             metadata,
             _registered_method=True)
 
+    @staticmethod
+    def PlayAudioStream(request_iterator,
+            target,
+            options=(),
+            channel_credentials=None,
+            call_credentials=None,
+            insecure=False,
+            compression=None,
+            wait_for_ready=None,
+            timeout=None,
+            metadata=None):
+        return grpc.experimental.stream_unary(
+            request_iterator,
+            target,
+            '/sotagrpc.v1.PlaybackService/PlayAudioStream',
+            sotagrpc_dot_v1_dot_robotlib__pb2.PlayAudioChunk.SerializeToString,
+            sotagrpc_dot_v1_dot_robotlib__pb2.PlayAudioResponse.FromString,
+            options,
+            channel_credentials,
+            insecure,
+            call_credentials,
+            compression,
+            wait_for_ready,
+            timeout,
+            metadata,
+            _registered_method=True)
+
     @staticmethod
     def PlayLocalAudio(request,
             target,
@@ -730,6 +1063,87 @@ class PlaybackService(object):
             metadata,
             _registered_method=True)
 
+    @staticmethod
+    def UploadAudio(request_iterator,
+            target,
+            options=(),
+            channel_credentials=None,
+            call_credentials=None,
+            insecure=False,
+            compression=None,
+            wait_for_ready=None,
+            timeout=None,
+            metadata=None):
+        return grpc.experimental.stream_unary(
+            request_iterator,
+            target,
+            '/sotagrpc.v1.PlaybackService/UploadAudio',
+            sotagrpc_dot_v1_dot_robotlib__pb2.UploadAudioChunk.SerializeToString,
+            sotagrpc_dot_v1_dot_robotlib__pb2.UploadAudioResponse.FromString,
+            options,
+            channel_credentials,
+            insecure,
+            call_credentials,
+            compression,
+            wait_for_ready,
+            timeout,
+            metadata,
+            _registered_method=True)
+
+    @staticmethod
+    def PlayStoredAudio(request,
+            target,
+            options=(),
+            channel_credentials=None,
+            call_credentials=None,
+            insecure=False,
+            compression=None,
+            wait_for_ready=None,
+            timeout=None,
+            metadata=None):
+        return grpc.experimental.unary_unary(
+            request,
+            target,
+            '/sotagrpc.v1.PlaybackService/PlayStoredAudio',
+            sotagrpc_dot_v1_dot_robotlib__pb2.PlayStoredAudioRequest.SerializeToString,
+            sotagrpc_dot_v1_dot_robotlib__pb2.PlayAudioResponse.FromString,
+            options,
+            channel_credentials,
+            insecure,
+            call_credentials,
+            compression,
+            wait_for_ready,
+            timeout,
+            metadata,
+            _registered_method=True)
+
+    @staticmethod
+    def HasAudio(request,
+            target,
+            options=(),
+            channel_credentials=None,
+            call_credentials=None,
+            insecure=False,
+            compression=None,
+            wait_for_ready=None,
+            timeout=None,
+            metadata=None):
+        return grpc.experimental.unary_unary(
+            request,
+            target,
+            '/sotagrpc.v1.PlaybackService/HasAudio',
+            sotagrpc_dot_v1_dot_robotlib__pb2.HasAudioRequest.SerializeToString,
+            sotagrpc_dot_v1_dot_robotlib__pb2.HasAudioResponse.FromString,
+            options,
+            channel_credentials,
+            insecure,
+            call_credentials,
+            compression,
+            wait_for_ready,
+            timeout,
+            metadata,
+            _registered_method=True)
+
     @staticmethod
     def StopAudio(request,
             target,
@@ -784,6 +1198,33 @@ class PlaybackService(object):
             metadata,
             _registered_method=True)
 
+    @staticmethod
+    def WatchPlayback(request,
+            target,
+            options=(),
+            channel_credentials=None,
+            call_credentials=None,
+            insecure=False,
+            compression=None,
+            wait_for_ready=None,
+            timeout=None,
+            metadata=None):
+        return grpc.experimental.unary_stream(
+            request,
+            target,
+            '/sotagrpc.v1.PlaybackService/WatchPlayback',
+            sotagrpc_dot_v1_dot_robotlib__pb2.WatchPlaybackRequest.SerializeToString,
+            sotagrpc_dot_v1_dot_robotlib__pb2.PlaybackEvent.FromString,
+            options,
+            channel_credentials,
+            insecure,
+            call_credentials,
+            compression,
+            wait_for_ready,
+            timeout,
+            metadata,
+            _registered_method=True)
+
 
 class RecordingServiceStub(object):
     """(RecordingServiceとIntelligentMicServiceは変更なし)
@@ -810,6 +1251,11 @@ class RecordingServiceStub(object):
                 request_serializer=sotagrpc_dot_v1_dot_robotlib__pb2.IsRecordingRequest.SerializeToString,
                 response_deserializer=sotagrpc_dot_v1_dot_robotlib__pb2.IsRecordingResponse.FromString,
                 _registered_method=True)
+        self.StreamRecording = channel.unary_stream(
+                '/sotagrpc.v1.RecordingService/StreamRecording',
+                request_serializer=sotagrpc_dot_v1_dot_robotlib__pb2.StreamRecordingRequest.SerializeToString,
+                response_deserializer=sotagrpc_dot_v1_dot_robotlib__pb2.AudioFrame.FromString,
+                _registered_method=True)
 
 
 class RecordingServiceServicer(object):
@@ -834,6 +1280,13 @@ class RecordingServiceServicer(object):
         context.set_details('Method not implemented!')
         raise NotImplementedError('Method not implemented!')
 
+    def StreamRecording(self, request, context):
+        """マイクの音声をPCMのまま少しずつ受け取る (録音を止める前から処理を始められる)
+        """
+        context.set_code(grpc.StatusCode.UNIMPLEMENTED)
+        context.set_details('Method not implemented!')
+        raise NotImplementedError('Method not implemented!')
+
 
 def add_RecordingServiceServicer_to_server(servicer, server):
     rpc_method_handlers = {
@@ -852,6 +1305,11 @@ def add_RecordingServiceServicer_to_server(servicer, server):
                     request_deserializer=sotagrpc_dot_v1_dot_robotlib__pb2.IsRecordingRequest.FromString,
                     response_serializer=sotagrpc_dot_v1_dot_robotlib__pb2.IsRecordingResponse.SerializeToString,
             ),
+            'StreamRecording': grpc.unary_stream_rpc_method_handler(
+                    servicer.StreamRecording,
+                    request_deserializer=sotagrpc_dot_v1_dot_robotlib__pb2.StreamRecordingRequest.FromString,
+                    response_serializer=sotagrpc_dot_v1_dot_robotlib__pb2.AudioFrame.SerializeToString,
+            ),
     }
     generic_handler = grpc.method_handlers_generic_handler(
             'sotagrpc.v1.RecordingService', rpc_method_handlers)
@@ -945,6 +1403,33 @@ class RecordingService(object):
             metadata,
             _registered_method=True)
 
+    @staticmethod
+    def StreamRecording(request,
+            target,
+            options=(),
+            channel_credentials=None,
+            call_credentials=None,
+            insecure=False,
+            compression=None,
+            wait_for_ready=None,
+            timeout=None,
+            metadata=None):
+        return grpc.experimental.unary_stream(
+            request,
+            target,
+            '/sotagrpc.v1.RecordingService/StreamRecording',
+            sotagrpc_dot_v1_dot_robotlib__pb2.StreamRecordingRequest.SerializeToString,
+            sotagrpc_dot_v1_dot_robotlib__pb2.AudioFrame.FromString,
+            options,
+            channel_credentials,
+            insecure,
+            call_credentials,
+            compression,
+            wait_for_ready,
+            timeout,
+            metadata,
+            _registered_method=True)
+
 
 class IntelligentMicServiceStub(object):
     """Missing associated documentation comment in .proto file."""
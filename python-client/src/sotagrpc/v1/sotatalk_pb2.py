@@ -25,7 +25,7 @@ _sym_db = _symbol_database.Default()
 from sotagrpc.v1 import common_pb2 as sotagrpc_dot_v1_dot_common__pb2
 
 
-DESCRIPTOR = _descriptor_pool.Default().AddSerializedFile(b'\n\x1asotagrpc/v1/sotatalk.proto\x12\x0bsotagrpc.v1\x1a\x18sotagrpc/v1/common.proto\"F\n\x0cSpeechConfig\x12\x13\n\x0bspeech_rate\x18\x01 \x01(\x05\x12\r\n\x05pitch\x18\x02 \x01(\x05\x12\x12\n\nintonation\x18\x03 \x01(\x05\"Y\n\x0eTTSDataRequest\x12\x0c\n\x04text\x18\x01 \x01(\t\x12.\n\x06\x63onfig\x18\x02 \x01(\x0b\x32\x19.sotagrpc.v1.SpeechConfigH\x00\x88\x01\x01\x42\t\n\x07_config\"(\n\x12GetTTSDataResponse\x12\x12\n\naudio_data\x18\x01 \x01(\x0c\"k\n\x11RecognitionResult\x12\x12\n\nrecognized\x18\x01 \x01(\x08\x12\x14\n\x0c\x62\x61sic_result\x18\x02 \x01(\t\x12,\n\rsentence_list\x18\x03 \x03(\x0b\x32\x15.sotagrpc.v1.Sentence\"?\n\x08Sentence\x12\r\n\x05score\x18\x01 \x01(\x01\x12$\n\tword_list\x18\x02 \x03(\x0b\x32\x11.sotagrpc.v1.Word\"%\n\x04Word\x12\x0e\n\x06labels\x18\x01 \x03(\t\x12\r\n\x05types\x18\x02 \x03(\t\"&\n\x10RecognizeRequest\x12\x12\n\ntimeout_ms\x18\x01 \x01(\x05\"B\n\x17RecognizeYesOrNoRequest\x12\x12\n\ntimeout_ms\x18\x01 \x01(\x05\x12\x13\n\x0bretry_count\x18\x02 \x01(\x05\"D\n\x18RecognizeYesOrNoResponse\x12(\n\x06\x61nswer\x18\x01 \x01(\x0e\x32\x18.sotagrpc.v1.YesNoAnswer\"?\n\x14RecognizeNameRequest\x12\x12\n\ntimeout_ms\x18\x01 \x01(\x05\x12\x13\n\x0bretry_count\x18\x02 \x01(\x05\"%\n\x15RecognizeNameResponse\x12\x0c\n\x04name\x18\x01 \x01(\t\"@\n\x15RecognizeNamesRequest\x12\x12\n\ntimeout_ms\x18\x01 \x01(\x05\x12\x13\n\x0bretry_count\x18\x02 \x01(\x05\"\'\n\x16RecognizeNamesResponse\x12\r\n\x05names\x18\x01 \x03(\t\"J\n\x1fRecognizeGeneralResponseRequest\x12\x12\n\ntimeout_ms\x18\x01 \x01(\x05\x12\x13\n\x0bretry_count\x18\x02 \x01(\x05\"4\n RecognizeGeneralResponseResponse\x12\x10\n\x08response\x18\x01 \x01(\t\"\x97\x01\n\x14SayWithMotionRequest\x12\x0c\n\x04text\x18\x01 \x01(\t\x12,\n\x05scene\x18\x02 \x01(\x0e\x32\x18.sotagrpc.v1.MotionSceneH\x00\x88\x01\x01\x12.\n\x06\x63onfig\x18\x03 \x01(\x0b\x32\x19.sotagrpc.v1.SpeechConfigH\x01\x88\x01\x01\x42\x08\n\x06_sceneB\t\n\x07_config\"\x17\n\x15SayWithMotionResponse\"L\n\x10PlaySceneRequest\x12\'\n\x05scene\x18\x01 \x01(\x0e\x32\x18.sotagrpc.v1.MotionScene\x12\x0f\n\x07time_ms\x18\x02 \x01(\x05\"\x13\n\x11PlaySceneResponse\"\x14\n\x12StartIdlingRequest\"\x15\n\x13StartIdlingResponse\"\x13\n\x11StopIdlingRequest\"\x14\n\x12StopIdlingResponse*6\n\x0bYesNoAnswer\x12\x16\n\x12\x41NSWER_UNSPECIFIED\x10\x00\x12\x07\n\x03YES\x10\x01\x12\x06\n\x02NO\x10\x02*\x93\x01\n\x0bMotionScene\x12\x1c\n\x18MOTION_SCENE_UNSPECIFIED\x10\x00\x12\x08\n\x04TALK\x10\x01\x12\t\n\x05HELLO\x10\x02\x12\x07\n\x03\x42YE\x10\x03\x12\x18\n\x14PRESENTATION_NEUTRAL\x10\x04\x12\x13\n\x0fPRESENTATION_UP\x10\x05\x12\x0f\n\x0bLOW_TENSION\x10\x06\x12\x08\n\x04\x43\x41LL\x10\x07\x32\xa3\x01\n\x13TextToSpeechService\x12J\n\nGetTTSData\x12\x1b.sotagrpc.v1.TTSDataRequest\x1a\x1f.sotagrpc.v1.GetTTSDataResponse\x12@\n\x03say\x12\x1b.sotagrpc.v1.TTSDataRequest\x1a\x1c.sotagrpc.v1.SuccessResponse2\xf3\x03\n\x18SpeechRecognitionService\x12J\n\tRecognize\x12\x1d.sotagrpc.v1.RecognizeRequest\x1a\x1e.sotagrpc.v1.RecognitionResult\x12_\n\x10RecognizeYesOrNo\x12$.sotagrpc.v1.RecognizeYesOrNoRequest\x1a%.sotagrpc.v1.RecognizeYesOrNoResponse\x12V\n\rRecognizeName\x12!.sotagrpc.v1.RecognizeNameRequest\x1a\".sotagrpc.v1.RecognizeNameResponse\x12Y\n\x0eRecognizeNames\x12\".sotagrpc.v1.RecognizeNamesRequest\x1a#.sotagrpc.v1.RecognizeNamesResponse\x12w\n\x18RecognizeGeneralResponse\x12,.sotagrpc.v1.RecognizeGeneralResponseRequest\x1a-.sotagrpc.v1.RecognizeGeneralResponseResponse2\xde\x02\n\x17MotionAsSotaWishService\x12V\n\rSayWithMotion\x12!.sotagrpc.v1.SayWithMotionRequest\x1a\".sotagrpc.v1.SayWithMotionResponse\x12J\n\tPlayScene\x12\x1d.sotagrpc.v1.PlaySceneRequest\x1a\x1e.sotagrpc.v1.PlaySceneResponse\x12P\n\x0bStartIdling\x12\x1f.sotagrpc.v1.StartIdlingRequest\x1a .sotagrpc.v1.StartIdlingResponse\x12M\n\nStopIdling\x12\x1e.sotagrpc.v1.StopIdlingRequest\x1a\x1f.sotagrpc.v1.StopIdlingResponseB#\n\x1fnet.keimag.sotagrpc.v1.sotatalkP\x01\x62\x06proto3')
+DESCRIPTOR = _descriptor_pool.Default().AddSerializedFile(b'\n\x1asotagrpc/v1/sotatalk.proto\x12\x0bsotagrpc.v1\x1a\x18sotagrpc/v1/common.proto\"F\n\x0cSpeechConfig\x12\x13\n\x0bspeech_rate\x18\x01 \x01(\x05\x12\r\n\x05pitch\x18\x02 \x01(\x05\x12\x12\n\nintonation\x18\x03 \x01(\x05\"Y\n\x0eTTSDataRequest\x12\x0c\n\x04text\x18\x01 \x01(\t\x12.\n\x06\x63onfig\x18\x02 \x01(\x0b\x32\x19.sotagrpc.v1.SpeechConfigH\x00\x88\x01\x01\x42\t\n\x07_config\"(\n\x12GetTTSDataResponse\x12\x12\n\naudio_data\x18\x01 \x01(\x0c\"N\n\x0cTTSDataChunk\x12\r\n\x05index\x18\x01 \x01(\x05\x12\r\n\x05total\x18\x02 \x01(\x05\x12\x0c\n\x04text\x18\x03 \x01(\t\x12\x12\n\naudio_data\x18\x04 \x01(\x0c\"B\n\x11PrewarmTTSRequest\x12-\n\x08requests\x18\x01 \x03(\x0b\x32\x1b.sotagrpc.v1.TTSDataRequest\"|\n\x12PrewarmTTSProgress\x12\r\n\x05index\x18\x01 \x01(\x05\x12\x0f\n\x07success\x18\x02 \x01(\x08\x12\x0e\n\x06\x63\x61\x63hed\x18\x03 \x01(\x08\x12\x14\n\x0csynthesis_ms\x18\x04 \x01(\x03\x12\x11\n\tcompleted\x18\x05 \x01(\x05\x12\r\n\x05total\x18\x06 \x01(\x05\"k\n\x11RecognitionResult\x12\x12\n\nrecognized\x18\x01 \x01(\x08\x12\x14\n\x0c\x62\x61sic_result\x18\x02 \x01(\t\x12,\n\rsentence_list\x18\x03 \x03(\x0b\x32\x15.sotagrpc.v1.Sentence\"?\n\x08Sentence\x12\r\n\x05score\x18\x01 \x01(\x01\x12$\n\tword_list\x18\x02 \x03(\x0b\x32\x11.sotagrpc.v1.Word\"%\n\x04Word\x12\x0e\n\x06labels\x18\x01 \x03(\t\x12\r\n\x05types\x18\x02 \x03(\t\"&\n\x10RecognizeRequest\x12\x12\n\ntimeout_ms\x18\x01 \x01(\x05\"B\n\x17RecognizeYesOrNoRequest\x12\x12\n\ntimeout_ms\x18\x01 \x01(\x05\x12\x13\n\x0bretry_count\x18\x02 \x01(\x05\"D\n\x18RecognizeYesOrNoResponse\x12(\n\x06\x61nswer\x18\x01 \x01(\x0e\x32\x18.sotagrpc.v1.YesNoAnswer\"?\n\x14RecognizeNameRequest\x12\x12\n\ntimeout_ms\x18\x01 \x01(\x05\x12\x13\n\x0bretry_count\x18\x02 \x01(\x05\"%\n\x15RecognizeNameResponse\x12\x0c\n\x04name\x18\x01 \x01(\t\"@\n\x15RecognizeNamesRequest\x12\x12\n\ntimeout_ms\x18\x01 \x01(\x05\x12\x13\n\x0bretry_count\x18\x02 \x01(\x05\"\'\n\x16RecognizeNamesResponse\x12\r\n\x05names\x18\x01 \x03(\t\"J\n\x1fRecognizeGeneralResponseRequest\x12\x12\n\ntimeout_ms\x18\x01 \x01(\x05\x12\x13\n\x0bretry_count\x18\x02 \x01(\x05\"4\n RecognizeGeneralResponseResponse\x12\x10\n\x08response\x18\x01 \x01(\t\"\x97\x01\n\x14SayWithMotionRequest\x12\x0c\n\x04text\x18\x01 \x01(\t\x12,\n\x05scene\x18\x02 \x01(\x0e\x32\x18.sotagrpc.v1.MotionSceneH\x00\x88\x01\x01\x12.\n\x06\x63onfig\x18\x03 \x01(\x0b\x32\x19.sotagrpc.v1.SpeechConfigH\x01\x88\x01\x01\x42\x08\n\x06_sceneB\t\n\x07_config\"\x17\n\x15SayWithMotionResponse\"L\n\x10PlaySceneRequest\x12\'\n\x05scene\x18\x01 \x01(\x0e\x32\x18.sotagrpc.v1.MotionScene\x12\x0f\n\x07time_ms\x18\x02 \x01(\x05\"\x13\n\x11PlaySceneResponse\"\x14\n\x12StartIdlingRequest\"\x15\n\x13StartIdlingResponse\"\x13\n\x11StopIdlingRequest\"\x14\n\x12StopIdlingResponse*6\n\x0bYesNoAnswer\x12\x16\n\x12\x41NSWER_UNSPECIFIED\x10\x00\x12\x07\n\x03YES\x10\x01\x12\x06\n\x02NO\x10\x02*\x93\x01\n\x0bMotionScene\x12\x1c\n\x18MOTION_SCENE_UNSPECIFIED\x10\x00\x12\x08\n\x04TALK\x10\x01\x12\t\n\x05HELLO\x10\x02\x12\x07\n\x03\x42YE\x10\x03\x12\x18\n\x14PRESENTATION_NEUTRAL\x10\x04\x12\x13\n\x0fPRESENTATION_UP\x10\x05\x12\x0f\n\x0bLOW_TENSION\x10\x06\x12\x08\n\x04\x43\x41LL\x10\x07\x32\xbf\x02\n\x13TextToSpeechService\x12J\n\nGetTTSData\x12\x1b.sotagrpc.v1.TTSDataRequest\x1a\x1f.sotagrpc.v1.GetTTSDataResponse\x12I\n\rStreamTTSData\x12\x1b.sotagrpc.v1.TTSDataRequest\x1a\x19.sotagrpc.v1.TTSDataChunk0\x01\x12@\n\x03say\x12\x1b.sotagrpc.v1.TTSDataRequest\x1a\x1c.sotagrpc.v1.SuccessResponse\x12O\n\nPrewarmTTS\x12\x1e.sotagrpc.v1.PrewarmTTSRequest\x1a\x1f.sotagrpc.v1.PrewarmTTSProgress0\x01\x32\xf3\x03\n\x18SpeechRecognitionService\x12J\n\tRecognize\x12\x1d.sotagrpc.v1.RecognizeRequest\x1a\x1e.sotagrpc.v1.RecognitionResult\x12_\n\x10RecognizeYesOrNo\x12$.sotagrpc.v1.RecognizeYesOrNoRequest\x1a%.sotagrpc.v1.RecognizeYesOrNoResponse\x12V\n\rRecognizeName\x12!.sotagrpc.v1.RecognizeNameRequest\x1a\".sotagrpc.v1.RecognizeNameResponse\x12Y\n\x0eRecognizeNames\x12\".sotagrpc.v1.RecognizeNamesRequest\x1a#.sotagrpc.v1.RecognizeNamesResponse\x12w\n\x18RecognizeGeneralResponse\x12,.sotagrpc.v1.RecognizeGeneralResponseRequest\x1a-.sotagrpc.v1.RecognizeGeneralResponseResponse2\xde\x02\n\x17MotionAsSotaWishService\x12V\n\rSayWithMotion\x12!.sotagrpc.v1.SayWithMotionRequest\x1a\".sotagrpc.v1.SayWithMotionResponse\x12J\n\tPlayScene\x12\x1d.sotagrpc.v1.PlaySceneRequest\x1a\x1e.sotagrpc.v1.PlaySceneResponse\x12P\n\x0bStartIdling\x12\x1f.sotagrpc.v1.StartIdlingRequest\x1a .sotagrpc.v1.StartIdlingResponse\x12M\n\nStopIdling\x12\x1e.sotagrpc.v1.StopIdlingRequest\x1a\x1f.sotagrpc.v1.StopIdlingResponseB#\n\x1fnet.keimag.sotagrpc.v1.sotatalkP\x01\x62\x06proto3')
 
 _globals = globals()
 _builder.BuildMessageAndEnumDescriptors(DESCRIPTOR, _globals)
@@ -33,60 +33,66 @@ _builder.BuildTopDescriptorsAndMessages(DESCRIPTOR, 'sotagrpc.v1.sotatalk_pb2',
 if not _descriptor._USE_C_DESCRIPTORS:
   _globals['DESCRIPTOR']._loaded_options = None
   _globals['DESCRIPTOR']._serialized_options = b'\n\037net.keimag.sotagrpc.v1.sotatalkP\001'
-  _globals['_YESNOANSWER']._serialized_start=1372
-  _globals['_YESNOANSWER']._serialized_end=1426
-  _globals['_MOTIONSCENE']._serialized_start=1429
-  _globals['_MOTIONSCENE']._serialized_end=1576
+  _globals['_YESNOANSWER']._serialized_start=1646
+  _globals['_YESNOANSWER']._serialized_end=1700
+  _globals['_MOTIONSCENE']._serialized_start=1703
+  _globals['_MOTIONSCENE']._serialized_end=1850
   _globals['_SPEECHCONFIG']._serialized_start=69
   _globals['_SPEECHCONFIG']._serialized_end=139
   _globals['_TTSDATAREQUEST']._serialized_start=141
   _globals['_TTSDATAREQUEST']._serialized_end=230
   _globals['_GETTTSDATARESPONSE']._serialized_start=232
   _globals['_GETTTSDATARESPONSE']._serialized_end=272
-  _globals['_RECOGNITIONRESULT']._serialized_start=274
-  _globals['_RECOGNITIONRESULT']._serialized_end=381
-  _globals['_SENTENCE']._serialized_start=383
-  _globals['_SENTENCE']._serialized_end=446
-  _globals['_WORD']._serialized_start=448
-  _globals['_WORD']._serialized_end=485
-  _globals['_RECOGNIZEREQUEST']._serialized_start=487
-  _globals['_RECOGNIZEREQUEST']._serialized_end=525
-  _globals['_RECOGNIZEYESORNOREQUEST']._serialized_start=527
-  _globals['_RECOGNIZEYESORNOREQUEST']._serialized_end=593
-  _globals['_RECOGNIZEYESORNORESPONSE']._serialized_start=595
-  _globals['_RECOGNIZEYESORNORESPONSE']._serialized_end=663
-  _globals['_RECOGNIZENAMEREQUEST']._serialized_start=665
-  _globals['_RECOGNIZENAMEREQUEST']._serialized_end=728
-  _globals['_RECOGNIZENAMERESPONSE']._serialized_start=730
-  _globals['_RECOGNIZENAMERESPONSE']._serialized_end=767
-  _globals['_RECOGNIZENAMESREQUEST']._serialized_start=769
-  _globals['_RECOGNIZENAMESREQUEST']._serialized_end=833
-  _globals['_RECOGNIZENAMESRESPONSE']._serialized_start=835
-  _globals['_RECOGNIZENAMESRESPONSE']._serialized_end=874
-  _globals['_RECOGNIZEGENERALRESPONSEREQUEST']._serialized_start=876
-  _globals['_RECOGNIZEGENERALRESPONSEREQUEST']._serialized_end=950
-  _globals['_RECOGNIZEGENERALRESPONSERESPONSE']._serialized_start=952
-  _globals['_RECOGNIZEGENERALRESPONSERESPONSE']._serialized_end=1004
-  _globals['_SAYWITHMOTIONREQUEST']._serialized_start=1007
-  _globals['_SAYWITHMOTIONREQUEST']._serialized_end=1158
-  _globals['_SAYWITHMOTIONRESPONSE']._serialized_start=1160
-  _globals['_SAYWITHMOTIONRESPONSE']._serialized_end=1183
-  _globals['_PLAYSCENEREQUEST']._serialized_start=1185
-  _globals['_PLAYSCENEREQUEST']._serialized_end=1261
-  _globals['_PLAYSCENERESPONSE']._serialized_start=1263
-  _globals['_PLAYSCENERESPONSE']._serialized_end=1282
-  _globals['_STARTIDLINGREQUEST']._serialized_start=1284
-  _globals['_STARTIDLINGREQUEST']._serialized_end=1304
-  _globals['_STARTIDLINGRESPONSE']._serialized_start=1306
-  _globals['_STARTIDLINGRESPONSE']._serialized_end=1327
-  _globals['_STOPIDLINGREQUEST']._serialized_start=1329
-  _globals['_STOPIDLINGREQUEST']._serialized_end=1348
-  _globals['_STOPIDLINGRESPONSE']._serialized_start=1350
-  _globals['_STOPIDLINGRESPONSE']._serialized_end=1370
-  _globals['_TEXTTOSPEECHSERVICE']._serialized_start=1579
-  _globals['_TEXTTOSPEECHSERVICE']._serialized_end=1742
-  _globals['_SPEECHRECOGNITIONSERVICE']._serialized_start=1745
-  _globals['_SPEECHRECOGNITIONSERVICE']._serialized_end=2244
-  _globals['_MOTIONASSOTAWISHSERVICE']._serialized_start=2247
-  _globals['_MOTIONASSOTAWISHSERVICE']._serialized_end=2597
+  _globals['_TTSDATACHUNK']._serialized_start=274
+  _globals['_TTSDATACHUNK']._serialized_end=352
+  _globals['_PREWARMTTSREQUEST']._serialized_start=354
+  _globals['_PREWARMTTSREQUEST']._serialized_end=420
+  _globals['_PREWARMTTSPROGRESS']._serialized_start=422
+  _globals['_PREWARMTTSPROGRESS']._serialized_end=546
+  _globals['_RECOGNITIONRESULT']._serialized_start=548
+  _globals['_RECOGNITIONRESULT']._serialized_end=655
+  _globals['_SENTENCE']._serialized_start=657
+  _globals['_SENTENCE']._serialized_end=720
+  _globals['_WORD']._serialized_start=722
+  _globals['_WORD']._serialized_end=759
+  _globals['_RECOGNIZEREQUEST']._serialized_start=761
+  _globals['_RECOGNIZEREQUEST']._serialized_end=799
+  _globals['_RECOGNIZEYESORNOREQUEST']._serialized_start=801
+  _globals['_RECOGNIZEYESORNOREQUEST']._serialized_end=867
+  _globals['_RECOGNIZEYESORNORESPONSE']._serialized_start=869
+  _globals['_RECOGNIZEYESORNORESPONSE']._serialized_end=937
+  _globals['_RECOGNIZENAMEREQUEST']._serialized_start=939
+  _globals['_RECOGNIZENAMEREQUEST']._serialized_end=1002
+  _globals['_RECOGNIZENAMERESPONSE']._serialized_start=1004
+  _globals['_RECOGNIZENAMERESPONSE']._serialized_end=1041
+  _globals['_RECOGNIZENAMESREQUEST']._serialized_start=1043
+  _globals['_RECOGNIZENAMESREQUEST']._serialized_end=1107
+  _globals['_RECOGNIZENAMESRESPONSE']._serialized_start=1109
+  _globals['_RECOGNIZENAMESRESPONSE']._serialized_end=1148
+  _globals['_RECOGNIZEGENERALRESPONSEREQUEST']._serialized_start=1150
+  _globals['_RECOGNIZEGENERALRESPONSEREQUEST']._serialized_end=1224
+  _globals['_RECOGNIZEGENERALRESPONSERESPONSE']._serialized_start=1226
+  _globals['_RECOGNIZEGENERALRESPONSERESPONSE']._serialized_end=1278
+  _globals['_SAYWITHMOTIONREQUEST']._serialized_start=1281
+  _globals['_SAYWITHMOTIONREQUEST']._serialized_end=1432
+  _globals['_SAYWITHMOTIONRESPONSE']._serialized_start=1434
+  _globals['_SAYWITHMOTIONRESPONSE']._serialized_end=1457
+  _globals['_PLAYSCENEREQUEST']._serialized_start=1459
+  _globals['_PLAYSCENEREQUEST']._serialized_end=1535
+  _globals['_PLAYSCENERESPONSE']._serialized_start=1537
+  _globals['_PLAYSCENERESPONSE']._serialized_end=1556
+  _globals['_STARTIDLINGREQUEST']._serialized_start=1558
+  _globals['_STARTIDLINGREQUEST']._serialized_end=1578
+  _globals['_STARTIDLINGRESPONSE']._serialized_start=1580
+  _globals['_STARTIDLINGRESPONSE']._serialized_end=1601
+  _globals['_STOPIDLINGREQUEST']._serialized_start=1603
+  _globals['_STOPIDLINGREQUEST']._serialized_end=1622
+  _globals['_STOPIDLINGRESPONSE']._serialized_start=1624
+  _globals['_STOPIDLINGRESPONSE']._serialized_end=1644
+  _globals['_TEXTTOSPEECHSERVICE']._serialized_start=1853
+  _globals['_TEXTTOSPEECHSERVICE']._serialized_end=2172
+  _globals['_SPEECHRECOGNITIONSERVICE']._serialized_start=2175
+  _globals['_SPEECHRECOGNITIONSERVICE']._serialized_end=2674
+  _globals['_MOTIONASSOTAWISHSERVICE']._serialized_start=2677
+  _globals['_MOTIONASSOTAWISHSERVICE']._serialized_end=3027
 # @@protoc_insertion_point(module_scope)
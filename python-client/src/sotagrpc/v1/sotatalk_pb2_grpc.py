@@ -45,11 +45,21 @@ class TextToSpeechServiceStub(object):
                 request_serializer=sotagrpc_dot_v1_dot_sotatalk__pb2.TTSDataRequest.SerializeToString,
                 response_deserializer=sotagrpc_dot_v1_dot_sotatalk__pb2.GetTTSDataResponse.FromString,
                 _registered_method=True)
+        self.StreamTTSData = channel.unary_stream(
+                '/sotagrpc.v1.TextToSpeechService/StreamTTSData',
+                request_serializer=sotagrpc_dot_v1_dot_sotatalk__pb2.TTSDataRequest.SerializeToString,
+                response_deserializer=sotagrpc_dot_v1_dot_sotatalk__pb2.TTSDataChunk.FromString,
+                _registered_method=True)
         self.say = channel.unary_unary(
                 '/sotagrpc.v1.TextToSpeechService/say',
                 request_serializer=sotagrpc_dot_v1_dot_sotatalk__pb2.TTSDataRequest.SerializeToString,
                 response_deserializer=sotagrpc_dot_v1_dot_common__pb2.SuccessResponse.FromString,
                 _registered_method=True)
+        self.PrewarmTTS = channel.unary_stream(
+                '/sotagrpc.v1.TextToSpeechService/PrewarmTTS',
+                request_serializer=sotagrpc_dot_v1_dot_sotatalk__pb2.PrewarmTTSRequest.SerializeToString,
+                response_deserializer=sotagrpc_dot_v1_dot_sotatalk__pb2.PrewarmTTSProgress.FromString,
+                _registered_method=True)
 
 
 class TextToSpeechServiceServicer(object):
@@ -67,12 +77,27 @@ class TextToSpeechServiceServicer(object):
         context.set_details('Method not implemented!')
         raise NotImplementedError('Method not implemented!')
 
+    def StreamTTSData(self, request, context):
+        """テキストを文ごとに音声データに変換し、合成できた文から順に返す (長いテキストでもすぐに再生を始められる)
+        """
+        context.set_code(grpc.StatusCode.UNIMPLEMENTED)
+        context.set_details('Method not implemented!')
+        raise NotImplementedError('Method not implemented!')
+
     def say(self, request, context):
         """Missing associated documentation comment in .proto file."""
         context.set_code(grpc.StatusCode.UNIMPLEMENTED)
         context.set_details('Method not implemented!')
         raise NotImplementedError('Method not implemented!')
 
+    def PrewarmTTS(self, request, context):
+        """発話する予定のテキストをまとめて合成しておく (結果はサーバーに保持され、GetTTSDataなどで即座に使われる)
+        1件合成するごとに進捗を返す
+        """
+        context.set_code(grpc.StatusCode.UNIMPLEMENTED)
+        context.set_details('Method not implemented!')
+        raise NotImplementedError('Method not implemented!')
+
 
 def add_TextToSpeechServiceServicer_to_server(servicer, server):
     rpc_method_handlers = {
@@ -81,11 +106,21 @@ def add_TextToSpeechServiceServicer_to_server(servicer, server):
                     request_deserializer=sotagrpc_dot_v1_dot_sotatalk__pb2.TTSDataRequest.FromString,
                     response_serializer=sotagrpc_dot_v1_dot_sotatalk__pb2.GetTTSDataResponse.SerializeToString,
             ),
+            'StreamTTSData': grpc.unary_stream_rpc_method_handler(
+                    servicer.StreamTTSData,
+                    request_deserializer=sotagrpc_dot_v1_dot_sotatalk__pb2.TTSDataRequest.FromString,
+                    response_serializer=sotagrpc_dot_v1_dot_sotatalk__pb2.TTSDataChunk.SerializeToString,
+            ),
             'say': grpc.unary_unary_rpc_method_handler(
                     servicer.say,
                     request_deserializer=sotagrpc_dot_v1_dot_sotatalk__pb2.TTSDataRequest.FromString,
                     response_serializer=sotagrpc_dot_v1_dot_common__pb2.SuccessResponse.SerializeToString,
             ),
+            'PrewarmTTS': grpc.unary_stream_rpc_method_handler(
+                    servicer.PrewarmTTS,
+                    request_deserializer=sotagrpc_dot_v1_dot_sotatalk__pb2.PrewarmTTSRequest.FromString,
+                    response_serializer=sotagrpc_dot_v1_dot_sotatalk__pb2.PrewarmTTSProgress.SerializeToString,
+            ),
     }
     generic_handler = grpc.method_handlers_generic_handler(
             'sotagrpc.v1.TextToSpeechService', rpc_method_handlers)
@@ -129,6 +164,33 @@ class TextToSpeechService(object):
             metadata,
             _registered_method=True)
 
+    @staticmethod
+    def StreamTTSData(request,
+            target,
+            options=(),
+            channel_credentials=None,
+            call_credentials=None,
+            insecure=False,
+            compression=None,
+            wait_for_ready=None,
+            timeout=None,
+            metadata=None):
+        return grpc.experimental.unary_stream(
+            request,
+            target,
+            '/sotagrpc.v1.TextToSpeechService/StreamTTSData',
+            sotagrpc_dot_v1_dot_sotatalk__pb2.TTSDataRequest.SerializeToString,
+            sotagrpc_dot_v1_dot_sotatalk__pb2.TTSDataChunk.FromString,
+            options,
+            channel_credentials,
+            insecure,
+            call_credentials,
+            compression,
+            wait_for_ready,
+            timeout,
+            metadata,
+            _registered_method=True)
+
     @staticmethod
     def say(request,
             target,
@@ -156,6 +218,33 @@ class TextToSpeechService(object):
             metadata,
             _registered_method=True)
 
+    @staticmethod
+    def PrewarmTTS(request,
+            target,
+            options=(),
+            channel_credentials=None,
+            call_credentials=None,
+            insecure=False,
+            compression=None,
+            wait_for_ready=None,
+            timeout=None,
+            metadata=None):
+        return grpc.experimental.unary_stream(
+            request,
+            target,
+            '/sotagrpc.v1.TextToSpeechService/PrewarmTTS',
+            sotagrpc_dot_v1_dot_sotatalk__pb2.PrewarmTTSRequest.SerializeToString,
+            sotagrpc_dot_v1_dot_sotatalk__pb2.PrewarmTTSProgress.FromString,
+            options,
+            channel_credentials,
+            insecure,
+            call_credentials,
+            compression,
+            wait_for_ready,
+            timeout,
+            metadata,
+            _registered_method=True)
+
 
 class SpeechRecognitionServiceStub(object):
     """SpeechRecog の機能を提供